@@ -0,0 +1,226 @@
+/*************************************************************************************************
+ * Asynchronous file adapter
+ *
+ * Copyright 2020 Google LLC
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a copy of the License at
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific language governing permissions
+ * and limitations under the License.
+ *************************************************************************************************/
+
+package tkrzw;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Asynchronous file adapter.
+ * @note This class is a wrapper of File for asynchronous operations.  A task queue with a thread
+ * pool is used inside.  Every method except for the constructor and the destructor is run by a
+ * thread in the thread pool and the result is set in the future oject of the return value.  The
+ * caller can ignore the future object if it is not necessary.  The destruct method waits for all
+ * tasks to be done.  Therefore, the destructor should be called before the file is closed.
+ */
+public class AsyncFile {
+  static {
+    Utility.loadLibrary();
+  }
+
+  /**
+   * Constructor.
+   * @param file A file object which has been opened.
+   * @param numWorkerThreads The number of threads in the internal thread pool.
+   */
+  public AsyncFile(File file, int numWorkerThreads) {
+    initialize(file, numWorkerThreads);
+  }
+
+  /**
+   * Initializes the object.
+   * @param file A file object which has been opened.
+   * @param num_worker_threads The number of threads in the internal thread pool.
+   */
+  private native void initialize(File file, int numWorkerThreads);
+
+  /**
+   * Destructs the object and releases resources.
+   * @note This method waits for all tasks to be done.
+   */
+  public native void destruct();
+
+  /**
+   * Reads data.
+   * @param off The offset of a source region.
+   * @param size The size to be read, up to Integer.MAX_VALUE.
+   * @return The future for the status and the read data.
+   */
+  public native Future<Status.And<byte[]>> read(long off, long size);
+
+  /**
+   * Reads data, as a string.
+   * @param off The offset of a source region.
+   * @param size The size to be read, up to Integer.MAX_VALUE.
+   * @return The future for the status and the read data.
+   */
+  public native Future<Status.And<String>> readString(long off, long size);
+
+  /**
+   * Reads data into a direct byte buffer.
+   * @param off The offset of a source region.
+   * @param buf The destination buffer, which must be direct.
+   * @param buf_off The index in the buffer where the data is stored.  The position of the buffer
+   * is ignored and not changed.
+   * @param size The size to be read.
+   * @return The future for the result status.
+   * @note The data is read into the memory of the buffer without copying.  The buffer is
+   * referred to by the native code until the operation is done.
+   */
+  public Future<Status> read(long off, ByteBuffer buf, int buf_off, int size) {
+    checkDirectBuffer(buf, buf_off, size);
+    if (buf.isReadOnly()) {
+      throw new ReadOnlyBufferException();
+    }
+    return readDirect(off, buf, buf_off, size);
+  }
+
+  /**
+   * Writes data.
+   * @param off The offset of the destination region.
+   * @param data The data to write.
+   * @return The future for the result status.
+   * @note The data is copied when this method is called.
+   */
+  public native Future<Status> write(long off, byte[] data);
+
+  /**
+   * Writes a string.
+   * @param off The offset of the destination region.
+   * @param data The data to write.
+   * @return The future for the result status.
+   */
+  public Future<Status> write(long off, String data) {
+    return write(off, data.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Writes data from a direct byte buffer.
+   * @param off The offset of the destination region.
+   * @param buf The source buffer, which must be direct.
+   * @param buf_off The index in the buffer where the data is taken.  The position of the buffer
+   * is ignored and not changed.
+   * @param size The size to be written.
+   * @return The future for the result status.
+   * @note The data is written from the memory of the buffer without copying.  The buffer is
+   * referred to by the native code until the operation is done.  It must not be modified
+   * until then.
+   */
+  public Future<Status> write(long off, ByteBuffer buf, int buf_off, int size) {
+    checkDirectBuffer(buf, buf_off, size);
+    return writeDirect(off, buf, buf_off, size);
+  }
+
+  /**
+   * Appends data at the end of the file.
+   * @param data The data to write.
+   * @return The future for the status and the offset at which the data has been put.
+   * @note The data is copied when this method is called.
+   */
+  public native Future<Status.And<Long>> append(byte[] data);
+
+  /**
+   * Appends a string at the end of the file.
+   * @param data The data to write.
+   * @return The future for the status and the offset at which the data has been put.
+   */
+  public Future<Status.And<Long>> append(String data) {
+    return append(data.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Appends data of a direct byte buffer at the end of the file.
+   * @param buf The source buffer, which must be direct.
+   * @param buf_off The index in the buffer where the data is taken.  The position of the buffer
+   * is ignored and not changed.
+   * @param size The size to be written.
+   * @return The future for the status and the offset at which the data has been put.
+   * @note The data is written from the memory of the buffer without copying.  The buffer is
+   * referred to by the native code until the operation is done.  It must not be modified
+   * until then.
+   */
+  public Future<Status.And<Long>> append(ByteBuffer buf, int buf_off, int size) {
+    checkDirectBuffer(buf, buf_off, size);
+    return appendDirect(buf, buf_off, size);
+  }
+
+  /**
+   * Truncates the file.
+   * @param size The new size of the file.
+   * @return The future for the result status.
+   */
+  public native Future<Status> truncate(long size);
+
+  /**
+   * Synchronizes the content of the file to the file system.
+   * @param hard True to do physical synchronization with the hardware or false to do only
+   * logical synchronization with the file system.
+   * @param off The offset of the region to be synchronized.
+   * @param size The size of the region to be synchronized.  If it is zero, the length to the
+   * end of file is specified.
+   * @return The future for the result status.
+   */
+  public native Future<Status> synchronize(boolean hard, long off, long size);
+
+  /**
+   * Synchronizes the entire content of the file to the file system.
+   * @param hard True to do physical synchronization with the hardware or false to do only
+   * logical synchronization with the file system.
+   * @return The future for the result status.
+   */
+  public Future<Status> synchronize(boolean hard) {
+    return synchronize(hard, 0, 0);
+  }
+
+  /**
+   * Gets a string representation of the file.
+   */
+  public native String toString();
+
+  /**
+   * Reads data into the memory of a direct buffer.
+   */
+  private native Future<Status> readDirect(long off, ByteBuffer buf, int buf_off, int size);
+
+  /**
+   * Writes data from the memory of a direct buffer.
+   */
+  private native Future<Status> writeDirect(long off, ByteBuffer buf, int buf_off, int size);
+
+  /**
+   * Appends data from the memory of a direct buffer.
+   */
+  private native Future<Status.And<Long>> appendDirect(ByteBuffer buf, int buf_off, int size);
+
+  /**
+   * Checks whether a buffer is direct and a region is within its limit.
+   */
+  private static void checkDirectBuffer(ByteBuffer buf, int buf_off, int size) {
+    if (buf == null) {
+      throw new NullPointerException();
+    }
+    if (!buf.isDirect()) {
+      throw new IllegalArgumentException("not direct buffer");
+    }
+    if (buf_off < 0 || size < 0 || buf_off > buf.limit() - size) {
+      throw new IllegalArgumentException("invalid size");
+    }
+  }
+
+  /** The pointer to the native object */
+  private long ptr_ = 0;
+}
+
+// END OF FILE
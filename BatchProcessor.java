@@ -0,0 +1,30 @@
+/*************************************************************************************************
+ * Batch processor interface
+ *
+ * Copyright 2020 Google LLC
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a copy of the License at
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific language governing permissions
+ * and limitations under the License.
+ *************************************************************************************************/
+
+package tkrzw;
+
+/**
+ * Interface of processor for a batch of records.
+ * @note The native code buffers records and calls the processor once for each batch.  The
+ * records cannot be modified through the processor.
+ */
+public interface BatchProcessor {
+  /**
+   * Processes a batch of records.
+   * @param keys The keys of the records.
+   * @param values The values of the records, in the same order as the keys.
+   */
+  public void process(byte[][] keys, byte[][] values);
+}
+
+// END OF FILE
@@ -0,0 +1,1074 @@
+/*************************************************************************************************
+ * Database manager with an on-heap read cache
+ *
+ * Copyright 2020 Google LLC
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a copy of the License at
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific language governing permissions
+ * and limitations under the License.
+ *************************************************************************************************/
+
+package tkrzw;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Database manager with an on-heap read cache.
+ * @note Values read by "get" and "getMulti" are cached on the Java heap, so reads of hot
+ * records don't call the native code.  The cache is bounded by the total size of the keys and
+ * the values.  It follows the W-TinyLFU policy: a new record enters a small LRU window and a
+ * record evicted from the window is admitted to the main area only if its access frequency,
+ * estimated by a count-min sketch, is higher than the one of the record to be evicted from the
+ * main area.  The main area is a segmented LRU of the probation and the protected segments.
+ * A large cache is split by the key hash into up to 16 independent segments, each of which has
+ * its own lock, LRU lists, and sketch, so that concurrent reads of different keys rarely
+ * contend.  The sketch has four rows of 4-bit counters, one counter per 64 bytes of capacity in
+ * each row, so it takes about 1/32 of the capacity at most.  Every update done via this object
+ * invalidates the cached records which it can modify.  Updates done directly on the database
+ * must be followed by "invalidate" or "invalidateAll".  All operations are thread-safe.
+ */
+public class CachingDBM {
+  /**
+   * Constructor.
+   * @param dbm The database, which has been opened.
+   * @param capacity The maximum total size in bytes of the keys and the values in the cache.
+   */
+  public CachingDBM(DBM dbm, long capacity) {
+    if (dbm == null) {
+      throw new NullPointerException();
+    }
+    if (capacity < 1) {
+      throw new IllegalArgumentException("invalid capacity");
+    }
+    dbm_ = dbm;
+    capacity_ = capacity;
+    int num_segments = 1;
+    while (num_segments < MAX_SEGMENTS &&
+           capacity / (num_segments * 2) >= MIN_SEGMENT_CAPACITY) {
+      num_segments *= 2;
+    }
+    segments_ = new Segment[num_segments];
+    for (int i = 0; i < num_segments; i++) {
+      segments_[i] = new Segment(capacity / num_segments);
+    }
+    segment_shift_ = 32 - Integer.numberOfTrailingZeros(num_segments);
+  }
+
+  /**
+   * Gets the database.
+   * @return The database given to the constructor.
+   */
+  public DBM getDBM() {
+    return dbm_;
+  }
+
+  /**
+   * Gets the value of a record of a key.
+   * @param key The key of the record.
+   * @return The value data of the record or null on failure.
+   * @note If the record is cached, the database is not accessed.  Otherwise, the value read
+   * from the database is given to the cache.
+   */
+  public byte[] get(byte[] key) {
+    if (key == null) {
+      throw new NullPointerException();
+    }
+    ByteBuffer cache_key = ByteBuffer.wrap(key);
+    Segment segment = getSegment(cache_key);
+    long version;
+    synchronized (segment) {
+      byte[] value = segment.lookup(cache_key);
+      if (value != null) {
+        return value.clone();
+      }
+      version = segment.getVersion(cache_key);
+    }
+    byte[] value = dbm_.get(key);
+    if (value != null) {
+      synchronized (segment) {
+        if (segment.getVersion(cache_key) == version) {
+          segment.insert(ByteBuffer.wrap(key.clone()), value.clone());
+        }
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Gets the value of a record of a key, with string data.
+   * @param key The key of the record.
+   * @return The value string of the record or null on failure.
+   */
+  public String get(String key) {
+    byte[] value = get(key.getBytes(StandardCharsets.UTF_8));
+    return value == null ? null : new String(value, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Gets the values of multiple records of keys.
+   * @param keys The keys of records to retrieve.
+   * @return A map of retrieved records.  Keys which don't match existing records are ignored.
+   * @note Only the records which are not cached are read from the database, in one call.
+   */
+  public Map<byte[], byte[]> getMulti(byte[][] keys) {
+    Map<byte[], byte[]> records = new IdentityHashMap<byte[], byte[]>();
+    List<byte[]> missing_keys = new ArrayList<byte[]>();
+    long[] versions = new long[keys.length];
+    for (byte[] key : keys) {
+      ByteBuffer cache_key = ByteBuffer.wrap(key);
+      Segment segment = getSegment(cache_key);
+      synchronized (segment) {
+        byte[] value = segment.lookup(cache_key);
+        if (value != null) {
+          records.put(key, value.clone());
+        } else {
+          versions[missing_keys.size()] = segment.getVersion(cache_key);
+          missing_keys.add(key);
+        }
+      }
+    }
+    if (missing_keys.isEmpty()) {
+      return records;
+    }
+    Map<byte[], byte[]> db_records = dbm_.getMulti(missing_keys.toArray(new byte[0][]));
+    Map<ByteBuffer, byte[]> found = new HashMap<ByteBuffer, byte[]>();
+    for (Map.Entry<byte[], byte[]> record : db_records.entrySet()) {
+      found.put(ByteBuffer.wrap(record.getKey()), record.getValue());
+    }
+    for (int i = 0; i < missing_keys.size(); i++) {
+      byte[] key = missing_keys.get(i);
+      ByteBuffer cache_key = ByteBuffer.wrap(key);
+      byte[] value = found.get(cache_key);
+      if (value == null) {
+        continue;
+      }
+      records.put(key, value);
+      Segment segment = getSegment(cache_key);
+      synchronized (segment) {
+        if (segment.getVersion(cache_key) == versions[i] && !segment.contains(cache_key)) {
+          segment.insert(ByteBuffer.wrap(key.clone()), value.clone());
+        }
+      }
+    }
+    return records;
+  }
+
+  /**
+   * Gets the values of multiple records of keys, with string data.
+   * @param keys The keys of records to retrieve.
+   * @return A map of retrieved records.  Keys which don't match existing records are ignored.
+   */
+  public Map<String, String> getMulti(String[] keys) {
+    byte[][] raw_keys = new byte[keys.length][];
+    for (int i = 0; i < keys.length; i++) {
+      raw_keys[i] = keys[i].getBytes(StandardCharsets.UTF_8);
+    }
+    Map<String, String> records = new HashMap<String, String>();
+    for (Map.Entry<byte[], byte[]> record : getMulti(raw_keys).entrySet()) {
+      records.put(new String(record.getKey(), StandardCharsets.UTF_8),
+                  new String(record.getValue(), StandardCharsets.UTF_8));
+    }
+    return records;
+  }
+
+  /**
+   * Sets a record of a key and a value.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @param overwrite Whether to overwrite the existing value if there's a record with the same
+   * key.  If true, the existing value is overwritten by the new value.  If false, the operation
+   * is given up and an error status is returned.
+   * @return The result status.  If overwriting is abandoned, DUPLICATION_ERROR is returned.
+   */
+  public Status set(byte[] key, byte[] value, boolean overwrite) {
+    Status status = dbm_.set(key, value, overwrite);
+    invalidate(key);
+    return status;
+  }
+
+  /**
+   * Sets a record of a key and a value, with string data.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @param overwrite Whether to overwrite the existing value.
+   * @return The result status.
+   */
+  public Status set(String key, String value, boolean overwrite) {
+    return set(key.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8),
+               overwrite);
+  }
+
+  /**
+   * Sets a record of a key and a value, overwriting the existing value.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @return The result status.
+   */
+  public Status set(byte[] key, byte[] value) {
+    return set(key, value, true);
+  }
+
+  /**
+   * Sets a record of a key and a value, with string data, overwriting the existing value.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @return The result status.
+   */
+  public Status set(String key, String value) {
+    return set(key, value, true);
+  }
+
+  /**
+   * Sets multiple records.
+   * @param records The records to store.
+   * @param overwrite Whether to overwrite the existing value if there's a record with the same
+   * key.
+   * @return The result status.  If there are records avoiding overwriting, DUPLICATION_ERROR
+   * is returned.
+   */
+  public Status setMulti(Map<byte[], byte[]> records, boolean overwrite) {
+    Status status = dbm_.setMulti(records, overwrite);
+    invalidateKeys(records.keySet());
+    return status;
+  }
+
+  /**
+   * Sets multiple records, with string data.
+   * @param records The records to store.
+   * @param overwrite Whether to overwrite the existing value.
+   * @return The result status.
+   */
+  public Status setMultiString(Map<String, String> records, boolean overwrite) {
+    Status status = dbm_.setMultiString(records, overwrite);
+    invalidateStringKeys(records.keySet());
+    return status;
+  }
+
+  /**
+   * Sets a record and get the old value.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @param overwrite Whether to overwrite the existing value.
+   * @return The result status and the old value.  If the record has not existed when inserting
+   * the new record, null is assigned as the value.
+   */
+  public Status.And<byte[]> setAndGet(byte[] key, byte[] value, boolean overwrite) {
+    Status.And<byte[]> result = dbm_.setAndGet(key, value, overwrite);
+    invalidate(key);
+    return result;
+  }
+
+  /**
+   * Sets a record and get the old value, with string data.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @param overwrite Whether to overwrite the existing value.
+   * @return The result status and the old value.
+   */
+  public Status.And<String> setAndGet(String key, String value, boolean overwrite) {
+    Status.And<String> result = dbm_.setAndGet(key, value, overwrite);
+    invalidate(key.getBytes(StandardCharsets.UTF_8));
+    return result;
+  }
+
+  /**
+   * Removes a record of a key.
+   * @param key The key of the record.
+   * @return The result status.  If there's no matching record, NOT_FOUND_ERROR is returned.
+   */
+  public Status remove(byte[] key) {
+    Status status = dbm_.remove(key);
+    invalidate(key);
+    return status;
+  }
+
+  /**
+   * Removes a record of a key, with a string key.
+   * @param key The key of the record.
+   * @return The result status.
+   */
+  public Status remove(String key) {
+    return remove(key.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Removes records of keys.
+   * @param keys The keys of records to remove.
+   * @return The result status.  If there are missing records, NOT_FOUND_ERROR is returned.
+   */
+  public Status removeMulti(byte[][] keys) {
+    Status status = dbm_.removeMulti(keys);
+    invalidateKeys(Arrays.asList(keys));
+    return status;
+  }
+
+  /**
+   * Removes records of keys, with string data.
+   * @param keys The keys of records to remove.
+   * @return The result status.  If there are missing records, NOT_FOUND_ERROR is returned.
+   */
+  public Status removeMulti(String[] keys) {
+    Status status = dbm_.removeMulti(keys);
+    invalidateStringKeys(Arrays.asList(keys));
+    return status;
+  }
+
+  /**
+   * Removes a record and get the value.
+   * @param key The key of the record.
+   * @return The result status and the record value.  If the record does not exist, null is
+   * assigned.
+   */
+  public Status.And<byte[]> removeAndGet(byte[] key) {
+    Status.And<byte[]> result = dbm_.removeAndGet(key);
+    invalidate(key);
+    return result;
+  }
+
+  /**
+   * Removes a record and get the value, with string data.
+   * @param key The key of the record.
+   * @return The result status and the record value.
+   */
+  public Status.And<String> removeAndGet(String key) {
+    Status.And<String> result = dbm_.removeAndGet(key);
+    invalidate(key.getBytes(StandardCharsets.UTF_8));
+    return result;
+  }
+
+  /**
+   * Appends data at the end of a record of a key.
+   * @param key The key of the record.
+   * @param value The value to append.
+   * @param delim The delimiter to put after the existing record.
+   * @return The result status.
+   */
+  public Status append(byte[] key, byte[] value, byte[] delim) {
+    Status status = dbm_.append(key, value, delim);
+    invalidate(key);
+    return status;
+  }
+
+  /**
+   * Appends data at the end of a record of a key, with string data.
+   * @param key The key of the record.
+   * @param value The value to append.
+   * @param delim The delimiter to put after the existing record.
+   * @return The result status.
+   */
+  public Status append(String key, String value, String delim) {
+    return append(key.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8),
+                  delim.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Appends data to multiple records.
+   * @param records The records to append.
+   * @param delim The delimiter to put after the existing record.
+   * @return The result status.
+   */
+  public Status appendMulti(Map<byte[], byte[]> records, byte[] delim) {
+    Status status = dbm_.appendMulti(records, delim);
+    invalidateKeys(records.keySet());
+    return status;
+  }
+
+  /**
+   * Appends data to multiple records, with string data.
+   * @param records The records to append.
+   * @param delim The delimiter to put after the existing record.
+   * @return The result status.
+   */
+  public Status appendMulti(Map<String, String> records, String delim) {
+    Status status = dbm_.appendMulti(records, delim);
+    invalidateStringKeys(records.keySet());
+    return status;
+  }
+
+  /**
+   * Compares the value of a record and exchanges if the condition meets.
+   * @param key The key of the record.
+   * @param expected The expected value.  If it is null, no existing record is expected.
+   * @param desired The desired value.  If it is null, the record is to be removed.
+   * @return The result status.  If the condition doesn't meet, INFEASIBLE_ERROR is returned.
+   */
+  public Status compareExchange(byte[] key, byte[] expected, byte[] desired) {
+    Status status = dbm_.compareExchange(key, expected, desired);
+    invalidate(key);
+    return status;
+  }
+
+  /**
+   * Does compare-and-exchange and/or gets the old value of the record.
+   * @param key The key of the record.
+   * @param expected The expected value.  If it is null, no existing record is expected.
+   * @param desired The desired value.  If it is null, the record is to be removed.
+   * @return The result status and the old value of the record.  If the condition doesn't meet,
+   * the state is INFEASIBLE_ERROR.  If there's no existing record, the value is null.
+   * @note The old value is read from the database, not from the cache.
+   */
+  public Status.And<byte[]> compareExchangeAndGet(byte[] key, byte[] expected, byte[] desired) {
+    Status.And<byte[]> result = dbm_.compareExchangeAndGet(key, expected, desired);
+    invalidate(key);
+    return result;
+  }
+
+  /**
+   * Does compare-and-exchange and/or gets the old value of the record, with string data.
+   * @param key The key of the record.
+   * @param expected The expected value.  If it is null, no existing record is expected.
+   * @param desired The desired value.  If it is null, the record is to be removed.
+   * @return The result status and the old value of the record.
+   */
+  public Status.And<String> compareExchangeAndGet(String key, String expected, String desired) {
+    Status.And<String> result = dbm_.compareExchangeAndGet(key, expected, desired);
+    invalidate(key.getBytes(StandardCharsets.UTF_8));
+    return result;
+  }
+
+  /**
+   * Compares the values of records and exchanges if the condition meets.
+   * @param expected The record keys and their expected values.
+   * @param desired The record keys and their desired values.
+   * @return The result status.  If the condition doesn't meet, INFEASIBLE_ERROR is returned.
+   */
+  public Status compareExchangeMulti(Map<byte[], byte[]> expected, Map<byte[], byte[]> desired) {
+    Status status = dbm_.compareExchangeMulti(expected, desired);
+    invalidateKeys(desired.keySet());
+    return status;
+  }
+
+  /**
+   * Compares the values of records and exchanges if the condition meets, with string data.
+   * @param expected The record keys and their expected values.
+   * @param desired The record keys and their desired values.
+   * @return The result status.  If the condition doesn't meet, INFEASIBLE_ERROR is returned.
+   */
+  public Status compareExchangeMultiString(
+      Map<String, String> expected, Map<String, String> desired) {
+    Status status = dbm_.compareExchangeMultiString(expected, desired);
+    invalidateStringKeys(desired.keySet());
+    return status;
+  }
+
+  /**
+   * Increments the numeric value of a record.
+   * @param key The key of the record.
+   * @param inc The incremental value.
+   * @param init The initial value.
+   * @param status The status object to store the result status.  If it is null, it is ignored.
+   * @return The current value, or Long.MIN_VALUE on failure.
+   */
+  public long increment(byte[] key, long inc, long init, Status status) {
+    long value = dbm_.increment(key, inc, init, status);
+    invalidate(key);
+    return value;
+  }
+
+  /**
+   * Increments the numeric value of a record, with a string key.
+   * @param key The key of the record.
+   * @param inc The incremental value.
+   * @param init The initial value.
+   * @param status The status object to store the result status.  If it is null, it is ignored.
+   * @return The current value, or Long.MIN_VALUE on failure.
+   */
+  public long increment(String key, long inc, long init, Status status) {
+    return increment(key.getBytes(StandardCharsets.UTF_8), inc, init, status);
+  }
+
+  /**
+   * Processes a record with a processor.
+   * @param key The key of the record.
+   * @param proc The processor object.
+   * @param writable True if the processor can edit the record.
+   * @return The result status.
+   * @note If it is writable, the record is invalidated in the cache.
+   */
+  public Status process(byte[] key, RecordProcessor proc, boolean writable) {
+    Status status = dbm_.process(key, proc, writable);
+    if (writable) {
+      invalidate(key);
+    }
+    return status;
+  }
+
+  /**
+   * Processes multiple records with processors.
+   * @param key_proc_pairs Pairs of the keys and their processor objects.
+   * @param writable True if the processors can edit the records.
+   * @return The result status.
+   * @note If it is writable, the records are invalidated in the cache.
+   */
+  public Status processMulti(RecordProcessor.WithKey[] key_proc_pairs, boolean writable) {
+    Status status = dbm_.processMulti(key_proc_pairs, writable);
+    if (writable) {
+      List<byte[]> keys = new ArrayList<byte[]>();
+      for (RecordProcessor.WithKey pair : key_proc_pairs) {
+        keys.add(pair.key);
+      }
+      invalidateKeys(keys);
+    }
+    return status;
+  }
+
+  /**
+   * Changes the key of a record.
+   * @param old_key The old key of the record.
+   * @param new_key The new key of the record.
+   * @param overwrite Whether to overwrite the existing record of the new key.
+   * @param copying Whether to retain the record of the old key.
+   * @return The result status.  If there's no matching record to the old key, NOT_FOUND_ERROR
+   * is returned.  If the overwrite flag is false and there is an existing record of the new key,
+   * DUPLICATION ERROR is returned.
+   * @note Both keys are invalidated in the cache.
+   */
+  public Status rekey(byte[] old_key, byte[] new_key, boolean overwrite, boolean copying) {
+    Status status = dbm_.rekey(old_key, new_key, overwrite, copying);
+    invalidate(old_key);
+    invalidate(new_key);
+    return status;
+  }
+
+  /**
+   * Changes the key of a record, with string data.
+   * @param old_key The old key of the record.
+   * @param new_key The new key of the record.
+   * @param overwrite Whether to overwrite the existing record of the new key.
+   * @param copying Whether to retain the record of the old key.
+   * @return The result status.
+   */
+  public Status rekey(String old_key, String new_key, boolean overwrite, boolean copying) {
+    return rekey(old_key.getBytes(StandardCharsets.UTF_8),
+                 new_key.getBytes(StandardCharsets.UTF_8), overwrite, copying);
+  }
+
+  /**
+   * Gets the first record and removes it.
+   * @param status The status object to store the result status.  If it is null, it is ignored.
+   * @return A pair of the key and the value of the first record, or null on failure.
+   */
+  public byte[][] popFirst(Status status) {
+    byte[][] record = dbm_.popFirst(status);
+    if (record != null) {
+      invalidate(record[0]);
+    }
+    return record;
+  }
+
+  /**
+   * Gets the first record as strings and removes it.
+   * @param status The status object to store the result status.  If it is null, it is ignored.
+   * @return A pair of the key and the value of the first record, or null on failure.
+   */
+  public String[] popFirstString(Status status) {
+    byte[][] record = popFirst(status);
+    if (record == null) {
+      return null;
+    }
+    String[] str_record = new String[2];
+    str_record[0] = new String(record[0], StandardCharsets.UTF_8);
+    str_record[1] = new String(record[1], StandardCharsets.UTF_8);
+    return str_record;
+  }
+
+  /**
+   * Adds a record with a key of the current timestamp.
+   * @param value The value of the record.
+   * @param wtime The current wall time used to generate the key.  If it is negative, the system
+   * clock is used.
+   * @return The result status.
+   * @note The generated key doesn't match any existing record, so no cached record is affected.
+   */
+  public Status pushLast(byte[] value, double wtime) {
+    return dbm_.pushLast(value, wtime);
+  }
+
+  /**
+   * Adds a record with a key of the current timestamp, with string data.
+   * @param value The value of the record.
+   * @param wtime The current wall time used to generate the key.  If it is negative, the system
+   * clock is used.
+   * @return The result status.
+   */
+  public Status pushLast(String value, double wtime) {
+    return dbm_.pushLast(value, wtime);
+  }
+
+  /**
+   * Processes each and every record in the database with a processor.
+   * @param proc The processor object.
+   * @param writable True if the processor can edit the record.
+   * @return The result status.
+   * @note If it is writable, the whole cache is invalidated.
+   */
+  public Status processEach(RecordProcessor proc, boolean writable) {
+    return processEach(null, proc, writable);
+  }
+
+  /**
+   * Processes each record matching a filter with a processor.
+   * @param filter The filter evaluated by the native code.  If it is null, every record matches.
+   * @param proc The processor object.
+   * @param writable True if the processor can edit the record.
+   * @return The result status.
+   * @note If it is writable, the whole cache is invalidated.
+   */
+  public Status processEach(RecordFilter filter, RecordProcessor proc, boolean writable) {
+    Status status = dbm_.processEach(filter, proc, writable);
+    if (writable) {
+      invalidateAll();
+    }
+    return status;
+  }
+
+  /**
+   * Removes all records.
+   * @return The result status.
+   */
+  public Status clear() {
+    Status status = dbm_.clear();
+    invalidateAll();
+    return status;
+  }
+
+  /**
+   * Removes a record from the cache.
+   * @param key The key of the record.
+   * @note This must be called after the record is updated directly on the database.
+   */
+  public void invalidate(byte[] key) {
+    ByteBuffer cache_key = ByteBuffer.wrap(key);
+    Segment segment = getSegment(cache_key);
+    synchronized (segment) {
+      segment.invalidate(cache_key);
+    }
+  }
+
+  /**
+   * Removes all records from the cache.
+   * @note This must be called after records are updated directly on the database.
+   */
+  public void invalidateAll() {
+    for (Segment segment : segments_) {
+      synchronized (segment) {
+        segment.invalidateAll();
+      }
+    }
+  }
+
+  /**
+   * Gets the ratio of cache hits of the reads.
+   * @return The number of hits divided by the number of reads, or 0 if there's no read.
+   */
+  public double getHitRatio() {
+    long num_hits = 0;
+    long num_reads = 0;
+    for (Segment segment : segments_) {
+      synchronized (segment) {
+        num_hits += segment.num_hits;
+        num_reads += segment.num_hits + segment.num_misses;
+      }
+    }
+    return num_reads > 0 ? (double)num_hits / num_reads : 0.0;
+  }
+
+  /**
+   * Gets the statistics.
+   * @return A map of property names and their values.
+   * @note The properties are "num_hits" and "num_misses" for the reads, "hit_ratio", "count"
+   * for the number of cached records, "size" for the total size of them, "capacity",
+   * "num_segments" for the number of segments, "num_evictions" for the records evicted from the
+   * main area, "num_rejections" for the records not admitted to the main area, and
+   * "num_invalidations" for the cached records invalidated by updates.
+   */
+  public Map<String, String> getStats() {
+    long num_hits = 0;
+    long num_misses = 0;
+    long count = 0;
+    long size = 0;
+    long num_evictions = 0;
+    long num_rejections = 0;
+    long num_invalidations = 0;
+    for (Segment segment : segments_) {
+      synchronized (segment) {
+        num_hits += segment.num_hits;
+        num_misses += segment.num_misses;
+        count += segment.cache.size();
+        size += segment.window_size + segment.probation_size + segment.protected_size;
+        num_evictions += segment.num_evictions;
+        num_rejections += segment.num_rejections;
+        num_invalidations += segment.num_invalidations;
+      }
+    }
+    Map<String, String> stats = new HashMap<String, String>();
+    stats.put("num_hits", Long.toString(num_hits));
+    stats.put("num_misses", Long.toString(num_misses));
+    long num_reads = num_hits + num_misses;
+    stats.put("hit_ratio", Double.toString(num_reads > 0 ? (double)num_hits / num_reads : 0.0));
+    stats.put("count", Long.toString(count));
+    stats.put("size", Long.toString(size));
+    stats.put("capacity", Long.toString(capacity_));
+    stats.put("num_segments", Integer.toString(segments_.length));
+    stats.put("num_evictions", Long.toString(num_evictions));
+    stats.put("num_rejections", Long.toString(num_rejections));
+    stats.put("num_invalidations", Long.toString(num_invalidations));
+    return stats;
+  }
+
+  /**
+   * Removes records of keys from the cache.
+   */
+  private void invalidateKeys(Iterable<byte[]> keys) {
+    for (byte[] key : keys) {
+      invalidate(key);
+    }
+  }
+
+  /**
+   * Removes records of string keys from the cache.
+   */
+  private void invalidateStringKeys(Iterable<String> keys) {
+    for (String key : keys) {
+      invalidate(key.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  /**
+   * Gets the segment of a key.
+   */
+  private Segment getSegment(ByteBuffer key) {
+    if (segments_.length == 1) {
+      return segments_[0];
+    }
+    return segments_[(key.hashCode() * 0x9E3779B9) >>> segment_shift_];
+  }
+
+  /**
+   * A segment of the cache, guarded by its own monitor.
+   */
+  private static class Segment {
+    /**
+     * Constructor.
+     */
+    Segment(long capacity) {
+      this.capacity = capacity;
+      window_capacity = Math.max(capacity / 100, 1);
+      protected_capacity = (capacity - window_capacity) * 4 / 5;
+      int width = MIN_SKETCH_WIDTH;
+      while (width * 2L <= capacity / 64 && width < MAX_SKETCH_WIDTH) {
+        width *= 2;
+      }
+      sketch = new long[SKETCH_DEPTH][width / COUNTERS_PER_WORD];
+      sketch_mask = width - 1;
+      sketch_reset_period = width * 10L;
+    }
+
+    /**
+     * Checks whether a record is cached.
+     */
+    boolean contains(ByteBuffer key) {
+      return cache.containsKey(key);
+    }
+
+    /**
+     * Looks up a cached value and records the access.
+     */
+    byte[] lookup(ByteBuffer key) {
+      recordAccess(key);
+      Entry entry = cache.get(key);
+      if (entry == null) {
+        num_misses++;
+        return null;
+      }
+      num_hits++;
+      if (entry.list == WINDOW) {
+        window.get(key);
+      } else if (entry.list == PROTECTED) {
+        protected_lru.get(key);
+      } else {
+        probation.remove(key);
+        probation_size -= entry.size;
+        entry.list = PROTECTED;
+        protected_lru.put(key, entry);
+        protected_size += entry.size;
+        while (protected_size > protected_capacity) {
+          Map.Entry<ByteBuffer, Entry> lru = protected_lru.entrySet().iterator().next();
+          protected_lru.remove(lru.getKey());
+          protected_size -= lru.getValue().size;
+          lru.getValue().list = PROBATION;
+          probation.put(lru.getKey(), lru.getValue());
+          probation_size += lru.getValue().size;
+        }
+      }
+      return entry.value;
+    }
+
+    /**
+     * Inserts a record into the window and moves overflowing records to the main area.
+     */
+    void insert(ByteBuffer key, byte[] value) {
+      long size = key.remaining() + value.length;
+      if (size > capacity - window_capacity) {
+        return;
+      }
+      Entry old_entry = cache.remove(key);
+      if (old_entry != null) {
+        removeFromList(key, old_entry);
+      }
+      Entry entry = new Entry(value, size);
+      cache.put(key, entry);
+      window.put(key, entry);
+      window_size += size;
+      while (window_size > window_capacity && !window.isEmpty()) {
+        Map.Entry<ByteBuffer, Entry> candidate = window.entrySet().iterator().next();
+        window.remove(candidate.getKey());
+        window_size -= candidate.getValue().size;
+        admit(candidate.getKey(), candidate.getValue());
+      }
+    }
+
+    /**
+     * Removes a record and bumps the version of its stripe.
+     */
+    void invalidate(ByteBuffer key) {
+      versions[stripeIndex(key)]++;
+      Entry entry = cache.remove(key);
+      if (entry != null) {
+        removeFromList(key, entry);
+        num_invalidations++;
+      }
+    }
+
+    /**
+     * Removes all records and bumps the versions of all stripes.
+     */
+    void invalidateAll() {
+      for (int i = 0; i < versions.length; i++) {
+        versions[i]++;
+      }
+      num_invalidations += cache.size();
+      cache.clear();
+      window.clear();
+      probation.clear();
+      protected_lru.clear();
+      window_size = 0;
+      probation_size = 0;
+      protected_size = 0;
+    }
+
+    /**
+     * Gets the version of the stripe of a key.
+     */
+    long getVersion(ByteBuffer key) {
+      return versions[stripeIndex(key)];
+    }
+
+    /**
+     * Admits a record evicted from the window to the main area if it is worth it.
+     */
+    private void admit(ByteBuffer key, Entry entry) {
+      long main_capacity = capacity - window_capacity;
+      int frequency = estimateFrequency(key);
+      while (probation_size + protected_size + entry.size > main_capacity) {
+        LinkedHashMap<ByteBuffer, Entry> victims = probation.isEmpty() ? protected_lru : probation;
+        Map.Entry<ByteBuffer, Entry> victim = victims.entrySet().iterator().next();
+        if (frequency <= estimateFrequency(victim.getKey())) {
+          cache.remove(key);
+          num_rejections++;
+          return;
+        }
+        cache.remove(victim.getKey());
+        removeFromList(victim.getKey(), victim.getValue());
+        num_evictions++;
+      }
+      entry.list = PROBATION;
+      probation.put(key, entry);
+      probation_size += entry.size;
+    }
+
+    /**
+     * Removes a record from its LRU list.
+     */
+    private void removeFromList(ByteBuffer key, Entry entry) {
+      if (entry.list == WINDOW) {
+        window.remove(key);
+        window_size -= entry.size;
+      } else if (entry.list == PROBATION) {
+        probation.remove(key);
+        probation_size -= entry.size;
+      } else {
+        protected_lru.remove(key);
+        protected_size -= entry.size;
+      }
+    }
+
+    /**
+     * Records an access to the frequency sketch.
+     */
+    private void recordAccess(ByteBuffer key) {
+      int hash = key.hashCode();
+      for (int i = 0; i < SKETCH_DEPTH; i++) {
+        int index = sketchIndex(hash, i);
+        int shift = (index & (COUNTERS_PER_WORD - 1)) * 4;
+        long[] row = sketch[i];
+        int word = index / COUNTERS_PER_WORD;
+        if (((row[word] >>> shift) & MAX_FREQUENCY) < MAX_FREQUENCY) {
+          row[word] += 1L << shift;
+        }
+      }
+      if (++num_samples >= sketch_reset_period) {
+        for (long[] row : sketch) {
+          for (int i = 0; i < row.length; i++) {
+            row[i] = (row[i] >>> 1) & HALVING_MASK;
+          }
+        }
+        num_samples /= 2;
+      }
+    }
+
+    /**
+     * Estimates the access frequency of a key.
+     */
+    private int estimateFrequency(ByteBuffer key) {
+      int hash = key.hashCode();
+      int frequency = MAX_FREQUENCY;
+      for (int i = 0; i < SKETCH_DEPTH; i++) {
+        int index = sketchIndex(hash, i);
+        int shift = (index & (COUNTERS_PER_WORD - 1)) * 4;
+        long counter = (sketch[i][index / COUNTERS_PER_WORD] >>> shift) & MAX_FREQUENCY;
+        frequency = Math.min(frequency, (int)counter);
+      }
+      return frequency;
+    }
+
+    /**
+     * Gets the index of a hash value in a row of the sketch.
+     */
+    private int sketchIndex(int hash, int row) {
+      long mixed = (hash + SKETCH_SEEDS[row]) * 0x9E3779B97F4A7C15L;
+      return (int)(mixed >>> 32) & sketch_mask;
+    }
+
+    /**
+     * Gets the index of the version stripe of a key.
+     */
+    private static int stripeIndex(ByteBuffer key) {
+      int hash = key.hashCode();
+      return (hash ^ (hash >>> 16)) & (NUM_VERSION_STRIPES - 1);
+    }
+
+    /** The capacity of the segment. */
+    final long capacity;
+    /** The capacity of the window. */
+    final long window_capacity;
+    /** The capacity of the protected segment. */
+    final long protected_capacity;
+    /** The index of all cached records. */
+    final Map<ByteBuffer, Entry> cache = new HashMap<ByteBuffer, Entry>();
+    /** The window in the LRU order. */
+    final LinkedHashMap<ByteBuffer, Entry> window =
+        new LinkedHashMap<ByteBuffer, Entry>(16, 0.75f, true);
+    /** The probation segment in the LRU order. */
+    final LinkedHashMap<ByteBuffer, Entry> probation =
+        new LinkedHashMap<ByteBuffer, Entry>(16, 0.75f, true);
+    /** The protected segment in the LRU order. */
+    final LinkedHashMap<ByteBuffer, Entry> protected_lru =
+        new LinkedHashMap<ByteBuffer, Entry>(16, 0.75f, true);
+    /** The total size of the window. */
+    long window_size = 0;
+    /** The total size of the probation segment. */
+    long probation_size = 0;
+    /** The total size of the protected segment. */
+    long protected_size = 0;
+    /** The 4-bit counters of the frequency sketch, packed into words. */
+    final long[][] sketch;
+    /** The mask of the indices of the sketch. */
+    final int sketch_mask;
+    /** The number of samples to halve the counters. */
+    final long sketch_reset_period;
+    /** The number of samples since the last halving. */
+    long num_samples = 0;
+    /** The versions of the stripes, incremented by invalidation. */
+    final long[] versions = new long[NUM_VERSION_STRIPES];
+    /** The number of cache hits. */
+    long num_hits = 0;
+    /** The number of cache misses. */
+    long num_misses = 0;
+    /** The number of records evicted from the main area. */
+    long num_evictions = 0;
+    /** The number of records not admitted to the main area. */
+    long num_rejections = 0;
+    /** The number of invalidated records. */
+    long num_invalidations = 0;
+  }
+
+  /**
+   * A cached record.
+   */
+  private static class Entry {
+    /**
+     * Constructor.
+     */
+    Entry(byte[] value, long size) {
+      this.value = value;
+      this.size = size;
+    }
+
+    /** The value of the record. */
+    final byte[] value;
+    /** The size of the key and the value. */
+    final long size;
+    /** The LRU list where the record is. */
+    int list = WINDOW;
+  }
+
+  /** The segment of the LRU window. */
+  private static final int WINDOW = 0;
+  /** The probation segment of the main area. */
+  private static final int PROBATION = 1;
+  /** The protected segment of the main area. */
+  private static final int PROTECTED = 2;
+  /** The maximum number of segments. */
+  private static final int MAX_SEGMENTS = 16;
+  /** The minimum capacity of a segment when the cache is split. */
+  private static final long MIN_SEGMENT_CAPACITY = 1 << 20;
+  /** The number of rows of the frequency sketch. */
+  private static final int SKETCH_DEPTH = 4;
+  /** The number of 4-bit counters in a word of the frequency sketch. */
+  private static final int COUNTERS_PER_WORD = 16;
+  /** The minimum number of counters in a row of the frequency sketch. */
+  private static final int MIN_SKETCH_WIDTH = 64;
+  /** The maximum number of counters in a row of the frequency sketch. */
+  private static final int MAX_SKETCH_WIDTH = 1 << 24;
+  /** The maximum value of a counter of the frequency sketch. */
+  private static final int MAX_FREQUENCY = 15;
+  /** The mask to clear the carried bits when halving packed counters. */
+  private static final long HALVING_MASK = 0x7777777777777777L;
+  /** The seeds of the hash functions of the rows. */
+  private static final long[] SKETCH_SEEDS =
+      {0x5bd1e995L, 0x1b873593L, 0xcc9e2d51L, 0x85ebca6bL};
+  /** The number of stripes of the versions in each segment. */
+  private static final int NUM_VERSION_STRIPES = 256;
+  /** The database. */
+  private final DBM dbm_;
+  /** The total capacity. */
+  private final long capacity_;
+  /** The segments, whose number is a power of two. */
+  private final Segment[] segments_;
+  /** The shift to get the segment index from a mixed hash value. */
+  private final int segment_shift_;
+}
+
+// END OF FILE
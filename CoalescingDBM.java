@@ -0,0 +1,496 @@
+/*************************************************************************************************
+ * Database manager which coalesces concurrent updates into batches
+ *
+ * Copyright 2020 Google LLC
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a copy of the License at
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific language governing permissions
+ * and limitations under the License.
+ *************************************************************************************************/
+
+package tkrzw;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Database manager which coalesces concurrent updates into batches.
+ * @note Calls of "set" and "remove" from many threads are queued and a background thread applies
+ * them to the database in batches.  A batch is applied when the number of queued updates reaches
+ * the batch size or when the oldest queued update has waited for the delay.  Each batch is divided
+ * into runs of consecutive updates of distinct keys.  A run of overwriting sets is applied by one
+ * call of "setMulti".  A run of removes and non-overwriting sets is applied by one call of
+ * "processMulti", which tells the result of each update.  As the updates are applied in the order
+ * of the queue, updates of the same key are applied in the order of the calls.  Reads are done
+ * directly on the database, so a read issued after an update has been acknowledged sees the update.
+ * A concurrent read can see it earlier, as the update is applied before it is acknowledged.  Every
+ * unused object should be destructed by the "destruct" method to stop the thread.  All operations
+ * are thread-safe.
+ */
+public class CoalescingDBM {
+  /**
+   * Constructor.
+   * @param dbm The database, which has been opened as writable.
+   * @param max_delay The maximum time in microseconds for an update to wait for the start of
+   * its batch.
+   * @param max_batch_size The maximum number of updates in a batch.
+   */
+  public CoalescingDBM(DBM dbm, long max_delay, int max_batch_size) {
+    if (dbm == null) {
+      throw new NullPointerException();
+    }
+    if (max_delay < 0 || max_batch_size < 1) {
+      throw new IllegalArgumentException("invalid delay or batch size");
+    }
+    dbm_ = dbm;
+    max_delay_nano_ = max_delay * 1000;
+    max_batch_size_ = max_batch_size;
+    thread_ = new Thread(() -> run(), "tkrzw-coalescing-dbm");
+    thread_.setDaemon(true);
+    thread_.start();
+  }
+
+  /**
+   * Destructs the object and releases resources.
+   * @note Queued updates are applied before returning.  The database is not closed.
+   */
+  public void destruct() {
+    lock_.lock();
+    try {
+      running_ = false;
+      cond_.signalAll();
+    } finally {
+      lock_.unlock();
+    }
+    boolean joined = false;
+    while (!joined) {
+      try {
+        thread_.join();
+        joined = true;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Gets the database.
+   * @return The database given to the constructor.
+   */
+  public DBM getDBM() {
+    return dbm_;
+  }
+
+  /**
+   * Gets the value of a record of a key.
+   * @param key The key of the record.
+   * @return The value data of the record or null on failure.
+   */
+  public byte[] get(byte[] key) {
+    return dbm_.get(key);
+  }
+
+  /**
+   * Gets the value of a record of a key, with string data.
+   * @param key The key of the record.
+   * @return The value string of the record or null on failure.
+   */
+  public String get(String key) {
+    return dbm_.get(key);
+  }
+
+  /**
+   * Queues setting a record of a key and a value.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @param overwrite Whether to overwrite the existing value if there's a record with the same
+   * key.
+   * @return The future of the result status.  If overwriting is abandoned, DUPLICATION_ERROR
+   * is set.  If the object has been destructed, PRECONDITION_ERROR is set.
+   */
+  public CompletableFuture<Status> setAsync(byte[] key, byte[] value, boolean overwrite) {
+    if (key == null || value == null) {
+      throw new NullPointerException();
+    }
+    return enqueue(new Update(overwrite ? Update.SET : Update.ADD, key, value));
+  }
+
+  /**
+   * Sets a record of a key and a value.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @param overwrite Whether to overwrite the existing value if there's a record with the same
+   * key.  If true, the existing value is overwritten by the new value.  If false, the operation
+   * is given up and an error status is returned.
+   * @return The result status.  If overwriting is abandoned, DUPLICATION_ERROR is returned.
+   * @note The calling thread is blocked until the batch of the update is applied.
+   */
+  public Status set(byte[] key, byte[] value, boolean overwrite) {
+    return await(setAsync(key, value, overwrite));
+  }
+
+  /**
+   * Sets a record of a key and a value, with string data.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @param overwrite Whether to overwrite the existing value.
+   * @return The result status.
+   */
+  public Status set(String key, String value, boolean overwrite) {
+    return set(key.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8),
+               overwrite);
+  }
+
+  /**
+   * Sets a record of a key and a value, overwriting the existing value.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @return The result status.
+   */
+  public Status set(byte[] key, byte[] value) {
+    return set(key, value, true);
+  }
+
+  /**
+   * Sets a record of a key and a value, with string data, overwriting the existing value.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @return The result status.
+   */
+  public Status set(String key, String value) {
+    return set(key, value, true);
+  }
+
+  /**
+   * Queues removing a record of a key.
+   * @param key The key of the record.
+   * @return The future of the result status.  If there's no matching record, NOT_FOUND_ERROR
+   * is set.  If the object has been destructed, PRECONDITION_ERROR is set.
+   */
+  public CompletableFuture<Status> removeAsync(byte[] key) {
+    if (key == null) {
+      throw new NullPointerException();
+    }
+    return enqueue(new Update(Update.REMOVE, key, null));
+  }
+
+  /**
+   * Removes a record of a key.
+   * @param key The key of the record.
+   * @return The result status.  If there's no matching record, NOT_FOUND_ERROR is returned.
+   * @note The calling thread is blocked until the batch of the update is applied.
+   */
+  public Status remove(byte[] key) {
+    return await(removeAsync(key));
+  }
+
+  /**
+   * Removes a record of a key, with a string key.
+   * @param key The key of the record.
+   * @return The result status.
+   */
+  public Status remove(String key) {
+    return remove(key.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Gets the histogram of the batch sizes.
+   * @return An array where the element at the index i is the number of batches whose size is
+   * at least 2 to the power of i and less than 2 to the power of i plus 1.
+   */
+  public long[] getBatchSizeHistogram() {
+    lock_.lock();
+    try {
+      return histogram_.clone();
+    } finally {
+      lock_.unlock();
+    }
+  }
+
+  /**
+   * Gets the statistics.
+   * @return A map of property names and their values.
+   * @note The properties are "num_batches" for the number of batches, "num_runs" for the
+   * number of calls to the database, "num_updates" for the number of applied updates,
+   * "mean_batch_size" and "max_batch_size" for the number of updates of each batch, and
+   * "mean_latency" for the time in microseconds from each call to its completion.
+   */
+  public Map<String, String> getStats() {
+    Map<String, String> stats = new HashMap<String, String>();
+    lock_.lock();
+    try {
+      stats.put("num_batches", Long.toString(num_batches_));
+      stats.put("num_runs", Long.toString(num_runs_));
+      stats.put("num_updates", Long.toString(num_updates_));
+      stats.put("mean_batch_size",
+                Double.toString(num_batches_ > 0 ? (double)num_updates_ / num_batches_ : 0.0));
+      stats.put("max_batch_size", Long.toString(max_batch_size_seen_));
+      stats.put("mean_latency", Double.toString(
+          num_updates_ > 0 ? total_latency_nano_ / 1000.0 / num_updates_ : 0.0));
+    } finally {
+      lock_.unlock();
+    }
+    return stats;
+  }
+
+  /**
+   * Adds an update to the queue.
+   */
+  private CompletableFuture<Status> enqueue(Update update) {
+    lock_.lock();
+    try {
+      if (running_) {
+        if (queue_.isEmpty()) {
+          oldest_time_ = update.request_time;
+        }
+        queue_.add(update);
+        if (queue_.size() == 1 || queue_.size() >= max_batch_size_) {
+          cond_.signalAll();
+        }
+        return update.future;
+      }
+    } finally {
+      lock_.unlock();
+    }
+    update.future.complete(new Status(Status.PRECONDITION_ERROR, "destructed object"));
+    return update.future;
+  }
+
+  /**
+   * Waits for a future and gets the status.
+   */
+  private static Status await(CompletableFuture<Status> future) {
+    boolean interrupted = false;
+    Status status = null;
+    while (status == null) {
+      try {
+        status = future.get();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      } catch (ExecutionException e) {
+        status = new Status(Status.UNKNOWN_ERROR, e.getCause().toString());
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    return status;
+  }
+
+  /**
+   * Runs the loop of the background thread.
+   */
+  private void run() {
+    while (true) {
+      List<Update> batch = new ArrayList<Update>();
+      lock_.lock();
+      try {
+        while (true) {
+          if (queue_.isEmpty()) {
+            if (!running_) {
+              return;
+            }
+            waitFor(0);
+            continue;
+          }
+          long rest_nano = oldest_time_ + max_delay_nano_ - System.nanoTime();
+          if (!running_ || queue_.size() >= max_batch_size_ || rest_nano <= 0) {
+            break;
+          }
+          waitFor(rest_nano);
+        }
+        while (!queue_.isEmpty() && batch.size() < max_batch_size_) {
+          batch.add(queue_.poll());
+        }
+        if (!queue_.isEmpty()) {
+          oldest_time_ = queue_.peek().request_time;
+        }
+      } finally {
+        lock_.unlock();
+      }
+      int num_runs = 0;
+      List<Update> run = new ArrayList<Update>();
+      Set<ByteBuffer> run_keys = new HashSet<ByteBuffer>();
+      for (Update update : batch) {
+        boolean is_set = update.type == Update.SET;
+        if (!run.isEmpty() && ((run.get(0).type == Update.SET) != is_set ||
+                               !run_keys.add(ByteBuffer.wrap(update.key)))) {
+          applyRun(run);
+          num_runs++;
+          run.clear();
+          run_keys.clear();
+          run_keys.add(ByteBuffer.wrap(update.key));
+        } else if (run.isEmpty()) {
+          run_keys.add(ByteBuffer.wrap(update.key));
+        }
+        run.add(update);
+      }
+      applyRun(run);
+      num_runs++;
+      long end_nano = System.nanoTime();
+      lock_.lock();
+      try {
+        num_batches_++;
+        num_runs_ += num_runs;
+        num_updates_ += batch.size();
+        max_batch_size_seen_ = Math.max(max_batch_size_seen_, batch.size());
+        histogram_[63 - Long.numberOfLeadingZeros(batch.size())]++;
+        for (Update update : batch) {
+          total_latency_nano_ += end_nano - update.request_time;
+        }
+      } finally {
+        lock_.unlock();
+      }
+      for (Update update : batch) {
+        update.future.complete(update.status);
+      }
+    }
+  }
+
+  /**
+   * Applies a run of updates of distinct keys.
+   */
+  private void applyRun(List<Update> run) {
+    Status status;
+    try {
+      if (run.get(0).type == Update.SET) {
+        Map<byte[], byte[]> records = new IdentityHashMap<byte[], byte[]>();
+        for (Update update : run) {
+          records.put(update.key, update.value);
+        }
+        status = dbm_.setMulti(records, true);
+        for (Update update : run) {
+          update.status = new Status(status.getCode(), status.getMessage());
+        }
+        return;
+      }
+      RecordProcessor.WithKey[] pairs = new RecordProcessor.WithKey[run.size()];
+      for (int i = 0; i < pairs.length; i++) {
+        final Update update = run.get(i);
+        pairs[i] = new RecordProcessor.WithKey(update.key, (key, value) -> {
+            if (update.type == Update.REMOVE) {
+              if (value == null) {
+                update.status = new Status(Status.NOT_FOUND_ERROR);
+                return null;
+              }
+              update.status = new Status();
+              return RecordProcessor.REMOVE;
+            }
+            if (value != null) {
+              update.status = new Status(Status.DUPLICATION_ERROR);
+              return null;
+            }
+            update.status = new Status();
+            return update.value;
+          });
+      }
+      status = dbm_.processMulti(pairs, true);
+    } catch (RuntimeException e) {
+      status = new Status(Status.UNKNOWN_ERROR, e.toString());
+    }
+    for (Update update : run) {
+      if (update.status == null || !status.isOK()) {
+        update.status = new Status(status.getCode(), status.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Waits for a signal on the condition.
+   * @note Unlike Object#wait, Condition#awaitNanos doesn't round the timeout up to milliseconds,
+   * so delays in microseconds are honored.
+   */
+  private void waitFor(long timeout_nano) {
+    try {
+      if (timeout_nano <= 0) {
+        cond_.await();
+      } else {
+        cond_.awaitNanos(timeout_nano);
+      }
+    } catch (InterruptedException e) {
+      running_ = false;
+    }
+  }
+
+  /**
+   * A queued update.
+   */
+  private static class Update {
+    /** The type of overwriting sets. */
+    static final int SET = 0;
+    /** The type of non-overwriting sets. */
+    static final int ADD = 1;
+    /** The type of removes. */
+    static final int REMOVE = 2;
+
+    /**
+     * Constructor.
+     */
+    Update(int type, byte[] key, byte[] value) {
+      this.type = type;
+      this.key = key;
+      this.value = value;
+    }
+
+    /** The type of the update. */
+    final int type;
+    /** The key of the record. */
+    final byte[] key;
+    /** The value of the record. */
+    final byte[] value;
+    /** The time in nanoseconds of the call. */
+    final long request_time = System.nanoTime();
+    /** The future to complete. */
+    final CompletableFuture<Status> future = new CompletableFuture<Status>();
+    /** The result status. */
+    Status status;
+  }
+
+  /** The database. */
+  private final DBM dbm_;
+  /** The maximum time in nanoseconds to wait for the start of a batch. */
+  private final long max_delay_nano_;
+  /** The maximum number of updates in a batch. */
+  private final int max_batch_size_;
+  /** The background thread. */
+  private final Thread thread_;
+  /** The lock to guard the queue and the statistics. */
+  private final ReentrantLock lock_ = new ReentrantLock();
+  /** The condition to notify the background thread. */
+  private final Condition cond_ = lock_.newCondition();
+  /** Whether the background thread is running. */
+  private boolean running_ = true;
+  /** The queued updates. */
+  private final ArrayDeque<Update> queue_ = new ArrayDeque<Update>();
+  /** The time in nanoseconds of the oldest queued update. */
+  private long oldest_time_ = 0;
+  /** The number of applied batches. */
+  private long num_batches_ = 0;
+  /** The number of calls to the database. */
+  private long num_runs_ = 0;
+  /** The number of applied updates. */
+  private long num_updates_ = 0;
+  /** The maximum number of updates of a batch. */
+  private long max_batch_size_seen_ = 0;
+  /** The total latency in nanoseconds of updates. */
+  private long total_latency_nano_ = 0;
+  /** The histogram of the batch sizes. */
+  private final long[] histogram_ = new long[32];
+}
+
+// END OF FILE
@@ -750,8 +750,49 @@ public class DBM {
    * @return The result status.
    * @note The given function is called repeatedly for each record.  It is also called once
    * before the iteration and once after the iteration with both the key and the value being null.
+   * Those two calls are omitted if the processor is a RecordProcessor.ValueProcessor.
    */
-  public native Status processEach(RecordProcessor proc, boolean writable);
+  public Status processEach(RecordProcessor proc, boolean writable) {
+    return processEach(null, proc, writable);
+  }
+
+  /**
+   * Processes each record matching a filter with a processor.
+   * @param filter The filter evaluated by the native code.  If it is null, every record matches.
+   * @param proc The processor object.  It is called only for records matching the filter, in
+   * the same way as with the processEach method without the filter.
+   * @param writable True if the processor can edit the record.
+   * @return The result status.
+   * @note Records which don't match the filter are skipped without calling any Java method.
+   * The two calls before and after the iteration are done regardless of the filter.
+   */
+  public native Status processEach(RecordFilter filter, RecordProcessor proc, boolean writable);
+
+  /**
+   * Processes each and every record in the database with a batch processor.
+   * @param proc The batch processor object.  It is called with arrays of keys and values of
+   * records buffered by the native code.
+   * @param batch_size The maximum number of records in a batch.  Values larger than 10000 are
+   * treated as 10000.
+   * @return The result status.
+   * @note The processor is not called for an empty batch.  The records are read only.
+   */
+  public Status processEach(BatchProcessor proc, int batch_size) {
+    return processEach(null, proc, batch_size);
+  }
+
+  /**
+   * Processes each record matching a filter with a batch processor.
+   * @param filter The filter evaluated by the native code.  If it is null, every record matches.
+   * @param proc The batch processor object.  It is called with arrays of keys and values of
+   * matching records buffered by the native code.
+   * @param batch_size The maximum number of records in a batch.  Values larger than 10000 are
+   * treated as 10000.
+   * @return The result status.
+   * @note The processor is not called for an empty batch.  The records are read only.  If the
+   * processor throws an exception, no more batches are given and the exception is propagated.
+   */
+  public native Status processEach(RecordFilter filter, BatchProcessor proc, int batch_size);
 
   /**
    * Gets the number of records.
@@ -836,6 +877,68 @@ public class DBM {
     return synchronize(hard, null);
   }
 
+  /**
+   * Advises the normal access pattern to the page cache of the database file.
+   * @return The result status.
+   * @note This resets the hint given by adviseSequential or adviseRandom.  The page cache
+   * advice methods are supported by HashDBM, TreeDBM, and SkipDBM.  For the other databases,
+   * NOT_IMPLEMENTED_ERROR is returned.
+   */
+  public Status adviseNormal() {
+    return adviseCache(ADVICE_NORMAL, 0, 0);
+  }
+
+  /**
+   * Advises the sequential access pattern to the page cache of the database file.
+   * @return The result status.
+   * @note This makes readahead more aggressive for batch scans.  It is supported only if the
+   * file is memory-mapped.  Otherwise, NOT_IMPLEMENTED_ERROR is returned.  The hint applies to
+   * the current mapping only.  When the file grows and is remapped, the hint is lost and must be
+   * given again.
+   */
+  public Status adviseSequential() {
+    return adviseCache(ADVICE_SEQUENTIAL, 0, 0);
+  }
+
+  /**
+   * Advises the random access pattern to the page cache of the database file.
+   * @return The result status.
+   * @note This disables readahead for point lookups.  It is supported only if the file is
+   * memory-mapped.  Otherwise, NOT_IMPLEMENTED_ERROR is returned.  The hint applies to the
+   * current mapping only.  When the file grows and is remapped, the hint is lost and must be
+   * given again.
+   */
+  public Status adviseRandom() {
+    return adviseCache(ADVICE_RANDOM, 0, 0);
+  }
+
+  /**
+   * Prefetches a region of the database file into the page cache in the background.
+   * @param off The offset of the region.
+   * @param size The size of the region.  If it is zero, the length to the end of file is
+   * specified.
+   * @return The result status.
+   * @note This returns without waiting for the data to be read.  It is useful to warm up the
+   * database after opening it.
+   */
+  public Status prefetch(long off, long size) {
+    return adviseCache(ADVICE_WILLNEED, off, size);
+  }
+
+  /**
+   * Drops a region of the database file from the page cache.
+   * @param off The offset of the region.
+   * @param size The size of the region.  If it is zero, the length to the end of file is
+   * specified.
+   * @return The result status.
+   * @note This is useful after a cold batch scan so that the scanned data doesn't push out hot
+   * data of other files.  Dirty pages are not dropped until they are written back.  Call
+   * synchronize beforehand to drop them too.
+   */
+  public Status dropCache(long off, long size) {
+    return adviseCache(ADVICE_DONTNEED, off, size);
+  }
+
   /**
    * Copies the content of the database file to another file.
    * @param destPath A path to the destination file.
@@ -945,6 +1048,15 @@ public class DBM {
     return strKeys;
   }
 
+  /**
+   * Searches the database and get keys of records which match a filter.
+   * @param filter The filter evaluated by the native code.
+   * @param capacity The maximum records to obtain.  0 means unlimited.
+   * @return An array of keys of the matching records.
+   * @note The value of each record is read only if the filter has conditions on the value.
+   */
+  public native byte[][] search(RecordFilter filter, int capacity);
+
   /**
    * Makes an iterator for each record.
    * @return The iterator for each record.
@@ -974,6 +1086,22 @@ public class DBM {
       String oldFilePath, String newFilePath, String className,
       long endOffset, byte[] cipherKey);
 
+  /**
+   * Gives an advice about the page cache.
+   */
+  private native Status adviseCache(int advice, long off, long size);
+
+  /** Page cache advice: normal access. */
+  private static final int ADVICE_NORMAL = 0;
+  /** Page cache advice: sequential access. */
+  private static final int ADVICE_SEQUENTIAL = 1;
+  /** Page cache advice: random access. */
+  private static final int ADVICE_RANDOM = 2;
+  /** Page cache advice: prefetching. */
+  private static final int ADVICE_WILLNEED = 3;
+  /** Page cache advice: dropping. */
+  private static final int ADVICE_DONTNEED = 4;
+
   /** The pointer to the native object */
   private long ptr_ = 0;
 }
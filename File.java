@@ -13,7 +13,16 @@
 
 package tkrzw;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Map;
 
 /**
@@ -100,6 +109,7 @@ public class File {
   /**
    * Closes the file.
    * @return The result status.
+   * @note Regions mapped by mapRegion stay valid after the file is closed.
    */
   public native Status close();
 
@@ -164,6 +174,85 @@ public class File {
     return readString(off, size, null);
   }
 
+  /**
+   * Reads data into a byte buffer.
+   * @param off The offset of a source region.
+   * @param buf The destination buffer.
+   * @param buf_off The index in the buffer where the data is stored.  The position of the buffer
+   * is ignored and not changed.
+   * @param size The size to be read.
+   * @return The result status.
+   * @note If the buffer is direct, the data is read into its memory without copying.  Otherwise,
+   * the data is copied into the backing array.
+   */
+  public Status read(long off, ByteBuffer buf, int buf_off, int size) {
+    checkBufferRegion(buf, buf_off, size);
+    if (buf.isReadOnly()) {
+      throw new ReadOnlyBufferException();
+    }
+    if (buf.isDirect()) {
+      return readDirect(off, buf, buf_off, size);
+    }
+    return readArray(off, buf.array(), buf.arrayOffset() + buf_off, size);
+  }
+
+  /**
+   * Reads data into the remaining space of a byte buffer.
+   * @param off The offset of a source region.
+   * @param buf The destination buffer.  As many bytes as remaining between the position and the
+   * limit are read.  On success, the position is advanced to the limit.
+   * @return The result status.
+   */
+  public Status read(long off, ByteBuffer buf) {
+    Status status = read(off, buf, buf.position(), buf.remaining());
+    if (status.isOK()) {
+      buf.position(buf.limit());
+    }
+    return status;
+  }
+
+  /**
+   * Reads data of multiple regions at once.
+   * @param offsets The offsets of the source regions.
+   * @param sizes The sizes of the source regions, in the same order as the offsets.
+   * @param dest The destination buffer.  The data of the regions are stored in order from the
+   * position without gaps.  The position is not changed.
+   * @return An array of the result status of each region.
+   * @note Regions which are adjacent both in the file and in the destination are read by one
+   * operation.  If the file is PositionalParallelFile and the total size is large enough, the
+   * regions are read in parallel by the calling thread and a shared pool of worker threads.
+   * Otherwise, they are read by the calling thread.  If the buffer is not direct, the data is
+   * read via a temporary direct buffer.
+   */
+  public Status[] readMulti(long[] offsets, int[] sizes, ByteBuffer dest) {
+    if (offsets == null || sizes == null || dest == null) {
+      throw new NullPointerException();
+    }
+    if (offsets.length != sizes.length) {
+      throw new IllegalArgumentException("mismatching sizes");
+    }
+    long total_size = 0;
+    for (int size : sizes) {
+      if (size < 0) {
+        throw new IllegalArgumentException("invalid size");
+      }
+      total_size += size;
+    }
+    if (total_size > dest.remaining()) {
+      throw new IllegalArgumentException("invalid size");
+    }
+    if (dest.isReadOnly()) {
+      throw new ReadOnlyBufferException();
+    }
+    if (dest.isDirect()) {
+      return readMultiDirect(offsets, sizes, dest, dest.position());
+    }
+    ByteBuffer tmp = ByteBuffer.allocateDirect((int)total_size);
+    Status[] statuses = readMultiDirect(offsets, sizes, tmp, 0);
+    dest.duplicate().put(tmp);
+    return statuses;
+  }
+
   /**
    * Writes data.
    * @param off The offset of the destination region.
@@ -194,6 +283,40 @@ public class File {
     return write(off, buf, buf.length);
   }
 
+  /**
+   * Writes data from a byte buffer.
+   * @param off The offset of the destination region.
+   * @param buf The source buffer.
+   * @param buf_off The index in the buffer where the data is taken.  The position of the buffer
+   * is ignored and not changed.
+   * @param size The size to be written.
+   * @return The result status.
+   * @note If the buffer is direct, the data is written from its memory without copying.
+   * Otherwise, the data is copied from the backing array.
+   */
+  public Status write(long off, ByteBuffer buf, int buf_off, int size) {
+    checkBufferRegion(buf, buf_off, size);
+    if (buf.isDirect()) {
+      return writeDirect(off, buf, buf_off, size);
+    }
+    return write(off, copyBufferRegion(buf, buf_off, size), size);
+  }
+
+  /**
+   * Writes the remaining data of a byte buffer.
+   * @param off The offset of the destination region.
+   * @param buf The source buffer.  The bytes between the position and the limit are written.  On
+   * success, the position is advanced to the limit.
+   * @return The result status.
+   */
+  public Status write(long off, ByteBuffer buf) {
+    Status status = write(off, buf, buf.position(), buf.remaining());
+    if (status.isOK()) {
+      buf.position(buf.limit());
+    }
+    return status;
+  }
+
   /**
    * Appends data at the end of the file.
    * @param buf The source buffer.
@@ -203,6 +326,39 @@ public class File {
    */
   public native long append(byte[] buf, long size, Status status);
 
+  /**
+   * Appends data of a byte buffer at the end of the file.
+   * @param buf The source buffer.
+   * @param buf_off The index in the buffer where the data is taken.  The position of the buffer
+   * is ignored and not changed.
+   * @param size The size to be written.
+   * @param status The status object to store the result status.  If it is null, it is ignored.
+   * @return The offset at which the data has been put, or -1 on failure.
+   * @note If the buffer is direct, the data is written from its memory without copying.
+   * Otherwise, the data is copied from the backing array.
+   */
+  public long append(ByteBuffer buf, int buf_off, int size, Status status) {
+    checkBufferRegion(buf, buf_off, size);
+    if (buf.isDirect()) {
+      return appendDirect(buf, buf_off, size, status);
+    }
+    return append(copyBufferRegion(buf, buf_off, size), size, status);
+  }
+
+  /**
+   * Appends the remaining data of a byte buffer at the end of the file.
+   * @param buf The source buffer.  The bytes between the position and the limit are written.  On
+   * success, the position is advanced to the limit.
+   * @return The offset at which the data has been put, or -1 on failure.
+   */
+  public long append(ByteBuffer buf) {
+    long off = append(buf, buf.position(), buf.remaining(), null);
+    if (off >= 0) {
+      buf.position(buf.limit());
+    }
+    return off;
+  }
+
   /**
    * Appends data at the end of the file.
    * @param buf The source buffer.  The written size is the size of the buffer.
@@ -222,6 +378,117 @@ public class File {
     return append(buf);
   }
 
+  /**
+   * Copies data of a region to another file, without passing it through Java.
+   * @param off The offset of the source region.
+   * @param size The size of the region.  If it is negative or exceeds the end of the file, the
+   * data to the end of the file is copied.
+   * @param dest The destination file, which can be this file itself.
+   * @param dest_off The offset of the destination region.  If it is negative, the data is
+   * appended at the end of the destination file.
+   * @return The result status.
+   * @note The data is copied by the native code in chunks.  When appending, the destination
+   * region is reserved at once so that concurrent appending doesn't break it.  If copying fails
+   * after the reservation, the destination is truncated back to its old size unless another
+   * append has been done meanwhile.
+   */
+  public native Status transferTo(long off, long size, File dest, long dest_off);
+
+  /**
+   * Copies data of a region of another file into this file, without passing it through Java.
+   * @param src The source file, which can be this file itself.
+   * @param src_off The offset of the source region.
+   * @param size The size of the region.  If it is negative, the data to the end of the source
+   * file is copied.
+   * @param off The offset of the destination region.  If it is negative, the data is appended
+   * at the end of this file.
+   * @return The result status.
+   */
+  public Status transferFrom(File src, long src_off, long size, long off) {
+    if (src == null) {
+      throw new NullPointerException();
+    }
+    return src.transferTo(src_off, size, this, off);
+  }
+
+  /**
+   * Makes an input stream to read the file sequentially.
+   * @param off The offset where reading starts.
+   * @param buffer_size The size of the internal buffer.
+   * @return The input stream.
+   * @note The internal buffer is a direct buffer filled by the native code, so one native call
+   * is done per buffer.  Closing the stream doesn't close the file.
+   */
+  public InputStream newInputStream(long off, int buffer_size) {
+    return new FileReaderStream(this, off, buffer_size);
+  }
+
+  /**
+   * Makes an input stream to read the file from the beginning with a 64KB buffer.
+   * @return The input stream.
+   */
+  public InputStream newInputStream() {
+    return newInputStream(0, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Makes an output stream to write the file sequentially.
+   * @param off The offset where writing starts.  If it is negative, the data is appended at the
+   * end of the file.
+   * @param buffer_size The size of the internal buffer.
+   * @return The output stream.
+   * @note The internal buffer is a direct buffer written by the native code, so one native call
+   * is done per buffer.  Data is written when the buffer is full, flushed, or closed.  Closing
+   * the stream doesn't close the file.  When appending, each flush appends the buffered data as a
+   * whole.
+   */
+  public OutputStream newOutputStream(long off, int buffer_size) {
+    return new FileWriterStream(this, off, buffer_size);
+  }
+
+  /**
+   * Makes an output stream to append data at the end of the file with a 64KB buffer.
+   * @return The output stream.
+   */
+  public OutputStream newOutputStream() {
+    return newOutputStream(-1, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Makes a seekable byte channel to access the file.
+   * @return The channel, whose position is at the beginning.
+   * @note Direct buffers given to the channel are accessed by the native code without copying.
+   * Closing the channel doesn't close the file.
+   */
+  public SeekableByteChannel newChannel() {
+    return new FileByteChannel(this);
+  }
+
+  /**
+   * Maps a region of the file as a read-only buffer without copying.
+   * @param off The offset of the region.
+   * @param size The size of the region.  If the region exceeds the end of the file, the size is
+   * reduced.
+   * @param status The status object to store the result status.  If it is null, it is ignored.
+   * @return The object of the mapped region, or null on failure.
+   * @note This is supported only by MemoryMapParallelFile and MemoryMapAtomicFile.  The region
+   * is mapped separately from the mapping of the file object, so operations on the file are
+   * never blocked by it.  The region reflects later writes to the file.  The memory stays mapped
+   * while its buffer is reachable, regardless of closing the region or the file.
+   */
+  public native MappedRegion mapRegion(long off, long size, Status status);
+
+  /**
+   * Maps a region of the file as a read-only buffer without copying, without status assignment.
+   * @param off The offset of the region.
+   * @param size The size of the region.  If the region exceeds the end of the file, the size is
+   * reduced.
+   * @return The object of the mapped region, or null on failure.
+   */
+  public MappedRegion mapRegion(long off, long size) {
+    return mapRegion(off, size, null);
+  }
+
   /**
    * Truncates the file.
    * @param size The new size of the file.
@@ -255,6 +522,65 @@ public class File {
     return synchronize(hard, 0, 0);
   }
 
+  /**
+   * Advises the normal access pattern to the page cache of the file.
+   * @return The result status.
+   * @note This resets the hint given by adviseSequential or adviseRandom.
+   */
+  public Status adviseNormal() {
+    return adviseCache(ADVICE_NORMAL, 0, 0);
+  }
+
+  /**
+   * Advises the sequential access pattern to the page cache of the file.
+   * @return The result status.
+   * @note This makes readahead more aggressive for batch scans.  It is supported only if the
+   * file is memory-mapped.  Otherwise, NOT_IMPLEMENTED_ERROR is returned.  The hint applies to
+   * the current mapping only.  When the file grows and is remapped, the hint is lost and must be
+   * given again.
+   */
+  public Status adviseSequential() {
+    return adviseCache(ADVICE_SEQUENTIAL, 0, 0);
+  }
+
+  /**
+   * Advises the random access pattern to the page cache of the file.
+   * @return The result status.
+   * @note This disables readahead for point lookups.  It is supported only if the file is
+   * memory-mapped.  Otherwise, NOT_IMPLEMENTED_ERROR is returned.  The hint applies to the
+   * current mapping only.  When the file grows and is remapped, the hint is lost and must be
+   * given again.
+   */
+  public Status adviseRandom() {
+    return adviseCache(ADVICE_RANDOM, 0, 0);
+  }
+
+  /**
+   * Prefetches a region of the file into the page cache in the background.
+   * @param off The offset of the region.
+   * @param size The size of the region.  If it is zero, the length to the end of file is
+   * specified.
+   * @return The result status.
+   * @note This returns without waiting for the data to be read.
+   */
+  public Status prefetch(long off, long size) {
+    return adviseCache(ADVICE_WILLNEED, off, size);
+  }
+
+  /**
+   * Drops a region of the file from the page cache.
+   * @param off The offset of the region.
+   * @param size The size of the region.  If it is zero, the length to the end of file is
+   * specified.
+   * @return The result status.
+   * @note This is useful after a cold batch scan so that the scanned data doesn't push out hot
+   * data of other files.  Dirty pages are not dropped until they are written back.  Call
+   * synchronize beforehand to drop them too.
+   */
+  public Status dropCache(long off, long size) {
+    return adviseCache(ADVICE_DONTNEED, off, size);
+  }
+
   /**
    * Gets the size of the file.
    * @return The size of the file or -1 on failure.
@@ -306,11 +632,544 @@ public class File {
     return strResult;
   }
 
+  /**
+   * Searches the file in parallel and gives lines which match a pattern to a processor.
+   * @param mode The search mode.  "contain", "containcase", "containword", "containcaseword",
+   * "begin", "end", and "regex" are the same as the modes of the search method without a
+   * processor.  "edit" and "editbin" are also accepted but they are evaluated on one thread
+   * since they rank all lines.
+   * @param pattern The pattern for matching.
+   * @param capacity The maximum lines to obtain.  0 means unlimited.
+   * @param num_threads The number of threads to scan the file.
+   * @param batch_size The maximum number of lines given to the processor at once.
+   * @param proc The processor to receive the matching lines.
+   * @return The result status.
+   * @note The file is split into chunks at line boundaries and the chunks are scanned
+   * concurrently.  The processor is called on the calling thread and it receives the lines in
+   * the order of the file.  A line is a sequence of bytes terminated by a line feed, which is
+   * not included.
+   */
+  public Status search(String mode, byte[] pattern, int capacity, int num_threads,
+                       int batch_size, LineProcessor proc) {
+    if (mode == null || pattern == null || proc == null) {
+      throw new NullPointerException();
+    }
+    if (mode.equals("edit") || mode.equals("editbin")) {
+      byte[][] lines = null;
+      try {
+        lines = search(mode, pattern, capacity);
+      } catch (StatusException e) {
+        return e.getStatus();
+      }
+      for (int i = 0; i < lines.length; i += Math.max(batch_size, 1)) {
+        int end = Math.min(lines.length, i + Math.max(batch_size, 1));
+        if (!proc.process(Arrays.copyOfRange(lines, i, end))) {
+          break;
+        }
+      }
+      return new Status(Status.SUCCESS);
+    }
+    int mode_id = RecordFilter.getModeId(mode);
+    if (mode_id < 0) {
+      return new Status(Status.INVALID_ARGUMENT_ERROR, "unsupported mode: " + mode);
+    }
+    return searchParallel(mode_id, pattern, capacity, num_threads, batch_size, proc);
+  }
+
+  /**
+   * Searches the file in parallel and gives lines which match a pattern to a processor, with
+   * string data.
+   * @param mode The search mode.  It is the same as the mode of the method with byte arrays.
+   * @param pattern The pattern for matching.
+   * @param capacity The maximum lines to obtain.  0 means unlimited.
+   * @param num_threads The number of threads to scan the file.
+   * @param batch_size The maximum number of lines given to the processor at once.
+   * @param proc The processor to receive the matching lines.
+   * @return The result status.
+   */
+  public Status search(String mode, String pattern, int capacity, int num_threads,
+                       int batch_size, LineProcessor proc) {
+    return search(mode, pattern.getBytes(StandardCharsets.UTF_8), capacity, num_threads,
+                  batch_size, proc);
+  }
+
   /**
    * Gets a string representation of the iterator.
    */
   public native String toString();
 
+  /**
+   * Gives an advice about the page cache.
+   */
+  private native Status adviseCache(int advice, long off, long size);
+
+  /**
+   * Searches the file in parallel by the native code.
+   */
+  private native Status searchParallel(int mode, byte[] pattern, int capacity, int num_threads,
+                                       int batch_size, LineProcessor proc);
+
+  /**
+   * Reads data into the memory of a direct buffer.
+   */
+  private native Status readDirect(long off, ByteBuffer buf, int buf_off, int size);
+
+  /**
+   * Reads data into a region of a byte array.
+   */
+  private native Status readArray(long off, byte[] buf, int buf_off, int size);
+
+  /**
+   * Reads data of multiple regions into the memory of a direct buffer.
+   */
+  private native Status[] readMultiDirect(
+      long[] offsets, int[] sizes, ByteBuffer dest, int dest_off);
+
+  /**
+   * Writes data from the memory of a direct buffer.
+   */
+  private native Status writeDirect(long off, ByteBuffer buf, int buf_off, int size);
+
+  /**
+   * Appends data from the memory of a direct buffer.
+   */
+  private native long appendDirect(ByteBuffer buf, int buf_off, int size, Status status);
+
+  /**
+   * Checks whether a region is within the limit of a buffer.
+   */
+  private static void checkBufferRegion(ByteBuffer buf, int buf_off, int size) {
+    if (buf == null) {
+      throw new NullPointerException();
+    }
+    if (buf_off < 0 || size < 0 || buf_off > buf.limit() - size) {
+      throw new IllegalArgumentException("invalid size");
+    }
+  }
+
+  /**
+   * Copies a region of a heap buffer into a new array.
+   */
+  private static byte[] copyBufferRegion(ByteBuffer buf, int buf_off, int size) {
+    byte[] tmp = new byte[size];
+    ByteBuffer src = buf.duplicate();
+    src.position(buf_off);
+    src.get(tmp);
+    return tmp;
+  }
+
+  /**
+   * Checks a status and throws an I/O exception if it is not success.
+   */
+  private static void checkIOStatus(Status status) throws IOException {
+    if (!status.isOK()) {
+      throw new IOException(status.toString());
+    }
+  }
+
+  /**
+   * Buffered input stream of a file.
+   */
+  private static class FileReaderStream extends InputStream {
+    /**
+     * Constructor.
+     */
+    FileReaderStream(File file, long off, int buffer_size) {
+      if (off < 0 || buffer_size < 1) {
+        throw new IllegalArgumentException("invalid size");
+      }
+      file_ = file;
+      pos_ = off;
+      buf_ = ByteBuffer.allocateDirect(buffer_size);
+      buf_.limit(0);
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!buf_.hasRemaining() && !fill()) {
+        return -1;
+      }
+      return buf_.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (off < 0 || len < 0 || off > b.length - len) {
+        throw new IndexOutOfBoundsException();
+      }
+      if (len == 0) {
+        return 0;
+      }
+      int done = 0;
+      while (done < len) {
+        if (!buf_.hasRemaining() && !fill()) {
+          break;
+        }
+        int step = Math.min(len - done, buf_.remaining());
+        buf_.get(b, off + done, step);
+        done += step;
+      }
+      return done > 0 ? done : -1;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      if (n <= 0) {
+        return 0;
+      }
+      checkOpen();
+      long buffered = Math.min(n, buf_.remaining());
+      buf_.position(buf_.position() + (int)buffered);
+      long rest = Math.min(n - buffered, Math.max(0, file_.getSize() - pos_));
+      pos_ += rest;
+      return buffered + rest;
+    }
+
+    @Override
+    public int available() throws IOException {
+      checkOpen();
+      long rest = buf_.remaining() + Math.max(0, file_.getSize() - pos_);
+      return (int)Math.min(rest, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void close() {
+      closed_ = true;
+    }
+
+    /**
+     * Fills the buffer with the data at the current position.
+     */
+    private boolean fill() throws IOException {
+      checkOpen();
+      int size = (int)Math.min(buf_.capacity(), Math.max(0, file_.getSize() - pos_));
+      if (size == 0) {
+        return false;
+      }
+      checkIOStatus(file_.readDirect(pos_, buf_, 0, size));
+      buf_.clear();
+      buf_.limit(size);
+      pos_ += size;
+      return true;
+    }
+
+    /**
+     * Checks whether the stream is open.
+     */
+    private void checkOpen() throws IOException {
+      if (closed_) {
+        throw new IOException("closed stream");
+      }
+    }
+
+    /** The file. */
+    private final File file_;
+    /** The offset of the data next to the buffered data. */
+    private long pos_;
+    /** The buffer of the read data. */
+    private final ByteBuffer buf_;
+    /** Whether the stream is closed. */
+    private boolean closed_ = false;
+  }
+
+  /**
+   * Buffered output stream of a file.
+   */
+  private static class FileWriterStream extends OutputStream {
+    /**
+     * Constructor.
+     */
+    FileWriterStream(File file, long off, int buffer_size) {
+      if (buffer_size < 1) {
+        throw new IllegalArgumentException("invalid size");
+      }
+      file_ = file;
+      pos_ = off;
+      buf_ = ByteBuffer.allocateDirect(buffer_size);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      checkOpen();
+      if (!buf_.hasRemaining()) {
+        flushBuffer();
+      }
+      buf_.put((byte)b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (off < 0 || len < 0 || off > b.length - len) {
+        throw new IndexOutOfBoundsException();
+      }
+      checkOpen();
+      while (len > 0) {
+        if (!buf_.hasRemaining()) {
+          flushBuffer();
+        }
+        int step = Math.min(len, buf_.remaining());
+        buf_.put(b, off, step);
+        off += step;
+        len -= step;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      checkOpen();
+      flushBuffer();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!closed_) {
+        flushBuffer();
+        closed_ = true;
+      }
+    }
+
+    /**
+     * Writes the buffered data into the file.
+     */
+    private void flushBuffer() throws IOException {
+      int size = buf_.position();
+      if (size == 0) {
+        return;
+      }
+      if (pos_ < 0) {
+        Status status = new Status();
+        file_.appendDirect(buf_, 0, size, status);
+        checkIOStatus(status);
+      } else {
+        checkIOStatus(file_.writeDirect(pos_, buf_, 0, size));
+        pos_ += size;
+      }
+      buf_.clear();
+    }
+
+    /**
+     * Checks whether the stream is open.
+     */
+    private void checkOpen() throws IOException {
+      if (closed_) {
+        throw new IOException("closed stream");
+      }
+    }
+
+    /** The file. */
+    private final File file_;
+    /** The offset to write the buffered data, or -1 to append it. */
+    private long pos_;
+    /** The buffer of the data to write. */
+    private final ByteBuffer buf_;
+    /** Whether the stream is closed. */
+    private boolean closed_ = false;
+  }
+
+  /**
+   * Seekable byte channel of a file.
+   */
+  private static class FileByteChannel implements SeekableByteChannel {
+    /**
+     * Constructor.
+     */
+    FileByteChannel(File file) {
+      file_ = file;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+      checkOpen();
+      long rest = file_.getSize() - pos_;
+      if (rest <= 0) {
+        return dst.hasRemaining() ? -1 : 0;
+      }
+      int size = (int)Math.min(dst.remaining(), rest);
+      checkIOStatus(file_.read(pos_, dst, dst.position(), size));
+      dst.position(dst.position() + size);
+      pos_ += size;
+      return size;
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer src) throws IOException {
+      checkOpen();
+      int size = src.remaining();
+      checkIOStatus(file_.write(pos_, src, src.position(), size));
+      src.position(src.position() + size);
+      pos_ += size;
+      return size;
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+      checkOpen();
+      return pos_;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+      checkOpen();
+      if (newPosition < 0) {
+        throw new IllegalArgumentException("negative position");
+      }
+      pos_ = newPosition;
+      return this;
+    }
+
+    @Override
+    public synchronized long size() throws IOException {
+      checkOpen();
+      return file_.getSize();
+    }
+
+    @Override
+    public synchronized SeekableByteChannel truncate(long size) throws IOException {
+      checkOpen();
+      if (size < 0) {
+        throw new IllegalArgumentException("negative size");
+      }
+      if (size < file_.getSize()) {
+        checkIOStatus(file_.truncate(size));
+      }
+      pos_ = Math.min(pos_, size);
+      return this;
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+      return !closed_;
+    }
+
+    @Override
+    public synchronized void close() {
+      closed_ = true;
+    }
+
+    /**
+     * Checks whether the channel is open.
+     */
+    private void checkOpen() throws IOException {
+      if (closed_) {
+        throw new ClosedChannelException();
+      }
+    }
+
+    /** The file. */
+    private final File file_;
+    /** The current position. */
+    private long pos_ = 0;
+    /** Whether the channel is closed. */
+    private boolean closed_ = false;
+  }
+
+  /**
+   * Interface of processor for lines found by the search method.
+   */
+  public interface LineProcessor {
+    /**
+     * Processes a batch of lines.
+     * @param lines The matching lines in the order of the file.
+     * @return True to continue the search, or false to stop it.
+     */
+    boolean process(byte[][] lines);
+  }
+
+  /**
+   * Read-only view of a region of a memory-mapped file.
+   * @note The buffer refers to the mapped memory directly.  The memory is unmapped only after the
+   * buffer and all of its duplicates and slices become unreachable, so they stay valid after the
+   * region or the file is closed.  Until then, truncating the file by the file object shorter
+   * than the end of the region fails.  As with FileChannel#map, truncating the file by another
+   * process or another file object makes access to the cut part crash the process.
+   */
+  public static class MappedRegion implements AutoCloseable {
+    /**
+     * Constructor, called by the native code.
+     */
+    private MappedRegion(long ptr, long offset, ByteBuffer root) {
+      offset_ = offset;
+      buffer_ = root.asReadOnlyBuffer();
+      // Buffers derived from the root refer to it, so it is the last one to become unreachable.
+      CLEANER.register(root, new Releaser(ptr));
+    }
+
+    /**
+     * Gets the read-only buffer of the region.
+     * @return The read-only direct buffer of the region, or null if the region is closed.
+     */
+    public synchronized ByteBuffer getBuffer() {
+      return buffer_;
+    }
+
+    /**
+     * Gets the offset of the region in the file.
+     * @return The offset of the region in the file.
+     */
+    public long getOffset() {
+      return offset_;
+    }
+
+    /**
+     * Closes the region.
+     * @note Closing a region twice is harmless.  It can be called by any thread.  It drops the
+     * reference to the buffer but doesn't unmap the memory, which is done after the buffer
+     * obtained by getBuffer and the buffers derived from it become unreachable.
+     */
+    public synchronized void close() {
+      buffer_ = null;
+    }
+
+    /**
+     * Releases the native object of a region.
+     */
+    private static native void release(long ptr);
+
+    /**
+     * Action to release the native object when the buffer becomes unreachable.
+     */
+    private static class Releaser implements Runnable {
+      /**
+       * Constructor.
+       */
+      Releaser(long ptr) {
+        ptr_ = ptr;
+      }
+
+      /**
+       * Releases the native object.
+       */
+      public void run() {
+        release(ptr_);
+      }
+
+      /** The pointer to the native object. */
+      private final long ptr_;
+    }
+
+    /** The cleaner to release the native objects. */
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    /** The offset of the region. */
+    private final long offset_;
+    /** The buffer of the region. */
+    private ByteBuffer buffer_ = null;
+  }
+
+  /** Page cache advice: normal access. */
+  private static final int ADVICE_NORMAL = 0;
+  /** Page cache advice: sequential access. */
+  private static final int ADVICE_SEQUENTIAL = 1;
+  /** Page cache advice: random access. */
+  private static final int ADVICE_RANDOM = 2;
+  /** Page cache advice: prefetching. */
+  private static final int ADVICE_WILLNEED = 3;
+  /** Page cache advice: dropping. */
+  private static final int ADVICE_DONTNEED = 4;
+
+  /** The default buffer size of streams. */
+  private static final int DEFAULT_BUFFER_SIZE = 65536;
+
   /** The pointer to the native object */
   private long ptr_ = 0;
 }
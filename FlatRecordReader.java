@@ -0,0 +1,153 @@
+/*************************************************************************************************
+ * Reader of flat records
+ *
+ * Copyright 2020 Google LLC
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a copy of the License at
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific language governing permissions
+ * and limitations under the License.
+ *************************************************************************************************/
+
+package tkrzw;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reader of key-value pairs from flat records.
+ * @note The input is in the same format as DBM#exportToFlatRecords and FlatRecordWriter.
+ * Records are read sequentially from the beginning of the file.  Metadata records are skipped.
+ * The reader doesn't own the file.  The file must be kept open while the reader is used.  Every
+ * unused reader object should be destructed by the "destruct" method to free resources.  A
+ * reader object is not thread-safe.
+ */
+public class FlatRecordReader {
+  static {
+    Utility.loadLibrary();
+  }
+
+  /**
+   * Constructor.
+   * @param file The file to read records from, which has been opened.
+   * @param buffer_size The size of the read buffer.  0 means the default size.
+   */
+  public FlatRecordReader(File file, int buffer_size) {
+    initialize(file, buffer_size);
+  }
+
+  /**
+   * Constructor with the default buffer size.
+   * @param file The file to read records from, which has been opened.
+   */
+  public FlatRecordReader(File file) {
+    initialize(file, 0);
+  }
+
+  /**
+   * Initializes the object.
+   */
+  private native void initialize(File file, int buffer_size);
+
+  /**
+   * Destructs the object and releases resources.
+   */
+  public native void destruct();
+
+  /**
+   * Reads the next key-value pair.
+   * @param status The status object to store the result status.  If it is null, it is ignored.
+   * @return A pair of the key and the value, or null on failure.
+   * @note At the end of the file, the status is NOT_FOUND_ERROR.
+   */
+  public native byte[][] read(Status status);
+
+  /**
+   * Reads the next key-value pair, without status assignment.
+   * @return A pair of the key and the value, or null on failure.
+   */
+  public byte[][] read() {
+    return read(null);
+  }
+
+  /**
+   * Reads the next key-value pair, as string data.
+   * @param status The status object to store the result status.  If it is null, it is ignored.
+   * @return A pair of the key and the value, or null on failure.
+   */
+  public String[] readString(Status status) {
+    byte[][] record = read(status);
+    if (record == null) {
+      return null;
+    }
+    String[] str_record = new String[2];
+    str_record[0] = new String(record[0], StandardCharsets.UTF_8);
+    str_record[1] = new String(record[1], StandardCharsets.UTF_8);
+    return str_record;
+  }
+
+  /**
+   * Reads the next key-value pair, as string data, without status assignment.
+   * @return A pair of the key and the value, or null on failure.
+   */
+  public String[] readString() {
+    return readString(null);
+  }
+
+  /**
+   * Reads a batch of key-value pairs.
+   * @param max_records The maximum number of pairs to read.  0 means unlimited.
+   * @param status The status object to store the result status.  If it is null, it is ignored.
+   * @return An array of pairs of the key and the value.
+   * @note This costs only one native call for all pairs.  The reading stops when the number of
+   * pairs reaches the limit or when the reader reaches the end of the file, in which case the
+   * status is NOT_FOUND_ERROR.
+   */
+  public native byte[][][] readMulti(int max_records, Status status);
+
+  /**
+   * Reads a batch of key-value pairs, without status assignment.
+   * @param max_records The maximum number of pairs to read.  0 means unlimited.
+   * @return An array of pairs of the key and the value.
+   */
+  public byte[][][] readMulti(int max_records) {
+    return readMulti(max_records, null);
+  }
+
+  /**
+   * Reads a batch of key-value pairs, as string data.
+   * @param max_records The maximum number of pairs to read.  0 means unlimited.
+   * @param status The status object to store the result status.  If it is null, it is ignored.
+   * @return An array of pairs of the key and the value.
+   */
+  public String[][] readMultiString(int max_records, Status status) {
+    byte[][][] records = readMulti(max_records, status);
+    String[][] str_records = new String[records.length][];
+    for (int i = 0; i < records.length; i++) {
+      str_records[i] = new String[2];
+      str_records[i][0] = new String(records[i][0], StandardCharsets.UTF_8);
+      str_records[i][1] = new String(records[i][1], StandardCharsets.UTF_8);
+    }
+    return str_records;
+  }
+
+  /**
+   * Reads a batch of key-value pairs, as string data, without status assignment.
+   * @param max_records The maximum number of pairs to read.  0 means unlimited.
+   * @return An array of pairs of the key and the value.
+   */
+  public String[][] readMultiString(int max_records) {
+    return readMultiString(max_records, null);
+  }
+
+  /**
+   * Gets a string representation of the reader.
+   */
+  public native String toString();
+
+  /** The pointer to the native object */
+  private long ptr_ = 0;
+}
+
+// END OF FILE
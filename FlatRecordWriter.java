@@ -0,0 +1,106 @@
+/*************************************************************************************************
+ * Writer of flat records
+ *
+ * Copyright 2020 Google LLC
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a copy of the License at
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific language governing permissions
+ * and limitations under the License.
+ *************************************************************************************************/
+
+package tkrzw;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writer of key-value pairs as flat records.
+ * @note The output is in the same format as DBM#exportToFlatRecords.  Each pair is appended as
+ * a record of the key followed by a record of the value, so the file can be read by
+ * FlatRecordReader and DBM#importFromFlatRecords.  The writer doesn't own the file.  The file
+ * must be kept open while the writer is used.  Every unused writer object should be destructed
+ * by the "destruct" method to free resources.  A writer object is thread-safe but multiple
+ * writers shouldn't append to the same file concurrently.
+ */
+public class FlatRecordWriter {
+  static {
+    Utility.loadLibrary();
+  }
+
+  /**
+   * Constructor.
+   * @param file The file to append records to, which has been opened as writable.
+   */
+  public FlatRecordWriter(File file) {
+    initialize(file);
+  }
+
+  /**
+   * Initializes the object.
+   */
+  private native void initialize(File file);
+
+  /**
+   * Destructs the object and releases resources.
+   */
+  public native void destruct();
+
+  /**
+   * Writes a key-value pair.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @return The result status.
+   */
+  public native Status write(byte[] key, byte[] value);
+
+  /**
+   * Writes a key-value pair, with string data.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @return The result status.
+   */
+  public Status write(String key, String value) {
+    return write(key.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Writes multiple key-value pairs at once.
+   * @param keys The keys of the records.
+   * @param values The values of the records, in the same order as the keys.
+   * @return The result status.
+   * @note This costs only one native call for all pairs.  The writing stops at the first
+   * failure.
+   */
+  public native Status writeMulti(byte[][] keys, byte[][] values);
+
+  /**
+   * Writes multiple key-value pairs at once, with string data.
+   * @param keys The keys of the records.
+   * @param values The values of the records, in the same order as the keys.
+   * @return The result status.
+   */
+  public Status writeMulti(String[] keys, String[] values) {
+    if (keys.length != values.length) {
+      throw new IllegalArgumentException("inconsistent lengths");
+    }
+    byte[][] raw_keys = new byte[keys.length][];
+    byte[][] raw_values = new byte[values.length][];
+    for (int i = 0; i < keys.length; i++) {
+      raw_keys[i] = keys[i].getBytes(StandardCharsets.UTF_8);
+      raw_values[i] = values[i].getBytes(StandardCharsets.UTF_8);
+    }
+    return writeMulti(raw_keys, raw_values);
+  }
+
+  /**
+   * Gets a string representation of the writer.
+   */
+  public native String toString();
+
+  /** The pointer to the native object */
+  private long ptr_ = 0;
+}
+
+// END OF FILE
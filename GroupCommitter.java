@@ -0,0 +1,264 @@
+/*************************************************************************************************
+ * Group committer to share physical synchronization among writers
+ *
+ * Copyright 2020 Google LLC
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a copy of the License at
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific language governing permissions
+ * and limitations under the License.
+ *************************************************************************************************/
+
+package tkrzw;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Group committer to share physical synchronization among writers.
+ * @note A writer calls "commitDurable" after its updates and it is woken up when a
+ * synchronization started after the call has finished.  A background thread synchronizes the
+ * database once for all pending writers, when the number of pending writers reaches the batch
+ * size or when the oldest pending writer has waited for the interval.  Thus, the cost of
+ * synchronization is shared by the writers of the same batch.  Every unused committer object
+ * should be destructed by the "destruct" method to stop the thread.  All operations are
+ * thread-safe.
+ */
+public class GroupCommitter {
+  /**
+   * Constructor.
+   * @param dbm The database, which has been opened as writable.
+   * @param hard True to do physical synchronization with the hardware or false to do only
+   * logical synchronization with the file system.
+   * @param max_interval The maximum time in milliseconds for a writer to wait for the start of
+   * synchronization.
+   * @param max_batch_size The number of pending writers to start synchronization immediately.
+   */
+  public GroupCommitter(DBM dbm, boolean hard, long max_interval, int max_batch_size) {
+    if (dbm == null) {
+      throw new NullPointerException();
+    }
+    if (max_interval < 0 || max_batch_size < 1) {
+      throw new IllegalArgumentException("invalid interval or batch size");
+    }
+    dbm_ = dbm;
+    hard_ = hard;
+    max_interval_nano_ = max_interval * 1000000;
+    max_batch_size_ = max_batch_size;
+    thread_ = new Thread(() -> run(), "tkrzw-group-committer");
+    thread_.setDaemon(true);
+    thread_.start();
+  }
+
+  /**
+   * Destructs the object and releases resources.
+   * @note Pending writers are committed before returning.  The database is not closed.
+   */
+  public void destruct() {
+    synchronized (this) {
+      running_ = false;
+      notifyAll();
+    }
+    boolean joined = false;
+    while (!joined) {
+      try {
+        thread_.join();
+        joined = true;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Requests to make the updates done so far durable, without waiting.
+   * @return The future of the result status of the synchronization.
+   * @note The future is completed when a synchronization started after this call has finished.
+   * If the committer has been destructed, the future is completed with PRECONDITION_ERROR.
+   */
+  public CompletableFuture<Status> commitDurableAsync() {
+    CompletableFuture<Status> future = new CompletableFuture<Status>();
+    synchronized (this) {
+      if (!running_) {
+        future.complete(new Status(Status.PRECONDITION_ERROR, "destructed committer"));
+        return future;
+      }
+      if (pending_.isEmpty()) {
+        oldest_time_ = System.nanoTime();
+      }
+      pending_.add(new Waiter(future, System.nanoTime()));
+      if (pending_.size() >= max_batch_size_) {
+        notifyAll();
+      }
+    }
+    return future;
+  }
+
+  /**
+   * Makes the updates done so far durable.
+   * @return The result status of the synchronization.
+   * @note The calling thread is blocked until a synchronization started after this call has
+   * finished.
+   */
+  public Status commitDurable() {
+    CompletableFuture<Status> future = commitDurableAsync();
+    boolean interrupted = false;
+    Status status = null;
+    while (status == null) {
+      try {
+        status = future.get();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      } catch (ExecutionException e) {
+        status = new Status(Status.UNKNOWN_ERROR, e.getCause().toString());
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    return status;
+  }
+
+  /**
+   * Gets the statistics.
+   * @return A map of property names and their values.
+   * @note The properties are "num_syncs" for the number of synchronizations, "num_commits" for
+   * the number of committed writers, "mean_batch_size" and "max_batch_size" for the number of
+   * writers of each synchronization, "mean_latency" and "max_latency" for the time in
+   * milliseconds from each request to its completion, and "mean_sync_time" for the time in
+   * milliseconds of each synchronization.
+   */
+  public synchronized Map<String, String> getStats() {
+    Map<String, String> stats = new HashMap<String, String>();
+    stats.put("num_syncs", Long.toString(num_syncs_));
+    stats.put("num_commits", Long.toString(num_commits_));
+    stats.put("mean_batch_size",
+              Double.toString(num_syncs_ > 0 ? (double)num_commits_ / num_syncs_ : 0.0));
+    stats.put("max_batch_size", Long.toString(max_batch_size_seen_));
+    stats.put("mean_latency", Double.toString(
+        num_commits_ > 0 ? total_latency_nano_ / 1000000.0 / num_commits_ : 0.0));
+    stats.put("max_latency", Double.toString(max_latency_nano_ / 1000000.0));
+    stats.put("mean_sync_time", Double.toString(
+        num_syncs_ > 0 ? total_sync_nano_ / 1000000.0 / num_syncs_ : 0.0));
+    return stats;
+  }
+
+  /**
+   * Runs the loop of the background thread.
+   */
+  private void run() {
+    while (true) {
+      List<Waiter> batch;
+      synchronized (this) {
+        while (true) {
+          if (pending_.isEmpty()) {
+            if (!running_) {
+              return;
+            }
+            waitFor(0);
+            continue;
+          }
+          long rest_nano = oldest_time_ + max_interval_nano_ - System.nanoTime();
+          if (!running_ || pending_.size() >= max_batch_size_ || rest_nano <= 0) {
+            break;
+          }
+          waitFor(rest_nano);
+        }
+        batch = pending_;
+        pending_ = new ArrayList<Waiter>();
+      }
+      long start_nano = System.nanoTime();
+      Status status;
+      try {
+        status = dbm_.synchronize(hard_, null);
+      } catch (RuntimeException e) {
+        status = new Status(Status.UNKNOWN_ERROR, e.toString());
+      }
+      long end_nano = System.nanoTime();
+      synchronized (this) {
+        num_syncs_++;
+        num_commits_ += batch.size();
+        max_batch_size_seen_ = Math.max(max_batch_size_seen_, batch.size());
+        total_sync_nano_ += end_nano - start_nano;
+        for (Waiter waiter : batch) {
+          long latency = end_nano - waiter.request_time;
+          total_latency_nano_ += latency;
+          max_latency_nano_ = Math.max(max_latency_nano_, latency);
+        }
+      }
+      for (Waiter waiter : batch) {
+        waiter.future.complete(new Status(status.getCode(), status.getMessage()));
+      }
+    }
+  }
+
+  /**
+   * Waits for a notification on the monitor.
+   */
+  private void waitFor(long timeout_nano) {
+    try {
+      if (timeout_nano <= 0) {
+        wait();
+      } else {
+        wait(timeout_nano / 1000000, (int)(timeout_nano % 1000000));
+      }
+    } catch (InterruptedException e) {
+      running_ = false;
+    }
+  }
+
+  /**
+   * A pending writer.
+   */
+  private static class Waiter {
+    /**
+     * Constructor.
+     */
+    Waiter(CompletableFuture<Status> future, long request_time) {
+      this.future = future;
+      this.request_time = request_time;
+    }
+
+    /** The future to complete. */
+    final CompletableFuture<Status> future;
+    /** The time in nanoseconds of the request. */
+    final long request_time;
+  }
+
+  /** The database. */
+  private final DBM dbm_;
+  /** Whether to do physical synchronization. */
+  private final boolean hard_;
+  /** The maximum time in nanoseconds to wait for the start of synchronization. */
+  private final long max_interval_nano_;
+  /** The number of pending writers to start synchronization. */
+  private final int max_batch_size_;
+  /** The background thread. */
+  private final Thread thread_;
+  /** Whether the background thread is running. */
+  private boolean running_ = true;
+  /** The pending writers. */
+  private List<Waiter> pending_ = new ArrayList<Waiter>();
+  /** The time in nanoseconds of the oldest pending request. */
+  private long oldest_time_ = 0;
+  /** The number of synchronizations. */
+  private long num_syncs_ = 0;
+  /** The number of committed writers. */
+  private long num_commits_ = 0;
+  /** The maximum number of writers of a synchronization. */
+  private long max_batch_size_seen_ = 0;
+  /** The total time in nanoseconds of synchronizations. */
+  private long total_sync_nano_ = 0;
+  /** The total latency in nanoseconds of writers. */
+  private long total_latency_nano_ = 0;
+  /** The maximum latency in nanoseconds of writers. */
+  private long max_latency_nano_ = 0;
+}
+
+// END OF FILE
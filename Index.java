@@ -13,6 +13,7 @@
 
 package tkrzw;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
@@ -134,6 +135,215 @@ public class Index {
     return strValues;
   }
 
+  /**
+   * Gets values of records of a key which come after a value.
+   * @param key The key to look for.
+   * @param start_after The value after which the values are retrieved.  If it is null, the values
+   * are retrieved from the first one.  It doesn't have to exist in the index.
+   * @param max The maximum number of values to get.  0 means unlimited.
+   * @return The values of the key in the order of the index.  An empty array is returned when
+   * there are no more values.
+   * @note This locates the start position by jumping an iterator, so each call costs only as
+   * much as the number of the retrieved values.  It is useful to page through the values of a
+   * key with many values.
+   */
+  public native byte[][] getValuesAfter(byte[] key, byte[] start_after, int max);
+
+  /**
+   * Gets values of records of a key which come after a value, with string data.
+   * @param key The key to look for.
+   * @param start_after The value after which the values are retrieved.  If it is null, the values
+   * are retrieved from the first one.
+   * @param max The maximum number of values to get.  0 means unlimited.
+   * @return The values of the key in the order of the index.
+   */
+  public String[] getValuesAfter(String key, String start_after, int max) {
+    return toStrings(getValuesAfter(
+        key.getBytes(StandardCharsets.UTF_8),
+        start_after == null ? null : start_after.getBytes(StandardCharsets.UTF_8), max));
+  }
+
+  /**
+   * Makes a cursor to page through the values of a key.
+   * @param key The key to look for.
+   * @param start_after The value after which the values are retrieved.  If it is null, the values
+   * are retrieved from the first one.
+   * @param batch_size The maximum number of values retrieved at once.
+   * @return The cursor.
+   * @note The cursor holds no native resource.  It only remembers the last retrieved value, so
+   * the memory usage is constant regardless of the number of values.  Records added or removed
+   * during the paging are reflected if they come after the last retrieved value.
+   */
+  public ValueCursor makeValueCursor(byte[] key, byte[] start_after, int batch_size) {
+    return new ValueCursor(this, key, start_after, batch_size);
+  }
+
+  /**
+   * Makes a cursor to page through the values of a key, with string data.
+   * @param key The key to look for.
+   * @param start_after The value after which the values are retrieved.  If it is null, the values
+   * are retrieved from the first one.
+   * @param batch_size The maximum number of values retrieved at once.
+   * @return The cursor.
+   */
+  public ValueCursor makeValueCursor(String key, String start_after, int batch_size) {
+    return makeValueCursor(
+        key.getBytes(StandardCharsets.UTF_8),
+        start_after == null ? null : start_after.getBytes(StandardCharsets.UTF_8), batch_size);
+  }
+
+  /**
+   * Gets values which all of the given keys have.
+   * @param keys The keys to look for.
+   * @param limit The maximum number of values to get.  0 means unlimited.
+   * @return The common values in the order of the index.
+   * @note This is done by the native code walking the values of the keys together.  Each walk
+   * jumps to the current candidate value, so a long list of values costs little when it is
+   * intersected with a short one.  Only the result crosses into Java.
+   */
+  public native byte[][] intersect(byte[][] keys, int limit);
+
+  /**
+   * Gets values which all of the given keys have, with string data.
+   * @param keys The keys to look for.
+   * @param limit The maximum number of values to get.  0 means unlimited.
+   * @return The common values in the order of the index.
+   */
+  public String[] intersect(String[] keys, int limit) {
+    return toStrings(intersect(toByteArrays(keys), limit));
+  }
+
+  /**
+   * Gets values which any of the given keys has.
+   * @param keys The keys to look for.
+   * @param limit The maximum number of values to get.  0 means unlimited.
+   * @return The values without duplication in the order of the index.
+   * @note This is done by the native code merging the values of the keys.
+   */
+  public native byte[][] union(byte[][] keys, int limit);
+
+  /**
+   * Gets values which any of the given keys has, with string data.
+   * @param keys The keys to look for.
+   * @param limit The maximum number of values to get.  0 means unlimited.
+   * @return The values without duplication in the order of the index.
+   */
+  public String[] union(String[] keys, int limit) {
+    return toStrings(union(toByteArrays(keys), limit));
+  }
+
+  /**
+   * Gets values which all of the given keys have and none of the excluded keys has.
+   * @param keys The keys to look for.
+   * @param excluded_keys The keys whose values are excluded.
+   * @param limit The maximum number of values to get.  0 means unlimited.
+   * @return The values in the order of the index.
+   * @note A query like "general AND sales NOT archived" is done by one call with the keys
+   * "general" and "sales" and the excluded key "archived".  The limit counts the values after
+   * the exclusion.
+   */
+  public native byte[][] difference(byte[][] keys, byte[][] excluded_keys, int limit);
+
+  /**
+   * Gets values which all of the given keys have and none of the excluded keys has, with string
+   * data.
+   * @param keys The keys to look for.
+   * @param excluded_keys The keys whose values are excluded.
+   * @param limit The maximum number of values to get.  0 means unlimited.
+   * @return The values in the order of the index.
+   */
+  public String[] difference(String[] keys, String[] excluded_keys, int limit) {
+    return toStrings(difference(toByteArrays(keys), toByteArrays(excluded_keys), limit));
+  }
+
+  /**
+   * Counts the values of a key.
+   * @param key The key to look for.
+   * @return The number of values of the key.
+   * @note No value is copied into Java.  The time is proportional to the number of values.
+   */
+  public native long countValues(byte[] key);
+
+  /**
+   * Counts the values of a key, with a string key.
+   * @param key The key to look for.
+   * @return The number of values of the key.
+   */
+  public long countValues(String key) {
+    return countValues(key.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Estimates the number of values of a key.
+   * @param key The key to look for.
+   * @param sample_size The number of values read at each end of the values.
+   * @return The exact number of values if it is at most twice the sample size, or the estimated
+   * number of values if not.
+   * @note The first and the last values are read by iterators and the number is interpolated
+   * by their density in the lexical order.  Thus, the estimation is good if the values are
+   * spread evenly.  The time doesn't depend on the number of values.  If the index uses a
+   * non-lexical comparator, the values are counted exactly.
+   */
+  public native long countValuesApprox(byte[] key, int sample_size);
+
+  /**
+   * Estimates the number of values of a key, with a string key.
+   * @param key The key to look for.
+   * @param sample_size The number of values read at each end of the values.
+   * @return The exact number of values if it is at most twice the sample size, or the estimated
+   * number of values if not.
+   */
+  public long countValuesApprox(String key, int sample_size) {
+    return countValuesApprox(key.getBytes(StandardCharsets.UTF_8), sample_size);
+  }
+
+  /**
+   * Counts the records whose keys are in a range.
+   * @param low_key The inclusive lower bound of the keys.  If it is null, the range starts at
+   * the first record.
+   * @param high_key The exclusive upper bound of the keys.  If it is null, the range ends at
+   * the last record.
+   * @return The number of records, each of which is a pair of a key and a value.
+   * @note The keys are compared in the order of the index.  No record is copied into Java.
+   */
+  public native long countRange(byte[] low_key, byte[] high_key);
+
+  /**
+   * Counts the records whose keys are in a range, with string keys.
+   * @param low_key The inclusive lower bound of the keys, or null.
+   * @param high_key The exclusive upper bound of the keys, or null.
+   * @return The number of records, each of which is a pair of a key and a value.
+   */
+  public long countRange(String low_key, String high_key) {
+    return countRange(low_key == null ? null : low_key.getBytes(StandardCharsets.UTF_8),
+                      high_key == null ? null : high_key.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Estimates the number of records whose keys are in a range.
+   * @param low_key The inclusive lower bound of the keys, or null.
+   * @param high_key The exclusive upper bound of the keys, or null.
+   * @param sample_size The number of records read at each end of the range.
+   * @return The exact number of records if it is at most twice the sample size, or the
+   * estimated number of records if not.
+   * @note The estimation is done in the same way as with countValuesApprox.
+   */
+  public native long countRangeApprox(byte[] low_key, byte[] high_key, int sample_size);
+
+  /**
+   * Estimates the number of records whose keys are in a range, with string keys.
+   * @param low_key The inclusive lower bound of the keys, or null.
+   * @param high_key The exclusive upper bound of the keys, or null.
+   * @param sample_size The number of records read at each end of the range.
+   * @return The exact number of records if it is at most twice the sample size, or the
+   * estimated number of records if not.
+   */
+  public long countRangeApprox(String low_key, String high_key, int sample_size) {
+    return countRangeApprox(
+        low_key == null ? null : low_key.getBytes(StandardCharsets.UTF_8),
+        high_key == null ? null : high_key.getBytes(StandardCharsets.UTF_8), sample_size);
+  }
+
   /**
    * Adds a record.
    * @param key The key of the record.  This can be an arbitrary expression to search the index.
@@ -170,6 +380,71 @@ public class Index {
     return remove(key.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8));
   }
 
+  /**
+   * Adds multiple records at once.
+   * @param keys The keys of the records.
+   * @param values The values of the records, in the same order as the keys.
+   * @return The result status.
+   * @note All records are added by one native call.  If the internal database is ordered, the
+   * records are sorted before insertion so that the B+ tree is updated sequentially.  The adding
+   * stops at the first failure.
+   */
+  public native Status addMulti(byte[][] keys, byte[][] values);
+
+  /**
+   * Adds multiple records at once, with string data.
+   * @param keys The keys of the records.
+   * @param values The values of the records, in the same order as the keys.
+   * @return The result status.
+   */
+  public Status addMulti(String[] keys, String[] values) {
+    return addMulti(toByteArrays(keys), toByteArrays(values));
+  }
+
+  /**
+   * Adds multiple records packed in a byte buffer at once.
+   * @param packed The buffer of packed records between the position and the limit.  Each record
+   * is a 4-byte big-endian size of the key, the key, a 4-byte big-endian size of the value, and
+   * the value.  On success, the position is advanced to the limit.
+   * @return The result status.
+   * @note If the buffer is direct, the records are read from its memory without copying.
+   * Otherwise, the data is copied.  Broken data causes IllegalArgumentException before any
+   * record is added.
+   */
+  public Status addMulti(ByteBuffer packed) {
+    return updatePacked(packed, false);
+  }
+
+  /**
+   * Removes multiple records at once.
+   * @param keys The keys of the records.
+   * @param values The values of the records, in the same order as the keys.
+   * @return The result status.
+   * @note All records are removed by one native call.  If some records don't exist, the others
+   * are still removed and NOT_FOUND_ERROR is returned.
+   */
+  public native Status removeMulti(byte[][] keys, byte[][] values);
+
+  /**
+   * Removes multiple records at once, with string data.
+   * @param keys The keys of the records.
+   * @param values The values of the records, in the same order as the keys.
+   * @return The result status.
+   */
+  public Status removeMulti(String[] keys, String[] values) {
+    return removeMulti(toByteArrays(keys), toByteArrays(values));
+  }
+
+  /**
+   * Removes multiple records packed in a byte buffer at once.
+   * @param packed The buffer of packed records in the same format as addMulti.  On success, the
+   * position is advanced to the limit.
+   * @return The result status.
+   */
+  public Status removeMulti(ByteBuffer packed) {
+    return updatePacked(packed, true);
+  }
+
   /**
    * Gets the number of records.
    * @return The number of records, or -1 on failure.
@@ -226,6 +501,128 @@ public class Index {
    */
   public native String toString();
 
+  /**
+   * Adds or removes records packed in the memory of a direct buffer.
+   */
+  private native Status updatePackedDirect(ByteBuffer buf, int buf_off, int size,
+                                           boolean removing);
+
+  /**
+   * Adds or removes records packed in a byte buffer.
+   */
+  private Status updatePacked(ByteBuffer packed, boolean removing) {
+    ByteBuffer buf = packed;
+    if (!packed.isDirect()) {
+      buf = ByteBuffer.allocateDirect(packed.remaining());
+      buf.put(packed.duplicate());
+    }
+    int buf_off = packed.isDirect() ? packed.position() : 0;
+    Status status = updatePackedDirect(buf, buf_off, packed.remaining(), removing);
+    if (status.isOK() || status.equals(Status.NOT_FOUND_ERROR)) {
+      packed.position(packed.limit());
+    }
+    return status;
+  }
+
+  /**
+   * Cursor to page through the values of a key.
+   */
+  public static class ValueCursor {
+    /**
+     * Constructor.
+     */
+    private ValueCursor(Index index, byte[] key, byte[] start_after, int batch_size) {
+      if (key == null) {
+        throw new NullPointerException();
+      }
+      if (batch_size < 1) {
+        throw new IllegalArgumentException("invalid batch size");
+      }
+      index_ = index;
+      key_ = key;
+      last_value_ = start_after;
+      batch_size_ = batch_size;
+    }
+
+    /**
+     * Gets the next batch of values.
+     * @return The values in the order of the index.  An empty array is returned when there are
+     * no more values.
+     */
+    public byte[][] next() {
+      if (done_) {
+        return new byte[0][];
+      }
+      byte[][] values = index_.getValuesAfter(key_, last_value_, batch_size_);
+      if (values.length < batch_size_) {
+        done_ = true;
+      }
+      if (values.length > 0) {
+        last_value_ = values[values.length - 1];
+      }
+      return values;
+    }
+
+    /**
+     * Gets the next batch of values, as string data.
+     * @return The values in the order of the index.  An empty array is returned when there are
+     * no more values.
+     */
+    public String[] nextString() {
+      return toStrings(next());
+    }
+
+    /**
+     * Checks whether the cursor has reached the end.
+     * @return True if no more values are retrieved, or false if not yet known.
+     */
+    public boolean isDone() {
+      return done_;
+    }
+
+    /**
+     * Gets the last retrieved value.
+     * @return The last retrieved value, or the start value if nothing has been retrieved.  It
+     * can be given to makeValueCursor to resume the paging later.
+     */
+    public byte[] getLastValue() {
+      return last_value_;
+    }
+
+    /** The index. */
+    private final Index index_;
+    /** The key. */
+    private final byte[] key_;
+    /** The last retrieved value. */
+    private byte[] last_value_;
+    /** The batch size. */
+    private final int batch_size_;
+    /** Whether the cursor has reached the end. */
+    private boolean done_ = false;
+  }
+
+  /**
+   * Converts strings into byte arrays.
+   */
+  private static byte[][] toByteArrays(String[] strs) {
+    byte[][] arrays = new byte[strs.length][];
+    for (int i = 0; i < strs.length; i++) {
+      arrays[i] = strs[i].getBytes(StandardCharsets.UTF_8);
+    }
+    return arrays;
+  }
+
+  /**
+   * Converts byte arrays into strings.
+   */
+  private static String[] toStrings(byte[][] arrays) {
+    String[] strs = new String[arrays.length];
+    for (int i = 0; i < arrays.length; i++) {
+      strs[i] = new String(arrays[i], StandardCharsets.UTF_8);
+    }
+    return strs;
+  }
+
   /** The pointer to the native object */
   private long ptr_ = 0;
 }
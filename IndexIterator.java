@@ -101,6 +101,37 @@ public class IndexIterator {
     return str_record;
   }
 
+  /**
+   * Gets records whose keys begin with a prefix and moves the iterator forward.
+   * @param prefix The prefix of the keys.
+   * @param max The maximum number of records to get.  0 means unlimited.
+   * @return An array of pairs of the key and the value.  The scan stops at the first record
+   * whose key doesn't begin with the prefix, where the iterator stays.  An empty array is
+   * returned if there are no more matching records.
+   * @note Call "jump" with the prefix and an empty value beforehand to start at the first
+   * matching record of an index in the lexical order.  Records of a batch are retrieved by
+   * one native call.
+   */
+  public native byte[][][] scanPrefix(byte[] prefix, int max);
+
+  /**
+   * Gets records whose keys begin with a prefix and moves the iterator forward, with string
+   * data.
+   * @param prefix The prefix of the keys.
+   * @param max The maximum number of records to get.  0 means unlimited.
+   * @return An array of pairs of the key and the value.
+   */
+  public String[][] scanPrefix(String prefix, int max) {
+    byte[][][] records = scanPrefix(prefix.getBytes(StandardCharsets.UTF_8), max);
+    String[][] str_records = new String[records.length][];
+    for (int i = 0; i < records.length; i++) {
+      str_records[i] = new String[2];
+      str_records[i][0] = new String(records[i][0], StandardCharsets.UTF_8);
+      str_records[i][1] = new String(records[i][1], StandardCharsets.UTF_8);
+    }
+    return str_records;
+  }
+
   /**
    * Gets a string representation of the iterator.
    */
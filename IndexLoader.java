@@ -0,0 +1,134 @@
+/*************************************************************************************************
+ * Bulk loader of records into the secondary index
+ *
+ * Copyright 2020 Google LLC
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a copy of the License at
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific language governing permissions
+ * and limitations under the License.
+ *************************************************************************************************/
+
+package tkrzw;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Bulk loader of records into the secondary index.
+ * @note Records are given in arbitrary order and buffered in native memory.  When the buffer
+ * exceeds the memory limit, the records are sorted in the order of the index and written into
+ * a spill file in the temporary directory.  The "finish" method merges the spill files and the
+ * buffer and adds the records to the index in the sorted order, so the internal tree is
+ * updated sequentially.  Duplicated records are added only once.  The loader doesn't own the
+ * index.  The index must be kept open while the loader is used.  Every unused loader object
+ * should be destructed by the "destruct" method to free resources and remove the spill files.
+ * A loader object is thread-safe.
+ */
+public class IndexLoader {
+  static {
+    Utility.loadLibrary();
+  }
+
+  /**
+   * Constructor.
+   * @param index The index to load records into, which has been opened as writable.
+   * @param tmp_dir_path The path of the directory to store the spill files.  It can be shared by
+   * other loaders and processes, as each spill file is created exclusively with a unique name.
+   * @param max_memory_size The maximum size of records buffered in memory.
+   */
+  public IndexLoader(Index index, String tmp_dir_path, long max_memory_size) {
+    initialize(index, tmp_dir_path, max_memory_size);
+  }
+
+  /**
+   * Initializes the object.
+   */
+  private native void initialize(Index index, String tmp_dir_path, long max_memory_size);
+
+  /**
+   * Destructs the object and releases resources.
+   * @note Records which haven't been added to the index by the "finish" method are discarded.
+   */
+  public native void destruct();
+
+  /**
+   * Adds a record to the loader.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @return The result status.  An error is returned if writing a spill file fails.
+   */
+  public native Status add(byte[] key, byte[] value);
+
+  /**
+   * Adds a record to the loader, with string data.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @return The result status.
+   */
+  public Status add(String key, String value) {
+    return add(key.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Adds multiple records to the loader at once.
+   * @param keys The keys of the records.
+   * @param values The values of the records, in the same order as the keys.
+   * @return The result status.
+   * @note This costs only one native call for all records.  The adding stops at the first
+   * failure.
+   */
+  public native Status addMulti(byte[][] keys, byte[][] values);
+
+  /**
+   * Adds multiple records to the loader at once, with string data.
+   * @param keys The keys of the records.
+   * @param values The values of the records, in the same order as the keys.
+   * @return The result status.
+   */
+  public Status addMulti(String[] keys, String[] values) {
+    if (keys.length != values.length) {
+      throw new IllegalArgumentException("inconsistent lengths");
+    }
+    byte[][] key_arrays = new byte[keys.length][];
+    byte[][] value_arrays = new byte[values.length][];
+    for (int i = 0; i < keys.length; i++) {
+      key_arrays[i] = keys[i].getBytes(StandardCharsets.UTF_8);
+      value_arrays[i] = values[i].getBytes(StandardCharsets.UTF_8);
+    }
+    return addMulti(key_arrays, value_arrays);
+  }
+
+  /**
+   * Adds all loaded records to the index in the sorted order.
+   * @return The result status.
+   * @note On success, the spill files are removed and the loader becomes empty so that it can
+   * be reused.  On failure, the spill files and the buffered records are kept so that this
+   * method can be called again.  Records added before the failure are added again, which is
+   * harmless as the index ignores duplicated records.
+   */
+  public native Status finish();
+
+  /**
+   * Gets the number of records added since the last call of the "finish" method.
+   * @return The number of records, including duplicated ones.
+   */
+  public native long count();
+
+  /**
+   * Gets the number of spill files.
+   * @return The number of spill files.
+   */
+  public native int getNumSpillFiles();
+
+  /**
+   * Gets a string representation of the loader.
+   */
+  public native String toString();
+
+  /** The pointer to the native object */
+  private long ptr_ = 0;
+}
+
+// END OF FILE
@@ -0,0 +1,452 @@
+/*************************************************************************************************
+ * Database manager with automatically maintained secondary indices
+ *
+ * Copyright 2020 Google LLC
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a copy of the License at
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific language governing permissions
+ * and limitations under the License.
+ *************************************************************************************************/
+
+package tkrzw;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Database manager with automatically maintained secondary indices.
+ * @note Each secondary index is an Index object whose records associate a secondary key with the
+ * primary key of a record in the database.  Secondary keys are computed from the primary key
+ * and the value by a key extractor.  Every update through this object is done inside the record
+ * processor of DBM#process so the index entries of the old value are replaced with those of the
+ * new value while the record is locked.  All operations are thread-safe as long as the database
+ * and the indices are updated only through this object.  The database and the indices must be
+ * opened and closed by the caller.
+ */
+public class IndexedDBM {
+  /**
+   * Interface of function to extract secondary keys from a record.
+   */
+  public interface KeyExtractor {
+    /**
+     * Extracts secondary keys from a record.
+     * @param key The primary key of the record.
+     * @param value The value of the record.
+     * @return An array of secondary keys.  Null or an empty array means no secondary key.
+     */
+    public byte[][] extract(byte[] key, byte[] value);
+  }
+
+  /**
+   * Constructor.
+   * @param dbm The primary database.
+   */
+  public IndexedDBM(DBM dbm) {
+    if (dbm == null) {
+      throw new NullPointerException();
+    }
+    dbm_ = dbm;
+  }
+
+  /**
+   * Adds a secondary index.
+   * @param index The index object.  It must be opened as writable.
+   * @param extractor The function to extract the secondary keys of each record.
+   * @return This object itself.
+   * @note Indices should be added before any update is done.  Existing records are not indexed
+   * until the backfill method is called.
+   */
+  public synchronized IndexedDBM addIndex(Index index, KeyExtractor extractor) {
+    if (index == null || extractor == null) {
+      throw new NullPointerException();
+    }
+    IndexSlot[] slots = Arrays.copyOf(slots_, slots_.length + 1);
+    slots[slots_.length] = new IndexSlot(index, extractor);
+    slots_ = slots;
+    return this;
+  }
+
+  /**
+   * Gets the primary database.
+   * @return The primary database.
+   */
+  public DBM getDBM() {
+    return dbm_;
+  }
+
+  /**
+   * Gets the number of secondary indices.
+   * @return The number of secondary indices.
+   */
+  public int getNumIndices() {
+    return slots_.length;
+  }
+
+  /**
+   * Gets a secondary index.
+   * @param id The index ID, which is the order of addition from 0.
+   * @return The index object.
+   */
+  public Index getIndex(int id) {
+    return slots_[id].index;
+  }
+
+  /**
+   * Processes a record and updates the secondary indices accordingly.
+   * @param key The key of the record.
+   * @param proc The processor object.  Its "process" method is called with the key and the
+   * value of the existing record, or null if the record doesn't exist.  The return value is a
+   * byte array to update the record value, null not to modify the record, or REMOVE to remove
+   * the record.
+   * @return The result status.  If updating an index fails, the record is not modified and the
+   * status of the index operation is returned.
+   * @note The processor must not be a RecordOperation, whose result is computed in the native
+   * code and cannot be seen by the index updater.  Index entries of the new value are added to
+   * all indices before those of the old value are removed.  If an addition fails, the entries
+   * added to the other indices are removed and the record is not modified.  A failure of a
+   * removal can leave extra entries but never drops entries of the current value.
+   */
+  public Status process(byte[] key, RecordProcessor proc) {
+    if (key == null || proc == null) {
+      throw new NullPointerException();
+    }
+    if (proc instanceof RecordOperation) {
+      throw new IllegalArgumentException("RecordOperation is not supported");
+    }
+    IndexUpdater updater = new IndexUpdater(key, proc, slots_);
+    Status status = dbm_.process(key, updater, true);
+    if (status.isOK()) {
+      return updater.status;
+    }
+    return status;
+  }
+
+  /**
+   * Processes a record and updates the secondary indices accordingly, with a string key.
+   * @param key The key of the record.
+   * @param proc The processor object.
+   * @return The result status.
+   */
+  public Status process(String key, RecordProcessor proc) {
+    return process(key.getBytes(StandardCharsets.UTF_8), proc);
+  }
+
+  /**
+   * Gets the value of a record of a key.
+   * @param key The key of the record.
+   * @return The value data of the record or null on failure.
+   */
+  public byte[] get(byte[] key) {
+    return dbm_.get(key);
+  }
+
+  /**
+   * Gets the value of a record of a key, as a string.
+   * @param key The key of the record.
+   * @return The value string of the record or null on failure.
+   */
+  public String get(String key) {
+    return dbm_.get(key);
+  }
+
+  /**
+   * Sets a record of a key and a value and updates the secondary indices.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @param overwrite Whether to overwrite the existing value if there's a record with the same
+   * key.  If true, the existing value is overwritten by the new value.  If false, the operation
+   * is given up and an error status is returned.
+   * @return The result status.  If overwriting is abandoned, DUPLICATION_ERROR is returned.
+   */
+  public Status set(byte[] key, byte[] value, boolean overwrite) {
+    if (value == null) {
+      throw new NullPointerException();
+    }
+    Status status = new Status();
+    Status proc_status = process(key, (k, v) -> {
+        if (v != null && !overwrite) {
+          status.set(Status.DUPLICATION_ERROR, "");
+          return null;
+        }
+        return value;
+      });
+    status.join(proc_status);
+    return status;
+  }
+
+  /**
+   * Sets a record of a key and a value, with string data.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @param overwrite Whether to overwrite the existing value.
+   * @return The result status.
+   */
+  public Status set(String key, String value, boolean overwrite) {
+    return set(key.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8),
+               overwrite);
+  }
+
+  /**
+   * Sets a record of a key and a value, overwriting the existing value.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @return The result status.
+   */
+  public Status set(byte[] key, byte[] value) {
+    return set(key, value, true);
+  }
+
+  /**
+   * Sets a record of a key and a value, with string data, overwriting the existing value.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @return The result status.
+   */
+  public Status set(String key, String value) {
+    return set(key, value, true);
+  }
+
+  /**
+   * Removes a record of a key and its entries in the secondary indices.
+   * @param key The key of the record.
+   * @return The result status.  If there's no matching record, NOT_FOUND_ERROR is returned.
+   */
+  public Status remove(byte[] key) {
+    Status status = new Status();
+    Status proc_status = process(key, (k, v) -> {
+        if (v == null) {
+          status.set(Status.NOT_FOUND_ERROR, "");
+          return null;
+        }
+        return RecordProcessor.REMOVE;
+      });
+    status.join(proc_status);
+    return status;
+  }
+
+  /**
+   * Removes a record of a key, with a string key.
+   * @param key The key of the record.
+   * @return The result status.
+   */
+  public Status remove(String key) {
+    return remove(key.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Adds index entries of every existing record to the secondary indices.
+   * @param num_threads The number of threads to extract secondary keys and update the indices.
+   * @param batch_size The number of records given to each thread at once.
+   * @return The result status.
+   * @note The database is scanned by DBM#processEach with a batch processor on the calling
+   * thread while the worker threads extract secondary keys and add them to the indices by
+   * Index#addMulti.  Existing entries are kept, so call Index#clear beforehand to rebuild the
+   * indices from scratch.  Records should not be updated during the backfill.
+   */
+  public Status backfill(int num_threads, int batch_size) {
+    if (num_threads < 1 || batch_size < 1) {
+      throw new IllegalArgumentException("invalid number of threads or batch size");
+    }
+    final IndexSlot[] index_slots = slots_;
+    final Status status = new Status();
+    final Semaphore slots = new Semaphore(num_threads * 2);
+    ExecutorService executor = Executors.newFixedThreadPool(num_threads);
+    Status scan_status;
+    try {
+      scan_status = dbm_.processEach((keys, values) -> {
+          slots.acquireUninterruptibly();
+          executor.execute(() -> {
+              try {
+                for (IndexSlot slot : index_slots) {
+                  Status index_status = addEntries(slot.index, slot.extractor, keys, values);
+                  synchronized (status) {
+                    status.join(index_status);
+                  }
+                }
+              } catch (RuntimeException e) {
+                synchronized (status) {
+                  status.join(new Status(Status.APPLICATION_ERROR, e.toString()));
+                }
+              } finally {
+                slots.release();
+              }
+            });
+        }, batch_size);
+    } finally {
+      executor.shutdown();
+      boolean terminated = false;
+      while (!terminated) {
+        try {
+          terminated = executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+    synchronized (status) {
+      scan_status.join(status);
+    }
+    return scan_status;
+  }
+
+  /**
+   * Adds index entries of a batch of records to an index.
+   */
+  private static Status addEntries(Index index, KeyExtractor extractor,
+                                   byte[][] keys, byte[][] values) {
+    ArrayList<byte[]> index_keys = new ArrayList<byte[]>();
+    ArrayList<byte[]> index_values = new ArrayList<byte[]>();
+    for (int i = 0; i < keys.length; i++) {
+      byte[][] sec_keys = extractor.extract(keys[i], values[i]);
+      if (sec_keys == null) {
+        continue;
+      }
+      for (byte[] sec_key : sec_keys) {
+        index_keys.add(sec_key);
+        index_values.add(keys[i]);
+      }
+    }
+    if (index_keys.isEmpty()) {
+      return new Status();
+    }
+    return index.addMulti(index_keys.toArray(new byte[0][]),
+                          index_values.toArray(new byte[0][]));
+  }
+
+  /**
+   * Record processor to update the secondary indices with the record.
+   */
+  private static class IndexUpdater implements RecordProcessor {
+    /**
+     * Constructor.
+     */
+    IndexUpdater(byte[] key, RecordProcessor proc, IndexSlot[] slots) {
+      key_ = key;
+      proc_ = proc;
+      slots_ = slots;
+    }
+
+    /**
+     * Processes the record and updates the indices.
+     */
+    public byte[] process(byte[] key, byte[] value) {
+      byte[] new_value = proc_.process(key_, value);
+      if (new_value == null) {
+        return null;
+      }
+      boolean removing = new_value == RecordProcessor.REMOVE;
+      byte[][][] added_keys = new byte[slots_.length][][];
+      byte[][][] removed_keys = new byte[slots_.length][][];
+      for (int i = 0; i < slots_.length; i++) {
+        IndexSlot slot = slots_[i];
+        byte[][] old_keys = value == null ? null : slot.extractor.extract(key_, value);
+        byte[][] new_keys = removing ? null : slot.extractor.extract(key_, new_value);
+        added_keys[i] = subtractKeys(new_keys, old_keys);
+        removed_keys[i] = subtractKeys(old_keys, new_keys);
+      }
+      for (int i = 0; i < slots_.length; i++) {
+        if (added_keys[i].length == 0) {
+          continue;
+        }
+        Status add_status =
+            slots_[i].index.addMulti(added_keys[i], fillValues(added_keys[i].length));
+        if (!add_status.isOK()) {
+          status.join(add_status);
+          for (int j = 0; j < i; j++) {
+            if (added_keys[j].length > 0) {
+              slots_[j].index.removeMulti(added_keys[j], fillValues(added_keys[j].length));
+            }
+          }
+          return null;
+        }
+      }
+      for (int i = 0; i < slots_.length; i++) {
+        if (removed_keys[i].length == 0) {
+          continue;
+        }
+        Status remove_status =
+            slots_[i].index.removeMulti(removed_keys[i], fillValues(removed_keys[i].length));
+        if (!remove_status.equals(Status.NOT_FOUND_ERROR)) {
+          status.join(remove_status);
+        }
+      }
+      return new_value;
+    }
+
+    /**
+     * Makes an array filled with the primary key.
+     */
+    private byte[][] fillValues(int size) {
+      byte[][] values = new byte[size][];
+      Arrays.fill(values, key_);
+      return values;
+    }
+
+    /**
+     * Gets distinct keys which are in the left set but not in the right set.
+     */
+    private static byte[][] subtractKeys(byte[][] lhs, byte[][] rhs) {
+      if (lhs == null) {
+        return new byte[0][];
+      }
+      Set<ByteBuffer> excluded = new HashSet<ByteBuffer>();
+      if (rhs != null) {
+        for (byte[] rhs_key : rhs) {
+          excluded.add(ByteBuffer.wrap(rhs_key));
+        }
+      }
+      ArrayList<byte[]> result = new ArrayList<byte[]>(lhs.length);
+      for (byte[] lhs_key : lhs) {
+        if (excluded.add(ByteBuffer.wrap(lhs_key))) {
+          result.add(lhs_key);
+        }
+      }
+      return result.toArray(new byte[0][]);
+    }
+
+    /** The result status of the index operations. */
+    Status status = new Status();
+    /** The primary key. */
+    private final byte[] key_;
+    /** The user processor. */
+    private final RecordProcessor proc_;
+    /** The secondary indices. */
+    private final IndexSlot[] slots_;
+  }
+
+  /**
+   * Pair of a secondary index and its key extractor.
+   */
+  private static class IndexSlot {
+    /**
+     * Constructor.
+     */
+    IndexSlot(Index index, KeyExtractor extractor) {
+      this.index = index;
+      this.extractor = extractor;
+    }
+
+    /** The index object. */
+    final Index index;
+    /** The key extractor. */
+    final KeyExtractor extractor;
+  }
+
+  /** The primary database. */
+  private final DBM dbm_;
+  /** The secondary indices with their key extractors. */
+  private volatile IndexSlot[] slots_ = new IndexSlot[0];
+}
+
+// END OF FILE
@@ -278,6 +278,57 @@ public class Iterator {
     return stepString(null);
   }
 
+  /**
+   * Gets records matching a filter and moves the iterator past them.
+   * @param filter The filter evaluated by the native code.  If it is null, every record matches.
+   * @param max_records The maximum number of records to get.  0 means unlimited.
+   * @param status The status object to store the result status.  If it is null, it is ignored.
+   * @return An array of pairs of the key and the value of the matching records.
+   * @note Records which don't match the filter are skipped without calling any Java method.
+   * The iteration stops when the number of records reaches the limit or when the iterator
+   * reaches the end of the database, in which case the status is NOT_FOUND_ERROR.
+   */
+  public native byte[][][] stepMulti(RecordFilter filter, int max_records, Status status);
+
+  /**
+   * Gets records matching a filter and moves the iterator past them, without status assignment.
+   * @param filter The filter evaluated by the native code.  If it is null, every record matches.
+   * @param max_records The maximum number of records to get.  0 means unlimited.
+   * @return An array of pairs of the key and the value of the matching records.
+   */
+  public byte[][][] stepMulti(RecordFilter filter, int max_records) {
+    return stepMulti(filter, max_records, null);
+  }
+
+  /**
+   * Gets records matching a filter and moves the iterator past them, as string data.
+   * @param filter The filter evaluated by the native code.  If it is null, every record matches.
+   * @param max_records The maximum number of records to get.  0 means unlimited.
+   * @param status The status object to store the result status.  If it is null, it is ignored.
+   * @return An array of pairs of the key and the value of the matching records.
+   */
+  public String[][] stepMultiString(RecordFilter filter, int max_records, Status status) {
+    byte[][][] records = stepMulti(filter, max_records, status);
+    String[][] str_records = new String[records.length][];
+    for (int i = 0; i < records.length; i++) {
+      str_records[i] = new String[2];
+      str_records[i][0] = new String(records[i][0], StandardCharsets.UTF_8);
+      str_records[i][1] = new String(records[i][1], StandardCharsets.UTF_8);
+    }
+    return str_records;
+  }
+
+  /**
+   * Gets records matching a filter and moves the iterator past them, as string data, without
+   * status assignment.
+   * @param filter The filter evaluated by the native code.  If it is null, every record matches.
+   * @param max_records The maximum number of records to get.  0 means unlimited.
+   * @return An array of pairs of the key and the value of the matching records.
+   */
+  public String[][] stepMultiString(RecordFilter filter, int max_records) {
+    return stepMultiString(filter, max_records, null);
+  }
+
   /**
    * Gets a string representation of the iterator.
    */
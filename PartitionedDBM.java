@@ -0,0 +1,802 @@
+/*************************************************************************************************
+ * Range-partitioned database manager
+ *
+ * Copyright 2020 Google LLC
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a copy of the License at
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific language governing permissions
+ * and limitations under the License.
+ *************************************************************************************************/
+
+package tkrzw;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Range-partitioned database manager.
+ * @note The key space is divided into partitions by split points.  Each partition is a TreeDBM file
+ * in a directory and covers the keys from its split point inclusive to the next split point
+ * exclusive.  The split points and the file names are stored in a manifest file in the same
+ * directory.  Keys are compared in the unsigned byte order, so the TreeDBM files must use the
+ * default lexical comparator.  A point operation is done on one partition.  A range scan is done
+ * only on the partitions overlapping the range, in parallel.  When the number of records of a
+ * partition exceeds the limit, the partition is split at its median key by a background thread.  A
+ * split copies the upper half to a new partition file, synchronizes it, and publishes it in the
+ * manifest before removing the copied records from the original partition, so a failure or a crash
+ * in the middle doesn't lose records.  Operations on the partition wait while it is split.  All
+ * operations except for "open" and "close" are thread-safe.
+ */
+public class PartitionedDBM {
+  /**
+   * Constructor.
+   */
+  public PartitionedDBM() {
+  }
+
+  /**
+   * Opens the partitions in a directory.
+   * @param dir_path The path of the directory.  It must exist.
+   * @param writable If true, the partitions are writable.  If false, they are read-only.
+   * @param params Optional parameters.  If it is null, it is ignored.
+   * @return The result status.
+   * @note The optional parameters "name" (string) for the prefix of the file names,
+   * "max_partition_records" (int) for the number of records to trigger a split, and
+   * "num_threads" (int) for the number of threads of range scans are supported.  The other
+   * parameters are given to DBM#open of each partition.  The parameter "truncate" removes
+   * all existing partitions.  If there's no manifest, one empty partition is created.
+   */
+  public Status open(String dir_path, boolean writable, Map<String, String> params) {
+    if (parts_ != null) {
+      throw new IllegalStateException("opened database");
+    }
+    Map<String, String> dbm_params =
+        params == null ? new HashMap<String, String>() : new HashMap<String, String>(params);
+    name_ = takeParam(dbm_params, "name", "partition");
+    max_partition_records_ =
+        Long.parseLong(takeParam(dbm_params, "max_partition_records", "1000000"));
+    int num_threads = Integer.parseInt(takeParam(dbm_params, "num_threads", "4"));
+    boolean truncate = Boolean.parseBoolean(takeParam(dbm_params, "truncate", "false"));
+    dbm_params.put("dbm", "TreeDBM");
+    dir_path_ = Paths.get(dir_path);
+    writable_ = writable;
+    dbm_params_ = dbm_params;
+    List<Partition> parts = new ArrayList<Partition>();
+    Path manifest_path = dir_path_.resolve(name_ + MANIFEST_SUFFIX);
+    try {
+      if (truncate && Files.exists(manifest_path)) {
+        for (String[] fields : readManifest(manifest_path)) {
+          Files.deleteIfExists(dir_path_.resolve(fields[1]));
+        }
+        Files.delete(manifest_path);
+      }
+      if (Files.exists(manifest_path)) {
+        for (String[] fields : readManifest(manifest_path)) {
+          parts.add(new Partition(decodeHex(fields[0]), fields[1]));
+        }
+      } else {
+        parts.add(new Partition(new byte[0], makeFileName(0)));
+      }
+    } catch (IOException | RuntimeException e) {
+      return new Status(Status.BROKEN_DATA_ERROR, "manifest: " + e.getMessage());
+    }
+    Status status = new Status();
+    for (Partition part : parts) {
+      part.dbm = new DBM();
+      status.join(part.dbm.open(
+          dir_path_.resolve(part.file_name).toString(), writable, dbm_params_));
+      next_file_id_ = Math.max(next_file_id_, parseFileId(part.file_name) + 1);
+    }
+    if (!status.isOK()) {
+      for (Partition part : parts) {
+        part.dbm.close();
+        part.dbm.destruct();
+      }
+      return status;
+    }
+    parts_ = parts.toArray(new Partition[0]);
+    if (writable) {
+      for (int i = 0; i + 1 < parts.size(); i++) {
+        status.join(purgeOutOfRange(parts.get(i), parts.get(i + 1).lower));
+      }
+      status.join(writeManifest());
+    }
+    scan_executor_ = Executors.newFixedThreadPool(Math.max(num_threads, 1));
+    split_executor_ = Executors.newSingleThreadExecutor();
+    return status;
+  }
+
+  /**
+   * Opens the partitions in a directory, with a string expression of the parameters.
+   * @param dir_path The path of the directory.
+   * @param writable If true, the partitions are writable.  If false, they are read-only.
+   * @param params Optional parameters in "key=value,key=value" format.
+   * @return The result status.
+   */
+  public Status open(String dir_path, boolean writable, String params) {
+    return open(dir_path, writable, Utility.parseParams(params));
+  }
+
+  /**
+   * Closes the partitions.
+   * @return The result status.
+   * @note Pending splits are finished before closing.
+   */
+  public Status close() {
+    if (parts_ == null) {
+      throw new IllegalStateException("not opened database");
+    }
+    split_executor_.shutdown();
+    scan_executor_.shutdown();
+    awaitTermination(split_executor_);
+    awaitTermination(scan_executor_);
+    Status status = new Status();
+    status.join(split_status_);
+    if (writable_) {
+      status.join(writeManifest());
+    }
+    for (Partition part : parts_) {
+      status.join(part.dbm.close());
+      part.dbm.destruct();
+    }
+    parts_ = null;
+    return status;
+  }
+
+  /**
+   * Gets the value of a record of a key.
+   * @param key The key of the record.
+   * @return The value data of the record or null on failure.
+   */
+  public byte[] get(byte[] key) {
+    Partition part = lockPartition(key);
+    try {
+      return part.dbm.get(key);
+    } finally {
+      part.lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Gets the value of a record of a key, with string data.
+   * @param key The key of the record.
+   * @return The value string of the record or null on failure.
+   */
+  public String get(String key) {
+    byte[] value = get(key.getBytes(StandardCharsets.UTF_8));
+    return value == null ? null : new String(value, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Sets a record of a key and a value.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @param overwrite Whether to overwrite the existing value if there's a record with the same
+   * key.  If true, the existing value is overwritten by the new value.  If false, the operation
+   * is given up and an error status is returned.
+   * @return The result status.  If overwriting is abandoned, DUPLICATION_ERROR is returned.
+   */
+  public Status set(byte[] key, byte[] value, boolean overwrite) {
+    Partition part = lockPartition(key);
+    Status status;
+    try {
+      status = part.dbm.set(key, value, overwrite);
+    } finally {
+      part.lock.readLock().unlock();
+    }
+    if (status.isOK()) {
+      checkSplit(part);
+    }
+    return status;
+  }
+
+  /**
+   * Sets a record of a key and a value, with string data.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @param overwrite Whether to overwrite the existing value.
+   * @return The result status.
+   */
+  public Status set(String key, String value, boolean overwrite) {
+    return set(key.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8),
+               overwrite);
+  }
+
+  /**
+   * Sets a record of a key and a value, overwriting the existing value.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @return The result status.
+   */
+  public Status set(byte[] key, byte[] value) {
+    return set(key, value, true);
+  }
+
+  /**
+   * Sets a record of a key and a value, with string data, overwriting the existing value.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @return The result status.
+   */
+  public Status set(String key, String value) {
+    return set(key, value, true);
+  }
+
+  /**
+   * Removes a record of a key.
+   * @param key The key of the record.
+   * @return The result status.  If there's no matching record, NOT_FOUND_ERROR is returned.
+   */
+  public Status remove(byte[] key) {
+    Partition part = lockPartition(key);
+    try {
+      return part.dbm.remove(key);
+    } finally {
+      part.lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Removes a record of a key, with a string key.
+   * @param key The key of the record.
+   * @return The result status.
+   */
+  public Status remove(String key) {
+    return remove(key.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Gets the number of records.
+   * @return The total number of records of all partitions on success, or -1 on failure.
+   */
+  public long count() {
+    long count = 0;
+    for (Partition part : parts_) {
+      part.lock.readLock().lock();
+      try {
+        long part_count = part.dbm.count();
+        if (part_count < 0) {
+          return -1;
+        }
+        count += part_count;
+      } finally {
+        part.lock.readLock().unlock();
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Gets records in a range of keys.
+   * @param begin_key The inclusive lower bound of the keys.  If it is null, the range starts at
+   * the first record.
+   * @param end_key The exclusive upper bound of the keys.  If it is null, the range ends at the
+   * last record.
+   * @param max_records The maximum number of records to get.  0 means unlimited.
+   * @return An array of pairs of the key and the value of the records in the order of the keys.
+   * @note Only the partitions overlapping the range are scanned, in parallel on the thread
+   * pool.  Each partition is scanned up to the maximum number of records.
+   */
+  public byte[][][] scanRange(byte[] begin_key, byte[] end_key, int max_records) {
+    while (true) {
+      Partition[] parts = parts_;
+      int first_id = begin_key == null ? 0 : locate(parts, begin_key);
+      int last_id = end_key == null ? parts.length - 1 : locate(parts, end_key);
+      List<Callable<List<byte[][]>>> tasks = new ArrayList<Callable<List<byte[][]>>>();
+      for (int i = first_id; i <= last_id; i++) {
+        final Partition part = parts[i];
+        final byte[] upper = i + 1 < parts.length ? parts[i + 1].lower : null;
+        if (end_key != null && i > first_id && Arrays.compareUnsigned(part.lower, end_key) >= 0) {
+          break;
+        }
+        tasks.add(() -> scanPartition(part, upper, begin_key, end_key, max_records));
+      }
+      ArrayList<byte[][]> records = new ArrayList<byte[][]>();
+      boolean replan = false;
+      try {
+        for (java.util.concurrent.Future<List<byte[][]>> future :
+                 scan_executor_.invokeAll(tasks)) {
+          List<byte[][]> part_records = future.get();
+          if (part_records == null) {
+            replan = true;
+            continue;
+          }
+          for (byte[][] record : part_records) {
+            if (max_records > 0 && records.size() >= max_records) {
+              break;
+            }
+            records.add(record);
+          }
+        }
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        throw cause instanceof RuntimeException ?
+            (RuntimeException)cause : new RuntimeException(cause);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      }
+      if (!replan) {
+        return records.toArray(new byte[0][][]);
+      }
+    }
+  }
+
+  /**
+   * Gets records in a range of keys, with string data.
+   * @param begin_key The inclusive lower bound of the keys, or null.
+   * @param end_key The exclusive upper bound of the keys, or null.
+   * @param max_records The maximum number of records to get.  0 means unlimited.
+   * @return An array of pairs of the key and the value of the records in the order of the keys.
+   */
+  public String[][] scanRange(String begin_key, String end_key, int max_records) {
+    byte[][][] records = scanRange(
+        begin_key == null ? null : begin_key.getBytes(StandardCharsets.UTF_8),
+        end_key == null ? null : end_key.getBytes(StandardCharsets.UTF_8), max_records);
+    String[][] str_records = new String[records.length][];
+    for (int i = 0; i < records.length; i++) {
+      str_records[i] = new String[] {new String(records[i][0], StandardCharsets.UTF_8),
+                                     new String(records[i][1], StandardCharsets.UTF_8)};
+    }
+    return str_records;
+  }
+
+  /**
+   * Splits the partition containing a key at its median key.
+   * @param key The key in the partition.
+   * @return The result status.  If the partition has less than two records, INFEASIBLE_ERROR
+   * is returned.
+   * @note The split is done on the calling thread.  The manifest is rewritten after the split.
+   */
+  public Status splitPartition(byte[] key) {
+    synchronized (split_lock_) {
+      Partition part = parts_[locate(parts_, key)];
+      return split(part);
+    }
+  }
+
+  /**
+   * Splits the partition containing a key at its median key, with a string key.
+   * @param key The key in the partition.
+   * @return The result status.
+   */
+  public Status splitPartition(String key) {
+    return splitPartition(key.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Waits for the background splits scheduled so far to finish.
+   * @return The result status of the splits since the last call.
+   */
+  public Status waitForSplits() {
+    try {
+      split_executor_.submit(() -> {}).get();
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (split_lock_) {
+      Status status = split_status_;
+      split_status_ = new Status();
+      return status;
+    }
+  }
+
+  /**
+   * Gets the number of partitions.
+   * @return The number of partitions.
+   */
+  public int getNumPartitions() {
+    return parts_.length;
+  }
+
+  /**
+   * Gets the split points of the partitions.
+   * @return The lower bounds of the keys of the partitions.  The first one is empty.
+   */
+  public byte[][] getSplitPoints() {
+    Partition[] parts = parts_;
+    byte[][] points = new byte[parts.length][];
+    for (int i = 0; i < parts.length; i++) {
+      points[i] = parts[i].lower;
+    }
+    return points;
+  }
+
+  /**
+   * Gets the partition of a key and locks it for reading.
+   */
+  private Partition lockPartition(byte[] key) {
+    if (key == null) {
+      throw new NullPointerException();
+    }
+    while (true) {
+      Partition part = parts_[locate(parts_, key)];
+      part.lock.readLock().lock();
+      if (parts_[locate(parts_, key)] == part) {
+        return part;
+      }
+      part.lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Schedules a split of a partition if it has too many records.
+   */
+  private void checkSplit(Partition part) {
+    if (part.num_writes.incrementAndGet() % SPLIT_CHECK_INTERVAL != 0 ||
+        part.dbm.count() <= max_partition_records_ ||
+        !part.split_scheduled.compareAndSet(false, true)) {
+      return;
+    }
+    split_executor_.execute(() -> {
+        synchronized (split_lock_) {
+          part.split_scheduled.set(false);
+          if (Arrays.asList(parts_).contains(part) &&
+              part.dbm.count() > max_partition_records_) {
+            split_status_.join(split(part));
+          }
+        }
+      });
+  }
+
+  /**
+   * Splits a partition at its median key.
+   */
+  private Status split(Partition part) {
+    if (!writable_) {
+      return new Status(Status.PERMISSION_ERROR, "not writable");
+    }
+    part.lock.writeLock().lock();
+    try {
+      long count = part.dbm.count();
+      if (count < 2) {
+        return new Status(Status.INFEASIBLE_ERROR, "too few records");
+      }
+      Iterator iter = part.dbm.makeIterator();
+      byte[] median = null;
+      try {
+        Status status = iter.first();
+        for (long i = 0; status.isOK() && i < count / 2; i++) {
+          status = iter.next();
+        }
+        median = iter.getKey();
+      } finally {
+        iter.destruct();
+      }
+      if (median == null || Arrays.compareUnsigned(median, part.lower) <= 0) {
+        return new Status(Status.INFEASIBLE_ERROR, "no median key");
+      }
+      Partition upper = new Partition(median, makeFileName(next_file_id_++));
+      Path upper_path = dir_path_.resolve(upper.file_name);
+      upper.dbm = new DBM();
+      Map<String, String> params = new HashMap<String, String>(dbm_params_);
+      params.put("truncate", "true");
+      Status status = upper.dbm.open(upper_path.toString(), true, params);
+      if (!status.isOK()) {
+        upper.dbm.destruct();
+        return status;
+      }
+      iter = part.dbm.makeIterator();
+      try {
+        status = iter.jump(median);
+        while (status.isOK()) {
+          byte[][][] batch = iter.stepMulti(null, SCAN_BATCH_SIZE, status);
+          if (batch.length == 0) {
+            break;
+          }
+          Map<byte[], byte[]> records = new IdentityHashMap<byte[], byte[]>();
+          for (byte[][] record : batch) {
+            records.put(record[0], record[1]);
+          }
+          Status set_status = upper.dbm.setMulti(records, true);
+          if (!set_status.isOK()) {
+            status = set_status;
+            break;
+          }
+        }
+      } finally {
+        iter.destruct();
+      }
+      if (status.equals(Status.NOT_FOUND_ERROR)) {
+        status = new Status();
+      }
+      if (status.isOK()) {
+        status = upper.dbm.synchronize(true);
+      }
+      Partition[] old_parts = parts_;
+      if (status.isOK()) {
+        ArrayList<Partition> parts = new ArrayList<Partition>(Arrays.asList(old_parts));
+        parts.add(parts.indexOf(part) + 1, upper);
+        parts_ = parts.toArray(new Partition[0]);
+        status = writeManifest();
+        if (!status.isOK()) {
+          parts_ = old_parts;
+        }
+      }
+      if (!status.isOK()) {
+        upper.dbm.close();
+        upper.dbm.destruct();
+        try {
+          Files.deleteIfExists(upper_path);
+        } catch (IOException e) {
+        }
+        return status;
+      }
+      return purgeOutOfRange(part, median);
+    } finally {
+      part.lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Removes records at or above the upper bound from a partition.
+   * @note The records have been copied to the next partition, so they are just garbage.  A
+   * crash before this leaves them in the partition and they are purged when it is reopened.
+   */
+  private static Status purgeOutOfRange(Partition part, byte[] upper) {
+    Iterator iter = part.dbm.makeIterator();
+    try {
+      Status status = iter.jump(upper);
+      while (status.isOK() && iter.get() != null) {
+        status = iter.remove();
+      }
+      if (status.equals(Status.NOT_FOUND_ERROR)) {
+        status = new Status();
+      }
+      return status;
+    } finally {
+      iter.destruct();
+    }
+  }
+
+  /**
+   * Scans records of a partition in a range.
+   * @return The records, or null if the partition has been split since the scan was planned.
+   */
+  private List<byte[][]> scanPartition(Partition part, byte[] upper, byte[] begin_key,
+                                       byte[] end_key, int max_records) {
+    ArrayList<byte[][]> records = new ArrayList<byte[][]>();
+    part.lock.readLock().lock();
+    try {
+      Partition[] parts = parts_;
+      int part_id = Arrays.asList(parts).indexOf(part);
+      if (part_id < 0 || !Arrays.equals(
+              upper, part_id + 1 < parts.length ? parts[part_id + 1].lower : null)) {
+        return null;
+      }
+      if (upper != null && (end_key == null || Arrays.compareUnsigned(upper, end_key) < 0)) {
+        end_key = upper;
+      }
+      Iterator iter = part.dbm.makeIterator();
+      try {
+        Status status = begin_key == null ? iter.first() : iter.jump(begin_key);
+        while (status.isOK()) {
+          int batch_size = SCAN_BATCH_SIZE;
+          if (max_records > 0) {
+            batch_size = Math.min(batch_size, max_records - records.size());
+          }
+          if (batch_size < 1) {
+            break;
+          }
+          byte[][][] batch = iter.stepMulti(null, batch_size, status);
+          for (byte[][] record : batch) {
+            if (end_key != null && Arrays.compareUnsigned(record[0], end_key) >= 0) {
+              return records;
+            }
+            records.add(record);
+          }
+          if (batch.length == 0) {
+            break;
+          }
+        }
+      } finally {
+        iter.destruct();
+      }
+    } finally {
+      part.lock.readLock().unlock();
+    }
+    return records;
+  }
+
+  /**
+   * Writes the manifest file atomically.
+   */
+  private synchronized Status writeManifest() {
+    StringBuilder sb = new StringBuilder();
+    for (Partition part : parts_) {
+      sb.append(encodeHex(part.lower)).append('\t').append(part.file_name).append('\n');
+    }
+    Path manifest_path = dir_path_.resolve(name_ + MANIFEST_SUFFIX);
+    Path tmp_path = dir_path_.resolve(name_ + MANIFEST_SUFFIX + ".tmp");
+    try {
+      Files.write(tmp_path, sb.toString().getBytes(StandardCharsets.UTF_8));
+      Files.move(tmp_path, manifest_path, StandardCopyOption.REPLACE_EXISTING,
+                 StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      return new Status(Status.SYSTEM_ERROR, "manifest: " + e.getMessage());
+    }
+    return new Status();
+  }
+
+  /**
+   * Reads the fields of the manifest file.
+   */
+  private static List<String[]> readManifest(Path path) throws IOException {
+    List<String[]> records = new ArrayList<String[]>();
+    for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+      if (line.isEmpty()) {
+        continue;
+      }
+      String[] fields = line.split("\t", -1);
+      if (fields.length != 2) {
+        throw new IOException("invalid line");
+      }
+      records.add(fields);
+    }
+    if (records.isEmpty() || !records.get(0)[0].isEmpty()) {
+      throw new IOException("missing first partition");
+    }
+    return records;
+  }
+
+  /**
+   * Gets the index of the partition of a key.
+   */
+  private static int locate(Partition[] parts, byte[] key) {
+    int low = 0;
+    int high = parts.length - 1;
+    while (low < high) {
+      int mid = (low + high + 1) / 2;
+      if (Arrays.compareUnsigned(parts[mid].lower, key) <= 0) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Makes the file name of a partition.
+   */
+  private String makeFileName(long id) {
+    return String.format("%s-%04d.tkt", name_, id);
+  }
+
+  /**
+   * Parses the ID in the file name of a partition.
+   */
+  private static long parseFileId(String file_name) {
+    int begin = file_name.lastIndexOf('-');
+    int end = file_name.lastIndexOf('.');
+    try {
+      return Long.parseLong(file_name.substring(begin + 1, end));
+    } catch (RuntimeException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Gets and removes a parameter.
+   */
+  private static String takeParam(Map<String, String> params, String name, String default_value) {
+    String value = params.remove(name);
+    return value == null ? default_value : value;
+  }
+
+  /**
+   * Encodes bytes into a hexadecimal string.
+   */
+  private static String encodeHex(byte[] data) {
+    StringBuilder sb = new StringBuilder();
+    for (byte b : data) {
+      sb.append(String.format("%02x", b & 0xff));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Decodes a hexadecimal string into bytes.
+   */
+  private static byte[] decodeHex(String str) {
+    byte[] data = new byte[str.length() / 2];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte)Integer.parseInt(str.substring(i * 2, i * 2 + 2), 16);
+    }
+    return data;
+  }
+
+  /**
+   * Waits for an executor to terminate.
+   */
+  private static void awaitTermination(ExecutorService executor) {
+    boolean terminated = false;
+    while (!terminated) {
+      try {
+        terminated = executor.awaitTermination(1, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * A partition of the key space.
+   */
+  private static class Partition {
+    /**
+     * Constructor.
+     */
+    Partition(byte[] lower, String file_name) {
+      this.lower = lower;
+      this.file_name = file_name;
+    }
+
+    /** The inclusive lower bound of the keys. */
+    final byte[] lower;
+    /** The file name of the database. */
+    final String file_name;
+    /** The database. */
+    DBM dbm;
+    /** The lock to exclude operations during a split. */
+    final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /** The number of writes. */
+    final AtomicLong num_writes = new AtomicLong();
+    /** Whether a split is scheduled. */
+    final AtomicBoolean split_scheduled = new AtomicBoolean();
+  }
+
+  /** The suffix of the manifest file name. */
+  private static final String MANIFEST_SUFFIX = ".manifest";
+  /** The number of writes between checks of the partition size. */
+  private static final int SPLIT_CHECK_INTERVAL = 128;
+  /** The number of records of a batch of a range scan. */
+  private static final int SCAN_BATCH_SIZE = 1000;
+  /** The directory path. */
+  private Path dir_path_;
+  /** The prefix of the file names. */
+  private String name_;
+  /** Whether the partitions are writable. */
+  private boolean writable_;
+  /** The parameters to open each partition. */
+  private Map<String, String> dbm_params_;
+  /** The number of records to trigger a split. */
+  private long max_partition_records_;
+  /** The ID of the next partition file. */
+  private long next_file_id_ = 0;
+  /** The partitions in the order of the keys. */
+  private volatile Partition[] parts_;
+  /** The thread pool for range scans. */
+  private ExecutorService scan_executor_;
+  /** The thread for background splits. */
+  private ExecutorService split_executor_;
+  /** The lock for splitting. */
+  private final Object split_lock_ = new Object();
+  /** The status of the background splits. */
+  private Status split_status_ = new Status();
+}
+
+// END OF FILE
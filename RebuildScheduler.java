@@ -0,0 +1,399 @@
+/*************************************************************************************************
+ * Scheduler to rebuild databases in the background
+ *
+ * Copyright 2020 Google LLC
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a copy of the License at
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific language governing permissions
+ * and limitations under the License.
+ *************************************************************************************************/
+
+package tkrzw;
+
+import java.time.LocalTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scheduler to rebuild databases in the background.
+ * @note Registered databases are polled periodically.  A database is rebuilt if its
+ * "shouldBeRebuilt" method returns true or if the fragmentation ratio calculated from the
+ * "effective_data_size" and "file_size" properties of "inspect" reaches the threshold.  Rebuilds
+ * are started only within the time windows, if any, and the number of concurrent rebuilds is
+ * limited across all databases.  A scheduled rebuild which is still waiting for a free slot when
+ * the time window ends is cancelled without a report.  Running rebuilds are not interrupted when a
+ * time window ends.  Each finished rebuild is recorded as a report.  The scheduler doesn't own the
+ * databases, which must be kept open while they are registered.  Every unused scheduler object
+ * should be destructed by the "destruct" method to stop the threads.  All operations are
+ * thread-safe.
+ */
+public class RebuildScheduler {
+  /**
+   * Report of a finished rebuild.
+   */
+  public static class Report {
+    /** The name of the database. */
+    public final String name;
+    /** The result status of the rebuild. */
+    public final Status status;
+    /** The timestamp in milliseconds when the rebuild started. */
+    public final long start_time;
+    /** The duration in milliseconds of the rebuild. */
+    public final long duration;
+    /** The file size before the rebuild. */
+    public final long file_size_before;
+    /** The file size after the rebuild. */
+    public final long file_size_after;
+
+    /**
+     * Constructor.
+     */
+    Report(String name, Status status, long start_time, long duration,
+           long file_size_before, long file_size_after) {
+      this.name = name;
+      this.status = status;
+      this.start_time = start_time;
+      this.duration = duration;
+      this.file_size_before = file_size_before;
+      this.file_size_after = file_size_after;
+    }
+
+    /**
+     * Gets the size of the space reclaimed by the rebuild.
+     * @return The difference of the file sizes, which can be negative.
+     */
+    public long getReclaimedSize() {
+      return file_size_before - file_size_after;
+    }
+
+    /**
+     * Gets the string representation.
+     * @return The string representation.
+     */
+    public String toString() {
+      return String.format(
+          "Report(name=%s, status=%s, duration=%d, file_size_before=%d, file_size_after=%d)",
+          name, status, duration, file_size_before, file_size_after);
+    }
+  }
+
+  /**
+   * Constructor.
+   * @param max_concurrency The maximum number of rebuilds running at the same time.
+   * @param fragmentation_threshold The fragmentation ratio to trigger a rebuild, between 0 and
+   * 1.  The ratio is 1 minus the effective data size divided by the file size.  If it is 0 or
+   * more than 1, only the "shouldBeRebuilt" method is used.
+   */
+  public RebuildScheduler(int max_concurrency, double fragmentation_threshold) {
+    if (max_concurrency < 1) {
+      throw new IllegalArgumentException("invalid concurrency");
+    }
+    fragmentation_threshold_ = fragmentation_threshold;
+    rebuild_executor_ = Executors.newFixedThreadPool(max_concurrency);
+    poll_executor_ = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  /**
+   * Destructs the object and releases resources.
+   * @note Running rebuilds are finished before returning.  The databases are not closed.
+   */
+  public void destruct() {
+    poll_executor_.shutdownNow();
+    rebuild_executor_.shutdown();
+    boolean terminated = false;
+    while (!terminated) {
+      try {
+        terminated = rebuild_executor_.awaitTermination(1, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Registers a database.
+   * @param name The name of the database, which must be unique.
+   * @param dbm The database, which has been opened as writable.
+   * @param params Optional parameters given to the "rebuild" method.  If it is null, it is
+   * ignored.
+   * @return The scheduler object itself, for chaining.
+   */
+  public RebuildScheduler addDBM(String name, DBM dbm, Map<String, String> params) {
+    if (name == null || dbm == null) {
+      throw new NullPointerException();
+    }
+    synchronized (this) {
+      if (entries_.containsKey(name)) {
+        throw new IllegalArgumentException("duplicated name");
+      }
+      entries_.put(name, new Entry(dbm, params));
+    }
+    return this;
+  }
+
+  /**
+   * Unregisters a database.
+   * @param name The name of the database.
+   * @return True if the database was registered, or false if not.
+   * @note A running rebuild of the database is not interrupted.
+   */
+  public synchronized boolean removeDBM(String name) {
+    return entries_.remove(name) != null;
+  }
+
+  /**
+   * Adds a time window to start rebuilds.
+   * @param begin The inclusive beginning local time of the window.
+   * @param end The exclusive ending local time of the window.  If it is earlier than the
+   * beginning, the window wraps around midnight.
+   * @return The scheduler object itself, for chaining.
+   * @note If no window is added, rebuilds can start at any time.
+   */
+  public synchronized RebuildScheduler addTimeWindow(LocalTime begin, LocalTime end) {
+    if (begin == null || end == null) {
+      throw new NullPointerException();
+    }
+    windows_.add(new LocalTime[] {begin, end});
+    return this;
+  }
+
+  /**
+   * Starts polling the databases periodically.
+   * @param interval The interval in milliseconds of polling.
+   */
+  public void start(long interval) {
+    if (interval < 1) {
+      throw new IllegalArgumentException("invalid interval");
+    }
+    poll_executor_.scheduleWithFixedDelay(() -> checkPeriodically(), interval, interval,
+                                          TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Checks the databases once and schedules rebuilds of the ones which need them.
+   * @return The number of newly scheduled rebuilds.
+   * @note Nothing is scheduled out of the time windows.  A database whose rebuild is already
+   * scheduled or running is skipped.
+   */
+  public int check() {
+    List<Map.Entry<String, Entry>> targets = new ArrayList<Map.Entry<String, Entry>>();
+    synchronized (this) {
+      if (!isInTimeWindow(LocalTime.now())) {
+        return 0;
+      }
+      for (Map.Entry<String, Entry> entry : entries_.entrySet()) {
+        if (!busy_names_.contains(entry.getKey())) {
+          targets.add(entry);
+        }
+      }
+    }
+    int num_scheduled = 0;
+    for (Map.Entry<String, Entry> target : targets) {
+      String name = target.getKey();
+      Entry entry = target.getValue();
+      if (!needsRebuild(entry.dbm)) {
+        continue;
+      }
+      synchronized (this) {
+        if (!busy_names_.add(name)) {
+          continue;
+        }
+      }
+      rebuild_executor_.execute(() -> rebuild(name, entry));
+      num_scheduled++;
+    }
+    return num_scheduled;
+  }
+
+  /**
+   * Gets the result status of the latest periodic check.
+   * @return The result status.  If the check threw an exception, UNKNOWN_ERROR is set with the
+   * description of the exception.
+   */
+  public synchronized Status getLastCheckStatus() {
+    return new Status(last_check_status_.getCode(), last_check_status_.getMessage());
+  }
+
+  /**
+   * Waits for the scheduled rebuilds to finish.
+   */
+  public synchronized void waitForRebuilds() {
+    while (!busy_names_.isEmpty()) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Gets the reports of the finished rebuilds.
+   * @return A list of the reports, oldest first.  Only the latest reports are kept.
+   */
+  public synchronized List<Report> getReports() {
+    return new ArrayList<Report>(reports_);
+  }
+
+  /**
+   * Gets the total size of the space reclaimed by the successful rebuilds so far.
+   * @return The total reclaimed size.
+   */
+  public synchronized long getTotalReclaimedSize() {
+    return total_reclaimed_size_;
+  }
+
+  /**
+   * Checks the databases as a periodic task.
+   * @note An exception must not escape, as it would cancel the subsequent executions.
+   */
+  private void checkPeriodically() {
+    Status status = new Status();
+    try {
+      check();
+    } catch (RuntimeException e) {
+      status.set(Status.UNKNOWN_ERROR, e.toString());
+    }
+    synchronized (this) {
+      last_check_status_ = status;
+    }
+  }
+
+  /**
+   * Checks whether a time is in one of the time windows.
+   */
+  private boolean isInTimeWindow(LocalTime time) {
+    if (windows_.isEmpty()) {
+      return true;
+    }
+    for (LocalTime[] window : windows_) {
+      if (window[0].isAfter(window[1])) {
+        if (!time.isBefore(window[0]) || time.isBefore(window[1])) {
+          return true;
+        }
+      } else if (!time.isBefore(window[0]) && time.isBefore(window[1])) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks whether a database needs to be rebuilt.
+   */
+  private boolean needsRebuild(DBM dbm) {
+    if (!dbm.isOpen() || !dbm.isWritable()) {
+      return false;
+    }
+    if (dbm.shouldBeRebuilt()) {
+      return true;
+    }
+    if (fragmentation_threshold_ <= 0 || fragmentation_threshold_ > 1) {
+      return false;
+    }
+    Map<String, String> props = dbm.inspect();
+    String file_size = props.get("file_size");
+    String effective_size = props.get("effective_data_size");
+    if (file_size == null || effective_size == null) {
+      return false;
+    }
+    try {
+      double total = Double.parseDouble(file_size);
+      double effective = Double.parseDouble(effective_size);
+      return total > 0 && 1 - effective / total >= fragmentation_threshold_;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Rebuilds a database and records the report.
+   */
+  private void rebuild(String name, Entry entry) {
+    synchronized (this) {
+      if (!isInTimeWindow(LocalTime.now())) {
+        busy_names_.remove(name);
+        notifyAll();
+        return;
+      }
+    }
+    long file_size_before = entry.dbm.getFileSize();
+    long start_time = System.currentTimeMillis();
+    long start_nano = System.nanoTime();
+    Status status;
+    try {
+      status = entry.dbm.rebuild(entry.params);
+    } catch (RuntimeException e) {
+      status = new Status(Status.UNKNOWN_ERROR, e.toString());
+    }
+    long duration = (System.nanoTime() - start_nano) / 1000000;
+    long file_size_after = entry.dbm.getFileSize();
+    Report report = new Report(name, status, start_time, duration,
+                               file_size_before, file_size_after);
+    synchronized (this) {
+      reports_.add(report);
+      while (reports_.size() > MAX_REPORTS) {
+        reports_.poll();
+      }
+      if (status.isOK()) {
+        total_reclaimed_size_ += report.getReclaimedSize();
+      }
+      busy_names_.remove(name);
+      notifyAll();
+    }
+  }
+
+  /**
+   * A registered database.
+   */
+  private static class Entry {
+    /**
+     * Constructor.
+     */
+    Entry(DBM dbm, Map<String, String> params) {
+      this.dbm = dbm;
+      this.params = params;
+    }
+
+    /** The database. */
+    final DBM dbm;
+    /** The parameters to rebuild the database. */
+    final Map<String, String> params;
+  }
+
+  /** The maximum number of reports to keep. */
+  private static final int MAX_REPORTS = 1000;
+  /** The fragmentation ratio to trigger a rebuild. */
+  private final double fragmentation_threshold_;
+  /** The registered databases. */
+  private final Map<String, Entry> entries_ = new LinkedHashMap<String, Entry>();
+  /** The time windows to start rebuilds. */
+  private final List<LocalTime[]> windows_ = new ArrayList<LocalTime[]>();
+  /** The names of the databases whose rebuilds are scheduled or running. */
+  private final Set<String> busy_names_ = new HashSet<String>();
+  /** The reports of the finished rebuilds. */
+  private final ArrayDeque<Report> reports_ = new ArrayDeque<Report>();
+  /** The result status of the latest periodic check. */
+  private Status last_check_status_ = new Status();
+  /** The total reclaimed size. */
+  private long total_reclaimed_size_ = 0;
+  /** The thread pool for rebuilds. */
+  private final ExecutorService rebuild_executor_;
+  /** The thread for polling. */
+  private final ScheduledExecutorService poll_executor_;
+}
+
+// END OF FILE
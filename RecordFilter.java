@@ -0,0 +1,215 @@
+/*************************************************************************************************
+ * Native record filter
+ *
+ * Copyright 2020 Google LLC
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a copy of the License at
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific language governing permissions
+ * and limitations under the License.
+ *************************************************************************************************/
+
+package tkrzw;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Filter of records evaluated by the native code.
+ * @note A filter object is a conjunction of conditions.  A record matches the filter if it
+ * satisfies all of the conditions.  An empty filter matches every record.  It can be given to
+ * DBM#processEach, DBM#search, and Iterator#stepMulti so that records which don't match are
+ * skipped without calling any Java method.
+ */
+public class RecordFilter {
+  static {
+    Utility.loadLibrary();
+  }
+
+  /**
+   * Constructor of an empty filter, which matches every record.
+   */
+  public RecordFilter() {}
+
+  /**
+   * Adds a condition that the key begins with a prefix.
+   * @param prefix The prefix of the key.
+   * @return This object itself.
+   */
+  public RecordFilter keyPrefix(byte[] prefix) {
+    if (prefix == null) {
+      throw new NullPointerException();
+    }
+    return addCond(COND_KEY_PREFIX, 0, 0, prefix, null);
+  }
+
+  /**
+   * Adds a condition that the key begins with a prefix, with string data.
+   * @param prefix The prefix of the key.
+   * @return This object itself.
+   */
+  public RecordFilter keyPrefix(String prefix) {
+    return keyPrefix(prefix.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Adds a condition that the key is in a range.
+   * @param lower The lower bound of the key, which is inclusive.  Null means unbounded.
+   * @param upper The upper bound of the key, which is exclusive.  Null means unbounded.
+   * @return This object itself.
+   * @note Keys are compared as byte strings in the lexical order.
+   */
+  public RecordFilter keyRange(byte[] lower, byte[] upper) {
+    return addCond(COND_KEY_RANGE, 0, 0, lower, upper);
+  }
+
+  /**
+   * Adds a condition that the key is in a range, with string data.
+   * @param lower The lower bound of the key, which is inclusive.  Null means unbounded.
+   * @param upper The upper bound of the key, which is exclusive.  Null means unbounded.
+   * @return This object itself.
+   * @note Keys are compared as byte strings in the lexical order.
+   */
+  public RecordFilter keyRange(String lower, String upper) {
+    return keyRange(lower == null ? null : lower.getBytes(StandardCharsets.UTF_8),
+                    upper == null ? null : upper.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Adds a condition that the key matches a pattern.
+   * @param mode The matching mode.  "contain" accepts keys containing the pattern.  "begin"
+   * accepts keys beginning with the pattern.  "end" accepts keys ending with the pattern.
+   * "regex" accepts keys partially matches the pattern of a regular expression.
+   * "containcase", "containword", and "containcaseword" accept keys considering case and word
+   * boundary.  They are the same as the modes of DBM#search.
+   * @param pattern The pattern for matching.
+   * @return This object itself.
+   * @note The ranking modes "edit" and "editbin" and the positional modes "upper" and "lower"
+   * of DBM#search are not supported.  Use keyRange for positional conditions.
+   */
+  public RecordFilter keyPattern(String mode, byte[] pattern) {
+    if (mode == null || pattern == null) {
+      throw new NullPointerException();
+    }
+    int mode_id = getModeId(mode);
+    if (mode_id < 0) {
+      throw new IllegalArgumentException("unsupported mode: " + mode);
+    }
+    return addCond(COND_KEY_PATTERN, mode_id, 0, pattern, null);
+  }
+
+  /**
+   * Adds a condition that the key matches a pattern, with string data.
+   * @param mode The matching mode.  "contain" accepts keys containing the pattern.  "begin"
+   * accepts keys beginning with the pattern.  "end" accepts keys ending with the pattern.
+   * "regex" accepts keys partially matches the pattern of a regular expression.
+   * "containcase", "containword", and "containcaseword" accept keys considering case and word
+   * boundary.  They are the same as the modes of DBM#search.
+   * @param pattern The pattern for matching.
+   * @return This object itself.
+   */
+  public RecordFilter keyPattern(String mode, String pattern) {
+    return keyPattern(mode, pattern.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Adds a condition that the size of the value is in a range.
+   * @param min The minimum size, which is inclusive.
+   * @param max The maximum size, which is inclusive.  Long.MAX_VALUE means unbounded.
+   * @return This object itself.
+   */
+  public RecordFilter valueSizeRange(long min, long max) {
+    if (min < 0 || max < min) {
+      throw new IllegalArgumentException("invalid size range");
+    }
+    return addCond(COND_VALUE_SIZE, min, max, null, null);
+  }
+
+  /**
+   * Adds a condition that the value begins with a prefix.
+   * @param prefix The prefix of the value.
+   * @return This object itself.
+   */
+  public RecordFilter valuePrefix(byte[] prefix) {
+    if (prefix == null) {
+      throw new NullPointerException();
+    }
+    return addCond(COND_VALUE_PREFIX, 0, 0, prefix, null);
+  }
+
+  /**
+   * Adds a condition that the value begins with a prefix, with string data.
+   * @param prefix The prefix of the value.
+   * @return This object itself.
+   */
+  public RecordFilter valuePrefix(String prefix) {
+    return valuePrefix(prefix.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Gets the number of conditions.
+   * @return The number of conditions.
+   */
+  public int size() {
+    return conds_.size();
+  }
+
+  /**
+   * Checks whether a record matches the filter.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @return True if the record matches, or false if not.
+   * @note This is evaluated by the same native code as the database methods.
+   */
+  public native boolean matches(byte[] key, byte[] value);
+
+  /**
+   * Checks whether a record matches the filter, with string data.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @return True if the record matches, or false if not.
+   */
+  public boolean matches(String key, String value) {
+    return matches(key.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Gets the native ID of a pattern mode.
+   * @param mode The name of the mode.
+   * @return The ID of the mode, or -1 if it is not supported.
+   * @note This is shared with File#search with a line processor.
+   */
+  static int getModeId(String mode) {
+    return Arrays.asList(MODE_NAMES).indexOf(mode);
+  }
+
+  /**
+   * Adds a condition.
+   */
+  private RecordFilter addCond(int kind, long num1, long num2, byte[] data1, byte[] data2) {
+    conds_.add(kind, num1, num2, data1, data2);
+    return this;
+  }
+
+  /** Condition kind: key prefix. */
+  private static final int COND_KEY_PREFIX = 0;
+  /** Condition kind: key range. */
+  private static final int COND_KEY_RANGE = 1;
+  /** Condition kind: key pattern. */
+  private static final int COND_KEY_PATTERN = 2;
+  /** Condition kind: value size range. */
+  private static final int COND_VALUE_SIZE = 3;
+  /** Condition kind: value prefix. */
+  private static final int COND_VALUE_PREFIX = 4;
+  /** The names of the pattern modes, in the order of the native IDs. */
+  private static final String[] MODE_NAMES = {
+    "contain", "containcase", "containword", "containcaseword", "begin", "end", "regex",
+  };
+
+  /** The encoded conditions. */
+  private final StepList conds_ = new StepList();
+}
+
+// END OF FILE
@@ -0,0 +1,265 @@
+/*************************************************************************************************
+ * Native record operation
+ *
+ * Copyright 2020 Google LLC
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a copy of the License at
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific language governing permissions
+ * and limitations under the License.
+ *************************************************************************************************/
+
+package tkrzw;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Record processor whose operations are done by the native code.
+ * @note An operation object is a sequence of steps applied to a record in order.  It can be
+ * given to DBM#process, DBM#processMulti, and DBM#processEach as a record processor.  Then,
+ * the record is processed without calling any Java method.  Each step sees the result of the
+ * previous step.  If a step removes the record, the following steps see a missing record.  The
+ * calls before and after the iteration of DBM#processEach are ignored.
+ */
+public class RecordOperation implements RecordProcessor {
+  static {
+    Utility.loadLibrary();
+  }
+
+  /**
+   * Constructor of an empty operation, which does nothing.
+   */
+  public RecordOperation() {}
+
+  /**
+   * Adds a step to set the value.
+   * @param value The new value.  The record is created if it doesn't exist.
+   * @return This object itself.
+   */
+  public RecordOperation setValue(byte[] value) {
+    return addStep(OP_SET, 0, 0, value, null);
+  }
+
+  /**
+   * Adds a step to set the value, with string data.
+   * @param value The new value.  The record is created if it doesn't exist.
+   * @return This object itself.
+   */
+  public RecordOperation setValue(String value) {
+    return setValue(value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Adds a step to remove the record.
+   * @return This object itself.
+   */
+  public RecordOperation remove() {
+    return addStep(OP_REMOVE, 0, 0, null, null);
+  }
+
+  /**
+   * Adds a step to append data at the end of the value.
+   * @param value The value to append.
+   * @param delim The delimiter to put after the existing value.
+   * @return This object itself.
+   * @note If the record doesn't exist, the value is set without the delimiter.
+   */
+  public RecordOperation appendWithDelimiter(byte[] value, byte[] delim) {
+    return addStep(OP_APPEND, 0, 0, value, delim);
+  }
+
+  /**
+   * Adds a step to append data at the end of the value, with string data.
+   * @param value The value to append.
+   * @param delim The delimiter to put after the existing value.
+   * @return This object itself.
+   * @note If the record doesn't exist, the value is set without the delimiter.
+   */
+  public RecordOperation appendWithDelimiter(String value, String delim) {
+    return appendWithDelimiter(value.getBytes(StandardCharsets.UTF_8),
+                               delim.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Adds a step to put data at the beginning of the value.
+   * @param value The value to prepend.
+   * @return This object itself.
+   * @note If the record doesn't exist, the value is set.
+   */
+  public RecordOperation prepend(byte[] value) {
+    return addStep(OP_PREPEND, 0, 0, value, null);
+  }
+
+  /**
+   * Adds a step to remove a prefix of the value if the value begins with it.
+   * @param prefix The prefix to remove.
+   * @return This object itself.
+   */
+  public RecordOperation removePrefix(byte[] prefix) {
+    return addStep(OP_REMOVE_PREFIX, 0, 0, prefix, null);
+  }
+
+  /**
+   * Adds a step to remove a suffix of the value if the value ends with it.
+   * @param suffix The suffix to remove.
+   * @return This object itself.
+   */
+  public RecordOperation removeSuffix(byte[] suffix) {
+    return addStep(OP_REMOVE_SUFFIX, 0, 0, suffix, null);
+  }
+
+  /**
+   * Adds a step to truncate the value.
+   * @param size The maximum size of the value.
+   * @return This object itself.
+   */
+  public RecordOperation truncateValue(long size) {
+    if (size < 0) {
+      throw new IllegalArgumentException("negative size");
+    }
+    return addStep(OP_TRUNCATE, size, 0, null, null);
+  }
+
+  /**
+   * Adds a step to overwrite a part of the value.
+   * @param offset The offset of the field in the value.
+   * @param data The data to write.
+   * @return This object itself.
+   * @note If the value is shorter than the end of the field, it is padded with null codes.
+   * Missing records are not created.  If the offset exceeds the value size by more than 16 MiB,
+   * the record is not modified and INVALID_ARGUMENT_ERROR is returned by the process method.
+   */
+  public RecordOperation setField(long offset, byte[] data) {
+    if (offset < 0) {
+      throw new IllegalArgumentException("negative offset");
+    }
+    return addStep(OP_SET_FIELD, offset, 0, data, null);
+  }
+
+  /**
+   * Adds a step to increment the numeric value.
+   * @param inc The incremental value.  The result is clamped to the range of 64-bit signed
+   * integers.
+   * @param init The initial value used if the record doesn't exist.
+   * @return This object itself.
+   * @note The value is treated as a big-endian integer as with DBM#increment.
+   */
+  public RecordOperation incrementBy(long inc, long init) {
+    return addStep(OP_INCREMENT, inc, init, null, null);
+  }
+
+  /**
+   * Adds a step to multiply the numeric value by a factor, to decay a counter.
+   * @param factor The factor to multiply the value by.  The result is truncated to an integer
+   * and clamped to the range of 64-bit signed integers.
+   * @return This object itself.
+   * @note The value is treated as a big-endian integer as with DBM#increment.  Missing records
+   * are not created.
+   */
+  public RecordOperation decay(double factor) {
+    if (Double.isNaN(factor) || Double.isInfinite(factor)) {
+      throw new IllegalArgumentException("invalid factor");
+    }
+    return addStep(OP_DECAY, Double.doubleToLongBits(factor), 0, null, null);
+  }
+
+  /**
+   * Adds a step to remove the record if the value is equal to the given data.
+   * @param value The value to compare with.
+   * @return This object itself.
+   */
+  public RecordOperation removeIfValueEquals(byte[] value) {
+    return addStep(OP_REMOVE_IF_EQUALS, 0, 0, value, null);
+  }
+
+  /**
+   * Adds a step to remove the record if the value is equal to the given data, with string data.
+   * @param value The value to compare with.
+   * @return This object itself.
+   */
+  public RecordOperation removeIfValueEquals(String value) {
+    return removeIfValueEquals(value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Adds a step to remove the record if the expiration time in the value has passed.
+   * @param offset The offset of the expiration time in the value.  The time is expressed as an
+   * 8-byte big-endian integer of any unit.
+   * @param now The current time in the same unit as the expiration time.
+   * @return This object itself.
+   * @note The record is removed if the expiration time is equal to or less than the current
+   * time.  If the value is too short to contain the expiration time, the record is kept.
+   */
+  public RecordOperation removeIfExpired(long offset, long now) {
+    if (offset < 0) {
+      throw new IllegalArgumentException("negative offset");
+    }
+    return addStep(OP_REMOVE_IF_EXPIRED, offset, now, null, null);
+  }
+
+  /**
+   * Gets the number of steps.
+   * @return The number of steps.
+   */
+  public int size() {
+    return steps_.size();
+  }
+
+  /**
+   * Processes a record by the native code.
+   * @param key The key of the existing record.  It is ignored.
+   * @param value The value of the existing record, or null if the record doesn't exist.
+   * @return A string reference to NOOP, REMOVE, or a byte array of a new value.
+   * @note This is called only if the operation is used in Java.  Database methods skip it.
+   */
+  public byte[] process(byte[] key, byte[] value) {
+    return apply(value);
+  }
+
+  /**
+   * Applies the operation to a value.
+   * @param value The value of the existing record, or null if the record doesn't exist.
+   * @return A string reference to NOOP, REMOVE, or a byte array of a new value.
+   */
+  private native byte[] apply(byte[] value);
+
+  /**
+   * Adds a step.
+   */
+  private RecordOperation addStep(int kind, long num1, long num2, byte[] data1, byte[] data2) {
+    steps_.add(kind, num1, num2, data1, data2);
+    return this;
+  }
+
+  /** Operation kind: setting the value. */
+  private static final int OP_SET = 0;
+  /** Operation kind: removing the record. */
+  private static final int OP_REMOVE = 1;
+  /** Operation kind: appending data. */
+  private static final int OP_APPEND = 2;
+  /** Operation kind: prepending data. */
+  private static final int OP_PREPEND = 3;
+  /** Operation kind: removing a prefix. */
+  private static final int OP_REMOVE_PREFIX = 4;
+  /** Operation kind: removing a suffix. */
+  private static final int OP_REMOVE_SUFFIX = 5;
+  /** Operation kind: truncating the value. */
+  private static final int OP_TRUNCATE = 6;
+  /** Operation kind: overwriting a field. */
+  private static final int OP_SET_FIELD = 7;
+  /** Operation kind: incrementing the numeric value. */
+  private static final int OP_INCREMENT = 8;
+  /** Operation kind: multiplying the numeric value. */
+  private static final int OP_DECAY = 9;
+  /** Operation kind: removing the record if the value matches. */
+  private static final int OP_REMOVE_IF_EQUALS = 10;
+  /** Operation kind: removing the record if it is expired. */
+  private static final int OP_REMOVE_IF_EXPIRED = 11;
+
+  /** The encoded steps. */
+  private final StepList steps_ = new StepList();
+}
+
+// END OF FILE
@@ -13,6 +13,7 @@
 
 package tkrzw;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 /**
@@ -33,6 +34,103 @@ public interface RecordProcessor {
    */
   public byte[] process(byte[] key, byte[] value);
 
+  /**
+   * Interface of processor which looks at only the value of a record.
+   * @note The native code doesn't make a byte array for the key when this interface is
+   * implemented.  When given to DBM#processEach, the calls before and after the iteration are
+   * omitted because they cannot be distinguished from a missing record without the key.
+   */
+  public interface ValueProcessor extends RecordProcessor {
+    /**
+     * Processes the value of a record.
+     * @param value The value of the existing record, or null if it the record doesn't exist.
+     * @return A string reference to NOOP, REMOVE, or a byte array of a new value.
+     */
+    public byte[] processValue(byte[] value);
+
+    /**
+     * Processes a record by delegating to processValue.
+     * @param key The key of the existing record.  It is ignored.
+     * @param value The value of the existing record.
+     * @return The return value of processValue.
+     */
+    public default byte[] process(byte[] key, byte[] value) {
+      return processValue(value);
+    }
+  }
+
+  /**
+   * Interface of processor which reads a record without modifying it.
+   * @note The native code doesn't check the return value because there's none.  The record is
+   * never modified even if the processor is called by a writable operation.
+   */
+  public interface ReadOnlyProcessor extends RecordProcessor {
+    /**
+     * Reads a record.
+     * @param key The key of the existing record.
+     * @param value The value of the existing record, or null if it the record doesn't exist.
+     */
+    public void read(byte[] key, byte[] value);
+
+    /**
+     * Processes a record by delegating to read.
+     * @param key The key of the existing record.
+     * @param value The value of the existing record.
+     * @return Always null for no-operation.
+     */
+    public default byte[] process(byte[] key, byte[] value) {
+      read(key, value);
+      return null;
+    }
+  }
+
+  /**
+   * Interface of processor which looks at a record through byte buffers without copying.
+   * @note The native code gives read-only direct byte buffers which are views of the native key
+   * and value.  They are valid only during the call and must not be used after the call
+   * returns.  The returned buffer can be a direct buffer, which is read by the native code
+   * without copying, or a heap buffer, whose backing array is copied once unless it is
+   * read-only.  The remaining bytes between its position and its limit are used as the new
+   * value.  A slice of the given value can also be returned.
+   */
+  public interface BufferProcessor extends RecordProcessor {
+    /**
+     * The special buffer indicating removing operation.
+     */
+    public static final ByteBuffer REMOVE_BUFFER = ByteBuffer.allocateDirect(0);
+
+    /**
+     * Processes a record through byte buffers.
+     * @param key The key of the existing record.
+     * @param value The value of the existing record, or null if it the record doesn't exist.
+     * @return Null for no-operation, REMOVE_BUFFER, or a byte buffer of a new value.
+     */
+    public ByteBuffer processBuffer(ByteBuffer key, ByteBuffer value);
+
+    /**
+     * Processes a record by delegating to processBuffer.
+     * @param key The key of the existing record.
+     * @param value The value of the existing record.
+     * @return A string reference to NOOP, REMOVE, or a byte array of a new value.
+     * @note This is called only if the processor is used in Java.  Database methods call
+     * processBuffer directly.
+     */
+    public default byte[] process(byte[] key, byte[] value) {
+      ByteBuffer rv = processBuffer(
+          key == null ? null : ByteBuffer.wrap(key).asReadOnlyBuffer(),
+          value == null ? null : ByteBuffer.wrap(value).asReadOnlyBuffer());
+      if (rv == null) {
+        return null;
+      }
+      if (rv == REMOVE_BUFFER) {
+        return REMOVE;
+      }
+      byte[] data = new byte[rv.remaining()];
+      rv.duplicate().get(data);
+      return data;
+    }
+  }
+
   /**
    * Container of a processor and a key.
    */
@@ -0,0 +1,800 @@
+/*************************************************************************************************
+ * Sharding database manager over independent databases
+ *
+ * Copyright 2020 Google LLC
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a copy of the License at
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific language governing permissions
+ * and limitations under the License.
+ *************************************************************************************************/
+
+package tkrzw;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Sharding database manager over independent databases.
+ * @note Each shard is a DBM object opened by the caller, so the shards can have different
+ * types, paths, and parameters.  Keys are assigned to the shards by consistent hashing: each
+ * shard has virtual nodes on a ring of the primary hash values and a key belongs to the first
+ * node at or after its hash value.  Thus, adding a shard moves only the records which belong
+ * to the new shard.  The facade doesn't own the shards, which must be kept open while the
+ * facade is used and closed by the caller.  Multi-record operations are done in parallel on
+ * a thread pool, one task per shard.  Every unused facade object should be destructed by the
+ * "destruct" method to stop the thread pool.  All operations are thread-safe.
+ */
+public class ShardedDBM {
+  /**
+   * Constructor.
+   * @param num_virtual_nodes The number of virtual nodes of each shard on the hash ring.
+   * @param num_threads The number of threads to access the shards in parallel.
+   */
+  public ShardedDBM(int num_virtual_nodes, int num_threads) {
+    if (num_virtual_nodes < 1 || num_threads < 1) {
+      throw new IllegalArgumentException("invalid number of nodes or threads");
+    }
+    num_virtual_nodes_ = num_virtual_nodes;
+    executor_ = Executors.newFixedThreadPool(num_threads);
+    state_ = new RingState(new String[0], new DBM[0], num_virtual_nodes_, null);
+  }
+
+  /**
+   * Destructs the object and releases resources.
+   * @note The shards are not closed.
+   */
+  public void destruct() {
+    executor_.shutdown();
+  }
+
+  /**
+   * Adds a shard and moves records which belong to it from the existing shards.
+   * @param name The name of the shard, which determines its positions on the hash ring.  It
+   * must be unique and the same name must be used for the same data across sessions.
+   * @param dbm The database of the shard, which has been opened.
+   * @return The result status.
+   * @note Other operations can be done concurrently during the rebalance.  Reads look up the
+   * previous owner of a key first and then the new owner.  Writes move the record from the previous
+   * owner to the new owner before updating it.  The scan starts after every operation which began
+   * before the rebalance has finished, so no write reaches the previous owner behind the scan.  The
+   * records to move are collected by scanning each existing shard and moved in parallel.  Only one
+   * shard can be added at a time.
+   */
+  public Status addShard(String name, DBM dbm) {
+    if (name == null || dbm == null) {
+      throw new NullPointerException();
+    }
+    synchronized (rebalance_lock_) {
+      RingState old_state = state_;
+      if (Arrays.asList(old_state.names).contains(name)) {
+        throw new IllegalArgumentException("duplicated shard name");
+      }
+      String[] names = Arrays.copyOf(old_state.names, old_state.names.length + 1);
+      DBM[] shards = Arrays.copyOf(old_state.shards, old_state.shards.length + 1);
+      names[names.length - 1] = name;
+      shards[shards.length - 1] = dbm;
+      RingState new_state = new RingState(
+          names, shards, num_virtual_nodes_, old_state.ring.isEmpty() ? null : old_state.ring);
+      publishState(new_state);
+      Status status = new Status();
+      try {
+        List<Callable<Status>> tasks = new ArrayList<Callable<Status>>();
+        for (int i = 0; i < old_state.shards.length; i++) {
+          final int shard_id = i;
+          tasks.add(() -> moveRecords(new_state, shard_id, shards.length - 1));
+        }
+        status.join(runTasks(tasks));
+      } finally {
+        publishState(new RingState(names, shards, num_virtual_nodes_, null));
+      }
+      return status;
+    }
+  }
+
+  /**
+   * Gets the number of shards.
+   * @return The number of shards.
+   */
+  public int getNumShards() {
+    return state_.shards.length;
+  }
+
+  /**
+   * Gets the database of a shard.
+   * @param id The shard ID, which is the order of addition from 0.
+   * @return The database object.
+   */
+  public DBM getShard(int id) {
+    return state_.shards[id];
+  }
+
+  /**
+   * Gets the ID of the shard which a key belongs to.
+   * @param key The key.
+   * @return The shard ID.
+   */
+  public int locateShard(byte[] key) {
+    return state_.locate(key);
+  }
+
+  /**
+   * Gets the ID of the shard which a key belongs to, with a string key.
+   * @param key The key.
+   * @return The shard ID.
+   */
+  public int locateShard(String key) {
+    return locateShard(key.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Gets the value of a record of a key.
+   * @param key The key of the record.
+   * @return The value data of the record or null on failure.
+   */
+  public byte[] get(byte[] key) {
+    state_lock_.readLock().lock();
+    try {
+      RingState state = state_;
+      int shard_id = state.locate(key);
+      int prev_shard_id = state.locatePrevious(key);
+      if (prev_shard_id != shard_id) {
+        byte[] value = state.shards[prev_shard_id].get(key);
+        if (value != null) {
+          return value;
+        }
+      }
+      return state.shards[shard_id].get(key);
+    } finally {
+      state_lock_.readLock().unlock();
+    }
+  }
+
+  /**
+   * Gets the value of a record of a key, with string data.
+   * @param key The key of the record.
+   * @return The value string of the record or null on failure.
+   */
+  public String get(String key) {
+    byte[] value = get(key.getBytes(StandardCharsets.UTF_8));
+    return value == null ? null : new String(value, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Gets the values of multiple records of keys.
+   * @param keys The keys of records to retrieve.
+   * @return A map of retrieved records.  Keys which don't match existing records are ignored.
+   */
+  public Map<byte[], byte[]> getMulti(byte[][] keys) {
+    state_lock_.readLock().lock();
+    try {
+      RingState state = state_;
+      Map<byte[], byte[]> result = new HashMap<byte[], byte[]>();
+      if (state.prev_ring != null) {
+        result.putAll(getMultiParallel(state, keys, true));
+        HashSet<ByteBuffer> found = new HashSet<ByteBuffer>();
+        for (byte[] key : result.keySet()) {
+          found.add(ByteBuffer.wrap(key));
+        }
+        ArrayList<byte[]> rest_keys = new ArrayList<byte[]>();
+        for (byte[] key : keys) {
+          if (!found.contains(ByteBuffer.wrap(key))) {
+            rest_keys.add(key);
+          }
+        }
+        keys = rest_keys.toArray(new byte[0][]);
+      }
+      result.putAll(getMultiParallel(state, keys, false));
+      return result;
+    } finally {
+      state_lock_.readLock().unlock();
+    }
+  }
+
+  /**
+   * Gets the values of multiple records of keys, with string data.
+   * @param keys The keys of records to retrieve.
+   * @return A map of retrieved records.  Keys which don't match existing records are ignored.
+   */
+  public Map<String, String> getMulti(String[] keys) {
+    byte[][] key_arrays = new byte[keys.length][];
+    for (int i = 0; i < keys.length; i++) {
+      key_arrays[i] = keys[i].getBytes(StandardCharsets.UTF_8);
+    }
+    Map<String, String> result = new HashMap<String, String>();
+    for (Map.Entry<byte[], byte[]> record : getMulti(key_arrays).entrySet()) {
+      result.put(new String(record.getKey(), StandardCharsets.UTF_8),
+                 new String(record.getValue(), StandardCharsets.UTF_8));
+    }
+    return result;
+  }
+
+  /**
+   * Sets a record of a key and a value.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @param overwrite Whether to overwrite the existing value if there's a record with the same
+   * key.  If true, the existing value is overwritten by the new value.  If false, the operation
+   * is given up and an error status is returned.
+   * @return The result status.  If overwriting is abandoned, DUPLICATION_ERROR is returned.
+   */
+  public Status set(byte[] key, byte[] value, boolean overwrite) {
+    state_lock_.readLock().lock();
+    try {
+      RingState state = state_;
+      Status status = prepareWrite(state, key);
+      if (!status.isOK()) {
+        return status;
+      }
+      return state.shards[state.locate(key)].set(key, value, overwrite);
+    } finally {
+      state_lock_.readLock().unlock();
+    }
+  }
+
+  /**
+   * Sets a record of a key and a value, with string data.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @param overwrite Whether to overwrite the existing value.
+   * @return The result status.
+   */
+  public Status set(String key, String value, boolean overwrite) {
+    return set(key.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8),
+               overwrite);
+  }
+
+  /**
+   * Sets a record of a key and a value, overwriting the existing value.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @return The result status.
+   */
+  public Status set(byte[] key, byte[] value) {
+    return set(key, value, true);
+  }
+
+  /**
+   * Sets a record of a key and a value, with string data, overwriting the existing value.
+   * @param key The key of the record.
+   * @param value The value of the record.
+   * @return The result status.
+   */
+  public Status set(String key, String value) {
+    return set(key, value, true);
+  }
+
+  /**
+   * Sets multiple records.
+   * @param records The records to store.
+   * @param overwrite Whether to overwrite the existing value if there's a record with the same
+   * key.
+   * @return The result status.  If there are records avoiding overwriting, DUPLICATION_ERROR
+   * is returned.
+   */
+  public Status setMulti(Map<byte[], byte[]> records, boolean overwrite) {
+    state_lock_.readLock().lock();
+    try {
+      RingState state = state_;
+      Status status = new Status();
+      ArrayList<Map<byte[], byte[]>> groups = new ArrayList<Map<byte[], byte[]>>();
+      for (int i = 0; i < state.shards.length; i++) {
+        groups.add(new HashMap<byte[], byte[]>());
+      }
+      for (Map.Entry<byte[], byte[]> record : records.entrySet()) {
+        status.join(prepareWrite(state, record.getKey()));
+        groups.get(state.locate(record.getKey())).put(record.getKey(), record.getValue());
+      }
+      if (!status.isOK()) {
+        return status;
+      }
+      List<Callable<Status>> tasks = new ArrayList<Callable<Status>>();
+      for (int i = 0; i < state.shards.length; i++) {
+        final DBM shard = state.shards[i];
+        final Map<byte[], byte[]> group = groups.get(i);
+        if (!group.isEmpty()) {
+          tasks.add(() -> shard.setMulti(group, overwrite));
+        }
+      }
+      return runTasks(tasks);
+    } finally {
+      state_lock_.readLock().unlock();
+    }
+  }
+
+  /**
+   * Sets multiple records, with string data.
+   * @param records The records to store.
+   * @param overwrite Whether to overwrite the existing value if there's a record with the same
+   * key.
+   * @return The result status.
+   */
+  public Status setMultiString(Map<String, String> records, boolean overwrite) {
+    Map<byte[], byte[]> byte_records = new HashMap<byte[], byte[]>();
+    for (Map.Entry<String, String> record : records.entrySet()) {
+      byte_records.put(record.getKey().getBytes(StandardCharsets.UTF_8),
+                       record.getValue().getBytes(StandardCharsets.UTF_8));
+    }
+    return setMulti(byte_records, overwrite);
+  }
+
+  /**
+   * Removes a record of a key.
+   * @param key The key of the record.
+   * @return The result status.  If there's no matching record, NOT_FOUND_ERROR is returned.
+   */
+  public Status remove(byte[] key) {
+    state_lock_.readLock().lock();
+    try {
+      RingState state = state_;
+      Status status = prepareWrite(state, key);
+      if (!status.isOK()) {
+        return status;
+      }
+      return state.shards[state.locate(key)].remove(key);
+    } finally {
+      state_lock_.readLock().unlock();
+    }
+  }
+
+  /**
+   * Removes a record of a key, with a string key.
+   * @param key The key of the record.
+   * @return The result status.
+   */
+  public Status remove(String key) {
+    return remove(key.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Removes records of keys.
+   * @param keys The keys of the records.
+   * @return The result status.  If there are missing records, NOT_FOUND_ERROR is returned.
+   */
+  public Status removeMulti(byte[][] keys) {
+    state_lock_.readLock().lock();
+    try {
+      RingState state = state_;
+      Status status = new Status();
+      ArrayList<ArrayList<byte[]>> groups = new ArrayList<ArrayList<byte[]>>();
+      for (int i = 0; i < state.shards.length; i++) {
+        groups.add(new ArrayList<byte[]>());
+      }
+      for (byte[] key : keys) {
+        status.join(prepareWrite(state, key));
+        groups.get(state.locate(key)).add(key);
+      }
+      if (!status.isOK()) {
+        return status;
+      }
+      List<Callable<Status>> tasks = new ArrayList<Callable<Status>>();
+      for (int i = 0; i < state.shards.length; i++) {
+        final DBM shard = state.shards[i];
+        final byte[][] group = groups.get(i).toArray(new byte[0][]);
+        if (group.length > 0) {
+          tasks.add(() -> shard.removeMulti(group));
+        }
+      }
+      return runTasks(tasks);
+    } finally {
+      state_lock_.readLock().unlock();
+    }
+  }
+
+  /**
+   * Removes records of keys, with string keys.
+   * @param keys The keys of the records.
+   * @return The result status.
+   */
+  public Status removeMulti(String[] keys) {
+    byte[][] key_arrays = new byte[keys.length][];
+    for (int i = 0; i < keys.length; i++) {
+      key_arrays[i] = keys[i].getBytes(StandardCharsets.UTF_8);
+    }
+    return removeMulti(key_arrays);
+  }
+
+  /**
+   * Gets the number of records.
+   * @return The total number of records of all shards on success, or -1 on failure.
+   */
+  public long count() {
+    long count = 0;
+    for (DBM shard : state_.shards) {
+      long shard_count = shard.count();
+      if (shard_count < 0) {
+        return -1;
+      }
+      count += shard_count;
+    }
+    return count;
+  }
+
+  /**
+   * Synchronizes the content of all shards to the file system in parallel.
+   * @param hard True to do physical synchronization with the hardware or false to do only
+   * logical synchronization with the file system.
+   * @return The result status.
+   */
+  public Status synchronize(boolean hard) {
+    List<Callable<Status>> tasks = new ArrayList<Callable<Status>>();
+    for (DBM shard : state_.shards) {
+      tasks.add(() -> shard.synchronize(hard, null));
+    }
+    return runTasks(tasks);
+  }
+
+  /**
+   * Makes an iterator which merges the records of all shards.
+   * @return The iterator object.
+   * @note The records are ordered by the unsigned byte order of the keys if every shard is an
+   * ordered database using the default comparator.  Otherwise, the order is undefined.  The
+   * iterator doesn't include shards added after it is made.
+   */
+  public MergedIterator makeIterator() {
+    return new MergedIterator(state_.shards);
+  }
+
+  /**
+   * Iterator which merges the records of the shards in the order of the keys.
+   * @note Every unused iterator object should be destructed explicitly by the "destruct"
+   * method to free resources.  A key found in multiple shards during a rebalance is given
+   * only once.
+   */
+  public static class MergedIterator {
+    /**
+     * Constructor.
+     */
+    private MergedIterator(DBM[] shards) {
+      iters_ = new Iterator[shards.length];
+      for (int i = 0; i < shards.length; i++) {
+        iters_[i] = shards[i].makeIterator();
+      }
+      records_ = new byte[shards.length][][];
+      heap_ = new PriorityQueue<Integer>(
+          Math.max(shards.length, 1),
+          (a, b) -> Arrays.compareUnsigned(records_[a][0], records_[b][0]));
+    }
+
+    /**
+     * Destructs the object and releases resources.
+     */
+    public void destruct() {
+      for (Iterator iter : iters_) {
+        iter.destruct();
+      }
+    }
+
+    /**
+     * Initializes the iterator to indicate the first record.
+     * @return The result status.
+     */
+    public Status first() {
+      heap_.clear();
+      Status status = new Status();
+      for (int i = 0; i < iters_.length; i++) {
+        status.join(iters_[i].first());
+        load(i);
+      }
+      return status;
+    }
+
+    /**
+     * Initializes the iterator to indicate the first record whose key is equal to or greater
+     * than a key.
+     * @param key The key to look for.
+     * @return The result status.
+     */
+    public Status jump(byte[] key) {
+      heap_.clear();
+      Status status = new Status();
+      for (int i = 0; i < iters_.length; i++) {
+        status.join(iters_[i].jump(key));
+        load(i);
+      }
+      return status;
+    }
+
+    /**
+     * Initializes the iterator to indicate a record of a key, with a string key.
+     * @param key The key to look for.
+     * @return The result status.
+     */
+    public Status jump(String key) {
+      return jump(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Gets the key and the value of the current record.
+     * @return A pair of the key and the value of the current record, or null if there's no
+     * more record.
+     */
+    public byte[][] get() {
+      Integer top = heap_.peek();
+      return top == null ? null : records_[top];
+    }
+
+    /**
+     * Gets the key and the value of the current record, as strings.
+     * @return A pair of the key and the value of the current record, or null if there's no
+     * more record.
+     */
+    public String[] getString() {
+      byte[][] record = get();
+      if (record == null) {
+        return null;
+      }
+      return new String[] {new String(record[0], StandardCharsets.UTF_8),
+                           new String(record[1], StandardCharsets.UTF_8)};
+    }
+
+    /**
+     * Moves the iterator to the next record.
+     * @return The result status.  If there's no current record, NOT_FOUND_ERROR is returned.
+     */
+    public Status next() {
+      Integer top = heap_.poll();
+      if (top == null) {
+        return new Status(Status.NOT_FOUND_ERROR);
+      }
+      byte[] key = records_[top][0];
+      Status status = advance(top);
+      while (!heap_.isEmpty() && Arrays.equals(records_[heap_.peek()][0], key)) {
+        status.join(advance(heap_.poll()));
+      }
+      return status;
+    }
+
+    /**
+     * Moves an internal iterator forward and loads its record.
+     */
+    private Status advance(int id) {
+      Status status = iters_[id].next();
+      load(id);
+      return status;
+    }
+
+    /**
+     * Loads the current record of an internal iterator.
+     */
+    private void load(int id) {
+      records_[id] = iters_[id].get();
+      if (records_[id] != null) {
+        heap_.add(id);
+      }
+    }
+
+    /** The iterators of the shards. */
+    private final Iterator[] iters_;
+    /** The current records of the shards. */
+    private final byte[][][] records_;
+    /** The heap of the shard IDs in the order of the current keys. */
+    private final PriorityQueue<Integer> heap_;
+  }
+
+  /**
+   * Publishes a new state after the operations on the current state finish.
+   * @note As the write lock waits for every operation holding the read lock, no operation uses
+   * the previous state after this returns.
+   */
+  private void publishState(RingState state) {
+    state_lock_.writeLock().lock();
+    try {
+      state_ = state;
+    } finally {
+      state_lock_.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Gets records from the shards in parallel.
+   */
+  private Map<byte[], byte[]> getMultiParallel(RingState state, byte[][] keys,
+                                               boolean previous) {
+    ArrayList<ArrayList<byte[]>> groups = new ArrayList<ArrayList<byte[]>>();
+    for (int i = 0; i < state.shards.length; i++) {
+      groups.add(new ArrayList<byte[]>());
+    }
+    for (byte[] key : keys) {
+      int shard_id = previous ? state.locatePrevious(key) : state.locate(key);
+      if (shard_id >= 0) {
+        groups.get(shard_id).add(key);
+      }
+    }
+    List<Callable<Map<byte[], byte[]>>> tasks = new ArrayList<Callable<Map<byte[], byte[]>>>();
+    for (int i = 0; i < state.shards.length; i++) {
+      final DBM shard = state.shards[i];
+      final byte[][] group = groups.get(i).toArray(new byte[0][]);
+      if (group.length > 0) {
+        tasks.add(() -> shard.getMulti(group));
+      }
+    }
+    Map<byte[], byte[]> result = new HashMap<byte[], byte[]>();
+    for (Map<byte[], byte[]> records : invokeTasks(tasks)) {
+      result.putAll(records);
+    }
+    return result;
+  }
+
+  /**
+   * Moves the record of a key to its new owner if it is under a rebalance.
+   */
+  private static Status prepareWrite(RingState state, byte[] key) {
+    int prev_shard_id = state.locatePrevious(key);
+    int shard_id = state.locate(key);
+    if (prev_shard_id == shard_id) {
+      return new Status();
+    }
+    return moveRecord(state.shards[prev_shard_id], state.shards[shard_id], key);
+  }
+
+  /**
+   * Moves the record of a key from a shard to another.
+   * @note The record is copied inside the record processor of the source so that a concurrent
+   * update waits for the moving.  A newer record in the destination is kept.
+   */
+  private static Status moveRecord(DBM src, DBM dest, byte[] key) {
+    Status status = new Status();
+    status.join(src.process(key, (k, v) -> {
+        if (v == null) {
+          return null;
+        }
+        Status set_status = dest.set(key, v, false);
+        if (!set_status.isOK() && !set_status.equals(Status.DUPLICATION_ERROR)) {
+          status.join(set_status);
+          return null;
+        }
+        return RecordProcessor.REMOVE;
+      }, true));
+    return status;
+  }
+
+  /**
+   * Moves records of a shard which belong to another shard.
+   */
+  private static Status moveRecords(RingState state, int src_id, int dest_id) {
+    DBM src = state.shards[src_id];
+    DBM dest = state.shards[dest_id];
+    ArrayList<byte[]> keys = new ArrayList<byte[]>();
+    Status status = src.processEach((batch_keys, batch_values) -> {
+        for (byte[] key : batch_keys) {
+          if (state.locate(key) == dest_id) {
+            keys.add(key);
+          }
+        }
+      }, MOVE_BATCH_SIZE);
+    for (byte[] key : keys) {
+      status.join(moveRecord(src, dest, key));
+    }
+    return status;
+  }
+
+  /**
+   * Runs tasks on the thread pool and joins their statuses.
+   */
+  private Status runTasks(List<Callable<Status>> tasks) {
+    Status status = new Status();
+    for (Status task_status : invokeTasks(tasks)) {
+      status.join(task_status);
+    }
+    return status;
+  }
+
+  /**
+   * Runs tasks on the thread pool and gets their results.
+   * @note A single task is run on the calling thread.
+   */
+  private <T> List<T> invokeTasks(List<Callable<T>> tasks) {
+    List<T> results = new ArrayList<T>(tasks.size());
+    try {
+      if (tasks.size() == 1) {
+        results.add(tasks.get(0).call());
+        return results;
+      }
+      for (Future<T> future : executor_.invokeAll(tasks)) {
+        results.add(future.get());
+      }
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      }
+      throw new RuntimeException(cause);
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+    return results;
+  }
+
+  /**
+   * Immutable state of the shards and the hash rings.
+   */
+  private static class RingState {
+    /**
+     * Constructor.
+     */
+    RingState(String[] names, DBM[] shards, int num_virtual_nodes,
+              TreeMap<Long, Integer> prev_ring) {
+      this.names = names;
+      this.shards = shards;
+      this.ring = new TreeMap<Long, Integer>();
+      this.prev_ring = prev_ring;
+      for (int i = 0; i < names.length; i++) {
+        for (int j = 0; j < num_virtual_nodes; j++) {
+          byte[] node = String.format("%s#%d", names[i], j).getBytes(StandardCharsets.UTF_8);
+          this.ring.putIfAbsent(Utility.primaryHash(node, 0), i);
+        }
+      }
+    }
+
+    /**
+     * Gets the shard ID of a key.
+     */
+    int locate(byte[] key) {
+      return locate(ring, key);
+    }
+
+    /**
+     * Gets the shard ID of a key before the rebalance.
+     */
+    int locatePrevious(byte[] key) {
+      return prev_ring == null ? locate(ring, key) : locate(prev_ring, key);
+    }
+
+    /**
+     * Gets the shard ID of a key on a ring.
+     */
+    private static int locate(TreeMap<Long, Integer> ring, byte[] key) {
+      if (ring.isEmpty()) {
+        throw new IllegalStateException("no shard");
+      }
+      Map.Entry<Long, Integer> node = ring.ceilingEntry(Utility.primaryHash(key, 0));
+      if (node == null) {
+        node = ring.firstEntry();
+      }
+      return node.getValue();
+    }
+
+    /** The names of the shards. */
+    final String[] names;
+    /** The databases of the shards. */
+    final DBM[] shards;
+    /** The hash ring of the virtual nodes. */
+    final TreeMap<Long, Integer> ring;
+    /** The hash ring before the rebalance, or null if not rebalancing. */
+    final TreeMap<Long, Integer> prev_ring;
+  }
+
+  /** The number of records scanned at once to find records to move. */
+  private static final int MOVE_BATCH_SIZE = 1000;
+  /** The number of virtual nodes of each shard. */
+  private final int num_virtual_nodes_;
+  /** The thread pool. */
+  private final ExecutorService executor_;
+  /** The lock for rebalancing. */
+  private final Object rebalance_lock_ = new Object();
+  /** The lock to drain the operations on the current state. */
+  private final ReentrantReadWriteLock state_lock_ = new ReentrantReadWriteLock();
+  /** The current state. */
+  private volatile RingState state_;
+}
+
+// END OF FILE
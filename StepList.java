@@ -0,0 +1,65 @@
+/*************************************************************************************************
+ * List of steps for the native code
+ *
+ * Copyright 2020 Google LLC
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a copy of the License at
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.  See the License for the specific language governing permissions
+ * and limitations under the License.
+ *************************************************************************************************/
+
+package tkrzw;
+
+import java.util.Arrays;
+
+/**
+ * List of steps decoded by the native code.
+ * @note This is the common encoding of RecordOperation and RecordFilter.  Each step has a kind,
+ * two numeric parameters, and two data parameters.
+ */
+final class StepList {
+  /**
+   * Adds a step.
+   * @param kind The kind of the step.
+   * @param num1 The first numeric parameter.
+   * @param num2 The second numeric parameter.
+   * @param data1 The first data parameter, which can be null.
+   * @param data2 The second data parameter, which can be null.
+   */
+  void add(int kind, long num1, long num2, byte[] data1, byte[] data2) {
+    if (size_ == kinds_.length) {
+      int capacity = kinds_.length * 2 + 1;
+      kinds_ = Arrays.copyOf(kinds_, capacity);
+      nums_ = Arrays.copyOf(nums_, capacity * 2);
+      data_ = Arrays.copyOf(data_, capacity * 2);
+    }
+    kinds_[size_] = kind;
+    nums_[size_ * 2] = num1;
+    nums_[size_ * 2 + 1] = num2;
+    data_[size_ * 2] = data1;
+    data_[size_ * 2 + 1] = data2;
+    size_++;
+  }
+
+  /**
+   * Gets the number of steps.
+   * @return The number of steps.
+   */
+  int size() {
+    return size_;
+  }
+
+  /** The kinds of the steps. */
+  private int[] kinds_ = new int[0];
+  /** The numeric parameters, two for each step. */
+  private long[] nums_ = new long[0];
+  /** The data parameters, two for each step. */
+  private byte[][] data_ = new byte[0][];
+  /** The number of steps. */
+  private int size_ = 0;
+}
+
+// END OF FILE
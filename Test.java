@@ -14,16 +14,23 @@
 package tkrzw;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
+import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 
@@ -105,6 +112,48 @@ public class Test {
       } finally {
         removeDirectory(tmp_dir_path);
       }
+    } else if (args[0].equals("shard")) {
+      String tmp_dir_path = createTempDir();
+      try {
+        rv = runShard(tmp_dir_path);
+      } finally {
+        removeDirectory(tmp_dir_path);
+      }
+    } else if (args[0].equals("partition")) {
+      String tmp_dir_path = createTempDir();
+      try {
+        rv = runPartition(tmp_dir_path);
+      } finally {
+        removeDirectory(tmp_dir_path);
+      }
+    } else if (args[0].equals("rebuild")) {
+      String tmp_dir_path = createTempDir();
+      try {
+        rv = runRebuild(tmp_dir_path);
+      } finally {
+        removeDirectory(tmp_dir_path);
+      }
+    } else if (args[0].equals("commit")) {
+      String tmp_dir_path = createTempDir();
+      try {
+        rv = runCommit(tmp_dir_path);
+      } finally {
+        removeDirectory(tmp_dir_path);
+      }
+    } else if (args[0].equals("coalesce")) {
+      String tmp_dir_path = createTempDir();
+      try {
+        rv = runCoalesce(tmp_dir_path);
+      } finally {
+        removeDirectory(tmp_dir_path);
+      }
+    } else if (args[0].equals("cache")) {
+      String tmp_dir_path = createTempDir();
+      try {
+        rv = runCache(tmp_dir_path);
+      } finally {
+        removeDirectory(tmp_dir_path);
+      }
     } else if (args[0].equals("perf")) {
       String path = "";
       int num_iterations = 10000;
@@ -182,6 +231,12 @@ public class Test {
     STDERR.printf("  export\n");
     STDERR.printf("  asyncdbm\n");
     STDERR.printf("  file\n");
+    STDERR.printf("  shard\n");
+    STDERR.printf("  partition\n");
+    STDERR.printf("  rebuild\n");
+    STDERR.printf("  commit\n");
+    STDERR.printf("  coalesce\n");
+    STDERR.printf("  cache\n");
     STDERR.printf("  perf [--path str] [--iter num] [--threads num] [--params srr] [--random]\n");
     STDERR.printf("  wicked [--path str] [--iter num] [--threads num] [--params str]\n");
     STDERR.printf("\n");
@@ -840,6 +895,245 @@ public class Test {
     check(dbm.get("two") == null);
     check(dbm.get("three").equals("jumpjumpjumpjump"));
     check(dbm.get("four").equals("xx"));
+    RecordProcessor.ValueProcessor upper = (v) -> {
+      if (v == null) return "NEW".getBytes();
+      return new String(v).toUpperCase().getBytes();
+    };
+    check(dbm.process("three", upper, true).equals(Status.Code.SUCCESS));
+    check(dbm.get("three").equals("JUMPJUMPJUMPJUMP"));
+    check(dbm.process("five", upper, true).equals(Status.Code.SUCCESS));
+    check(dbm.get("five").equals("NEW"));
+    final int[] value_counter = new int[1];
+    RecordProcessor.ValueProcessor proc6 = (v) -> {
+      check(v != null);
+      value_counter[0]++;
+      return null;
+    };
+    check(dbm.processEach(proc6, false).equals(Status.Code.SUCCESS));
+    check(value_counter[0] == 3);
+    final Map<String, String> read_records = new HashMap<String, String>();
+    RecordProcessor.ReadOnlyProcessor proc7 = (k, v) -> {
+      if (k == null) return;
+      read_records.put(new String(k), new String(v));
+    };
+    check(dbm.processEach(proc7, true).equals(Status.Code.SUCCESS));
+    check(read_records.size() == 3);
+    check(read_records.get("four").equals("xx"));
+    check(read_records.get("five").equals("NEW"));
+    check(dbm.process("four", proc7, true).equals(Status.Code.SUCCESS));
+    check(dbm.get("four").equals("xx"));
+    RecordProcessor.WithKey[] ops3 = {
+      new RecordProcessor.WithKey("four", upper),
+      new RecordProcessor.WithKey("five", (RecordProcessor.ValueProcessor)(v)->null),
+    };
+    check(dbm.processMulti(ops3, true).equals(Status.Code.SUCCESS));
+    check(dbm.get("four").equals("XX"));
+    check(dbm.get("five").equals("NEW"));
+    RecordOperation append_op = new RecordOperation().appendWithDelimiter("yy", ":");
+    check(dbm.process("four", append_op, true).equals(Status.Code.SUCCESS));
+    check(dbm.get("four").equals("XX:yy"));
+    check(dbm.process("six", append_op, true).equals(Status.Code.SUCCESS));
+    check(dbm.get("six").equals("yy"));
+    RecordOperation edit_op = new RecordOperation()
+        .removePrefix("XX".getBytes()).prepend("<".getBytes()).setField(3, ">".getBytes());
+    check(dbm.process("four", edit_op, true).equals(Status.Code.SUCCESS));
+    check(dbm.get("four").equals("<:y>"));
+    check(dbm.process("four", new RecordOperation().truncateValue(2), true).isOK());
+    check(dbm.get("four").equals("<:"));
+    check(dbm.process("four", new RecordOperation().removeIfValueEquals("x"), true).isOK());
+    check(dbm.get("four").equals("<:"));
+    check(dbm.process("four", new RecordOperation().removeIfValueEquals("<:"), true).isOK());
+    check(dbm.get("four") == null);
+    RecordOperation counter_op = new RecordOperation().incrementBy(10, 90).decay(0.5);
+    check(dbm.process("counter", counter_op, true).equals(Status.Code.SUCCESS));
+    check(dbm.increment("counter", 0, 0, null) == 50);
+    RecordOperation drop_op = new RecordOperation().decay(0.01)
+        .removeIfValueEquals(Utility.serializeInt(0));
+    check(dbm.process("counter", drop_op, true).equals(Status.Code.SUCCESS));
+    check(dbm.get("counter") == null);
+    check(dbm.set("ttl-1".getBytes(), Utility.serializeInt(100)).isOK());
+    check(dbm.set("ttl-2".getBytes(), Utility.serializeInt(300)).isOK());
+    long num_records = dbm.count();
+    check(dbm.processEach(new RecordOperation().removeIfExpired(0, 200), true).isOK());
+    check(dbm.get("ttl-1") == null);
+    check(dbm.get("ttl-2") != null);
+    check(dbm.count() == num_records - 1);
+    RecordProcessor.WithKey[] ops4 = {
+      new RecordProcessor.WithKey("ttl-2", new RecordOperation().remove()),
+      new RecordProcessor.WithKey("seven", new RecordOperation().remove().setValue("7")),
+    };
+    check(dbm.processMulti(ops4, true).equals(Status.Code.SUCCESS));
+    check(dbm.get("ttl-2") == null);
+    check(dbm.get("seven").equals("7"));
+    RecordOperation far_op = new RecordOperation().setField(1L << 40, "x".getBytes());
+    check(dbm.process("seven", far_op, true).equals(Status.INVALID_ARGUMENT_ERROR));
+    check(dbm.get("seven").equals("7"));
+    check(dbm.process("seven", new RecordOperation().removeIfExpired(Long.MAX_VALUE, 0), true)
+          .isOK());
+    check(dbm.get("seven").equals("7"));
+    try {
+      new RecordOperation().decay(Double.NaN);
+      check(false);
+    } catch (IllegalArgumentException e) {
+    }
+    check(dbm.set("big".getBytes(), Utility.serializeInt(Long.MAX_VALUE / 2)).isOK());
+    check(dbm.process("big", new RecordOperation().decay(4.0), true).isOK());
+    check(dbm.increment("big", 0, 0, null) == Long.MAX_VALUE);
+    check(dbm.process("big", new RecordOperation().incrementBy(1, 0), true).isOK());
+    check(dbm.increment("big", 0, 0, null) == Long.MAX_VALUE);
+    check(dbm.process("big", new RecordOperation().incrementBy(Long.MIN_VALUE, 0)
+                      .incrementBy(Long.MIN_VALUE, 0), true).isOK());
+    check(dbm.increment("big", 0, 0, null) == Long.MIN_VALUE);
+    check(dbm.remove("big").isOK());
+    check(new String(append_op.process(null, "a".getBytes())).equals("a:yy"));
+    check(new RecordOperation().remove().process(null, "a".getBytes()) ==
+          RecordProcessor.REMOVE);
+    check(new RecordOperation().remove().process(null, null) == null);
+    check(new RecordOperation().size() == 0);
+    check(edit_op.size() == 3);
+    check(dbm.clear().equals(Status.SUCCESS));
+    StringBuilder filler = new StringBuilder();
+    for (int i = 0; i < 20; i++) {
+      check(dbm.set(String.format("stale:%02d", i), filler.toString(), true).isOK());
+      check(dbm.set(String.format("fresh:%02d", i), "v" + i, true).isOK());
+      filler.append("x");
+    }
+    RecordFilter stale_filter = new RecordFilter().keyPrefix("stale:");
+    final ArrayList<String> filtered_keys = new ArrayList<String>();
+    final int[] filtered_calls = new int[1];
+    RecordProcessor proc8 = (k, v) -> {
+      filtered_calls[0]++;
+      if (k != null) {
+        filtered_keys.add(new String(k));
+      }
+      return null;
+    };
+    check(dbm.processEach(stale_filter, proc8, false).equals(Status.Code.SUCCESS));
+    check(filtered_calls[0] == 22);
+    check(filtered_keys.size() == 20);
+    for (String key : filtered_keys) {
+      check(key.startsWith("stale:"));
+    }
+    RecordFilter size_filter = new RecordFilter().keyPrefix("stale:").valueSizeRange(5, 9);
+    check(dbm.processEach(size_filter, new RecordOperation().remove(), true).isOK());
+    check(dbm.count() == 35);
+    check(dbm.get("stale:04") != null);
+    check(dbm.get("stale:05") == null);
+    check(dbm.get("stale:09") == null);
+    check(dbm.get("stale:10") != null);
+    check(dbm.search(new RecordFilter().keyRange("fresh:10", "fresh:13"), 0).length == 3);
+    check(dbm.search(new RecordFilter().keyPattern("regex", "^fresh:0[1-3]$"), 0).length == 3);
+    check(dbm.search(new RecordFilter().keyPattern("end", "7"), 0).length == 3);
+    check(dbm.search(new RecordFilter().keyPattern("containcase", "FRESH"), 5).length == 5);
+    byte[][] v1_keys = dbm.search(new RecordFilter().valuePrefix("v1"), 0);
+    check(v1_keys.length == 11);
+    check(dbm.search(new RecordFilter(), 0).length == 35);
+    try {
+      new RecordFilter().keyPattern("edit", "fresh");
+      check(false);
+    } catch (IllegalArgumentException e) {
+    }
+    check(stale_filter.matches("stale:xyz", ""));
+    check(!stale_filter.matches("fresh:xyz", ""));
+    check(size_filter.matches("stale:", "12345"));
+    check(!size_filter.matches("stale:", "1234"));
+    Iterator filter_iter = dbm.makeIterator();
+    check(filter_iter.first().equals(Status.SUCCESS));
+    RecordFilter fresh_filter = new RecordFilter().keyPrefix("fresh:").valuePrefix("v1");
+    Status filter_status = new Status();
+    int num_filtered = 0;
+    while (true) {
+      String[][] batch = filter_iter.stepMultiString(fresh_filter, 4, filter_status);
+      for (String[] record : batch) {
+        check(record[0].startsWith("fresh:1") || record[0].equals("fresh:01"));
+        check(record[1].startsWith("v1"));
+      }
+      num_filtered += batch.length;
+      if (batch.length < 4) {
+        check(filter_status.equals(Status.Code.NOT_FOUND_ERROR));
+        break;
+      }
+      check(filter_status.equals(Status.Code.SUCCESS));
+    }
+    check(num_filtered == 11);
+    check(filter_iter.first().equals(Status.SUCCESS));
+    check(filter_iter.stepMulti(null, 0).length == 35);
+    filter_iter.destruct();
+    final int[] batch_counters = new int[2];
+    final Map<String, String> batch_records = new HashMap<String, String>();
+    BatchProcessor batch_proc = (keys, values) -> {
+      check(keys.length == values.length);
+      check(keys.length > 0 && keys.length <= 7);
+      batch_counters[0]++;
+      batch_counters[1] += keys.length;
+      for (int i = 0; i < keys.length; i++) {
+        batch_records.put(new String(keys[i]), new String(values[i]));
+      }
+    };
+    check(dbm.processEach(batch_proc, 7).equals(Status.Code.SUCCESS));
+    check(batch_counters[0] == 5);
+    check(batch_counters[1] == 35);
+    check(batch_records.get("fresh:03").equals("v3"));
+    batch_counters[0] = 0;
+    batch_counters[1] = 0;
+    check(dbm.processEach(stale_filter, batch_proc, 4).equals(Status.Code.SUCCESS));
+    check(batch_counters[0] == 4);
+    check(batch_counters[1] == 15);
+    try {
+      dbm.processEach((keys, values) -> { throw new RuntimeException("stop"); }, 10);
+      check(false);
+    } catch (RuntimeException e) {
+      check(e.getMessage().equals("stop"));
+    }
+    RecordProcessor.BufferProcessor strip = (k, v) -> {
+      check(k.isReadOnly());
+      if (v == null) {
+        ByteBuffer new_value = ByteBuffer.allocateDirect(3);
+        new_value.put("NEW".getBytes());
+        new_value.flip();
+        return new_value;
+      }
+      check(v.isReadOnly());
+      if (v.remaining() < 2) {
+        return RecordProcessor.BufferProcessor.REMOVE_BUFFER;
+      }
+      ByteBuffer view = v.duplicate();
+      view.position(1);
+      return view;
+    };
+    check(dbm.process("fresh:12", strip, true).equals(Status.Code.SUCCESS));
+    check(dbm.get("fresh:12").equals("12"));
+    check(dbm.process("fresh:12", strip, true).equals(Status.Code.SUCCESS));
+    check(dbm.get("fresh:12").equals("2"));
+    check(dbm.process("fresh:12", strip, true).equals(Status.Code.SUCCESS));
+    check(dbm.get("fresh:12") == null);
+    check(dbm.process("fresh:12", strip, true).equals(Status.Code.SUCCESS));
+    check(dbm.get("fresh:12").equals("NEW"));
+    RecordProcessor.BufferProcessor heap = (k, v) -> {
+      if (k == null) return null;
+      check(k.isDirect() && v.isDirect());
+      return ByteBuffer.wrap(("[" + v.remaining() + "]").getBytes());
+    };
+    check(dbm.process("fresh:13", heap, true).equals(Status.Code.SUCCESS));
+    check(dbm.get("fresh:13").equals("[3]"));
+    check(dbm.processEach(new RecordFilter().keyPrefix("stale:"), heap, true).isOK());
+    check(dbm.get("stale:03").equals("[3]"));
+    check(dbm.get("stale:19").equals("[19]"));
+    RecordProcessor.BufferProcessor sliced = (k, v) -> {
+      ByteBuffer whole = ByteBuffer.wrap("<<sliced>>".getBytes());
+      whole.position(1);
+      ByteBuffer slice = whole.slice();
+      slice.position(1).limit(7);
+      return slice;
+    };
+    check(dbm.process("fresh:14", sliced, true).equals(Status.Code.SUCCESS));
+    check(dbm.get("fresh:14").equals("sliced"));
+    RecordProcessor.BufferProcessor read_only = (k, v) ->
+        ByteBuffer.wrap("[ro]".getBytes()).asReadOnlyBuffer();
+    check(dbm.process("fresh:15", read_only, true).equals(Status.Code.SUCCESS));
+    check(dbm.get("fresh:15").equals("[ro]"));
+    check(new String(strip.process("k".getBytes(), "abc".getBytes())).equals("bc"));
+    check(strip.process("k".getBytes(), "a".getBytes()) == RecordProcessor.REMOVE);
     check(dbm.close().equals(Status.SUCCESS));
     dbm.destruct();
     STDOUT.printf("  ... OK\n");
@@ -1146,6 +1440,12 @@ public class Test {
       String value = String.format("%d", i);
       check(dbm.set(key, value, false).equals(Status.SUCCESS));
     }
+    check(dbm.adviseRandom().equals(Status.SUCCESS));
+    check(dbm.prefetch(0, 0).equals(Status.SUCCESS));
+    check(dbm.synchronize(false).equals(Status.SUCCESS));
+    check(dbm.dropCache(0, 0).equals(Status.SUCCESS));
+    check(dbm.adviseNormal().equals(Status.SUCCESS));
+    check(dbm.get("00000001").equals("1"));
     File file = new File();
     check(file.open(dest_path, true, "truncate=true").equals(Status.SUCCESS));
     check(dbm.exportToFlatRecords(file).equals(Status.Code.SUCCESS));
@@ -1153,6 +1453,56 @@ public class Test {
     check(dbm.count() == 0);
     check(dbm.importFromFlatRecords(file).equals(Status.Code.SUCCESS));
     check(dbm.count() == 100);
+    FlatRecordReader flat_reader = new FlatRecordReader(file);
+    check(flat_reader.toString().indexOf("tkrzw.FlatRecordReader") == 0);
+    Status flat_status = new Status();
+    String[] flat_record = flat_reader.readString(flat_status);
+    check(flat_status.equals(Status.SUCCESS));
+    check(dbm.get(flat_record[0]).equals(flat_record[1]));
+    byte[][][] flat_records = flat_reader.readMulti(50, flat_status);
+    check(flat_status.equals(Status.SUCCESS));
+    check(flat_records.length == 50);
+    String[][] flat_str_records = flat_reader.readMultiString(0, flat_status);
+    check(flat_status.equals(Status.NOT_FOUND_ERROR));
+    check(flat_str_records.length == 49);
+    check(dbm.get(flat_str_records[48][0]).equals(flat_str_records[48][1]));
+    check(flat_reader.read(flat_status) == null);
+    check(flat_status.equals(Status.NOT_FOUND_ERROR));
+    flat_reader.destruct();
+    check(file.close().equals(Status.SUCCESS));
+    file.destruct();
+    file = new File();
+    check(file.open(dest_path, true, "truncate=true").equals(Status.SUCCESS));
+    FlatRecordWriter flat_writer = new FlatRecordWriter(file);
+    check(flat_writer.toString().indexOf("tkrzw.FlatRecordWriter") == 0);
+    check(flat_writer.write("one", "first").equals(Status.SUCCESS));
+    check(flat_writer.write("two".getBytes(), "".getBytes()).equals(Status.SUCCESS));
+    check(flat_writer.writeMulti(new String[] {"three", "four"}, new String[] {"3rd", "4th"})
+          .equals(Status.SUCCESS));
+    try {
+      flat_writer.writeMulti(new byte[2][], new byte[1][]);
+      check(false);
+    } catch (IllegalArgumentException e) {
+    }
+    flat_writer.destruct();
+    check(flat_writer.toString().indexOf("destructed") > 0);
+    flat_reader = new FlatRecordReader(file, 16);
+    flat_str_records = flat_reader.readMultiString(3);
+    check(flat_str_records.length == 3);
+    check(flat_str_records[0][0].equals("one") && flat_str_records[0][1].equals("first"));
+    check(flat_str_records[1][0].equals("two") && flat_str_records[1][1].isEmpty());
+    check(flat_str_records[2][0].equals("three") && flat_str_records[2][1].equals("3rd"));
+    flat_record = flat_reader.readString();
+    check(flat_record[0].equals("four") && flat_record[1].equals("4th"));
+    check(flat_reader.read() == null);
+    flat_reader.destruct();
+    DBM flat_dbm = new DBM();
+    check(flat_dbm.open("", true, "dbm=TinyDBM").equals(Status.SUCCESS));
+    check(flat_dbm.importFromFlatRecords(file).equals(Status.SUCCESS));
+    check(flat_dbm.count() == 4);
+    check(flat_dbm.get("four").equals("4th"));
+    check(flat_dbm.close().equals(Status.SUCCESS));
+    flat_dbm.destruct();
     check(file.close().equals(Status.SUCCESS));
     file.destruct();
     file = new File();
@@ -1178,6 +1528,52 @@ public class Test {
     } catch (StatusException e) {
       check(e.getStatus().equals(Status.Code.INVALID_ARGUMENT_ERROR));
     }
+    ArrayList<String> found_lines = new ArrayList<String>();
+    File.LineProcessor line_collector = (lines) -> {
+      for (byte[] line : lines) {
+        found_lines.add(new String(line));
+      }
+      return true;
+    };
+    check(file.search("contain", "001", 0, 4, 5, line_collector).equals(Status.SUCCESS));
+    check(found_lines.size() == 12);
+    check(found_lines.get(0).equals("00000001") && found_lines.get(11).equals("00000100"));
+    found_lines.clear();
+    check(file.search("edit", "00000100", 3, 4, 2, line_collector).equals(Status.SUCCESS));
+    check(found_lines.size() == 3);
+    found_lines.clear();
+    check(file.search("foo", "1", 0, 4, 5, line_collector)
+          .equals(Status.INVALID_ARGUMENT_ERROR));
+    check(file.search("regex", "[", 0, 4, 5, line_collector)
+          .equals(Status.INVALID_ARGUMENT_ERROR));
+    check(file.close().equals(Status.Code.SUCCESS));
+    file.destruct();
+    file = new File();
+    check(file.open(dest_path, true, "truncate=true").equals(Status.SUCCESS));
+    StringBuilder large_text = new StringBuilder();
+    for (int i = 0; i < 300000; i++) {
+      large_text.append(String.format("%08d\n", i));
+    }
+    large_text.append("tail-777");
+    check(file.append(large_text.toString()) == 0);
+    check(file.search("end", "777", 0, 4, 7, line_collector).equals(Status.SUCCESS));
+    check(found_lines.size() == 301);
+    for (int i = 0; i < 300; i++) {
+      check(found_lines.get(i).equals(String.format("%08d", i * 1000 + 777)));
+    }
+    check(found_lines.get(300).equals("tail-777"));
+    found_lines.clear();
+    check(file.search("regex", "^0012[0-9]{3}5$", 5, 3, 100, line_collector)
+          .equals(Status.SUCCESS));
+    check(found_lines.size() == 5);
+    check(found_lines.get(0).equals("00120005") && found_lines.get(4).equals("00120045"));
+    found_lines.clear();
+    int[] num_batches = new int[1];
+    check(file.search("begin", "0", 0, 2, 10, (lines) -> {
+          num_batches[0]++;
+          return num_batches[0] < 3;
+        }).equals(Status.SUCCESS));
+    check(num_batches[0] == 3);
     check(file.close().equals(Status.Code.SUCCESS));
     file.destruct();
     STDOUT.printf("  ... OK\n");
@@ -1409,14 +1805,245 @@ public class Test {
     Status status = new Status();
     check(file.read(1024, 10, status) == null);
     check(status.equals(Status.INFEASIBLE_ERROR));
+    ByteBuffer direct_buf = ByteBuffer.allocateDirect(16);
+    check(file.read(2, direct_buf, 4, 6).equals(Status.SUCCESS));
+    check(direct_buf.position() == 0);
+    byte[] direct_data = new byte[6];
+    direct_buf.position(4);
+    direct_buf.get(direct_data);
+    check(new String(direct_data).equals("CDE123"));
+    ByteBuffer heap_buf = ByteBuffer.allocate(8);
+    heap_buf.position(2);
+    check(file.read(0, heap_buf).equals(Status.SUCCESS));
+    check(heap_buf.position() == 8);
+    check(new String(heap_buf.array(), 2, 6).equals("ABCDE1"));
+    byte[] backing = new byte[10];
+    ByteBuffer sliced_buf = ByteBuffer.wrap(backing, 3, 5).slice();
+    check(sliced_buf.arrayOffset() == 3);
+    check(file.read(1, sliced_buf, 1, 3).equals(Status.SUCCESS));
+    check(new String(backing, 4, 3).equals("BCD") && backing[3] == 0 && backing[7] == 0);
+    ByteBuffer src_buf = ByteBuffer.allocateDirect(8);
+    src_buf.put("xyzXYZ".getBytes());
+    src_buf.flip();
+    check(file.write(12, src_buf).equals(Status.SUCCESS));
+    check(!src_buf.hasRemaining());
+    check(file.append(ByteBuffer.wrap("0123456789".getBytes()), 2, 3, null) == 18);
+    src_buf.position(3);
+    check(file.append(src_buf.asReadOnlyBuffer()) == 21);
+    check(file.readString(10, 14).equals("FGxyzXYZ234XYZ"));
+    check(file.read(2, heap_buf, 8, 0).equals(Status.SUCCESS));
+    try {
+      file.read(0, ByteBuffer.allocateDirect(4).asReadOnlyBuffer());
+      check(false);
+    } catch (java.nio.ReadOnlyBufferException e) {
+    }
+    try {
+      file.read(0, direct_buf, 10, 8);
+      check(false);
+    } catch (IllegalArgumentException e) {
+    }
+    long[] multi_offsets = {0, 5, 10, 1024, 3};
+    int[] multi_sizes = {5, 5, 2, 4, 2};
+    ByteBuffer multi_buf = ByteBuffer.allocateDirect(20);
+    multi_buf.position(1);
+    Status[] multi_statuses = file.readMulti(multi_offsets, multi_sizes, multi_buf);
+    check(multi_statuses.length == 5);
+    check(multi_statuses[0].equals(Status.SUCCESS));
+    check(multi_statuses[2].equals(Status.SUCCESS));
+    check(multi_statuses[3].equals(Status.INFEASIBLE_ERROR));
+    check(multi_statuses[4].equals(Status.SUCCESS));
+    check(multi_buf.position() == 1);
+    byte[] multi_data = new byte[12];
+    multi_buf.get(multi_data);
+    check(new String(multi_data).equals("ABCDE12345FG"));
+    check(multi_buf.get(17) == 'D' && multi_buf.get(18) == 'E');
+    ByteBuffer multi_heap = ByteBuffer.allocate(7);
+    multi_statuses = file.readMulti(new long[] {12, 21}, new int[] {3, 3}, multi_heap);
+    check(multi_statuses[0].isOK() && multi_statuses[1].isOK());
+    check(new String(multi_heap.array(), 0, 6).equals("xyzXYZ"));
+    check(file.readMulti(new long[0], new int[0], multi_heap).length == 0);
+    check(file.truncate(12).equals(Status.SUCCESS));
     check(file.close().equals(Status.SUCCESS));
     check(file.open(path, false).equals(Status.SUCCESS));
     check(file.getSize() == 512);
     str = file.readString(4, 7);
     check(str.equals("E12345F"));
     check(file.toString().indexOf("tkrzw.File") == 0);
+    Status map_status = new Status();
+    check(file.mapRegion(0, 10, map_status) == null);
+    check(map_status.equals(Status.INFEASIBLE_ERROR));
+    check(file.close().equals(Status.SUCCESS));
+    check(file.open(path, true, "truncate=true").equals(Status.SUCCESS));
+    AsyncFile async_file = new AsyncFile(file, 4);
+    check(async_file.toString().indexOf("tkrzw.AsyncFile") == 0);
+    check(async_file.write(0, "0123").get().equals(Status.SUCCESS));
+    Status.And<Long> async_append = async_file.append("4567".getBytes()).get();
+    check(async_append.status.equals(Status.SUCCESS));
+    check(async_append.value == 4);
+    async_append = async_file.append("89ab").get();
+    check(async_append.status.equals(Status.SUCCESS));
+    check(async_append.value == 8);
+    Status.And<byte[]> async_read = async_file.read(2, 4).get();
+    check(async_read.status.equals(Status.SUCCESS));
+    check(Arrays.equals(async_read.value, "2345".getBytes()));
+    Status.And<String> async_read_str = async_file.readString(8, 4).get();
+    check(async_read_str.status.equals(Status.SUCCESS));
+    check(async_read_str.value.equals("89ab"));
+    check(async_file.read(10, 10).get().status.equals(Status.INFEASIBLE_ERROR));
+    try {
+      async_file.read(0, Long.MAX_VALUE);
+      check(false);
+    } catch (IllegalArgumentException e) {
+    }
+    ByteBuffer async_buf = ByteBuffer.allocateDirect(8);
+    async_buf.put(0, (byte)'X').put(1, (byte)'Y');
+    check(async_file.write(4, async_buf, 0, 2).get().equals(Status.SUCCESS));
+    async_append = async_file.append(async_buf, 0, 2).get();
+    check(async_append.status.equals(Status.SUCCESS));
+    check(async_append.value == 12);
+    check(async_file.read(2, async_buf, 2, 6).get().equals(Status.SUCCESS));
+    check(async_buf.get(2) == '2' && async_buf.get(4) == 'X' && async_buf.get(7) == '7');
+    try {
+      async_file.read(0, ByteBuffer.allocate(4), 0, 4);
+      check(false);
+    } catch (IllegalArgumentException e) {
+    }
+    ArrayList<Future<Status>> async_futures = new ArrayList<Future<Status>>();
+    for (int i = 0; i < 10; i++) {
+      async_futures.add(async_file.write(14 + i, String.valueOf(i)));
+    }
+    for (Future<Status> async_future : async_futures) {
+      check(async_future.get().equals(Status.SUCCESS));
+    }
+    check(async_file.synchronize(false).get().equals(Status.SUCCESS));
+    check(async_file.truncate(20).get().equals(Status.SUCCESS));
+    async_file.destruct();
+    check(async_file.toString().indexOf("destroyed") > 0);
+    check(file.getSize() == 20);
+    check(file.readString(10, 10).equals("ab" + "XY" + "012345"));
+    try {
+      OutputStream file_out = file.newOutputStream(-1, 7);
+      file_out.write('[');
+      for (int i = 0; i < 10; i++) {
+        file_out.write(String.format("%02d", i).getBytes());
+      }
+      file_out.write("-abcdefghijklmnopqrstuvwxyz-".getBytes(), 1, 26);
+      file_out.write(']');
+      file_out.close();
+      check(file.getSize() == 68);
+      check(file.readString(20, 3).equals("[00"));
+      check(file.readString(41, 8).equals("abcdefgh"));
+      file_out = file.newOutputStream(20, 4);
+      file_out.write("{0}".getBytes());
+      file_out.flush();
+      check(file.readString(20, 4).equals("{0}0"));
+      file_out.close();
+      try {
+        file_out.write('x');
+        check(false);
+      } catch (IOException e) {
+      }
+      InputStream file_in = file.newInputStream(16, 5);
+      check(file_in.available() == 52);
+      check(file_in.read() == '2');
+      byte[] stream_data = new byte[7];
+      check(file_in.read(stream_data, 0, 7) == 7);
+      check(new String(stream_data).equals("345{0}0"));
+      check(file_in.skip(15) == 15);
+      check(file_in.read() == '0');
+      byte[] stream_rest = new byte[100];
+      check(file_in.read(stream_rest, 0, 100) == 28);
+      check(new String(stream_rest, 0, 28).equals("9abcdefghijklmnopqrstuvwxyz]"));
+      check(file_in.read() == -1);
+      check(file_in.read(stream_rest, 0, 10) == -1);
+      file_in.close();
+      SeekableByteChannel channel = file.newChannel();
+      check(channel.isOpen() && channel.size() == 68);
+      ByteBuffer channel_buf = ByteBuffer.allocateDirect(4);
+      check(channel.position(4).read(channel_buf) == 4);
+      check(channel.position() == 8);
+      channel_buf.flip();
+      check(channel_buf.get(0) == 'X' && channel_buf.get(3) == '7');
+      ByteBuffer channel_heap = ByteBuffer.wrap("PQ".getBytes());
+      check(channel.position(66).write(channel_heap) == 2);
+      check(!channel_heap.hasRemaining());
+      check(channel.size() == 68);
+      check(file.readString(64, 4).equals("xyPQ"));
+      channel_buf.clear();
+      check(channel.read(channel_buf) == -1);
+      check(channel.truncate(60).size() == 60);
+      check(channel.position() == 60);
+      channel.close();
+      check(!channel.isOpen());
+      try {
+        channel.position();
+        check(false);
+      } catch (IOException e) {
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    String copy_path = tmp_dir_path + java.io.File.separatorChar + "casket-copy.txt";
+    File copy_file = new File();
+    check(copy_file.open(copy_path, true, "truncate=true,file=PositionalParallelFile").isOK());
+    check(file.transferTo(20, 10, copy_file, -1).equals(Status.SUCCESS));
+    check(copy_file.transferFrom(file, 0, 4, -1).equals(Status.SUCCESS));
+    check(copy_file.readString(0, 14).equals("{0}01020300123"));
+    check(file.transferTo(100, 1, copy_file, 0).equals(Status.INFEASIBLE_ERROR));
+    check(copy_file.transferTo(0, -1, copy_file, 2).equals(Status.SUCCESS));
+    check(copy_file.getSize() == 16);
+    check(copy_file.readString(0, 16).equals("{0{0}01020300123"));
+    check(copy_file.transferTo(10, 100, copy_file, -1).equals(Status.SUCCESS));
+    check(copy_file.getSize() == 22);
+    check(copy_file.readString(16, 6).equals("300123"));
+    check(copy_file.truncate(16).equals(Status.SUCCESS));
+    check(copy_file.adviseRandom().equals(Status.NOT_IMPLEMENTED_ERROR));
+    check(copy_file.prefetch(0, 0).equals(Status.SUCCESS));
+    check(copy_file.dropCache(4, 100).equals(Status.SUCCESS));
+    check(copy_file.close().equals(Status.SUCCESS));
+    copy_file.destruct();
     check(file.close().equals(Status.SUCCESS));
     file.destruct();
+    String mmap_path = tmp_dir_path + java.io.File.separatorChar + "casket-mmap.txt";
+    for (String mmap_class : new String[] {"MemoryMapParallelFile", "MemoryMapAtomicFile"}) {
+      File mmap_file = new File();
+      check(mmap_file.open(mmap_path, true, "truncate=true,file=" + mmap_class).isOK());
+      check(mmap_file.append("0123456789abcdef") == 0);
+      check(mmap_file.adviseSequential().equals(Status.SUCCESS));
+      check(mmap_file.prefetch(0, 0).equals(Status.SUCCESS));
+      check(mmap_file.dropCache(4, 8).equals(Status.SUCCESS));
+      check(mmap_file.prefetch(100, 8).equals(Status.SUCCESS));
+      check(mmap_file.adviseNormal().equals(Status.SUCCESS));
+      check(mmap_file.readString(8, 4).equals("89ab"));
+      File.MappedRegion region = mmap_file.mapRegion(4, 8, map_status);
+      check(map_status.equals(Status.SUCCESS));
+      check(region.getOffset() == 4);
+      ByteBuffer region_buf = region.getBuffer();
+      check(region_buf.isDirect() && region_buf.isReadOnly());
+      check(region_buf.remaining() == 8);
+      check(region_buf.get(0) == '4' && region_buf.get(7) == 'b');
+      try (File.MappedRegion tail = mmap_file.mapRegion(12, 100)) {
+        check(tail.getBuffer().remaining() == 4);
+        check(tail.getBuffer().get(3) == 'f');
+      }
+      check(mmap_file.truncate(4).equals(Status.INFEASIBLE_ERROR));
+      check(mmap_file.truncate(16).equals(Status.SUCCESS));
+      check(mmap_file.write(4, "WXYZ").equals(Status.SUCCESS));
+      check(mmap_file.append(new byte[100000]) == 16);
+      check(region_buf.get(0) == 'W' && region_buf.get(7) == 'b');
+      check(mmap_file.close().equals(Status.SUCCESS));
+      check(region_buf.get(3) == 'Z');
+      mmap_file.destruct();
+      region.close();
+      check(region.getBuffer() == null);
+      check(region_buf.get(3) == 'Z');
+      region.close();
+      mmap_file = new File();
+      check(mmap_file.open(mmap_path, true, "file=" + mmap_class).isOK());
+      check(mmap_file.truncate(4).equals(Status.SUCCESS));
+      check(mmap_file.close().equals(Status.SUCCESS));
+      mmap_file.destruct();
+    }
     STDOUT.printf("  ... OK\n");
     return 0;
   }
@@ -1509,8 +2136,802 @@ public class Test {
     check(record[0].equals("second"));
     check(record[1].equals("22"));
     iter.destruct();
+    check(index.clear().isOK());
+    check(index.addMulti(new String[] {"zz", "aa", "mm", "aa"},
+                         new String[] {"9", "2", "5", "1"}).isOK());
+    check(index.count() == 4);
+    strValues = index.getValues("aa", 0);
+    check(strValues.length == 2 && strValues[0].equals("1") && strValues[1].equals("2"));
+    check(index.removeMulti(new String[] {"aa", "zz", "xx"}, new String[] {"1", "9", "0"})
+          .equals(Status.NOT_FOUND_ERROR));
+    check(index.count() == 2);
+    check(index.contains("aa", "2") && index.contains("mm", "5"));
+    try {
+      index.addMulti(new byte[2][], new byte[3][]);
+      check(false);
+    } catch (IllegalArgumentException e) {
+    }
+    for (boolean direct : new boolean[] {true, false}) {
+      ByteBuffer packed = direct ? ByteBuffer.allocateDirect(256) : ByteBuffer.allocate(256);
+      packed.put((byte)'#');
+      for (int i = 0; i < 5; i++) {
+        byte[] packed_key = String.format("pk%d", i % 2).getBytes();
+        byte[] packed_value = String.format("pv%d", i).getBytes();
+        packed.putInt(packed_key.length).put(packed_key);
+        packed.putInt(packed_value.length).put(packed_value);
+      }
+      packed.flip();
+      packed.position(1);
+      check(index.addMulti(packed).isOK());
+      check(packed.remaining() == 0);
+      check(index.getValues("pk0", 0).length == 3);
+      check(index.getValues("pk1", 0).length == 2);
+      packed.position(1);
+      check(index.removeMulti(packed).isOK());
+      check(index.count() == 2);
+      packed.position(1);
+      packed.limit(packed.limit() - 1);
+      try {
+        index.addMulti(packed);
+        check(false);
+      } catch (IllegalArgumentException e) {
+      }
+      check(index.count() == 2);
+    }
+    check(index.add("hos", "v999").isOK() && index.add("hou", "v000").isOK());
+    for (int i = 24; i >= 0; i--) {
+      check(index.add("hot", String.format("v%03d", i)).isOK());
+    }
+    strValues = index.getValuesAfter("hot", null, 3);
+    check(strValues.length == 3 && strValues[0].equals("v000") && strValues[2].equals("v002"));
+    strValues = index.getValuesAfter("hot", "v010", 3);
+    check(strValues.length == 3 && strValues[0].equals("v011") && strValues[2].equals("v013"));
+    strValues = index.getValuesAfter("hot", "v0105", 0);
+    check(strValues.length == 14 && strValues[0].equals("v011"));
+    check(index.getValuesAfter("hot", "v024", 10).length == 0);
+    check(index.getValuesAfter("hox", null, 10).length == 0);
+    Index.ValueCursor cursor = index.makeValueCursor("hot", null, 10);
+    ArrayList<String> paged_values = new ArrayList<String>();
+    while (!cursor.isDone()) {
+      for (String value : cursor.nextString()) {
+        paged_values.add(value);
+      }
+    }
+    check(paged_values.size() == 25);
+    for (int i = 0; i < 25; i++) {
+      check(paged_values.get(i).equals(String.format("v%03d", i)));
+    }
+    check(new String(cursor.getLastValue()).equals("v024"));
+    check(cursor.next().length == 0);
+    cursor = index.makeValueCursor("hot".getBytes(), "v019".getBytes(), 5);
+    check(cursor.next().length == 5);
+    check(!cursor.isDone());
+    check(cursor.next().length == 0);
+    check(cursor.isDone());
+    for (String user : new String[] {"u1", "u2", "u3", "u5", "u8"}) {
+      check(index.add("general", user).isOK());
+    }
+    for (String user : new String[] {"u2", "u3", "u5", "u9"}) {
+      check(index.add("sales", user).isOK());
+    }
+    check(index.add("archived", "u3").isOK());
+    check(Arrays.equals(index.intersect(new String[] {"general", "sales"}, 0),
+                        new String[] {"u2", "u3", "u5"}));
+    check(Arrays.equals(index.intersect(new String[] {"sales", "general"}, 2),
+                        new String[] {"u2", "u3"}));
+    check(index.intersect(new String[] {"general"}, 0).length == 5);
+    check(index.intersect(new String[] {"general", "nothing"}, 0).length == 0);
+    check(index.intersect(new String[0], 0).length == 0);
+    check(Arrays.equals(index.union(new String[] {"general", "sales", "nothing"}, 0),
+                        new String[] {"u1", "u2", "u3", "u5", "u8", "u9"}));
+    check(Arrays.equals(index.union(new String[] {"sales", "general"}, 2),
+                        new String[] {"u1", "u2"}));
+    check(Arrays.equals(index.difference(new String[] {"general", "sales"},
+                                         new String[] {"archived"}, 0),
+                        new String[] {"u2", "u5"}));
+    check(Arrays.equals(index.difference(new String[] {"general"},
+                                         new String[] {"sales", "archived"}, 0),
+                        new String[] {"u1", "u8"}));
+    check(Arrays.equals(index.difference(new String[] {"general"},
+                                         new String[] {"archived"}, 1),
+                        new String[] {"u1"}));
+    check(index.countValues("general") == 5);
+    check(index.countValues("archived") == 1);
+    check(index.countValues("nothing") == 0);
+    check(index.countValuesApprox("general", 3) == 5);
+    check(index.countRange("archived", "hot") == 7);
+    check(index.countRange("general", null) == 37);
+    check(index.countRange(null, "general") == 2);
+    check(index.countRange("x", "a") == 0);
+    check(index.countRangeApprox("general", "sales", 20) == 33);
+    for (int i = 0; i < 1000; i++) {
+      check(index.add("many", String.format("%08d", i * 37)).isOK());
+    }
+    check(index.countValues("many") == 1000);
+    long approx_count = index.countValuesApprox("many", 10);
+    check(approx_count > 500 && approx_count < 2000);
+    approx_count = index.countRangeApprox("many", "manz", 10);
+    check(approx_count > 500 && approx_count < 2000);
+    check(index.countRange("many", "manz") == 1000);
     check(index.close().equals(Status.SUCCESS));
     index.destruct();
+    index = new Index();
+    check(index.open("", true, "key_comparator=PairDecimalKeyComparator")
+          .equals(Status.SUCCESS));
+    for (String value : new String[] {"100", "9", "10"}) {
+      check(index.add("a", value).isOK());
+    }
+    for (String value : new String[] {"100", "9", "1000"}) {
+      check(index.add("b", value).isOK());
+    }
+    check(Arrays.equals(index.intersect(new String[] {"a", "b"}, 0), new String[] {"9", "100"}));
+    check(Arrays.equals(index.union(new String[] {"a", "b"}, 0),
+                        new String[] {"9", "10", "100", "1000"}));
+    check(Arrays.equals(index.difference(new String[] {"b"}, new String[] {"a"}, 0),
+                        new String[] {"1000"}));
+    check(index.close().equals(Status.SUCCESS));
+    index.destruct();
+    index = new Index();
+    check(index.open(path, true, params).equals(Status.SUCCESS));
+    IndexLoader loader = new IndexLoader(index, tmp_dir_path, 2000);
+    check(loader.toString().indexOf("tkrzw.IndexLoader") == 0);
+    ArrayList<Integer> load_order = new ArrayList<Integer>();
+    for (int i = 0; i < 450; i++) {
+      load_order.add(i % 400);
+    }
+    java.util.Collections.shuffle(load_order, new Random(44));
+    for (int i = 0; i < 300; i++) {
+      int id = load_order.get(i);
+      check(loader.add(String.format("k%02d", id % 20), String.format("v%04d", id)).isOK());
+    }
+    String[] load_keys = new String[150];
+    String[] load_values = new String[150];
+    for (int i = 0; i < 150; i++) {
+      int id = load_order.get(i + 300);
+      load_keys[i] = String.format("k%02d", id % 20);
+      load_values[i] = String.format("v%04d", id);
+    }
+    check(loader.addMulti(load_keys, load_values).isOK());
+    check(loader.count() == 450);
+    check(loader.getNumSpillFiles() > 1);
+    check(index.count() == 0);
+    check(loader.finish().isOK());
+    check(loader.count() == 0);
+    check(loader.getNumSpillFiles() == 0);
+    check(index.count() == 400);
+    check(index.countValues("k07") == 20);
+    strValues = index.getValues("k07", 3);
+    check(Arrays.equals(strValues, new String[] {"v0007", "v0027", "v0047"}));
+    check(loader.add("k07", "v9999").isOK());
+    check(loader.finish().isOK());
+    check(index.count() == 401);
+    loader.destruct();
+    iter = index.makeIterator();
+    iter.jump("k1", "");
+    String[][] str_records = iter.scanPrefix("k1", 15);
+    check(str_records.length == 15);
+    check(str_records[0][0].equals("k10") && str_records[0][1].equals("v0010"));
+    check(str_records[14][0].equals("k10") && str_records[14][1].equals("v0290"));
+    int num_scanned = str_records.length;
+    while (true) {
+      byte[][][] records = iter.scanPrefix("k1".getBytes(), 100);
+      if (records.length == 0) {
+        break;
+      }
+      num_scanned += records.length;
+    }
+    check(num_scanned == 200);
+    check(iter.get() == null);
+    iter.jump("k19", "");
+    check(iter.scanPrefix("k19", 0).length == 20);
+    check(iter.scanPrefix("k19", 0).length == 0);
+    iter.destruct();
+    check(index.close().equals(Status.SUCCESS));
+    index.destruct();
+    DBM dbm = new DBM();
+    check(dbm.open("", true, "dbm=TinyDBM").equals(Status.SUCCESS));
+    Index city_index = new Index();
+    check(city_index.open("", true).equals(Status.SUCCESS));
+    Index tag_index = new Index();
+    check(tag_index.open("", true).equals(Status.SUCCESS));
+    IndexedDBM indexed = new IndexedDBM(dbm);
+    indexed.addIndex(city_index, (k, v) -> {
+        String city = new String(v, StandardCharsets.UTF_8).split(",")[0];
+        return new byte[][] {city.getBytes(StandardCharsets.UTF_8)};
+      }).addIndex(tag_index, (k, v) -> {
+          String[] fields = new String(v, StandardCharsets.UTF_8).split(",");
+          if (fields.length < 2) {
+            return null;
+          }
+          String[] tags = fields[1].split(";");
+          byte[][] tag_keys = new byte[tags.length][];
+          for (int i = 0; i < tags.length; i++) {
+            tag_keys[i] = tags[i].getBytes(StandardCharsets.UTF_8);
+          }
+          return tag_keys;
+        });
+    check(indexed.getNumIndices() == 2);
+    check(indexed.getIndex(1) == tag_index);
+    check(indexed.set("alice", "tokyo,admin;dev").equals(Status.SUCCESS));
+    check(indexed.set("bob", "osaka,dev").equals(Status.SUCCESS));
+    check(indexed.set("carol", "tokyo").equals(Status.SUCCESS));
+    check(indexed.set("carol", "kyoto", false).equals(Status.DUPLICATION_ERROR));
+    check(indexed.get("carol").equals("tokyo"));
+    check(Arrays.equals(city_index.getValues("tokyo", 0), new String[] {"alice", "carol"}));
+    check(Arrays.equals(tag_index.getValues("dev", 0), new String[] {"alice", "bob"}));
+    check(indexed.set("alice", "osaka,dev;dev").equals(Status.SUCCESS));
+    check(Arrays.equals(city_index.getValues("tokyo", 0), new String[] {"carol"}));
+    check(Arrays.equals(city_index.getValues("osaka", 0), new String[] {"alice", "bob"}));
+    check(tag_index.getValues("admin", 0).length == 0);
+    check(tag_index.count() == 2);
+    check(indexed.process("bob", (k, v) -> "kyoto".getBytes(StandardCharsets.UTF_8))
+          .equals(Status.SUCCESS));
+    check(Arrays.equals(city_index.getValues("kyoto", 0), new String[] {"bob"}));
+    check(Arrays.equals(tag_index.getValues("dev", 0), new String[] {"alice"}));
+    check(indexed.process("bob", (k, v) -> null).equals(Status.SUCCESS));
+    check(indexed.get("bob").equals("kyoto"));
+    check(indexed.remove("bob").equals(Status.SUCCESS));
+    check(indexed.remove("bob").equals(Status.NOT_FOUND_ERROR));
+    check(indexed.get("bob") == null);
+    check(city_index.getValues("kyoto", 0).length == 0);
+    check(city_index.count() == 2);
+    for (int i = 0; i < 100; i++) {
+      check(dbm.set(String.format("u%03d", i), String.format("c%d,t%d;all", i % 3, i % 5))
+            .equals(Status.SUCCESS));
+    }
+    check(city_index.clear().equals(Status.SUCCESS));
+    check(tag_index.clear().equals(Status.SUCCESS));
+    check(indexed.backfill(4, 7).equals(Status.SUCCESS));
+    check(city_index.count() == 102);
+    check(city_index.getValues("c1", 0).length == 33);
+    check(Arrays.equals(city_index.getValues("osaka", 0), new String[] {"alice"}));
+    check(tag_index.getValues("t4", 0).length == 20);
+    check(tag_index.getValues("all", 0).length == 100);
+    check(tag_index.count() == 201);
+    try {
+      indexed.process("alice", new RecordOperation().setValue("x"));
+      check(false);
+    } catch (IllegalArgumentException e) {
+    }
+    check(tag_index.close().equals(Status.SUCCESS));
+    check(!indexed.set("dave", "nagoya,dev").isOK());
+    check(indexed.get("dave") == null);
+    check(city_index.getValues("nagoya", 0).length == 0);
+    check(city_index.count() == 102);
+    tag_index.destruct();
+    check(city_index.close().equals(Status.SUCCESS));
+    city_index.destruct();
+    check(dbm.close().equals(Status.SUCCESS));
+    dbm.destruct();
+    STDOUT.printf("  ... OK\n");
+    return 0;
+  }
+
+  /**
+   * Runs the sharding tests.
+   */
+  private static int runShard(String tmp_dir_path) {
+    STDOUT.printf("Running sharding tests:\n");
+    DBM[] dbms = new DBM[3];
+    for (int i = 0; i < dbms.length; i++) {
+      dbms[i] = new DBM();
+    }
+    check(dbms[0].open("", true, "dbm=BabyDBM").equals(Status.SUCCESS));
+    check(dbms[1].open("", true, "dbm=TinyDBM").equals(Status.SUCCESS));
+    String path = tmp_dir_path + java.io.File.separatorChar + "casket.tkh";
+    check(dbms[2].open(path, true, "truncate=true,num_buckets=100").equals(Status.SUCCESS));
+    ShardedDBM sharded = new ShardedDBM(64, 4);
+    check(sharded.addShard("alpha", dbms[0]).equals(Status.SUCCESS));
+    check(sharded.addShard("beta", dbms[1]).equals(Status.SUCCESS));
+    check(sharded.getNumShards() == 2 && sharded.getShard(1) == dbms[1]);
+    for (int i = 0; i < 1000; i++) {
+      check(sharded.set(String.format("%04d", i), String.format("v%d", i)).equals(Status.SUCCESS));
+    }
+    check(sharded.count() == 1000);
+    check(dbms[0].count() > 100 && dbms[1].count() > 100);
+    check(sharded.set("0001", "x", false).equals(Status.DUPLICATION_ERROR));
+    check(sharded.get("0001").equals("v1"));
+    check(sharded.get("xxxx") == null);
+    Map<String, String> str_records = new HashMap<String, String>();
+    for (int i = 1000; i < 1100; i++) {
+      str_records.put(String.format("%04d", i), String.format("v%d", i));
+    }
+    check(sharded.setMultiString(str_records, false).equals(Status.SUCCESS));
+    check(sharded.count() == 1100);
+    String[] str_keys = new String[] {"0000", "0500", "1099", "xxxx"};
+    Map<String, String> got_records = sharded.getMulti(str_keys);
+    check(got_records.size() == 3 && got_records.get("1099").equals("v1099"));
+    check(sharded.removeMulti(new String[] {"1000", "1001"}).equals(Status.SUCCESS));
+    check(sharded.removeMulti(new String[] {"1002", "xxxx"}).equals(Status.NOT_FOUND_ERROR));
+    check(sharded.remove("1003").equals(Status.SUCCESS));
+    check(sharded.remove("1003").equals(Status.NOT_FOUND_ERROR));
+    check(sharded.count() == 1096);
+    long alpha_count = dbms[0].count();
+    long beta_count = dbms[1].count();
+    check(sharded.addShard("gamma", dbms[2]).equals(Status.SUCCESS));
+    check(sharded.count() == 1096);
+    check(dbms[2].count() > 100);
+    check(dbms[0].count() < alpha_count && dbms[1].count() < beta_count);
+    for (int i = 0; i < 1100; i++) {
+      String key = String.format("%04d", i);
+      if (i >= 1000 && i < 1004) {
+        check(sharded.get(key) == null);
+      } else {
+        check(sharded.get(key).equals(String.format("v%d", i)));
+        check(sharded.getShard(sharded.locateShard(key)).get(key) != null);
+      }
+    }
+    try {
+      sharded.addShard("alpha", dbms[0]);
+      check(false);
+    } catch (IllegalArgumentException e) {
+    }
+    check(sharded.synchronize(false).equals(Status.SUCCESS));
+    sharded.destruct();
+    check(dbms[2].close().equals(Status.SUCCESS));
+    check(dbms[2].open("", true, "dbm=StdTreeDBM").equals(Status.SUCCESS));
+    check(dbms[1].close().equals(Status.SUCCESS));
+    check(dbms[1].open("", true, "dbm=BabyDBM").equals(Status.SUCCESS));
+    check(dbms[0].clear().equals(Status.SUCCESS));
+    sharded = new ShardedDBM(16, 2);
+    for (int i = 0; i < dbms.length; i++) {
+      check(sharded.addShard(String.format("shard-%d", i), dbms[i]).equals(Status.SUCCESS));
+    }
+    Map<byte[], byte[]> records = new HashMap<byte[], byte[]>();
+    for (int i = 0; i < 300; i++) {
+      records.put(String.format("%03d", i).getBytes(), String.format("%d", i).getBytes());
+    }
+    check(sharded.setMulti(records, true).equals(Status.SUCCESS));
+    ShardedDBM.MergedIterator merged_iter = sharded.makeIterator();
+    check(merged_iter.first().equals(Status.SUCCESS));
+    int num_records = 0;
+    String[] record;
+    while ((record = merged_iter.getString()) != null) {
+      check(record[0].equals(String.format("%03d", num_records)));
+      check(record[1].equals(String.format("%d", num_records)));
+      num_records++;
+      check(merged_iter.next().equals(Status.SUCCESS));
+    }
+    check(num_records == 300);
+    check(merged_iter.next().equals(Status.NOT_FOUND_ERROR));
+    check(merged_iter.jump("150").equals(Status.SUCCESS));
+    check(merged_iter.getString()[0].equals("150"));
+    merged_iter.destruct();
+    DBM extra_dbm = new DBM();
+    check(extra_dbm.open("", true, "dbm=BabyDBM").equals(Status.SUCCESS));
+    final ShardedDBM writing_sharded = sharded;
+    Thread[] writers = new Thread[4];
+    for (int i = 0; i < writers.length; i++) {
+      final int thid = i;
+      writers[i] = new Thread(() -> {
+          for (int j = 0; j < 500; j++) {
+            String key = String.format("w%d-%d", thid, j);
+            check(writing_sharded.set(key, key).equals(Status.SUCCESS));
+          }
+        });
+      writers[i].start();
+    }
+    check(sharded.addShard("extra", extra_dbm).equals(Status.SUCCESS));
+    for (Thread writer : writers) {
+      try {
+        writer.join();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    check(extra_dbm.count() > 0);
+    check(sharded.count() == 300 + 500 * writers.length);
+    for (int i = 0; i < writers.length; i++) {
+      for (int j = 0; j < 500; j++) {
+        String key = String.format("w%d-%d", i, j);
+        check(sharded.getShard(sharded.locateShard(key)).get(key).equals(key));
+      }
+    }
+    sharded.destruct();
+    check(extra_dbm.close().equals(Status.SUCCESS));
+    extra_dbm.destruct();
+    for (DBM dbm : dbms) {
+      check(dbm.close().equals(Status.SUCCESS));
+      dbm.destruct();
+    }
+    STDOUT.printf("  ... OK\n");
+    return 0;
+  }
+
+  /**
+   * Runs the partitioning tests.
+   */
+  private static int runPartition(String tmp_dir_path) {
+    STDOUT.printf("Running partitioning tests:\n");
+    PartitionedDBM dbm = new PartitionedDBM();
+    check(dbm.open(tmp_dir_path, true, "name=casket,max_partition_records=300,num_threads=3")
+          .equals(Status.SUCCESS));
+    check(dbm.getNumPartitions() == 1);
+    for (int i = 0; i < 1000; i++) {
+      check(dbm.set(String.format("%04d", i), String.format("v%d", i)).equals(Status.SUCCESS));
+    }
+    check(dbm.waitForSplits().equals(Status.SUCCESS));
+    check(dbm.getNumPartitions() > 1);
+    check(dbm.count() == 1000);
+    check(dbm.set("0001", "x", false).equals(Status.DUPLICATION_ERROR));
+    check(dbm.get("0001").equals("v1"));
+    check(dbm.get("xxxx") == null);
+    check(dbm.remove("0002").equals(Status.SUCCESS));
+    check(dbm.remove("0002").equals(Status.NOT_FOUND_ERROR));
+    String[][] records = dbm.scanRange("0100", "0900", 0);
+    check(records.length == 800);
+    for (int i = 0; i < records.length; i++) {
+      check(records[i][0].equals(String.format("%04d", i + 100)));
+      check(records[i][1].equals(String.format("v%d", i + 100)));
+    }
+    records = dbm.scanRange("", null, 10);
+    check(records.length == 10 && records[0][0].equals("0000") && records[2][0].equals("0003"));
+    records = dbm.scanRange("0995", null, 0);
+    check(records.length == 5 && records[4][0].equals("0999"));
+    check(dbm.scanRange("1000", "2000", 0).length == 0);
+    int num_parts = dbm.getNumPartitions();
+    check(dbm.splitPartition("0000").equals(Status.SUCCESS));
+    check(dbm.getNumPartitions() == num_parts + 1);
+    byte[][] points = dbm.getSplitPoints();
+    check(points[0].length == 0);
+    for (int i = 1; i < points.length; i++) {
+      check(Arrays.compareUnsigned(points[i - 1], points[i]) < 0);
+    }
+    check(dbm.count() == 999);
+    final PartitionedDBM split_dbm = dbm;
+    Thread splitter = new Thread(() -> {
+        for (int i = 0; i < 5; i++) {
+          split_dbm.splitPartition(String.format("%04d", i * 200 + 100));
+        }
+      });
+    splitter.start();
+    for (int i = 0; i < 20; i++) {
+      check(dbm.scanRange("", null, 0).length == 999);
+    }
+    try {
+      splitter.join();
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+    num_parts = dbm.getNumPartitions();
+    check(dbm.scanRange("", null, 0).length == 999);
+    check(dbm.close().equals(Status.SUCCESS));
+    check(dbm.open(tmp_dir_path, false, "name=casket").equals(Status.SUCCESS));
+    check(dbm.getNumPartitions() == num_parts);
+    check(dbm.count() == 999);
+    check(dbm.get("0999").equals("v999"));
+    check(dbm.scanRange("0000", "0010", 0).length == 9);
+    check(dbm.splitPartition("0000").equals(Status.PERMISSION_ERROR));
+    check(dbm.close().equals(Status.SUCCESS));
+    check(dbm.open(tmp_dir_path, true, "name=casket,truncate=true").equals(Status.SUCCESS));
+    check(dbm.getNumPartitions() == 1 && dbm.count() == 0);
+    check(dbm.close().equals(Status.SUCCESS));
+    STDOUT.printf("  ... OK\n");
+    return 0;
+  }
+
+  /**
+   * Runs the rebuild scheduler tests.
+   */
+  private static int runRebuild(String tmp_dir_path) {
+    STDOUT.printf("Running rebuild scheduler tests:\n");
+    StringBuilder value = new StringBuilder();
+    for (int i = 0; i < 10; i++) {
+      value.append("0123456789");
+    }
+    DBM[] dbms = new DBM[3];
+    for (int i = 0; i < dbms.length; i++) {
+      dbms[i] = new DBM();
+      String path = tmp_dir_path + java.io.File.separatorChar + String.format("casket-%d.tkh", i);
+      check(dbms[i].open(path, true, "truncate=true,num_buckets=10000").equals(Status.SUCCESS));
+      for (int j = 0; j < 1000; j++) {
+        check(dbms[i].set(String.format("%04d", j), value.toString()).equals(Status.SUCCESS));
+      }
+      if (i > 0) {
+        for (int j = 0; j < 900; j++) {
+          check(dbms[i].remove(String.format("%04d", j)).equals(Status.SUCCESS));
+        }
+      }
+    }
+    RebuildScheduler scheduler = new RebuildScheduler(1, 0.5);
+    for (int i = 0; i < dbms.length; i++) {
+      scheduler.addDBM(String.format("db-%d", i), dbms[i], null);
+    }
+    try {
+      scheduler.addDBM("db-0", dbms[0], null);
+      check(false);
+    } catch (IllegalArgumentException e) {
+    }
+    long[] file_sizes = new long[dbms.length];
+    for (int i = 0; i < dbms.length; i++) {
+      file_sizes[i] = dbms[i].getFileSize();
+    }
+    LocalTime now = LocalTime.now();
+    scheduler.addTimeWindow(now.plusHours(1), now.plusHours(2));
+    check(scheduler.check() == 0);
+    scheduler.addTimeWindow(now.minusHours(1), now.plusHours(1));
+    check(scheduler.check() == 2);
+    scheduler.waitForRebuilds();
+    List<RebuildScheduler.Report> reports = scheduler.getReports();
+    check(reports.size() == 2);
+    long total_reclaimed_size = 0;
+    for (RebuildScheduler.Report report : reports) {
+      check(report.status.equals(Status.SUCCESS));
+      check(!report.name.equals("db-0"));
+      check(report.duration >= 0 && report.getReclaimedSize() > 0);
+      total_reclaimed_size += report.getReclaimedSize();
+    }
+    check(scheduler.getTotalReclaimedSize() == total_reclaimed_size);
+    check(dbms[0].getFileSize() == file_sizes[0]);
+    for (int i = 1; i < dbms.length; i++) {
+      check(dbms[i].getFileSize() < file_sizes[i]);
+      check(dbms[i].count() == 100);
+    }
+    check(scheduler.check() == 0);
+    check(scheduler.removeDBM("db-1"));
+    check(!scheduler.removeDBM("db-1"));
+    check(scheduler.getLastCheckStatus().equals(Status.SUCCESS));
+    scheduler.start(10);
+    scheduler.destruct();
+    for (DBM dbm : dbms) {
+      check(dbm.close().equals(Status.SUCCESS));
+      dbm.destruct();
+    }
+    STDOUT.printf("  ... OK\n");
+    return 0;
+  }
+
+  /**
+   * Runs the group commit tests.
+   */
+  private static int runCommit(String tmp_dir_path) {
+    STDOUT.printf("Running group commit tests:\n");
+    DBM dbm = new DBM();
+    String path = tmp_dir_path + java.io.File.separatorChar + "casket.tkh";
+    check(dbm.open(path, true, "truncate=true,num_buckets=1000").equals(Status.SUCCESS));
+    GroupCommitter committer = new GroupCommitter(dbm, true, 1000, 4);
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      final int thid = i;
+      threads[i] = new Thread(() -> {
+          for (int j = 0; j < 10; j++) {
+            String key = String.format("%d-%d", thid, j);
+            check(dbm.set(key, key).equals(Status.SUCCESS));
+            check(committer.commitDurable().equals(Status.SUCCESS));
+          }
+        });
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    check(dbm.count() == 80);
+    Map<String, String> stats = committer.getStats();
+    check(Long.parseLong(stats.get("num_commits")) == 80);
+    long num_syncs = Long.parseLong(stats.get("num_syncs"));
+    check(num_syncs > 0 && num_syncs <= 80);
+    check(Long.parseLong(stats.get("max_batch_size")) <= 8);
+    check(Math.abs(Double.parseDouble(stats.get("mean_batch_size")) * num_syncs - 80) < 0.001);
+    check(Double.parseDouble(stats.get("max_latency")) >= 0.0);
+    java.util.concurrent.CompletableFuture<Status> future = committer.commitDurableAsync();
+    committer.destruct();
+    check(future.isDone());
+    try {
+      check(future.get().equals(Status.SUCCESS));
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+    check(committer.commitDurable().equals(Status.PRECONDITION_ERROR));
+    check(dbm.close().equals(Status.SUCCESS));
+    dbm.destruct();
+    STDOUT.printf("  ... OK\n");
+    return 0;
+  }
+
+  /**
+   * Runs the write coalescing tests.
+   */
+  private static int runCoalesce(String tmp_dir_path) {
+    STDOUT.printf("Running write coalescing tests:\n");
+    DBM dbm = new DBM();
+    String path = tmp_dir_path + java.io.File.separatorChar + "casket.tkh";
+    check(dbm.open(path, true, "truncate=true,num_buckets=1000").equals(Status.SUCCESS));
+    CoalescingDBM coalescer = new CoalescingDBM(dbm, 1000, 16);
+    check(coalescer.getDBM() == dbm);
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      final int thid = i;
+      threads[i] = new Thread(() -> {
+          for (int j = 0; j < 100; j++) {
+            String key = String.format("%d-%d", thid, j % 10);
+            check(coalescer.set(key, String.format("%d", j)).equals(Status.SUCCESS));
+            if (j % 3 == 0) {
+              check(coalescer.remove(key).equals(Status.SUCCESS));
+              check(coalescer.remove(key).equals(Status.NOT_FOUND_ERROR));
+              check(coalescer.set(key, String.format("%d", j), false).equals(Status.SUCCESS));
+              check(coalescer.set(key, "x", false).equals(Status.DUPLICATION_ERROR));
+            }
+            check(coalescer.get(key).equals(String.format("%d", j)));
+          }
+        });
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    check(dbm.count() == 80);
+    check(dbm.get("3-9").equals("99"));
+    List<java.util.concurrent.CompletableFuture<Status>> futures =
+        new ArrayList<java.util.concurrent.CompletableFuture<Status>>();
+    for (int i = 0; i < 5; i++) {
+      futures.add(coalescer.setAsync("key".getBytes(), String.format("%d", i).getBytes(), true));
+      futures.add(coalescer.removeAsync("key".getBytes()));
+    }
+    futures.add(coalescer.setAsync("key".getBytes(), "last".getBytes(), true));
+    try {
+      for (java.util.concurrent.CompletableFuture<Status> future : futures) {
+        check(future.get().equals(Status.SUCCESS));
+      }
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+    check(coalescer.get("key").equals("last"));
+    Map<String, String> stats = coalescer.getStats();
+    long num_batches = Long.parseLong(stats.get("num_batches"));
+    check(Long.parseLong(stats.get("num_updates")) == 8 * (100 + 34 * 4) + 11);
+    check(Long.parseLong(stats.get("num_runs")) >= num_batches);
+    check(Long.parseLong(stats.get("max_batch_size")) <= 16);
+    long num_histo_batches = 0;
+    for (long count : coalescer.getBatchSizeHistogram()) {
+      num_histo_batches += count;
+    }
+    check(num_histo_batches == num_batches);
+    coalescer.destruct();
+    check(coalescer.set("key", "value").equals(Status.PRECONDITION_ERROR));
+    check(dbm.close().equals(Status.SUCCESS));
+    dbm.destruct();
+    STDOUT.printf("  ... OK\n");
+    return 0;
+  }
+
+  /**
+   * Runs the read cache tests.
+   */
+  private static int runCache(String tmp_dir_path) {
+    STDOUT.printf("Running read cache tests:\n");
+    DBM dbm = new DBM();
+    String path = tmp_dir_path + java.io.File.separatorChar + "casket.tkh";
+    check(dbm.open(path, true, "truncate=true,num_buckets=1000").equals(Status.SUCCESS));
+    for (int i = 0; i < 1000; i++) {
+      check(dbm.set(String.format("%04d", i), String.format("v%04d", i)).equals(Status.SUCCESS));
+    }
+    CachingDBM cache = new CachingDBM(dbm, 4000);
+    check(cache.getDBM() == dbm);
+    Random rnd = new Random(1);
+    for (int i = 0; i < 20000; i++) {
+      int id = rnd.nextInt(10) < 8 ? rnd.nextInt(50) : rnd.nextInt(1000);
+      String key = String.format("%04d", id);
+      check(cache.get(key).equals(String.format("v%04d", id)));
+    }
+    check(cache.get("xxxx") == null);
+    Map<String, String> stats = cache.getStats();
+    check(cache.getHitRatio() > 0.5);
+    check(Long.parseLong(stats.get("num_hits")) + Long.parseLong(stats.get("num_misses")) ==
+          20001);
+    check(Long.parseLong(stats.get("size")) <= 4000);
+    check(Long.parseLong(stats.get("num_rejections")) > 0);
+    check(cache.get("0001").equals("v0001"));
+    check(cache.set("0001", "new").equals(Status.SUCCESS));
+    check(cache.get("0001").equals("new"));
+    check(cache.append("0001", "er", ":").equals(Status.SUCCESS));
+    check(cache.get("0001").equals("new:er"));
+    check(cache.remove("0001").equals(Status.SUCCESS));
+    check(cache.get("0001") == null);
+    check(cache.get("0002").equals("v0002"));
+    check(cache.compareExchange("0002".getBytes(), "v0002".getBytes(), "cx".getBytes())
+          .equals(Status.SUCCESS));
+    check(cache.get("0002").equals("cx"));
+    check(cache.get("0003").equals("v0003"));
+    check(cache.process("0003".getBytes(), (k, v) -> "proc".getBytes(), true)
+          .equals(Status.SUCCESS));
+    check(cache.get("0003").equals("proc"));
+    check(cache.get("0020").equals("v0020"));
+    check(cache.setAndGet("0020", "sg", true).value.equals("v0020"));
+    check(cache.get("0020").equals("sg"));
+    check(cache.removeAndGet("0020").value.equals("sg"));
+    check(cache.get("0020") == null);
+    check(cache.get("0021").equals("v0021"));
+    Map<String, String> append_records = new HashMap<String, String>();
+    append_records.put("0021", "am");
+    check(cache.appendMulti(append_records, ":").equals(Status.SUCCESS));
+    check(cache.get("0021").equals("v0021:am"));
+    check(cache.compareExchangeAndGet("0021", "v0021:am", "cxg").value.equals("v0021:am"));
+    check(cache.get("0021").equals("cxg"));
+    Map<String, String> cx_expected = new HashMap<String, String>();
+    cx_expected.put("0021", "cxg");
+    Map<String, String> cx_desired = new HashMap<String, String>();
+    cx_desired.put("0021", "cxm");
+    check(cache.compareExchangeMultiString(cx_expected, cx_desired).equals(Status.SUCCESS));
+    check(cache.get("0021").equals("cxm"));
+    check(cache.get("0022").equals("v0022"));
+    check(cache.rekey("0021", "0022", true, false).equals(Status.SUCCESS));
+    check(cache.get("0021") == null);
+    check(cache.get("0022").equals("cxm"));
+    Iterator first_iter = dbm.makeIterator();
+    check(first_iter.first().equals(Status.SUCCESS));
+    String first_key = first_iter.getKeyString();
+    first_iter.destruct();
+    check(cache.get(first_key) != null);
+    String[] popped = cache.popFirstString(null);
+    check(popped[0].equals(first_key));
+    check(cache.get(first_key) == null);
+    check(cache.set(popped[0], popped[1]).equals(Status.SUCCESS));
+    check(cache.pushLast("pushed", 0).equals(Status.SUCCESS));
+    check(cache.get("0023").equals("v0023"));
+    check(cache.processEach(new RecordFilter().keyPrefix("0023"),
+                            (k, v) -> k == null ? null : "filtered".getBytes(), true)
+          .equals(Status.SUCCESS));
+    check(cache.get("0023").equals("filtered"));
+    check(cache.increment("inc", 5, 0, null) == 5);
+    check(cache.increment("inc", 2, 0, null) == 7);
+    Map<String, String> records = new HashMap<String, String>();
+    records.put("0005", "multi");
+    records.put("0006", "multi");
+    check(cache.getMulti(new String[] {"0005", "0006", "0007"}).size() == 3);
+    check(cache.setMultiString(records, true).equals(Status.SUCCESS));
+    Map<String, String> got_records = cache.getMulti(new String[] {"0005", "0006", "xxxx"});
+    check(got_records.size() == 2 && got_records.get("0006").equals("multi"));
+    check(cache.get("0010").equals("v0010"));
+    check(cache.processEach((k, v) -> k == null ? null : "each".getBytes(), true)
+          .equals(Status.SUCCESS));
+    check(cache.get("0010").equals("each"));
+    check(cache.get("0011").equals("each"));
+    check(dbm.set("0011", "direct").equals(Status.SUCCESS));
+    check(cache.get("0011").equals("each"));
+    cache.invalidate("0011".getBytes());
+    check(cache.get("0011").equals("direct"));
+    check(cache.clear().equals(Status.SUCCESS));
+    check(cache.get("0011") == null);
+    check(Long.parseLong(cache.getStats().get("count")) == 0);
+    check(cache.getStats().get("num_segments").equals("1"));
+    for (int i = 0; i < 1000; i++) {
+      check(dbm.set(String.format("%04d", i), String.format("v%04d", i)).equals(Status.SUCCESS));
+    }
+    CachingDBM large_cache = new CachingDBM(dbm, 64 << 20);
+    check(large_cache.getStats().get("num_segments").equals("16"));
+    Thread[] readers = new Thread[4];
+    for (int i = 0; i < readers.length; i++) {
+      final int seed = i;
+      readers[i] = new Thread(() -> {
+          Random reader_rnd = new Random(seed);
+          for (int j = 0; j < 5000; j++) {
+            int id = reader_rnd.nextInt(1000);
+            check(large_cache.get(String.format("%04d", id)).equals(String.format("v%04d", id)));
+          }
+        });
+      readers[i].start();
+    }
+    for (Thread reader : readers) {
+      try {
+        reader.join();
+      } catch (InterruptedException e) {
+        check(false);
+      }
+    }
+    Map<String, String> large_stats = large_cache.getStats();
+    check(Long.parseLong(large_stats.get("count")) == 1000);
+    check(Long.parseLong(large_stats.get("num_misses")) >= 1000);
+    check(large_cache.getHitRatio() > 0.9);
+    check(dbm.close().equals(Status.SUCCESS));
+    dbm.destruct();
     STDOUT.printf("  ... OK\n");
     return 0;
   }
@@ -27,7 +27,8 @@ public class Example5 {
     dbm.process("doc-3", (k, v)->"She must leave Tokyo!".getBytes(), true);
 
     // Lowers record values.
-    tkrzw.RecordProcessor lower = (key, value) -> {
+    // The value processor doesn't receive the key, which saves copying it.
+    RecordProcessor.ValueProcessor lower = (value) -> {
       // If no matching record, None is given as the value.
       if (value == null) return null;
       // Sets the new value.
@@ -11,37 +11,66 @@
  * and limitations under the License.
  *************************************************************************************************/
 
+#include <algorithm>
+#include <atomic>
+#include <condition_variable>
+#include <future>
 #include <string>
 #include <string_view>
 #include <map>
 #include <memory>
+#include <mutex>
+#include <random>
+#include <regex>
+#include <set>
+#include <thread>
 #include <vector>
 
+#include <cerrno>
+#include <cmath>
 #include <cstddef>
 #include <cstdint>
+#include <cstring>
+#include <fcntl.h>
+#include <sys/mman.h>
+#include <unistd.h>
 
 #include "jni.h"
 
 #include "tkrzw_cmd_util.h"
 #include "tkrzw_dbm.h"
+#include "tkrzw_dbm_baby.h"
 #include "tkrzw_dbm_common_impl.h"
+#include "tkrzw_dbm_hash.h"
 #include "tkrzw_dbm_poly.h"
 #include "tkrzw_dbm_shard.h"
+#include "tkrzw_dbm_skip.h"
+#include "tkrzw_dbm_tree.h"
 #include "tkrzw_file.h"
+#include "tkrzw_file_mmap.h"
 #include "tkrzw_file_poly.h"
+#include "tkrzw_file_pos.h"
 #include "tkrzw_file_util.h"
 #include "tkrzw_index.h"
 #include "tkrzw_key_comparators.h"
 #include "tkrzw_lib_common.h"
 #include "tkrzw_str_util.h"
+#include "tkrzw_thread_util.h"
 
 #include "tkrzw_AsyncDBM.h"
+#include "tkrzw_AsyncFile.h"
 #include "tkrzw_DBM.h"
 #include "tkrzw_File.h"
+#include "tkrzw_File_MappedRegion.h"
+#include "tkrzw_FlatRecordReader.h"
+#include "tkrzw_FlatRecordWriter.h"
 #include "tkrzw_Future.h"
 #include "tkrzw_Index.h"
 #include "tkrzw_IndexIterator.h"
+#include "tkrzw_IndexLoader.h"
 #include "tkrzw_Iterator.h"
+#include "tkrzw_RecordFilter.h"
+#include "tkrzw_RecordOperation.h"
 #include "tkrzw_Utility.h"
 
 // Global variables.
@@ -51,6 +80,7 @@ jclass cls_nullpointer;
 jclass cls_illegalargument;
 jclass cls_str;
 jclass cls_byteary;
+jclass cls_bytearyary;
 jclass cls_strary;
 jclass cls_map;
 jmethodID id_map_size;
@@ -68,6 +98,15 @@ jmethodID id_hashmap_init;
 jmethodID id_hashmap_put;
 jclass cls_long;
 jmethodID id_long_init;
+jclass cls_bytebuffer;
+jmethodID id_bytebuffer_asreadonly;
+jmethodID id_bytebuffer_hasarray;
+jmethodID id_bytebuffer_array;
+jmethodID id_bytebuffer_arrayoffset;
+jmethodID id_bytebuffer_duplicate;
+jmethodID id_bytebuffer_get;
+jmethodID id_bytebuffer_position;
+jmethodID id_bytebuffer_remaining;
 jclass cls_status;
 jmethodID id_status_init;
 jobject obj_status_codes[tkrzw::Status::APPLICATION_ERROR+1];
@@ -80,9 +119,29 @@ jfieldID id_status_and_value;
 jclass cls_recproc;
 jobject obj_recproc_remove;
 jmethodID id_recproc_process;
+jclass cls_recproc_value;
+jmethodID id_recproc_value_process;
+jclass cls_recproc_readonly;
+jmethodID id_recproc_readonly_read;
+jclass cls_recproc_buffer;
+jmethodID id_recproc_buffer_process;
+jobject obj_recproc_remove_buffer;
+jclass cls_steplist;
+jfieldID id_steplist_kinds;
+jfieldID id_steplist_nums;
+jfieldID id_steplist_data;
+jfieldID id_steplist_size;
+jclass cls_recop;
+jfieldID id_recop_steps;
+jclass cls_recfilter;
+jfieldID id_recfilter_conds;
 jclass cls_recproc_withkey;
 jfieldID id_recproc_withkey_proc;
 jfieldID id_recproc_withkey_key;
+jclass cls_batchproc;
+jmethodID id_batchproc_process;
+jclass cls_file_lineproc;
+jmethodID id_file_lineproc_process;
 jclass cls_future;
 jmethodID id_future_init;
 jfieldID id_future_ptr;
@@ -96,13 +155,23 @@ jfieldID id_dbmiter_ptr;
 jmethodID id_dbmiter_init;
 jclass cls_asyncdbm;
 jfieldID id_asyncdbm_ptr;
+jclass cls_asyncfile;
+jfieldID id_asyncfile_ptr;
+jclass cls_flatrecwriter;
+jfieldID id_flatrecwriter_ptr;
+jclass cls_flatrecreader;
+jfieldID id_flatrecreader_ptr;
 jclass cls_file;
 jfieldID id_file_ptr;
+jclass cls_file_region;
+jmethodID id_file_region_init;
 jclass cls_index;
 jfieldID id_index_ptr;
 jclass cls_indexiter;
 jfieldID id_indexiter_ptr;
 jmethodID id_indexiter_init;
+jclass cls_indexloader;
+jfieldID id_indexloader_ptr;
 jobject obj_dbm_any_bytes;
 
 // Makes the global class reference.
@@ -123,6 +192,7 @@ jint JNI_OnLoad(JavaVM* vm, void* reserved) {
   cls_illegalargument = MakeClassRef(env, "java/lang/IllegalArgumentException");
   cls_str = MakeClassRef(env, "java/lang/String");
   cls_byteary = MakeClassRef(env, "[B");
+  cls_bytearyary = MakeClassRef(env, "[[B");
   cls_map = MakeClassRef(env, "java/util/Map");
   id_map_size = env->GetMethodID(cls_map, "size", "()I");
   id_map_entryset = env->GetMethodID(cls_map, "entrySet", "()Ljava/util/Set;");
@@ -140,6 +210,17 @@ jint JNI_OnLoad(JavaVM* vm, void* reserved) {
       cls_hashmap, "put", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
   cls_long = MakeClassRef(env, "java/lang/Long");
   id_long_init = env->GetMethodID(cls_long, "<init>", "(J)V");
+  cls_bytebuffer = MakeClassRef(env, "java/nio/ByteBuffer");
+  id_bytebuffer_asreadonly =
+      env->GetMethodID(cls_bytebuffer, "asReadOnlyBuffer", "()Ljava/nio/ByteBuffer;");
+  id_bytebuffer_hasarray = env->GetMethodID(cls_bytebuffer, "hasArray", "()Z");
+  id_bytebuffer_array = env->GetMethodID(cls_bytebuffer, "array", "()[B");
+  id_bytebuffer_arrayoffset = env->GetMethodID(cls_bytebuffer, "arrayOffset", "()I");
+  id_bytebuffer_duplicate =
+      env->GetMethodID(cls_bytebuffer, "duplicate", "()Ljava/nio/ByteBuffer;");
+  id_bytebuffer_get = env->GetMethodID(cls_bytebuffer, "get", "([B)Ljava/nio/ByteBuffer;");
+  id_bytebuffer_position = env->GetMethodID(cls_bytebuffer, "position", "()I");
+  id_bytebuffer_remaining = env->GetMethodID(cls_bytebuffer, "remaining", "()I");
   cls_status = MakeClassRef(env, "tkrzw/Status");
   id_status_init = env->GetMethodID(
       cls_status, "<init>", "(Ltkrzw/Status$Code;Ljava/lang/String;)V");
@@ -161,10 +242,35 @@ jint JNI_OnLoad(JavaVM* vm, void* reserved) {
   obj_recproc_remove = env->NewGlobalRef(env->NewByteArray(0));
   env->SetStaticObjectField(cls_recproc, id_obj_recproc_remove, obj_recproc_remove);
   id_recproc_process = env->GetMethodID(cls_recproc, "process", "([B[B)[B");
+  cls_recproc_value = MakeClassRef(env, "tkrzw/RecordProcessor$ValueProcessor");
+  id_recproc_value_process = env->GetMethodID(cls_recproc_value, "processValue", "([B)[B");
+  cls_recproc_readonly = MakeClassRef(env, "tkrzw/RecordProcessor$ReadOnlyProcessor");
+  id_recproc_readonly_read = env->GetMethodID(cls_recproc_readonly, "read", "([B[B)V");
+  cls_recproc_buffer = MakeClassRef(env, "tkrzw/RecordProcessor$BufferProcessor");
+  id_recproc_buffer_process = env->GetMethodID(
+      cls_recproc_buffer, "processBuffer",
+      "(Ljava/nio/ByteBuffer;Ljava/nio/ByteBuffer;)Ljava/nio/ByteBuffer;");
+  const jfieldID id_obj_recproc_remove_buffer =
+      env->GetStaticFieldID(cls_recproc_buffer, "REMOVE_BUFFER", "Ljava/nio/ByteBuffer;");
+  obj_recproc_remove_buffer = env->NewGlobalRef(
+      env->GetStaticObjectField(cls_recproc_buffer, id_obj_recproc_remove_buffer));
+  cls_steplist = MakeClassRef(env, "tkrzw/StepList");
+  id_steplist_kinds = env->GetFieldID(cls_steplist, "kinds_", "[I");
+  id_steplist_nums = env->GetFieldID(cls_steplist, "nums_", "[J");
+  id_steplist_data = env->GetFieldID(cls_steplist, "data_", "[[B");
+  id_steplist_size = env->GetFieldID(cls_steplist, "size_", "I");
+  cls_recop = MakeClassRef(env, "tkrzw/RecordOperation");
+  id_recop_steps = env->GetFieldID(cls_recop, "steps_", "Ltkrzw/StepList;");
+  cls_recfilter = MakeClassRef(env, "tkrzw/RecordFilter");
+  id_recfilter_conds = env->GetFieldID(cls_recfilter, "conds_", "Ltkrzw/StepList;");
   cls_recproc_withkey = MakeClassRef(env, "tkrzw/RecordProcessor$WithKey");
   id_recproc_withkey_proc =
       env->GetFieldID(cls_recproc_withkey, "processor", "Ltkrzw/RecordProcessor;");
   id_recproc_withkey_key = env->GetFieldID(cls_recproc_withkey, "key", "[B");
+  cls_batchproc = MakeClassRef(env, "tkrzw/BatchProcessor");
+  id_batchproc_process = env->GetMethodID(cls_batchproc, "process", "([[B[[B)V");
+  cls_file_lineproc = MakeClassRef(env, "tkrzw/File$LineProcessor");
+  id_file_lineproc_process = env->GetMethodID(cls_file_lineproc, "process", "([[B)Z");
   cls_future = MakeClassRef(env, "tkrzw/Future");
   id_future_init = env->GetMethodID(cls_future, "<init>", "()V");
   id_future_ptr = env->GetFieldID(cls_future, "ptr_", "J");
@@ -178,13 +284,24 @@ jint JNI_OnLoad(JavaVM* vm, void* reserved) {
   id_dbmiter_init = env->GetMethodID(cls_dbmiter, "<init>", "(Ltkrzw/DBM;)V");
   cls_asyncdbm = MakeClassRef(env, "tkrzw/AsyncDBM");
   id_asyncdbm_ptr = env->GetFieldID(cls_asyncdbm, "ptr_", "J");
+  cls_asyncfile = MakeClassRef(env, "tkrzw/AsyncFile");
+  id_asyncfile_ptr = env->GetFieldID(cls_asyncfile, "ptr_", "J");
+  cls_flatrecwriter = MakeClassRef(env, "tkrzw/FlatRecordWriter");
+  id_flatrecwriter_ptr = env->GetFieldID(cls_flatrecwriter, "ptr_", "J");
+  cls_flatrecreader = MakeClassRef(env, "tkrzw/FlatRecordReader");
+  id_flatrecreader_ptr = env->GetFieldID(cls_flatrecreader, "ptr_", "J");
   cls_file = MakeClassRef(env, "tkrzw/File");
   id_file_ptr = env->GetFieldID(cls_file, "ptr_", "J");
+  cls_file_region = MakeClassRef(env, "tkrzw/File$MappedRegion");
+  id_file_region_init =
+      env->GetMethodID(cls_file_region, "<init>", "(JJLjava/nio/ByteBuffer;)V");
   cls_index = MakeClassRef(env, "tkrzw/Index");
   id_index_ptr = env->GetFieldID(cls_index, "ptr_", "J");
   cls_indexiter = MakeClassRef(env, "tkrzw/IndexIterator");
   id_indexiter_ptr = env->GetFieldID(cls_indexiter, "ptr_", "J");
   id_indexiter_init = env->GetMethodID(cls_indexiter, "<init>", "(Ltkrzw/Index;)V");
+  cls_indexloader = MakeClassRef(env, "tkrzw/IndexLoader");
+  id_indexloader_ptr = env->GetFieldID(cls_indexloader, "ptr_", "J");
   const jfieldID id_obj_dbm_any_bytes = env->GetStaticFieldID(cls_dbm, "ANY_BYTES", "[B");
   obj_dbm_any_bytes = env->NewGlobalRef(env->NewByteArray(0));
   env->SetStaticObjectField(cls_dbm, id_obj_dbm_any_bytes, obj_dbm_any_bytes);
@@ -227,6 +344,39 @@ static jbyteArray NewByteArray(JNIEnv* env, std::string_view str) {
   return jbuf;
 }
 
+// Creates a new read-only direct byte buffer which refers to a native region.
+static jobject NewReadOnlyBuffer(JNIEnv* env, std::string_view str) {
+  static char empty[1];
+  char* ptr = str.data() == nullptr ? empty : const_cast<char*>(str.data());
+  jobject jbuf = env->NewDirectByteBuffer(ptr, str.size());
+  if (!jbuf) {
+    ThrowOutOfMemory(env);
+    throw std::bad_alloc();
+  }
+  jobject jview = env->CallObjectMethod(jbuf, id_bytebuffer_asreadonly);
+  env->DeleteLocalRef(jbuf);
+  return jview;
+}
+
+// Gets the address of a region in a direct byte buffer.
+static char* GetDirectBufferRegion(JNIEnv* env, jobject jbuf, jint buf_off, jint size) {
+  if (jbuf == nullptr) {
+    ThrowNullPointer(env);
+    return nullptr;
+  }
+  char* addr = (char*)env->GetDirectBufferAddress(jbuf);
+  if (addr == nullptr) {
+    ThrowIllegalArgument(env, "not direct buffer");
+    return nullptr;
+  }
+  const int64_t capacity = env->GetDirectBufferCapacity(jbuf);
+  if (buf_off < 0 || size < 0 || static_cast<int64_t>(buf_off) + size > capacity) {
+    ThrowIllegalArgument(env, "invalid size");
+    return nullptr;
+  }
+  return addr + buf_off;
+}
+
 // Creates a new status object.
 static jobject NewStatus(JNIEnv* env, const tkrzw::Status& status) {
   jobject jcode = obj_status_codes[(int)status.GetCode()];
@@ -328,50 +478,1553 @@ class SoftByteArray {
   jboolean copied_;
 };
 
+// Step decoded from a Java StepList object, which is an operation or a condition.
+struct NativeStep {
+  int32_t kind = 0;
+  int64_t num1 = 0;
+  int64_t num2 = 0;
+  std::string data1;
+  std::string data2;
+  bool has_data1 = false;
+  bool has_data2 = false;
+};
+
+// Decodes the steps of a Java StepList object.
+std::vector<NativeStep> DecodeSteps(JNIEnv* env, jobject jsteps) {
+  const int32_t num_steps = env->GetIntField(jsteps, id_steplist_size);
+  jintArray jkinds = (jintArray)env->GetObjectField(jsteps, id_steplist_kinds);
+  jlongArray jnums = (jlongArray)env->GetObjectField(jsteps, id_steplist_nums);
+  jobjectArray jdata = (jobjectArray)env->GetObjectField(jsteps, id_steplist_data);
+  std::vector<jint> kinds(num_steps);
+  std::vector<jlong> nums(num_steps * 2);
+  env->GetIntArrayRegion(jkinds, 0, num_steps, kinds.data());
+  env->GetLongArrayRegion(jnums, 0, num_steps * 2, nums.data());
+  std::vector<NativeStep> steps(num_steps);
+  for (int32_t i = 0; i < num_steps; i++) {
+    NativeStep& step = steps[i];
+    step.kind = kinds[i];
+    step.num1 = nums[i * 2];
+    step.num2 = nums[i * 2 + 1];
+    jbyteArray jdata1 = (jbyteArray)env->GetObjectArrayElement(jdata, i * 2);
+    if (jdata1 != nullptr) {
+      {
+        SoftByteArray data1(env, jdata1);
+        step.data1 = data1.Get();
+      }
+      step.has_data1 = true;
+      env->DeleteLocalRef(jdata1);
+    }
+    jbyteArray jdata2 = (jbyteArray)env->GetObjectArrayElement(jdata, i * 2 + 1);
+    if (jdata2 != nullptr) {
+      {
+        SoftByteArray data2(env, jdata2);
+        step.data2 = data2.Get();
+      }
+      step.has_data2 = true;
+      env->DeleteLocalRef(jdata2);
+    }
+  }
+  env->DeleteLocalRef(jkinds);
+  env->DeleteLocalRef(jnums);
+  env->DeleteLocalRef(jdata);
+  return steps;
+}
+
+// Record processor to do the steps of a Java RecordOperation object natively.
+class NativeRecordOperation final : public tkrzw::DBM::RecordProcessor {
+ public:
+  enum OpKind : int32_t {
+    OP_SET = 0,
+    OP_REMOVE = 1,
+    OP_APPEND = 2,
+    OP_PREPEND = 3,
+    OP_REMOVE_PREFIX = 4,
+    OP_REMOVE_SUFFIX = 5,
+    OP_TRUNCATE = 6,
+    OP_SET_FIELD = 7,
+    OP_INCREMENT = 8,
+    OP_DECAY = 9,
+    OP_REMOVE_IF_EQUALS = 10,
+    OP_REMOVE_IF_EXPIRED = 11,
+  };
+
+  NativeRecordOperation(JNIEnv* env, jobject jop) {
+    jobject jsteps = env->GetObjectField(jop, id_recop_steps);
+    ops_ = DecodeSteps(env, jsteps);
+    env->DeleteLocalRef(jsteps);
+  }
+
+  const tkrzw::Status& GetStatus() const {
+    return status_;
+  }
+
+  std::string_view ProcessFull(std::string_view key, std::string_view value) override {
+    return Apply(true, value);
+  }
+
+  std::string_view ProcessEmpty(std::string_view key) override {
+    if (key.data() == NOOP.data()) {
+      return NOOP;
+    }
+    return Apply(false, std::string_view());
+  }
+
+  std::string_view Apply(bool exists, std::string_view value) {
+    const bool existed = exists;
+    bool modified = false;
+    std::string_view current = value;
+    auto own = [&]() -> std::string& {
+      if (!modified) {
+        new_value_.assign(current.data(), current.size());
+        modified = true;
+      }
+      return new_value_;
+    };
+    for (const auto& op : ops_) {
+      switch (op.kind) {
+        case OP_SET: {
+          own() = op.data1;
+          exists = true;
+          break;
+        }
+        case OP_REMOVE: {
+          exists = false;
+          break;
+        }
+        case OP_APPEND: {
+          if (exists) {
+            std::string& buf = own();
+            buf.append(op.data2);
+            buf.append(op.data1);
+          } else {
+            own() = op.data1;
+            exists = true;
+          }
+          break;
+        }
+        case OP_PREPEND: {
+          if (exists) {
+            std::string& buf = own();
+            buf.insert(0, op.data1);
+          } else {
+            own() = op.data1;
+            exists = true;
+          }
+          break;
+        }
+        case OP_REMOVE_PREFIX: {
+          if (exists && tkrzw::StrBeginsWith(current, op.data1)) {
+            own().erase(0, op.data1.size());
+          }
+          break;
+        }
+        case OP_REMOVE_SUFFIX: {
+          if (exists && tkrzw::StrEndsWith(current, op.data1)) {
+            std::string& buf = own();
+            buf.resize(buf.size() - op.data1.size());
+          }
+          break;
+        }
+        case OP_TRUNCATE: {
+          if (exists && current.size() > static_cast<uint64_t>(op.num1)) {
+            own().resize(op.num1);
+          }
+          break;
+        }
+        case OP_SET_FIELD: {
+          if (exists) {
+            if (op.num1 < 0 || op.num1 > static_cast<int64_t>(current.size()) + MAX_FIELD_GAP) {
+              status_.Set(tkrzw::Status::INVALID_ARGUMENT_ERROR, "too large field offset");
+              return NOOP;
+            }
+            std::string& buf = own();
+            const size_t end = op.num1 + op.data1.size();
+            if (buf.size() < end) {
+              buf.resize(end, '\0');
+            }
+            buf.replace(op.num1, op.data1.size(), op.data1);
+          }
+          break;
+        }
+        case OP_INCREMENT: {
+          const int64_t num = exists ? tkrzw::StrToIntBigEndian(current) : op.num2;
+          int64_t result = 0;
+          if (__builtin_add_overflow(num, op.num1, &result)) {
+            result = op.num1 < 0 ? INT64_MIN : INT64_MAX;
+          }
+          own() = tkrzw::IntToStrBigEndian(result);
+          exists = true;
+          break;
+        }
+        case OP_DECAY: {
+          if (exists) {
+            double factor = 0;
+            std::memcpy(&factor, &op.num1, sizeof(factor));
+            const int64_t num = tkrzw::StrToIntBigEndian(current);
+            const double product = num * factor;
+            int64_t result = 0;
+            if (std::isnan(product)) {
+              status_.Set(tkrzw::Status::INVALID_ARGUMENT_ERROR, "invalid decay factor");
+              return NOOP;
+            } else if (product >= 9223372036854775807.0) {
+              result = INT64_MAX;
+            } else if (product <= -9223372036854775808.0) {
+              result = INT64_MIN;
+            } else {
+              result = static_cast<int64_t>(product);
+            }
+            own() = tkrzw::IntToStrBigEndian(result);
+          }
+          break;
+        }
+        case OP_REMOVE_IF_EQUALS: {
+          if (exists && current == op.data1) {
+            exists = false;
+          }
+          break;
+        }
+        case OP_REMOVE_IF_EXPIRED: {
+          if (exists && current.size() >= sizeof(int64_t) &&
+              static_cast<uint64_t>(op.num1) <= current.size() - sizeof(int64_t)) {
+            const int64_t expiration = tkrzw::StrToIntBigEndian(
+                current.substr(op.num1, sizeof(int64_t)));
+            if (expiration <= op.num2) {
+              exists = false;
+            }
+          }
+          break;
+        }
+      }
+      if (modified) {
+        current = new_value_;
+      }
+    }
+    if (!exists) {
+      return existed ? REMOVE : NOOP;
+    }
+    return modified ? std::string_view(new_value_) : NOOP;
+  }
+
+ private:
+  // The maximum gap between the end of the value and the offset of a field to set.
+  static constexpr int64_t MAX_FIELD_GAP = 1LL << 24;
+
+  std::vector<NativeStep> ops_;
+  std::string new_value_;
+  tkrzw::Status status_;
+};
+
+// Matcher of text with a pattern in one of the modes of the search methods.
+// The modes are dispatched to the same string matchers as tkrzw::SearchDBMModal so that a filter
+// agrees with DBM#search.  As tkrzw has no compiled form of its regex mode, the regex is compiled
+// once here with the same std::regex grammar.
+class TextMatcher final {
+ public:
+  enum ModeKind : int32_t {
+    MODE_CONTAIN = 0,
+    MODE_CONTAIN_CASE = 1,
+    MODE_CONTAIN_WORD = 2,
+    MODE_CONTAIN_CASE_WORD = 3,
+    MODE_BEGIN = 4,
+    MODE_END = 5,
+    MODE_REGEX = 6,
+  };
+
+  TextMatcher(int32_t mode, std::string_view pattern) : pattern_(pattern) {
+    if (mode >= MODE_CONTAIN && mode < MODE_REGEX) {
+      func_ = MATCH_FUNCS[mode];
+      if (mode == MODE_CONTAIN_CASE || mode == MODE_CONTAIN_CASE_WORD) {
+        pattern_ = tkrzw::StrLowerCase(pattern_);
+      }
+    } else if (mode == MODE_REGEX) {
+      try {
+        regex_ = std::make_unique<std::regex>(pattern_);
+      } catch (const std::regex_error& err) {
+        error_message_ = tkrzw::StrCat("invalid regex: ", err.what());
+      }
+    } else {
+      error_message_ = "unsupported mode";
+    }
+  }
+
+  const std::string& GetErrorMessage() const {
+    return error_message_;
+  }
+
+  bool Match(std::string_view text) const {
+    if (func_ != nullptr) {
+      return func_(text, pattern_);
+    }
+    return regex_ != nullptr && std::regex_search(text.begin(), text.end(), *regex_);
+  }
+
+ private:
+  typedef bool (*MatchFunc)(std::string_view text, std::string_view pattern);
+
+  // The matchers of the modes before MODE_REGEX, in the order of the mode IDs.
+  static constexpr MatchFunc MATCH_FUNCS[] = {
+    tkrzw::StrContains, tkrzw::StrCaseContains, tkrzw::StrWordContains,
+    tkrzw::StrCaseWordContains, tkrzw::StrBeginsWith, tkrzw::StrEndsWith,
+  };
+
+  std::string pattern_;
+  MatchFunc func_ = nullptr;
+  std::unique_ptr<std::regex> regex_;
+  std::string error_message_;
+};
+
+// Record filter to check the conditions of a Java RecordFilter object natively.
+class NativeRecordFilter final {
+ public:
+  enum CondKind : int32_t {
+    COND_KEY_PREFIX = 0,
+    COND_KEY_RANGE = 1,
+    COND_KEY_PATTERN = 2,
+    COND_VALUE_SIZE = 3,
+    COND_VALUE_PREFIX = 4,
+  };
+
+  NativeRecordFilter(JNIEnv* env, jobject jfilter) {
+    if (jfilter == nullptr) {
+      return;
+    }
+    jobject jconds = env->GetObjectField(jfilter, id_recfilter_conds);
+    conds_ = DecodeSteps(env, jconds);
+    env->DeleteLocalRef(jconds);
+    matchers_.resize(conds_.size());
+    for (size_t i = 0; i < conds_.size(); i++) {
+      const NativeStep& cond = conds_[i];
+      if (cond.kind == COND_KEY_PATTERN) {
+        matchers_[i] = std::make_unique<TextMatcher>(cond.num1, cond.data1);
+        if (!matchers_[i]->GetErrorMessage().empty()) {
+          error_message_ = matchers_[i]->GetErrorMessage();
+        }
+      }
+      if (cond.kind == COND_VALUE_SIZE || cond.kind == COND_VALUE_PREFIX) {
+        needs_value_ = true;
+      }
+    }
+  }
+
+  const std::string& GetErrorMessage() const {
+    return error_message_;
+  }
+
+  bool NeedsValue() const {
+    return needs_value_;
+  }
+
+  bool MatchKey(std::string_view key) const {
+    for (size_t i = 0; i < conds_.size(); i++) {
+      const NativeStep& cond = conds_[i];
+      switch (cond.kind) {
+        case COND_KEY_PREFIX: {
+          if (!tkrzw::StrBeginsWith(key, cond.data1)) {
+            return false;
+          }
+          break;
+        }
+        case COND_KEY_RANGE: {
+          if ((cond.has_data1 && key < cond.data1) || (cond.has_data2 && key >= cond.data2)) {
+            return false;
+          }
+          break;
+        }
+        case COND_KEY_PATTERN: {
+          if (!matchers_[i]->Match(key)) {
+            return false;
+          }
+          break;
+        }
+      }
+    }
+    return true;
+  }
+
+  bool MatchValue(std::string_view value) const {
+    for (const auto& cond : conds_) {
+      switch (cond.kind) {
+        case COND_VALUE_SIZE: {
+          if (value.size() < static_cast<uint64_t>(cond.num1) ||
+              value.size() > static_cast<uint64_t>(cond.num2)) {
+            return false;
+          }
+          break;
+        }
+        case COND_VALUE_PREFIX: {
+          if (!tkrzw::StrBeginsWith(value, cond.data1)) {
+            return false;
+          }
+          break;
+        }
+      }
+    }
+    return true;
+  }
+
+ private:
+  std::vector<NativeStep> conds_;
+  std::vector<std::unique_ptr<TextMatcher>> matchers_;
+  bool needs_value_ = false;
+  std::string error_message_;
+};
+
 // Wrapper to call a Java method as a C++ RecordProcessor.
 class SoftRecordProcessor final : public tkrzw::DBM::RecordProcessor {
  public:
-  SoftRecordProcessor(JNIEnv* env, jobject jproc) : env_(env), jproc_(jproc) {}
+  SoftRecordProcessor(JNIEnv* env, jobject jproc) : env_(env), jproc_(jproc), kind_(KIND_FULL) {
+    if (env->IsInstanceOf(jproc, cls_recop)) {
+      kind_ = KIND_NATIVE;
+      native_ = std::make_unique<NativeRecordOperation>(env, jproc);
+    } else if (env->IsInstanceOf(jproc, cls_recproc_value)) {
+      kind_ = KIND_VALUE;
+    } else if (env->IsInstanceOf(jproc, cls_recproc_readonly)) {
+      kind_ = KIND_READ_ONLY;
+    } else if (env->IsInstanceOf(jproc, cls_recproc_buffer)) {
+      kind_ = KIND_BUFFER;
+    }
+  }
+
+  ~SoftRecordProcessor() {
+    ReleaseNewValue();
+  }
+
+  tkrzw::Status GetStatus() const {
+    return native_ == nullptr ? tkrzw::Status(tkrzw::Status::SUCCESS) : native_->GetStatus();
+  }
 
   std::string_view ProcessFull(std::string_view key, std::string_view value) override {
-    jbyteArray jkey = key.data() == NOOP.data() ? nullptr : NewByteArray(env_, key);
+    if (kind_ == KIND_NATIVE) {
+      return native_->ProcessFull(key, value);
+    }
+    if (kind_ == KIND_BUFFER) {
+      return CallBuffer(key, &value);
+    }
     jbyteArray jvalue = NewByteArray(env_, value);
-    jbyteArray jrv =
-        (jbyteArray)env_->CallObjectMethod(jproc_, id_recproc_process, jkey, jvalue);
-    if (env_->ExceptionOccurred()) {
+    return Call(key, jvalue);
+  }
+
+  std::string_view ProcessEmpty(std::string_view key) override {
+    if (kind_ == KIND_NATIVE) {
+      return native_->ProcessEmpty(key);
+    }
+    if (kind_ == KIND_BUFFER) {
+      return CallBuffer(key, nullptr);
+    }
+    if (kind_ == KIND_VALUE && key.data() == NOOP.data()) {
       return NOOP;
     }
-    if (jrv == nullptr) {
+    return Call(key, nullptr);
+  }
+
+ private:
+  enum Kind {
+    KIND_FULL,
+    KIND_VALUE,
+    KIND_READ_ONLY,
+    KIND_BUFFER,
+    KIND_NATIVE,
+  };
+
+  std::string_view Call(std::string_view key, jbyteArray jvalue) {
+    ReleaseNewValue();
+    if (env_->ExceptionCheck()) {
+      if (jvalue != nullptr) env_->DeleteLocalRef(jvalue);
+      return NOOP;
+    }
+    jbyteArray jkey = nullptr;
+    jbyteArray jrv = nullptr;
+    switch (kind_) {
+      case KIND_VALUE: {
+        jrv = (jbyteArray)env_->CallObjectMethod(jproc_, id_recproc_value_process, jvalue);
+        break;
+      }
+      case KIND_READ_ONLY: {
+        jkey = key.data() == NOOP.data() ? nullptr : NewByteArray(env_, key);
+        env_->CallVoidMethod(jproc_, id_recproc_readonly_read, jkey, jvalue);
+        break;
+      }
+      default: {
+        jkey = key.data() == NOOP.data() ? nullptr : NewByteArray(env_, key);
+        jrv = (jbyteArray)env_->CallObjectMethod(jproc_, id_recproc_process, jkey, jvalue);
+        break;
+      }
+    }
+    if (jkey != nullptr) env_->DeleteLocalRef(jkey);
+    if (jvalue != nullptr) env_->DeleteLocalRef(jvalue);
+    if (env_->ExceptionCheck() || jrv == nullptr) {
       return NOOP;
     }
     if (env_->IsSameObject(jrv, obj_recproc_remove)) {
+      env_->DeleteLocalRef(jrv);
       return REMOVE;
     }
+    jnew_value_ = jrv;
     new_value_ = std::make_unique<SoftByteArray>(env_, jrv);
     return new_value_->Get();
   }
 
-  std::string_view ProcessEmpty(std::string_view key) override {
-    jbyteArray jkey = key.data() == NOOP.data() ? nullptr : NewByteArray(env_, key);
-    jbyteArray jrv =
-        (jbyteArray)env_->CallObjectMethod(jproc_, id_recproc_process, jkey, nullptr);
-    if (env_->ExceptionOccurred()) {
+  std::string_view CallBuffer(std::string_view key, const std::string_view* value) {
+    ReleaseNewValue();
+    if (env_->ExceptionCheck()) {
       return NOOP;
     }
-    if (jrv == nullptr) {
+    jobject jkey = key.data() == NOOP.data() ? nullptr : NewReadOnlyBuffer(env_, key);
+    jobject jvalue = value == nullptr ? nullptr : NewReadOnlyBuffer(env_, *value);
+    jobject jrv = env_->CallObjectMethod(jproc_, id_recproc_buffer_process, jkey, jvalue);
+    if (jkey != nullptr) env_->DeleteLocalRef(jkey);
+    if (jvalue != nullptr) env_->DeleteLocalRef(jvalue);
+    if (env_->ExceptionCheck() || jrv == nullptr) {
       return NOOP;
     }
-    if (env_->IsSameObject(jrv, obj_recproc_remove)) {
+    if (env_->IsSameObject(jrv, obj_recproc_remove_buffer)) {
+      env_->DeleteLocalRef(jrv);
       return REMOVE;
     }
-    new_value_ = std::make_unique<SoftByteArray>(env_, jrv);
-    return new_value_->Get();
+    const jint position = env_->CallIntMethod(jrv, id_bytebuffer_position);
+    const jint size = env_->CallIntMethod(jrv, id_bytebuffer_remaining);
+    const char* addr = (const char*)env_->GetDirectBufferAddress(jrv);
+    if (addr != nullptr) {
+      const std::string_view data(addr + position, size);
+      if (value != nullptr && data.data() >= value->data() &&
+          data.data() < value->data() + value->size()) {
+        buffer_value_ = data;
+        env_->DeleteLocalRef(jrv);
+        return buffer_value_;
+      }
+      jnew_value_ = jrv;
+      return data;
+    }
+    buffer_value_.resize(size);
+    if (env_->CallBooleanMethod(jrv, id_bytebuffer_hasarray)) {
+      jbyteArray jarray = (jbyteArray)env_->CallObjectMethod(jrv, id_bytebuffer_array);
+      const jint array_off = env_->CallIntMethod(jrv, id_bytebuffer_arrayoffset);
+      env_->GetByteArrayRegion(jarray, array_off + position, size,
+                               (jbyte*)buffer_value_.data());
+      env_->DeleteLocalRef(jarray);
+      env_->DeleteLocalRef(jrv);
+      return buffer_value_;
+    }
+    jbyteArray jbuf = env_->NewByteArray(size);
+    if (jbuf == nullptr) {
+      env_->DeleteLocalRef(jrv);
+      return NOOP;
+    }
+    jobject jdup = env_->CallObjectMethod(jrv, id_bytebuffer_duplicate);
+    env_->DeleteLocalRef(env_->CallObjectMethod(jdup, id_bytebuffer_get, jbuf));
+    env_->GetByteArrayRegion(jbuf, 0, size, (jbyte*)buffer_value_.data());
+    env_->DeleteLocalRef(jdup);
+    env_->DeleteLocalRef(jbuf);
+    env_->DeleteLocalRef(jrv);
+    return buffer_value_;
+  }
+
+  void ReleaseNewValue() {
+    new_value_.reset();
+    if (jnew_value_ != nullptr) {
+      env_->DeleteLocalRef(jnew_value_);
+      jnew_value_ = nullptr;
+    }
   }
 
- private:
   JNIEnv* env_;
   jobject jproc_;
+  Kind kind_;
+  std::unique_ptr<NativeRecordOperation> native_;
+  jobject jnew_value_ = nullptr;
   std::unique_ptr<SoftByteArray> new_value_;
+  std::string buffer_value_;
+};
+
+// Record processor to call another processor only for records matching a filter.
+class FilteredRecordProcessor final : public tkrzw::DBM::RecordProcessor {
+ public:
+  FilteredRecordProcessor(const NativeRecordFilter* filter, tkrzw::DBM::RecordProcessor* proc)
+      : filter_(filter), proc_(proc) {}
+
+  std::string_view ProcessFull(std::string_view key, std::string_view value) override {
+    if (!filter_->MatchKey(key) || !filter_->MatchValue(value)) {
+      return NOOP;
+    }
+    return proc_->ProcessFull(key, value);
+  }
+
+  std::string_view ProcessEmpty(std::string_view key) override {
+    if (key.data() == NOOP.data()) {
+      return proc_->ProcessEmpty(key);
+    }
+    return NOOP;
+  }
+
+ private:
+  const NativeRecordFilter* filter_;
+  tkrzw::DBM::RecordProcessor* proc_;
+};
+
+// Record processor to buffer records and give them to a Java BatchProcessor object.
+class BatchRecordProcessor final : public tkrzw::DBM::RecordProcessor {
+ public:
+  BatchRecordProcessor(JNIEnv* env, jobject jproc, const NativeRecordFilter* filter,
+                       int32_t batch_size)
+      : env_(env), jproc_(jproc), filter_(filter),
+        batch_size_(std::min(batch_size, MAX_BATCH_SIZE)) {}
+
+  std::string_view ProcessFull(std::string_view key, std::string_view value) override {
+    if (!filter_->MatchKey(key) || !filter_->MatchValue(value)) {
+      return NOOP;
+    }
+    keys_.emplace_back(key);
+    values_.emplace_back(value);
+    if (static_cast<int32_t>(keys_.size()) >= batch_size_) {
+      Flush();
+    }
+    return NOOP;
+  }
+
+  std::string_view ProcessEmpty(std::string_view key) override {
+    return NOOP;
+  }
+
+  void Flush() {
+    if (keys_.empty() || env_->ExceptionCheck()) {
+      keys_.clear();
+      values_.clear();
+      return;
+    }
+    const int32_t num_records = keys_.size();
+    if (env_->PushLocalFrame(num_records * 2 + 2) != 0) {
+      keys_.clear();
+      values_.clear();
+      return;
+    }
+    jobjectArray jkeys = env_->NewObjectArray(num_records, cls_byteary, nullptr);
+    jobjectArray jvalues = env_->NewObjectArray(num_records, cls_byteary, nullptr);
+    if (jkeys != nullptr && jvalues != nullptr) {
+      for (int32_t i = 0; i < num_records; i++) {
+        env_->SetObjectArrayElement(jkeys, i, NewByteArray(env_, keys_[i]));
+        env_->SetObjectArrayElement(jvalues, i, NewByteArray(env_, values_[i]));
+      }
+      env_->CallVoidMethod(jproc_, id_batchproc_process, jkeys, jvalues);
+    }
+    env_->PopLocalFrame(nullptr);
+    keys_.clear();
+    values_.clear();
+  }
+
+ private:
+  // The maximum number of records in a batch, which bounds the local frame of a call.
+  static constexpr int32_t MAX_BATCH_SIZE = 10000;
+
+  JNIEnv* env_;
+  jobject jproc_;
+  const NativeRecordFilter* filter_;
+  int32_t batch_size_;
+  std::vector<std::string> keys_;
+  std::vector<std::string> values_;
+};
+
+// Searcher of lines of a text file, which scans chunks in parallel and gives the matching
+// lines to a Java LineProcessor object in the order of the file.
+class ParallelLineSearcher final {
+ public:
+  ParallelLineSearcher(tkrzw::File* file, const TextMatcher* matcher, int32_t num_threads)
+      : file_(file), matcher_(matcher), num_threads_(std::max(num_threads, 1)) {}
+
+  tkrzw::Status Run(JNIEnv* env, jobject jproc, int64_t capacity, int32_t batch_size) {
+    const int64_t file_size = file_->GetSizeSimple();
+    const int64_t chunk_size =
+        std::max<int64_t>(MIN_CHUNK_SIZE, file_size / (num_threads_ * CHUNKS_PER_THREAD) + 1);
+    chunks_.resize(std::max<int64_t>(1, (file_size + chunk_size - 1) / chunk_size));
+    for (size_t i = 0; i < chunks_.size(); i++) {
+      chunks_[i].begin = i * chunk_size;
+      chunks_[i].end = std::min<int64_t>((i + 1) * chunk_size, file_size);
+    }
+    window_ = num_threads_ * 2;
+    std::vector<std::thread> threads;
+    const int32_t num_workers = std::min<int64_t>(num_threads_, chunks_.size());
+    for (int32_t i = 0; i < num_workers; i++) {
+      threads.emplace_back([&]() { Work(file_size); });
+    }
+    tkrzw::Status status(tkrzw::Status::SUCCESS);
+    std::vector<std::string> batch;
+    int64_t num_matched = 0;
+    for (size_t i = 0; i < chunks_.size() && status == tkrzw::Status::SUCCESS; i++) {
+      Chunk& chunk = chunks_[i];
+      {
+        std::unique_lock<std::mutex> lock(mutex_);
+        cond_.wait(lock, [&]() { return chunk.done; });
+      }
+      if (chunk.status != tkrzw::Status::SUCCESS) {
+        status = chunk.status;
+        break;
+      }
+      for (auto& line : chunk.lines) {
+        batch.emplace_back(std::move(line));
+        num_matched++;
+        const bool full = capacity > 0 && num_matched >= capacity;
+        if (static_cast<int32_t>(batch.size()) >= batch_size || full) {
+          if (!Deliver(env, jproc, &batch) || full) {
+            status = tkrzw::Status(tkrzw::Status::CANCELED_ERROR);
+            break;
+          }
+        }
+      }
+      std::lock_guard<std::mutex> lock(mutex_);
+      chunk.lines.clear();
+      chunk.lines.shrink_to_fit();
+      num_delivered_ = i + 1;
+      cond_.notify_all();
+    }
+    if (status == tkrzw::Status::SUCCESS && !batch.empty()) {
+      Deliver(env, jproc, &batch);
+    }
+    {
+      std::lock_guard<std::mutex> lock(mutex_);
+      stop_ = true;
+      cond_.notify_all();
+    }
+    for (auto& thread : threads) {
+      thread.join();
+    }
+    if (status == tkrzw::Status::CANCELED_ERROR) {
+      status = tkrzw::Status(tkrzw::Status::SUCCESS);
+    }
+    return status;
+  }
+
+ private:
+  struct Chunk {
+    int64_t begin = 0;
+    int64_t end = 0;
+    bool done = false;
+    tkrzw::Status status;
+    std::vector<std::string> lines;
+  };
+
+  bool Deliver(JNIEnv* env, jobject jproc, std::vector<std::string>* batch) {
+    const int32_t num_lines = batch->size();
+    bool cont = false;
+    if (env->PushLocalFrame(num_lines + 2) == 0) {
+      jobjectArray jlines = env->NewObjectArray(num_lines, cls_byteary, nullptr);
+      if (jlines != nullptr) {
+        for (int32_t i = 0; i < num_lines; i++) {
+          env->SetObjectArrayElement(jlines, i, NewByteArray(env, (*batch)[i]));
+        }
+        cont = env->CallBooleanMethod(jproc, id_file_lineproc_process, jlines);
+      }
+      env->PopLocalFrame(nullptr);
+    }
+    batch->clear();
+    return cont && !env->ExceptionCheck();
+  }
+
+  void Work(int64_t file_size) {
+    while (true) {
+      size_t index = 0;
+      {
+        std::unique_lock<std::mutex> lock(mutex_);
+        cond_.wait(lock, [&]() {
+          return stop_ || next_chunk_ >= chunks_.size() ||
+              next_chunk_ < num_delivered_ + window_;
+        });
+        if (stop_ || next_chunk_ >= chunks_.size()) {
+          break;
+        }
+        index = next_chunk_++;
+      }
+      Chunk& chunk = chunks_[index];
+      std::vector<std::string> lines;
+      const tkrzw::Status status = ScanChunk(chunk.begin, chunk.end, file_size, &lines);
+      std::lock_guard<std::mutex> lock(mutex_);
+      chunk.status = status;
+      chunk.lines = std::move(lines);
+      chunk.done = true;
+      cond_.notify_all();
+    }
+  }
+
+  tkrzw::Status ScanChunk(int64_t begin, int64_t end, int64_t file_size,
+                          std::vector<std::string>* lines) {
+    bool skipping = false;
+    if (begin > 0) {
+      char prev = 0;
+      const tkrzw::Status status = file_->Read(begin - 1, &prev, 1);
+      if (status != tkrzw::Status::SUCCESS) {
+        return status;
+      }
+      skipping = prev != '\n';
+    }
+    std::string block;
+    std::string line;
+    int64_t off = begin;
+    int64_t line_off = begin;
+    while (off < file_size && line_off < end) {
+      if (stop_) {
+        return tkrzw::Status(tkrzw::Status::SUCCESS);
+      }
+      block.resize(std::min<int64_t>(BLOCK_SIZE, file_size - off));
+      const tkrzw::Status status = file_->Read(off, block.data(), block.size());
+      if (status != tkrzw::Status::SUCCESS) {
+        return status;
+      }
+      std::string_view rest(block);
+      while (!rest.empty() && line_off < end) {
+        const size_t pos = rest.find('\n');
+        if (pos == std::string_view::npos) {
+          if (!skipping) {
+            line.append(rest);
+          }
+          break;
+        }
+        if (skipping) {
+          skipping = false;
+        } else {
+          line.append(rest.data(), pos);
+          if (matcher_->Match(line)) {
+            lines->emplace_back(line);
+          }
+          line.clear();
+        }
+        line_off = off + (rest.data() - block.data()) + pos + 1;
+        rest.remove_prefix(pos + 1);
+      }
+      off += block.size();
+    }
+    if (off >= file_size && line_off < end && !skipping && !line.empty() &&
+        matcher_->Match(line)) {
+      lines->emplace_back(line);
+    }
+    return tkrzw::Status(tkrzw::Status::SUCCESS);
+  }
+
+  static constexpr int64_t MIN_CHUNK_SIZE = 1LL << 20;
+  static constexpr int64_t BLOCK_SIZE = 1LL << 16;
+  static constexpr int32_t CHUNKS_PER_THREAD = 4;
+  tkrzw::File* file_;
+  const TextMatcher* matcher_;
+  int32_t num_threads_;
+  std::vector<Chunk> chunks_;
+  size_t next_chunk_ = 0;
+  size_t num_delivered_ = 0;
+  size_t window_ = 0;
+  std::atomic_bool stop_ = false;
+  std::mutex mutex_;
+  std::condition_variable cond_;
+};
+
+// Comparator of values of the same key in the order of an index.
+class IndexValueComparator final {
+ public:
+  explicit IndexValueComparator(tkrzw::PolyIndex* index) {
+    tkrzw::DBM* dbm = index->GetInternalDBM();
+    auto* poly_dbm = dynamic_cast<tkrzw::PolyDBM*>(dbm);
+    if (poly_dbm != nullptr) {
+      dbm = poly_dbm->GetInternalDBM();
+    }
+    auto* tree_dbm = dynamic_cast<tkrzw::TreeDBM*>(dbm);
+    if (tree_dbm != nullptr) {
+      comp_ = tree_dbm->GetKeyComparator();
+    }
+    auto* baby_dbm = dynamic_cast<tkrzw::BabyDBM*>(dbm);
+    if (baby_dbm != nullptr) {
+      comp_ = baby_dbm->GetKeyComparator();
+    }
+  }
+
+  int32_t Compare(std::string_view a, std::string_view b) const {
+    if (comp_ == nullptr) {
+      return a.compare(b);
+    }
+    return comp_(tkrzw::SerializeStrPair("", a), tkrzw::SerializeStrPair("", b));
+  }
+
+  int32_t CompareKeys(std::string_view a, std::string_view b) const {
+    if (comp_ == nullptr) {
+      return a.compare(b);
+    }
+    return comp_(tkrzw::SerializeStrPair(a, ""), tkrzw::SerializeStrPair(b, ""));
+  }
+
+  int32_t CompareRecords(std::string_view a, std::string_view b) const {
+    if (comp_ != nullptr) {
+      return comp_(a, b);
+    }
+    std::string_view a_key, a_value, b_key, b_value;
+    tkrzw::DeserializeStrPair(a, &a_key, &a_value);
+    tkrzw::DeserializeStrPair(b, &b_key, &b_value);
+    const int32_t key_cmp = a_key.compare(b_key);
+    return key_cmp != 0 ? key_cmp : a_value.compare(b_value);
+  }
+
+  bool IsLexical() const {
+    return comp_ == nullptr || comp_ == tkrzw::PairLexicalKeyComparator;
+  }
+
+ private:
+  tkrzw::KeyComparator comp_ = nullptr;
+};
+
+// Walker of the values of a key in the order of an index.
+class IndexValueWalker final {
+ public:
+  IndexValueWalker(tkrzw::PolyIndex* index, std::string_view key)
+      : iter_(index->MakeIterator()), key_(key) {}
+
+  bool Seek(std::string_view value) {
+    iter_->Jump(key_, value);
+    return Load();
+  }
+
+  bool Next() {
+    iter_->Next();
+    return Load();
+  }
+
+  bool IsValid() const {
+    return valid_;
+  }
+
+  bool IsStarted() const {
+    return started_;
+  }
+
+  const std::string& GetValue() const {
+    return value_;
+  }
+
+ private:
+  bool Load() {
+    started_ = true;
+    std::string key;
+    valid_ = iter_->Get(&key, &value_) && key == key_;
+    return valid_;
+  }
+
+  std::unique_ptr<tkrzw::PolyIndex::Iterator> iter_;
+  std::string key_;
+  std::string value_;
+  bool valid_ = false;
+  bool started_ = false;
+};
+
+// Set operation over the values of multiple keys of an index.
+class IndexValueSetOperation final {
+ public:
+  IndexValueSetOperation(tkrzw::PolyIndex* index, const std::vector<std::string>& keys,
+                         const std::vector<std::string>& excluded_keys)
+      : comp_(index) {
+    for (const auto& key : keys) {
+      walkers_.emplace_back(std::make_unique<IndexValueWalker>(index, key));
+    }
+    for (const auto& key : excluded_keys) {
+      excluded_.emplace_back(std::make_unique<IndexValueWalker>(index, key));
+    }
+  }
+
+  std::vector<std::string> Intersect(int64_t limit) {
+    std::vector<std::string> result;
+    if (walkers_.empty() || !walkers_[0]->Seek("")) {
+      return result;
+    }
+    std::string cand = walkers_[0]->GetValue();
+    while (limit < 1 || static_cast<int64_t>(result.size()) < limit) {
+      bool agreed = true;
+      for (auto& walker : walkers_) {
+        if (!walker->Seek(cand)) {
+          return result;
+        }
+        if (comp_.Compare(walker->GetValue(), cand) != 0) {
+          cand = walker->GetValue();
+          agreed = false;
+          break;
+        }
+      }
+      if (!agreed) {
+        continue;
+      }
+      if (!IsExcluded(cand)) {
+        result.emplace_back(cand);
+      }
+      if (!walkers_[0]->Seek(cand) || !walkers_[0]->Next()) {
+        break;
+      }
+      cand = walkers_[0]->GetValue();
+    }
+    return result;
+  }
+
+  std::vector<std::string> Union(int64_t limit) {
+    std::vector<std::string> result;
+    auto greater = [&](IndexValueWalker* a, IndexValueWalker* b) {
+      return comp_.Compare(a->GetValue(), b->GetValue()) > 0;
+    };
+    std::vector<IndexValueWalker*> heap;
+    for (auto& walker : walkers_) {
+      if (walker->Seek("")) {
+        heap.emplace_back(walker.get());
+      }
+    }
+    std::make_heap(heap.begin(), heap.end(), greater);
+    while (!heap.empty() && (limit < 1 || static_cast<int64_t>(result.size()) < limit)) {
+      std::pop_heap(heap.begin(), heap.end(), greater);
+      IndexValueWalker* walker = heap.back();
+      if ((result.empty() || comp_.Compare(walker->GetValue(), result.back()) != 0) &&
+          !IsExcluded(walker->GetValue())) {
+        result.emplace_back(walker->GetValue());
+      }
+      if (walker->Next()) {
+        std::push_heap(heap.begin(), heap.end(), greater);
+      } else {
+        heap.pop_back();
+      }
+    }
+    return result;
+  }
+
+ private:
+  bool IsExcluded(std::string_view value) {
+    for (auto& walker : excluded_) {
+      if (!walker->IsStarted() ||
+          (walker->IsValid() && comp_.Compare(walker->GetValue(), value) < 0)) {
+        walker->Seek(value);
+      }
+      if (walker->IsValid() && comp_.Compare(walker->GetValue(), value) == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  IndexValueComparator comp_;
+  std::vector<std::unique_ptr<IndexValueWalker>> walkers_;
+  std::vector<std::unique_ptr<IndexValueWalker>> excluded_;
+};
+
+// Ends of the live mapped regions of a file.
+using MappedRegionEnds = std::multiset<int64_t>;
+
+// Mapped region ends of each opened file.
+std::mutex mutex_mapped_regions;
+std::map<const tkrzw::PolyFile*, std::shared_ptr<MappedRegionEnds>> mapped_region_ends;
+
+// Read-only mapping of a region of a file, independent of the mapping of the file object.
+class MappedRegion final {
+ public:
+  MappedRegion(tkrzw::PolyFile* file) : file_(file) {}
+
+  ~MappedRegion() {
+    if (map_ptr_ != nullptr) {
+      munmap(map_ptr_, map_size_);
+    }
+    if (ends_ != nullptr) {
+      std::lock_guard<std::mutex> lock(mutex_mapped_regions);
+      auto it = ends_->find(offset_ + static_cast<int64_t>(data_.size()));
+      if (it != ends_->end()) {
+        ends_->erase(it);
+      }
+    }
+  }
+
+  tkrzw::Status Map(int64_t off, int64_t size) {
+    tkrzw::File* internal_file = file_->GetInternalFile();
+    if (dynamic_cast<tkrzw::MemoryMapParallelFile*>(internal_file) == nullptr &&
+        dynamic_cast<tkrzw::MemoryMapAtomicFile*>(internal_file) == nullptr) {
+      return tkrzw::Status(tkrzw::Status::INFEASIBLE_ERROR, "not memory-mapped file");
+    }
+    const int64_t file_size = file_->GetSizeSimple();
+    const std::string path = file_->GetPathSimple();
+    if (file_size < 0 || path.empty()) {
+      return tkrzw::Status(tkrzw::Status::PRECONDITION_ERROR, "not opened file");
+    }
+    offset_ = std::min(off, file_size);
+    size = std::min(size, file_size - offset_);
+    if (size > 0) {
+      const int64_t gap = offset_ % tkrzw::PAGE_SIZE;
+      const int32_t fd = ::open(path.c_str(), O_RDONLY);
+      if (fd < 0) {
+        return tkrzw::GetErrnoStatus("open", errno);
+      }
+      void* map_ptr = mmap(nullptr, size + gap, PROT_READ, MAP_SHARED, fd, offset_ - gap);
+      const int32_t map_errno = errno;
+      ::close(fd);
+      if (map_ptr == MAP_FAILED) {
+        return tkrzw::GetErrnoStatus("mmap", map_errno);
+      }
+      map_ptr_ = map_ptr;
+      map_size_ = size + gap;
+      data_ = std::string_view(static_cast<char*>(map_ptr) + gap, size);
+    }
+    std::lock_guard<std::mutex> lock(mutex_mapped_regions);
+    auto& ends = mapped_region_ends[file_];
+    if (ends == nullptr) {
+      ends = std::make_shared<MappedRegionEnds>();
+    }
+    ends->emplace(offset_ + size);
+    ends_ = ends;
+    return tkrzw::Status(tkrzw::Status::SUCCESS);
+  }
+
+  std::string_view GetData() const {
+    return data_;
+  }
+
+  int64_t GetOffset() const {
+    return offset_;
+  }
+
+ private:
+  tkrzw::PolyFile* file_;
+  std::shared_ptr<MappedRegionEnds> ends_;
+  void* map_ptr_ = nullptr;
+  size_t map_size_ = 0;
+  std::string_view data_;
+  int64_t offset_ = 0;
+};
+
+// Gets the maximum end of the live mapped regions of a file.
+static int64_t GetMappedRegionEnd(const tkrzw::PolyFile* file) {
+  std::lock_guard<std::mutex> lock(mutex_mapped_regions);
+  auto it = mapped_region_ends.find(file);
+  if (it == mapped_region_ends.end() || it->second->empty()) {
+    return 0;
+  }
+  return *it->second->rbegin();
+}
+
+// Detaches the live mapped regions from a file being closed.
+static void DetachMappedRegions(const tkrzw::PolyFile* file) {
+  std::lock_guard<std::mutex> lock(mutex_mapped_regions);
+  mapped_region_ends.erase(file);
+}
+
+// Asynchronous adapter of a file with a task queue.
+class AsyncFileAdapter final {
+ public:
+  AsyncFileAdapter(tkrzw::PolyFile* file, int32_t num_worker_threads) : file_(file) {
+    queue_.Start(num_worker_threads);
+  }
+
+  void Stop(JNIEnv* env) {
+    queue_.Stop(tkrzw::INT32MAX);
+    ReleaseRefs(env);
+  }
+
+  tkrzw::PolyFile* GetFile() const {
+    return file_;
+  }
+
+  void AddTask(std::function<void()> task) {
+    queue_.Add(std::move(task));
+  }
+
+  jobject HoldRef(JNIEnv* env, jobject obj) {
+    ReleaseRefs(env);
+    return env->NewGlobalRef(obj);
+  }
+
+  void UnholdRef(jobject ref) {
+    std::lock_guard<std::mutex> lock(mutex_);
+    released_refs_.emplace_back(ref);
+  }
+
+ private:
+  void ReleaseRefs(JNIEnv* env) {
+    std::lock_guard<std::mutex> lock(mutex_);
+    for (jobject ref : released_refs_) {
+      env->DeleteGlobalRef(ref);
+    }
+    released_refs_.clear();
+  }
+
+  tkrzw::PolyFile* file_;
+  tkrzw::TaskQueue queue_;
+  std::mutex mutex_;
+  std::vector<jobject> released_refs_;
+};
+
+// Advice kinds about the page cache, in the same order as the Java constants.
+enum CacheAdvice : int32_t {
+  ADVICE_NORMAL = 0,
+  ADVICE_SEQUENTIAL = 1,
+  ADVICE_RANDOM = 2,
+  ADVICE_WILLNEED = 3,
+  ADVICE_DONTNEED = 4,
+};
+
+// Gives an advice about the page cache to the file system, by the file path.
+static tkrzw::Status AdviseFileByPath(const std::string& path, int32_t advice,
+                                      int64_t off, int64_t size) {
+#if defined(POSIX_FADV_WILLNEED)
+  const int32_t fd = ::open(path.c_str(), O_RDONLY);
+  if (fd < 0) {
+    return tkrzw::GetErrnoStatus("open", errno);
+  }
+  const int32_t fadv = advice == ADVICE_WILLNEED ? POSIX_FADV_WILLNEED : POSIX_FADV_DONTNEED;
+  const int32_t error = posix_fadvise(fd, off, size, fadv);
+  ::close(fd);
+  if (error != 0) {
+    return tkrzw::GetErrnoStatus("posix_fadvise", error);
+  }
+  return tkrzw::Status(tkrzw::Status::SUCCESS);
+#else
+  return tkrzw::Status(tkrzw::Status::NOT_IMPLEMENTED_ERROR, "posix_fadvise is not supported");
+#endif
+}
+
+// Gives an advice about the page cache of a region of a file.
+// For memory-mapped files, the advice is given to the mapping which backs the zone.  The file
+// remaps itself when it grows, and the access pattern hints are lost then.  They are not
+// re-applied automatically, as the remapping is internal to the file class.
+static tkrzw::Status AdviseFileCache(tkrzw::File* file, int32_t advice,
+                                     int64_t off, int64_t size) {
+  auto* poly_file = dynamic_cast<tkrzw::PolyFile*>(file);
+  if (poly_file != nullptr) {
+    file = poly_file->GetInternalFile();
+  }
+  if (file == nullptr || !file->IsOpen()) {
+    return tkrzw::Status(tkrzw::Status::PRECONDITION_ERROR, "not opened file");
+  }
+  if (off < 0 || size < 0) {
+    return tkrzw::Status(tkrzw::Status::INVALID_ARGUMENT_ERROR, "negative region");
+  }
+  const int64_t file_size = file->GetSizeSimple();
+  if (off >= file_size) {
+    return tkrzw::Status(tkrzw::Status::SUCCESS);
+  }
+  if (size == 0 || size > file_size - off) {
+    size = file_size - off;
+  }
+  std::unique_ptr<tkrzw::MemoryMapParallelFile::Zone> parallel_zone;
+  std::unique_ptr<tkrzw::MemoryMapAtomicFile::Zone> atomic_zone;
+  char* map_ptr = nullptr;
+  size_t map_size = 0;
+  auto* parallel_file = dynamic_cast<tkrzw::MemoryMapParallelFile*>(file);
+  auto* atomic_file = dynamic_cast<tkrzw::MemoryMapAtomicFile*>(file);
+  if (parallel_file != nullptr) {
+    const tkrzw::Status status = parallel_file->MakeZone(false, off, size, &parallel_zone);
+    if (status != tkrzw::Status::SUCCESS) {
+      return status;
+    }
+    map_ptr = parallel_zone->Pointer();
+    map_size = parallel_zone->Size();
+  } else if (atomic_file != nullptr) {
+    const tkrzw::Status status = atomic_file->MakeZone(false, off, size, &atomic_zone);
+    if (status != tkrzw::Status::SUCCESS) {
+      return status;
+    }
+    map_ptr = atomic_zone->Pointer();
+    map_size = atomic_zone->Size();
+  }
+  if (map_ptr == nullptr) {
+    if (advice != ADVICE_WILLNEED && advice != ADVICE_DONTNEED) {
+      return tkrzw::Status(tkrzw::Status::NOT_IMPLEMENTED_ERROR,
+                           "access pattern hints need a memory-mapped file");
+    }
+    return AdviseFileByPath(file->GetPathSimple(), advice, off, size);
+  }
+#if defined(MADV_WILLNEED)
+  const uintptr_t gap = reinterpret_cast<uintptr_t>(map_ptr) % tkrzw::PAGE_SIZE;
+  int32_t madv = MADV_NORMAL;
+  switch (advice) {
+    case ADVICE_SEQUENTIAL: madv = MADV_SEQUENTIAL; break;
+    case ADVICE_RANDOM: madv = MADV_RANDOM; break;
+    case ADVICE_WILLNEED: madv = MADV_WILLNEED; break;
+    case ADVICE_DONTNEED: madv = MADV_DONTNEED; break;
+  }
+  if (madvise(map_ptr - gap, map_size + gap, madv) != 0) {
+    return tkrzw::GetErrnoStatus("madvise", errno);
+  }
+  parallel_zone.reset();
+  atomic_zone.reset();
+  if (advice == ADVICE_DONTNEED) {
+    return AdviseFileByPath(file->GetPathSimple(), advice, off, size);
+  }
+  return tkrzw::Status(tkrzw::Status::SUCCESS);
+#else
+  return tkrzw::Status(tkrzw::Status::NOT_IMPLEMENTED_ERROR, "madvise is not supported");
+#endif
+}
+
+// Gets the internal file of a database, or nullptr if there is no file to advise.
+static tkrzw::File* GetDBMInternalFile(tkrzw::ParamDBM* dbm) {
+  auto* poly_dbm = dynamic_cast<tkrzw::PolyDBM*>(dbm);
+  if (poly_dbm == nullptr) {
+    return nullptr;
+  }
+  tkrzw::DBM* internal_dbm = poly_dbm->GetInternalDBM();
+  auto* hash_dbm = dynamic_cast<tkrzw::HashDBM*>(internal_dbm);
+  if (hash_dbm != nullptr) {
+    return hash_dbm->GetInternalFile();
+  }
+  auto* tree_dbm = dynamic_cast<tkrzw::TreeDBM*>(internal_dbm);
+  if (tree_dbm != nullptr) {
+    return tree_dbm->GetInternalFile();
+  }
+  auto* skip_dbm = dynamic_cast<tkrzw::SkipDBM*>(internal_dbm);
+  if (skip_dbm != nullptr) {
+    return skip_dbm->GetInternalFile();
+  }
+  return nullptr;
+}
+
+// Writer of key-value pairs as flat records.
+class FlatRecordWriterAdapter final {
+ public:
+  explicit FlatRecordWriterAdapter(tkrzw::File* file) : rec_(file) {}
+
+  tkrzw::Status Write(std::string_view key, std::string_view value) {
+    std::lock_guard<std::mutex> lock(mutex_);
+    tkrzw::Status status = rec_.Write(key);
+    if (status == tkrzw::Status::SUCCESS) {
+      status = rec_.Write(value);
+    }
+    return status;
+  }
+
+ private:
+  tkrzw::FlatRecord rec_;
+  std::mutex mutex_;
+};
+
+// Reader of key-value pairs from flat records.
+class FlatRecordReaderAdapter final {
+ public:
+  FlatRecordReaderAdapter(tkrzw::File* file, int32_t buffer_size)
+      : reader_(file, std::max(buffer_size, 0)) {}
+
+  tkrzw::Status Read(std::string* key, std::string* value) {
+    std::string_view data;
+    tkrzw::Status status = ReadNormal(&data);
+    if (status != tkrzw::Status::SUCCESS) {
+      return status;
+    }
+    *key = data;
+    status = ReadNormal(&data);
+    if (status == tkrzw::Status::NOT_FOUND_ERROR) {
+      return tkrzw::Status(tkrzw::Status::BROKEN_DATA_ERROR, "missing value record");
+    }
+    if (status != tkrzw::Status::SUCCESS) {
+      return status;
+    }
+    *value = data;
+    return tkrzw::Status(tkrzw::Status::SUCCESS);
+  }
+
+ private:
+  tkrzw::Status ReadNormal(std::string_view* data) {
+    while (true) {
+      tkrzw::FlatRecord::RecordType rec_type = tkrzw::FlatRecord::RECORD_NORMAL;
+      const tkrzw::Status status = reader_.Read(data, &rec_type);
+      if (status != tkrzw::Status::SUCCESS || rec_type == tkrzw::FlatRecord::RECORD_NORMAL) {
+        return status;
+      }
+    }
+  }
+
+  tkrzw::FlatRecordReader reader_;
+};
+
+// Loader of records into an index in sorted order, with spill files for external sorting.
+class IndexLoaderAdapter final {
+ public:
+  IndexLoaderAdapter(tkrzw::PolyIndex* index, const std::string& tmp_dir_path,
+                     int64_t max_memory_size)
+      : index_(index), comp_(index), tmp_dir_path_(tmp_dir_path),
+        max_memory_size_(std::max<int64_t>(max_memory_size, 1)) {}
+
+  ~IndexLoaderAdapter() {
+    RemoveRunFiles();
+  }
+
+  tkrzw::Status Add(std::string_view key, std::string_view value) {
+    std::lock_guard<std::mutex> lock(mutex_);
+    records_.emplace_back(tkrzw::SerializeStrPair(key, value));
+    memory_size_ += records_.back().size() + sizeof(std::string);
+    num_records_++;
+    if (memory_size_ >= max_memory_size_) {
+      return Spill();
+    }
+    return tkrzw::Status(tkrzw::Status::SUCCESS);
+  }
+
+  tkrzw::Status Finish() {
+    std::lock_guard<std::mutex> lock(mutex_);
+    SortRecords();
+    tkrzw::Status status(tkrzw::Status::SUCCESS);
+    const size_t buffer_size = std::min<int64_t>(
+        std::max<int64_t>(max_memory_size_ / (run_paths_.size() + 1), 4096), 1 << 20);
+    std::vector<RunSource> sources(run_paths_.size() + 1);
+    for (size_t i = 0; i < run_paths_.size(); i++) {
+      auto& source = sources[i];
+      source.file = std::make_unique<tkrzw::PolyFile>();
+      status = source.file->Open(run_paths_[i], false);
+      if (status != tkrzw::Status::SUCCESS) {
+        break;
+      }
+      source.reader = std::make_unique<tkrzw::FlatRecordReader>(source.file.get(), buffer_size);
+    }
+    auto source_comp = [&](size_t a, size_t b) {
+      return comp_.CompareRecords(sources[a].record, sources[b].record) > 0;
+    };
+    std::vector<size_t> heap;
+    for (size_t i = 0; status == tkrzw::Status::SUCCESS && i < sources.size(); i++) {
+      if (ReadSource(&sources[i], &status)) {
+        heap.emplace_back(i);
+      }
+    }
+    std::make_heap(heap.begin(), heap.end(), source_comp);
+    std::string last_record;
+    bool written = false;
+    while (status == tkrzw::Status::SUCCESS && !heap.empty()) {
+      std::pop_heap(heap.begin(), heap.end(), source_comp);
+      RunSource& source = sources[heap.back()];
+      if (!written || source.record != last_record) {
+        std::string_view key, value;
+        tkrzw::DeserializeStrPair(source.record, &key, &value);
+        status = index_->Add(key, value);
+        last_record = source.record;
+        written = true;
+      }
+      if (ReadSource(&source, &status)) {
+        std::push_heap(heap.begin(), heap.end(), source_comp);
+      } else {
+        heap.pop_back();
+      }
+    }
+    for (auto& source : sources) {
+      if (source.file != nullptr) {
+        source.reader.reset();
+        source.file->Close();
+      }
+    }
+    if (status != tkrzw::Status::SUCCESS) {
+      return status;
+    }
+    records_.clear();
+    records_.shrink_to_fit();
+    memory_size_ = 0;
+    num_records_ = 0;
+    return RemoveRunFiles();
+  }
+
+  int64_t GetNumRecords() {
+    std::lock_guard<std::mutex> lock(mutex_);
+    return num_records_;
+  }
+
+  int32_t GetNumRuns() {
+    std::lock_guard<std::mutex> lock(mutex_);
+    return run_paths_.size();
+  }
+
+ private:
+  // The maximum number of names tried to create a run file.
+  static constexpr int32_t MAX_RUN_FILE_TRIES = 16;
+
+  struct RunSource {
+    std::unique_ptr<tkrzw::PolyFile> file;
+    std::unique_ptr<tkrzw::FlatRecordReader> reader;
+    std::string_view record;
+    std::string record_buf;
+    size_t mem_index = 0;
+  };
+
+  void SortRecords() {
+    std::sort(records_.begin(), records_.end(), [&](const std::string& a, const std::string& b) {
+        return comp_.CompareRecords(a, b) < 0;
+      });
+  }
+
+  // Creates a new empty run file whose name no other process or loader can take.
+  tkrzw::Status CreateRunFile(std::string* path) {
+    std::random_device rand_dev;
+    for (int32_t i = 0; i < MAX_RUN_FILE_TRIES; i++) {
+      const uint64_t rand_num = (static_cast<uint64_t>(rand_dev()) << 32) | rand_dev();
+      *path = tkrzw::JoinPath(tmp_dir_path_, tkrzw::SPrintF(
+          "tkrzw-index-loader-%d-%016llx.tmp", static_cast<int32_t>(getpid()),
+          static_cast<unsigned long long>(rand_num)));
+      const int32_t fd = ::open(path->c_str(), O_WRONLY | O_CREAT | O_EXCL, 0600);
+      if (fd >= 0) {
+        ::close(fd);
+        return tkrzw::Status(tkrzw::Status::SUCCESS);
+      }
+      if (errno != EEXIST) {
+        return tkrzw::GetErrnoStatus("open", errno);
+      }
+    }
+    return tkrzw::Status(tkrzw::Status::DUPLICATION_ERROR, "no unique run file name");
+  }
+
+  tkrzw::Status Spill() {
+    SortRecords();
+    std::string path;
+    tkrzw::Status status = CreateRunFile(&path);
+    if (status != tkrzw::Status::SUCCESS) {
+      return status;
+    }
+    tkrzw::PolyFile file;
+    status = file.Open(path, true);
+    if (status != tkrzw::Status::SUCCESS) {
+      tkrzw::RemoveFile(path);
+      return status;
+    }
+    tkrzw::FlatRecord rec(&file);
+    for (size_t i = 0; status == tkrzw::Status::SUCCESS && i < records_.size(); i++) {
+      if (i == 0 || records_[i] != records_[i - 1]) {
+        status = rec.Write(records_[i]);
+      }
+    }
+    status |= file.Close();
+    if (status != tkrzw::Status::SUCCESS) {
+      tkrzw::RemoveFile(path);
+      return status;
+    }
+    run_paths_.emplace_back(path);
+    records_.clear();
+    memory_size_ = 0;
+    return status;
+  }
+
+  bool ReadSource(RunSource* source, tkrzw::Status* status) {
+    if (source->reader == nullptr) {
+      if (source->mem_index >= records_.size()) {
+        return false;
+      }
+      source->record = records_[source->mem_index++];
+      return true;
+    }
+    std::string_view data;
+    const tkrzw::Status read_status = source->reader->Read(&data);
+    if (read_status == tkrzw::Status::NOT_FOUND_ERROR) {
+      return false;
+    }
+    if (read_status != tkrzw::Status::SUCCESS) {
+      *status = read_status;
+      return false;
+    }
+    source->record_buf = data;
+    source->record = source->record_buf;
+    return true;
+  }
+
+  tkrzw::Status RemoveRunFiles() {
+    tkrzw::Status status(tkrzw::Status::SUCCESS);
+    for (const auto& path : run_paths_) {
+      status |= tkrzw::RemoveFile(path);
+    }
+    run_paths_.clear();
+    return status;
+  }
+
+  tkrzw::PolyIndex* index_;
+  IndexValueComparator comp_;
+  std::string tmp_dir_path_;
+  int64_t max_memory_size_;
+  std::vector<std::string> records_;
+  int64_t memory_size_ = 0;
+  int64_t num_records_ = 0;
+  std::vector<std::string> run_paths_;
+  std::mutex mutex_;
 };
 
 // Gets the future pointer of the Java future object.
@@ -414,6 +2067,36 @@ static void SetAsyncDBM(JNIEnv* env, jobject jasyncdbm, tkrzw::AsyncDBM* asyncdb
   env->SetLongField(jasyncdbm, id_asyncdbm_ptr, (intptr_t)asyncdbm);
 }
 
+// Gets the FlatRecordWriterAdapter pointer of the Java FlatRecordWriter object.
+static FlatRecordWriterAdapter* GetFlatRecordWriter(JNIEnv* env, jobject jwriter) {
+  return (FlatRecordWriterAdapter*)(intptr_t)env->GetLongField(jwriter, id_flatrecwriter_ptr);
+}
+
+// Sets the FlatRecordWriterAdapter pointer of the Java FlatRecordWriter object.
+static void SetFlatRecordWriter(JNIEnv* env, jobject jwriter, FlatRecordWriterAdapter* writer) {
+  env->SetLongField(jwriter, id_flatrecwriter_ptr, (intptr_t)writer);
+}
+
+// Gets the FlatRecordReaderAdapter pointer of the Java FlatRecordReader object.
+static FlatRecordReaderAdapter* GetFlatRecordReader(JNIEnv* env, jobject jreader) {
+  return (FlatRecordReaderAdapter*)(intptr_t)env->GetLongField(jreader, id_flatrecreader_ptr);
+}
+
+// Sets the FlatRecordReaderAdapter pointer of the Java FlatRecordReader object.
+static void SetFlatRecordReader(JNIEnv* env, jobject jreader, FlatRecordReaderAdapter* reader) {
+  env->SetLongField(jreader, id_flatrecreader_ptr, (intptr_t)reader);
+}
+
+// Gets the AsyncFileAdapter pointer of the Java AsyncFile object.
+static AsyncFileAdapter* GetAsyncFile(JNIEnv* env, jobject jasyncfile) {
+  return (AsyncFileAdapter*)(intptr_t)env->GetLongField(jasyncfile, id_asyncfile_ptr);
+}
+
+// Sets the AsyncFileAdapter pointer of the Java AsyncFile object.
+static void SetAsyncFile(JNIEnv* env, jobject jasyncfile, AsyncFileAdapter* asyncfile) {
+  env->SetLongField(jasyncfile, id_asyncfile_ptr, (intptr_t)asyncfile);
+}
+
 // Gets the File pointer of the Java File object.
 static tkrzw::PolyFile* GetFile(JNIEnv* env, jobject jfile) {
   return (tkrzw::PolyFile*)(intptr_t)env->GetLongField(jfile, id_file_ptr);
@@ -444,6 +2127,16 @@ static void SetIndexIter(JNIEnv* env, jobject jiter, tkrzw::PolyIndex::Iterator*
   env->SetLongField(jiter, id_indexiter_ptr, (intptr_t)iter);
 }
 
+// Gets the IndexLoaderAdapter pointer of the Java IndexLoader object.
+static IndexLoaderAdapter* GetIndexLoader(JNIEnv* env, jobject jloader) {
+  return (IndexLoaderAdapter*)(intptr_t)env->GetLongField(jloader, id_indexloader_ptr);
+}
+
+// Sets the IndexLoaderAdapter pointer of the Java IndexLoader object.
+static void SetIndexLoader(JNIEnv* env, jobject jloader, IndexLoaderAdapter* loader) {
+  env->SetLongField(jloader, id_indexloader_ptr, (intptr_t)loader);
+}
+
 // Converts a Java byte array map into a C++ string map.
 static std::map<std::string, std::string> JMapToCMap(JNIEnv* env, jobject jmap) {
   std::map<std::string, std::string> map;
@@ -875,6 +2568,7 @@ JNIEXPORT jobject JNICALL Java_tkrzw_DBM_process
   SoftByteArray key(env, jkey);
   SoftRecordProcessor proc(env, jproc);
   tkrzw::Status status = dbm->Process(key.Get(), &proc, writable);
+  status |= proc.GetStatus();
   return NewStatus(env, status);
 }
 
@@ -1477,7 +3171,10 @@ JNIEXPORT jobject JNICALL Java_tkrzw_DBM_processMulti
     keys.emplace_back(key.Get());
     kppairs.emplace_back(std::make_pair(std::string_view(keys.back()), procs.back().get()));
   }
-  const tkrzw::Status status = dbm->ProcessMulti(kppairs, writable);
+  tkrzw::Status status = dbm->ProcessMulti(kppairs, writable);
+  for (const auto& proc : procs) {
+    status |= proc->GetStatus();
+  }
   return NewStatus(env, status);
 }
 
@@ -1562,8 +3259,9 @@ JNIEXPORT jobject JNICALL Java_tkrzw_DBM_pushLast
 }
 
 // Implementation of DBM#processEach.
-JNIEXPORT jobject JNICALL Java_tkrzw_DBM_processEach
-(JNIEnv* env, jobject jself, jobject jproc, jboolean writable) {
+JNIEXPORT jobject JNICALL
+Java_tkrzw_DBM_processEach__Ltkrzw_RecordFilter_2Ltkrzw_RecordProcessor_2Z
+(JNIEnv* env, jobject jself, jobject jfilter, jobject jproc, jboolean writable) {
   tkrzw::ParamDBM* dbm = GetDBM(env, jself);
   if (dbm == nullptr) {
     ThrowIllegalArgument(env, "not opened database");
@@ -1574,7 +3272,49 @@ JNIEXPORT jobject JNICALL Java_tkrzw_DBM_processEach
     return nullptr;
   }
   SoftRecordProcessor proc(env, jproc);
-  tkrzw::Status status = dbm->ProcessEach(&proc, writable);
+  if (jfilter == nullptr) {
+    tkrzw::Status status = dbm->ProcessEach(&proc, writable);
+    status |= proc.GetStatus();
+    return NewStatus(env, status);
+  }
+  NativeRecordFilter filter(env, jfilter);
+  if (!filter.GetErrorMessage().empty()) {
+    ThrowIllegalArgument(env, filter.GetErrorMessage().c_str());
+    return nullptr;
+  }
+  FilteredRecordProcessor filtered_proc(&filter, &proc);
+  tkrzw::Status status = dbm->ProcessEach(&filtered_proc, writable);
+  status |= proc.GetStatus();
+  return NewStatus(env, status);
+}
+
+// Implementation of DBM#processEach.
+JNIEXPORT jobject JNICALL Java_tkrzw_DBM_processEach__Ltkrzw_RecordFilter_2Ltkrzw_BatchProcessor_2I
+(JNIEnv* env, jobject jself, jobject jfilter, jobject jproc, jint batch_size) {
+  tkrzw::ParamDBM* dbm = GetDBM(env, jself);
+  if (dbm == nullptr) {
+    ThrowIllegalArgument(env, "not opened database");
+    return nullptr;
+  }
+  if (jproc == nullptr) {
+    ThrowNullPointer(env);
+    return nullptr;
+  }
+  if (batch_size < 1) {
+    ThrowIllegalArgument(env, "invalid batch size");
+    return nullptr;
+  }
+  NativeRecordFilter filter(env, jfilter);
+  if (!filter.GetErrorMessage().empty()) {
+    ThrowIllegalArgument(env, filter.GetErrorMessage().c_str());
+    return nullptr;
+  }
+  BatchRecordProcessor proc(env, jproc, &filter, batch_size);
+  tkrzw::Status status = dbm->ProcessEach(&proc, false);
+  proc.Flush();
+  if (env->ExceptionCheck()) {
+    return nullptr;
+  }
   return NewStatus(env, status);
 }
 
@@ -1687,6 +3427,22 @@ JNIEXPORT jobject JNICALL Java_tkrzw_DBM_synchronize
   return NewStatus(env, status);
 }
 
+// Implementation of DBM#adviseCache.
+JNIEXPORT jobject JNICALL Java_tkrzw_DBM_adviseCache
+(JNIEnv* env, jobject jself, jint advice, jlong off, jlong size) {
+  tkrzw::ParamDBM* dbm = GetDBM(env, jself);
+  if (dbm == nullptr) {
+    ThrowIllegalArgument(env, "not opened database");
+    return nullptr;
+  }
+  tkrzw::File* file = GetDBMInternalFile(dbm);
+  if (file == nullptr) {
+    return NewStatus(env, tkrzw::Status(
+        tkrzw::Status::NOT_IMPLEMENTED_ERROR, "no single file to advise"));
+  }
+  return NewStatus(env, AdviseFileCache(file, advice, off, size));
+}
+
 // Implementation of DBM#copyFile.
 JNIEXPORT jobject JNICALL Java_tkrzw_DBM_copyFileData
 (JNIEnv* env, jobject jself, jstring jdestpath, jboolean sync_hard) {
@@ -1828,7 +3584,7 @@ JNIEXPORT jboolean JNICALL Java_tkrzw_DBM_isOrdered
 }
 
 // Implementation of DBM#search.
-JNIEXPORT jobjectArray JNICALL Java_tkrzw_DBM_search
+JNIEXPORT jobjectArray JNICALL Java_tkrzw_DBM_search__Ljava_lang_String_2_3BI
 (JNIEnv* env, jobject jself, jstring jmode, jbyteArray jpattern, jint capacity) {
   tkrzw::ParamDBM* dbm = GetDBM(env, jself);
   if (dbm == nullptr) {
@@ -1839,11 +3595,55 @@ JNIEXPORT jobjectArray JNICALL Java_tkrzw_DBM_search
     ThrowNullPointer(env);
     return nullptr;
   }
-  SoftString mode(env, jmode);
-  SoftByteArray pattern(env, jpattern);
+  SoftString mode(env, jmode);
+  SoftByteArray pattern(env, jpattern);
+  std::vector<std::string> keys;
+  const tkrzw::Status status = SearchDBMModal(dbm, mode.Get(), pattern.Get(), &keys, capacity);
+  if (status != tkrzw::Status::SUCCESS) {
+    ThrowStatus(env, status);
+    return nullptr;
+  }
+  jobjectArray jkeys = env->NewObjectArray(keys.size(), cls_byteary, nullptr);
+  for (size_t i = 0; i < keys.size(); i++) {
+    jbyteArray jkey = NewByteArray(env, keys[i]);
+    env->SetObjectArrayElement(jkeys, i, jkey);
+  }
+  return jkeys;
+}
+
+// Implementation of DBM#search.
+JNIEXPORT jobjectArray JNICALL Java_tkrzw_DBM_search__Ltkrzw_RecordFilter_2I
+(JNIEnv* env, jobject jself, jobject jfilter, jint capacity) {
+  tkrzw::ParamDBM* dbm = GetDBM(env, jself);
+  if (dbm == nullptr) {
+    ThrowIllegalArgument(env, "not opened database");
+    return nullptr;
+  }
+  if (jfilter == nullptr) {
+    ThrowNullPointer(env);
+    return nullptr;
+  }
+  NativeRecordFilter filter(env, jfilter);
+  if (!filter.GetErrorMessage().empty()) {
+    ThrowIllegalArgument(env, filter.GetErrorMessage().c_str());
+    return nullptr;
+  }
   std::vector<std::string> keys;
-  const tkrzw::Status status = SearchDBMModal(dbm, mode.Get(), pattern.Get(), &keys, capacity);
-  if (status != tkrzw::Status::SUCCESS) {
+  std::unique_ptr<tkrzw::DBM::Iterator> iter = dbm->MakeIterator();
+  tkrzw::Status status = iter->First();
+  std::string key, value;
+  std::string* value_ptr = filter.NeedsValue() ? &value : nullptr;
+  while (status == tkrzw::Status::SUCCESS) {
+    if (capacity > 0 && static_cast<int64_t>(keys.size()) >= capacity) {
+      break;
+    }
+    status = iter->Step(&key, value_ptr);
+    if (status == tkrzw::Status::SUCCESS &&
+        filter.MatchKey(key) && (value_ptr == nullptr || filter.MatchValue(value))) {
+      keys.emplace_back(key);
+    }
+  }
+  if (status != tkrzw::Status::SUCCESS && status != tkrzw::Status::NOT_FOUND_ERROR) {
     ThrowStatus(env, status);
     return nullptr;
   }
@@ -1851,6 +3651,7 @@ JNIEXPORT jobjectArray JNICALL Java_tkrzw_DBM_search
   for (size_t i = 0; i < keys.size(); i++) {
     jbyteArray jkey = NewByteArray(env, keys[i]);
     env->SetObjectArrayElement(jkeys, i, jkey);
+    env->DeleteLocalRef(jkey);
   }
   return jkeys;
 }
@@ -2126,6 +3927,49 @@ JNIEXPORT jobjectArray JNICALL Java_tkrzw_Iterator_step
   return nullptr;
 }
 
+// Implementation of Iterator#stepMulti.
+JNIEXPORT jobjectArray JNICALL Java_tkrzw_Iterator_stepMulti
+(JNIEnv* env, jobject jself, jobject jfilter, jint max_records, jobject jstatus) {
+  tkrzw::DBM::Iterator* iter = GetIter(env, jself);
+  if (iter == nullptr) {
+    ThrowNullPointer(env);
+    return nullptr;
+  }
+  NativeRecordFilter filter(env, jfilter);
+  if (!filter.GetErrorMessage().empty()) {
+    ThrowIllegalArgument(env, filter.GetErrorMessage().c_str());
+    return nullptr;
+  }
+  std::vector<std::pair<std::string, std::string>> records;
+  tkrzw::Status status(tkrzw::Status::SUCCESS);
+  std::string key, value;
+  while (max_records < 1 || static_cast<int64_t>(records.size()) < max_records) {
+    status = iter->Step(&key, &value);
+    if (status != tkrzw::Status::SUCCESS) {
+      break;
+    }
+    if (filter.MatchKey(key) && filter.MatchValue(value)) {
+      records.emplace_back(std::make_pair(key, value));
+    }
+  }
+  if (jstatus != nullptr) {
+    SetStatus(env, status, jstatus);
+  }
+  jobjectArray jrecs = env->NewObjectArray(records.size(), cls_bytearyary, nullptr);
+  for (size_t i = 0; i < records.size(); i++) {
+    jobjectArray jrec = env->NewObjectArray(2, cls_byteary, nullptr);
+    jbyteArray jkey = NewByteArray(env, records[i].first);
+    jbyteArray jvalue = NewByteArray(env, records[i].second);
+    env->SetObjectArrayElement(jrec, 0, jkey);
+    env->SetObjectArrayElement(jrec, 1, jvalue);
+    env->SetObjectArrayElement(jrecs, i, jrec);
+    env->DeleteLocalRef(jvalue);
+    env->DeleteLocalRef(jkey);
+    env->DeleteLocalRef(jrec);
+  }
+  return jrecs;
+}
+
 // Implementation of Iterator#toString.
 JNIEXPORT jstring JNICALL Java_tkrzw_Iterator_toString
 (JNIEnv* env, jobject jself) {
@@ -2807,6 +4651,243 @@ JNIEXPORT jstring JNICALL Java_tkrzw_AsyncDBM_toString
   return NewString(env, expr.c_str());
 }
 
+// Implementation of AsyncFile#initialize.
+JNIEXPORT void JNICALL Java_tkrzw_AsyncFile_initialize
+(JNIEnv* env, jobject jself, jobject jfile, jint num_worker_threads) {
+  if (jfile == nullptr) {
+    ThrowNullPointer(env);
+    return;
+  }
+  tkrzw::PolyFile* file = GetFile(env, jfile);
+  if (file == nullptr) {
+    ThrowIllegalArgument(env, "not opened file");
+    return;
+  }
+  SetAsyncFile(env, jself, new AsyncFileAdapter(file, num_worker_threads));
+}
+
+// Implementation of AsyncFile#destruct.
+JNIEXPORT void JNICALL Java_tkrzw_AsyncFile_destruct
+(JNIEnv* env, jobject jself) {
+  AsyncFileAdapter* asyncfile = GetAsyncFile(env, jself);
+  if (asyncfile != nullptr) {
+    asyncfile->Stop(env);
+    delete asyncfile;
+    SetAsyncFile(env, jself, nullptr);
+  }
+}
+
+// Reads data asynchronously, for AsyncFile#read and AsyncFile#readString.
+static jobject ReadAsync(JNIEnv* env, jobject jself, jlong off, jlong size, bool is_str) {
+  AsyncFileAdapter* asyncfile = GetAsyncFile(env, jself);
+  if (asyncfile == nullptr) {
+    ThrowNullPointer(env);
+    return nullptr;
+  }
+  if (off < 0 || size < 0 || size > INT32_MAX) {
+    ThrowIllegalArgument(env, "invalid size");
+    return nullptr;
+  }
+  auto promise = std::make_shared<std::promise<std::pair<tkrzw::Status, std::string>>>();
+  auto* future = new tkrzw::StatusFuture(promise->get_future());
+  tkrzw::PolyFile* file = asyncfile->GetFile();
+  asyncfile->AddTask([=]() {
+    std::string data;
+    try {
+      data.resize(size);
+    } catch (const std::bad_alloc&) {
+      promise->set_value(std::make_pair(tkrzw::Status(
+          tkrzw::Status::SYSTEM_ERROR, "cannot allocate the buffer"), std::string()));
+      return;
+    }
+    const tkrzw::Status status = file->Read(off, data.data(), size);
+    if (status != tkrzw::Status::SUCCESS) {
+      data.clear();
+    }
+    promise->set_value(std::make_pair(status, std::move(data)));
+  });
+  return NewFuture(env, future, is_str);
+}
+
+// Implementation of AsyncFile#read.
+JNIEXPORT jobject JNICALL Java_tkrzw_AsyncFile_read
+(JNIEnv* env, jobject jself, jlong off, jlong size) {
+  return ReadAsync(env, jself, off, size, false);
+}
+
+// Implementation of AsyncFile#readString.
+JNIEXPORT jobject JNICALL Java_tkrzw_AsyncFile_readString
+(JNIEnv* env, jobject jself, jlong off, jlong size) {
+  return ReadAsync(env, jself, off, size, true);
+}
+
+// Implementation of AsyncFile#readDirect.
+JNIEXPORT jobject JNICALL Java_tkrzw_AsyncFile_readDirect
+(JNIEnv* env, jobject jself, jlong off, jobject jbuf, jint buf_off, jint size) {
+  AsyncFileAdapter* asyncfile = GetAsyncFile(env, jself);
+  if (asyncfile == nullptr) {
+    ThrowNullPointer(env);
+    return nullptr;
+  }
+  char* buf_ptr = GetDirectBufferRegion(env, jbuf, buf_off, size);
+  if (buf_ptr == nullptr) {
+    return nullptr;
+  }
+  auto promise = std::make_shared<std::promise<tkrzw::Status>>();
+  auto* future = new tkrzw::StatusFuture(promise->get_future());
+  tkrzw::PolyFile* file = asyncfile->GetFile();
+  jobject jbuf_ref = asyncfile->HoldRef(env, jbuf);
+  asyncfile->AddTask([=]() {
+    const tkrzw::Status status = file->Read(off, buf_ptr, size);
+    asyncfile->UnholdRef(jbuf_ref);
+    promise->set_value(status);
+  });
+  return NewFuture(env, future, false);
+}
+
+// Implementation of AsyncFile#write.
+JNIEXPORT jobject JNICALL Java_tkrzw_AsyncFile_write
+(JNIEnv* env, jobject jself, jlong off, jbyteArray jdata) {
+  AsyncFileAdapter* asyncfile = GetAsyncFile(env, jself);
+  if (asyncfile == nullptr) {
+    ThrowNullPointer(env);
+    return nullptr;
+  }
+  if (jdata == nullptr) {
+    ThrowNullPointer(env);
+    return nullptr;
+  }
+  SoftByteArray data(env, jdata);
+  auto promise = std::make_shared<std::promise<tkrzw::Status>>();
+  auto* future = new tkrzw::StatusFuture(promise->get_future());
+  tkrzw::PolyFile* file = asyncfile->GetFile();
+  asyncfile->AddTask([=, data = std::string(data.Get())]() {
+    promise->set_value(file->Write(off, data.data(), data.size()));
+  });
+  return NewFuture(env, future, false);
+}
+
+// Implementation of AsyncFile#writeDirect.
+JNIEXPORT jobject JNICALL Java_tkrzw_AsyncFile_writeDirect
+(JNIEnv* env, jobject jself, jlong off, jobject jbuf, jint buf_off, jint size) {
+  AsyncFileAdapter* asyncfile = GetAsyncFile(env, jself);
+  if (asyncfile == nullptr) {
+    ThrowNullPointer(env);
+    return nullptr;
+  }
+  const char* buf_ptr = GetDirectBufferRegion(env, jbuf, buf_off, size);
+  if (buf_ptr == nullptr) {
+    return nullptr;
+  }
+  auto promise = std::make_shared<std::promise<tkrzw::Status>>();
+  auto* future = new tkrzw::StatusFuture(promise->get_future());
+  tkrzw::PolyFile* file = asyncfile->GetFile();
+  jobject jbuf_ref = asyncfile->HoldRef(env, jbuf);
+  asyncfile->AddTask([=]() {
+    const tkrzw::Status status = file->Write(off, buf_ptr, size);
+    asyncfile->UnholdRef(jbuf_ref);
+    promise->set_value(status);
+  });
+  return NewFuture(env, future, false);
+}
+
+// Implementation of AsyncFile#append.
+JNIEXPORT jobject JNICALL Java_tkrzw_AsyncFile_append
+(JNIEnv* env, jobject jself, jbyteArray jdata) {
+  AsyncFileAdapter* asyncfile = GetAsyncFile(env, jself);
+  if (asyncfile == nullptr) {
+    ThrowNullPointer(env);
+    return nullptr;
+  }
+  if (jdata == nullptr) {
+    ThrowNullPointer(env);
+    return nullptr;
+  }
+  SoftByteArray data(env, jdata);
+  auto promise = std::make_shared<std::promise<std::pair<tkrzw::Status, int64_t>>>();
+  auto* future = new tkrzw::StatusFuture(promise->get_future());
+  tkrzw::PolyFile* file = asyncfile->GetFile();
+  asyncfile->AddTask([=, data = std::string(data.Get())]() {
+    int64_t off = -1;
+    const tkrzw::Status status = file->Append(data.data(), data.size(), &off);
+    promise->set_value(std::make_pair(status, status == tkrzw::Status::SUCCESS ? off : -1));
+  });
+  return NewFuture(env, future, false);
+}
+
+// Implementation of AsyncFile#appendDirect.
+JNIEXPORT jobject JNICALL Java_tkrzw_AsyncFile_appendDirect
+(JNIEnv* env, jobject jself, jobject jbuf, jint buf_off, jint size) {
+  AsyncFileAdapter* asyncfile = GetAsyncFile(env, jself);
+  if (asyncfile == nullptr) {
+    ThrowNullPointer(env);
+    return nullptr;
+  }
+  const char* buf_ptr = GetDirectBufferRegion(env, jbuf, buf_off, size);
+  if (buf_ptr == nullptr) {
+    return nullptr;
+  }
+  auto promise = std::make_shared<std::promise<std::pair<tkrzw::Status, int64_t>>>();
+  auto* future = new tkrzw::StatusFuture(promise->get_future());
+  tkrzw::PolyFile* file = asyncfile->GetFile();
+  jobject jbuf_ref = asyncfile->HoldRef(env, jbuf);
+  asyncfile->AddTask([=]() {
+    int64_t off = -1;
+    const tkrzw::Status status = file->Append(buf_ptr, size, &off);
+    asyncfile->UnholdRef(jbuf_ref);
+    promise->set_value(std::make_pair(status, status == tkrzw::Status::SUCCESS ? off : -1));
+  });
+  return NewFuture(env, future, false);
+}
+
+// Implementation of AsyncFile#truncate.
+JNIEXPORT jobject JNICALL Java_tkrzw_AsyncFile_truncate
+(JNIEnv* env, jobject jself, jlong size) {
+  AsyncFileAdapter* asyncfile = GetAsyncFile(env, jself);
+  if (asyncfile == nullptr) {
+    ThrowNullPointer(env);
+    return nullptr;
+  }
+  auto promise = std::make_shared<std::promise<tkrzw::Status>>();
+  auto* future = new tkrzw::StatusFuture(promise->get_future());
+  tkrzw::PolyFile* file = asyncfile->GetFile();
+  asyncfile->AddTask([=]() {
+    promise->set_value(file->Truncate(size));
+  });
+  return NewFuture(env, future, false);
+}
+
+// Implementation of AsyncFile#synchronize.
+JNIEXPORT jobject JNICALL Java_tkrzw_AsyncFile_synchronize
+(JNIEnv* env, jobject jself, jboolean hard, jlong off, jlong size) {
+  AsyncFileAdapter* asyncfile = GetAsyncFile(env, jself);
+  if (asyncfile == nullptr) {
+    ThrowNullPointer(env);
+    return nullptr;
+  }
+  auto promise = std::make_shared<std::promise<tkrzw::Status>>();
+  auto* future = new tkrzw::StatusFuture(promise->get_future());
+  tkrzw::PolyFile* file = asyncfile->GetFile();
+  asyncfile->AddTask([=]() {
+    promise->set_value(file->Synchronize(hard, off, size));
+  });
+  return NewFuture(env, future, false);
+}
+
+// Implementation of AsyncFile#toString.
+JNIEXPORT jstring JNICALL Java_tkrzw_AsyncFile_toString
+(JNIEnv* env, jobject jself) {
+  AsyncFileAdapter* asyncfile = GetAsyncFile(env, jself);
+  std::string expr = "tkrzw.AsyncFile(";
+  if (asyncfile == nullptr) {
+    expr += "destroyed";
+  } else {
+    expr += tkrzw::SPrintF("%p", asyncfile);
+  }
+  expr += ")";
+  return NewString(env, expr.c_str());
+}
+
 // Implementation of File#initialize.
 JNIEXPORT void JNICALL Java_tkrzw_File_initialize
 (JNIEnv* env, jobject jself){
@@ -2818,6 +4899,7 @@ JNIEXPORT void JNICALL Java_tkrzw_File_destruct
 (JNIEnv* env, jobject jself) {
   tkrzw::PolyFile* file = GetFile(env, jself);
   if (file != nullptr) {
+    DetachMappedRegions(file);
     delete file;
     SetFile(env, jself, nullptr);
   }
@@ -2880,6 +4962,7 @@ JNIEXPORT jobject JNICALL Java_tkrzw_File_close
     ThrowIllegalArgument(env, "not opened file");
     return nullptr;
   }
+  DetachMappedRegions(file);
   const tkrzw::Status status = file->Close();
   delete file;
   SetFile(env, jself, nullptr);
@@ -2887,6 +4970,17 @@ JNIEXPORT jobject JNICALL Java_tkrzw_File_close
 }
 
 
+// Reads data of a file into a region of a Java byte array.
+static tkrzw::Status ReadIntoArray(JNIEnv* env, tkrzw::File* file, int64_t off,
+                                   jbyteArray jbuf, int32_t buf_off, int64_t size) {
+  std::unique_ptr<char[]> buf(new char[size]);
+  const tkrzw::Status status = file->Read(off, buf.get(), size);
+  if (status == tkrzw::Status::SUCCESS) {
+    env->SetByteArrayRegion(jbuf, buf_off, size, (jbyte*)buf.get());
+  }
+  return status;
+}
+
 // Implementation of File#read.
 JNIEXPORT jobject JNICALL Java_tkrzw_File_read
 (JNIEnv* env, jobject jself, jlong off, jbyteArray jbuf, jlong size) {
@@ -2903,17 +4997,7 @@ JNIEXPORT jobject JNICALL Java_tkrzw_File_read
     ThrowIllegalArgument(env, "invalid size");
     return nullptr;
   }
-  jboolean copied = false;
-  jbyte* buf_ptr = env->GetByteArrayElements(jbuf, &copied);
-  if (buf_ptr == nullptr) {
-    ThrowOutOfMemory(env);
-    return nullptr;
-  }
-  const tkrzw::Status status = file->Read(off, (char*)buf_ptr, size);
-  if (copied) {
-    env->ReleaseByteArrayElements(jbuf, buf_ptr, 0);
-  }
-  return NewStatus(env, status);
+  return NewStatus(env, ReadIntoArray(env, file, off, jbuf, 0, size));
 }
 
 // Implementation of File#write.
@@ -2932,16 +5016,9 @@ JNIEXPORT jobject JNICALL Java_tkrzw_File_write
     ThrowIllegalArgument(env, "invalid size");
     return nullptr;
   }
-  jboolean copied = false;
-  jbyte* buf_ptr = env->GetByteArrayElements(jbuf, &copied);
-  if (buf_ptr == nullptr) {
-    ThrowOutOfMemory(env);
-    return nullptr;
-  }
-  const tkrzw::Status status = file->Write(off, (char*)buf_ptr, size);
-  if (copied) {
-    env->ReleaseByteArrayElements(jbuf, buf_ptr, JNI_ABORT);
-  }
+  std::unique_ptr<char[]> buf(new char[size]);
+  env->GetByteArrayRegion(jbuf, 0, size, (jbyte*)buf.get());
+  const tkrzw::Status status = file->Write(off, buf.get(), size);
   return NewStatus(env, status);
 }
 
@@ -2957,28 +5034,295 @@ JNIEXPORT jlong JNICALL Java_tkrzw_File_append
     ThrowNullPointer(env);
     return -1;
   }
-  if (size < 0 || size > env->GetArrayLength(jbuf)) {
-    ThrowIllegalArgument(env, "invalid size");
-    return -1;
+  if (size < 0 || size > env->GetArrayLength(jbuf)) {
+    ThrowIllegalArgument(env, "invalid size");
+    return -1;
+  }
+  std::unique_ptr<char[]> buf(new char[size]);
+  env->GetByteArrayRegion(jbuf, 0, size, (jbyte*)buf.get());
+  int64_t off = 0;
+  const tkrzw::Status status = file->Append(buf.get(), size, &off);
+  if (jstatus != nullptr) {
+    SetStatus(env, status, jstatus);
+  }
+  if (status != tkrzw::Status::SUCCESS) {
+    off = -1;
+  }
+  return off;
+}
+
+// Implementation of File#readDirect.
+JNIEXPORT jobject JNICALL Java_tkrzw_File_readDirect
+(JNIEnv* env, jobject jself, jlong off, jobject jbuf, jint buf_off, jint size) {
+  tkrzw::PolyFile* file = GetFile(env, jself);
+  if (file == nullptr) {
+    ThrowIllegalArgument(env, "not opened file");
+    return nullptr;
+  }
+  char* buf_ptr = GetDirectBufferRegion(env, jbuf, buf_off, size);
+  if (buf_ptr == nullptr) {
+    return nullptr;
+  }
+  const tkrzw::Status status = file->Read(off, buf_ptr, size);
+  return NewStatus(env, status);
+}
+
+// Implementation of File#readArray.
+JNIEXPORT jobject JNICALL Java_tkrzw_File_readArray
+(JNIEnv* env, jobject jself, jlong off, jbyteArray jbuf, jint buf_off, jint size) {
+  tkrzw::PolyFile* file = GetFile(env, jself);
+  if (file == nullptr) {
+    ThrowIllegalArgument(env, "not opened file");
+    return nullptr;
+  }
+  if (jbuf == nullptr) {
+    ThrowNullPointer(env);
+    return nullptr;
+  }
+  if (buf_off < 0 || size < 0 || size > env->GetArrayLength(jbuf) - buf_off) {
+    ThrowIllegalArgument(env, "invalid size");
+    return nullptr;
+  }
+  return NewStatus(env, ReadIntoArray(env, file, off, jbuf, buf_off, size));
+}
+
+// The minimum number of read groups for each thread of File#readMultiDirect.
+constexpr int32_t MIN_READ_GROUPS_PER_THREAD = 4;
+// The minimum total size for File#readMultiDirect to read in parallel.
+constexpr int64_t MIN_PARALLEL_READ_SIZE = 256 * 1024;
+// The number of worker threads shared by all calls of File#readMultiDirect.
+constexpr int32_t NUM_READ_POOL_THREADS = 7;
+
+// Gets the thread pool for parallel reads, which is started on the first call.
+// The pool is never destructed so that no thread is joined during the shutdown of the JVM.
+static tkrzw::TaskQueue* GetReadPool() {
+  static tkrzw::TaskQueue* pool = []() {
+    auto* queue = new tkrzw::TaskQueue();
+    queue->Start(NUM_READ_POOL_THREADS);
+    return queue;
+  }();
+  return pool;
+}
+
+// Implementation of File#readMultiDirect.
+JNIEXPORT jobjectArray JNICALL Java_tkrzw_File_readMultiDirect
+(JNIEnv* env, jobject jself, jlongArray joffsets, jintArray jsizes, jobject jdest, jint dest_off) {
+  tkrzw::PolyFile* file = GetFile(env, jself);
+  if (file == nullptr) {
+    ThrowIllegalArgument(env, "not opened file");
+    return nullptr;
+  }
+  if (joffsets == nullptr || jsizes == nullptr) {
+    ThrowNullPointer(env);
+    return nullptr;
+  }
+  const int32_t num_ranges = env->GetArrayLength(joffsets);
+  if (env->GetArrayLength(jsizes) != num_ranges) {
+    ThrowIllegalArgument(env, "mismatching sizes");
+    return nullptr;
+  }
+  std::vector<jlong> offsets(num_ranges);
+  std::vector<jint> sizes(num_ranges);
+  env->GetLongArrayRegion(joffsets, 0, num_ranges, offsets.data());
+  env->GetIntArrayRegion(jsizes, 0, num_ranges, sizes.data());
+  int64_t total_size = 0;
+  for (int32_t i = 0; i < num_ranges; i++) {
+    if (offsets[i] < 0 || sizes[i] < 0) {
+      ThrowIllegalArgument(env, "invalid size");
+      return nullptr;
+    }
+    total_size += sizes[i];
+  }
+  if (total_size > INT32_MAX) {
+    ThrowIllegalArgument(env, "invalid size");
+    return nullptr;
+  }
+  char* dest = GetDirectBufferRegion(env, jdest, dest_off, total_size);
+  if (dest == nullptr) {
+    return nullptr;
+  }
+  struct ReadGroup {
+    int64_t off;
+    char* buf;
+    int64_t size;
+    int32_t first;
+    int32_t last;
+  };
+  std::vector<ReadGroup> groups;
+  char* buf = dest;
+  for (int32_t i = 0; i < num_ranges; i++) {
+    if (!groups.empty() && groups.back().off + groups.back().size == offsets[i]) {
+      groups.back().size += sizes[i];
+      groups.back().last = i;
+    } else {
+      groups.emplace_back(ReadGroup{offsets[i], buf, sizes[i], i, i});
+    }
+    buf += sizes[i];
+  }
+  std::vector<tkrzw::Status> statuses(num_ranges);
+  auto read_group = [&](const ReadGroup& group) {
+    const tkrzw::Status status = file->Read(group.off, group.buf, group.size);
+    if (status == tkrzw::Status::SUCCESS || group.first == group.last) {
+      for (int32_t i = group.first; i <= group.last; i++) {
+        statuses[i] = status;
+      }
+      return;
+    }
+    char* range_buf = group.buf;
+    for (int32_t i = group.first; i <= group.last; i++) {
+      statuses[i] = file->Read(offsets[i], range_buf, sizes[i]);
+      range_buf += sizes[i];
+    }
+  };
+  const int32_t num_helpers = std::min<int32_t>(
+      groups.size() / MIN_READ_GROUPS_PER_THREAD, NUM_READ_POOL_THREADS + 1) - 1;
+  if (num_helpers > 0 && total_size >= MIN_PARALLEL_READ_SIZE &&
+      dynamic_cast<tkrzw::PositionalParallelFile*>(file->GetInternalFile()) != nullptr) {
+    std::atomic_int32_t next_index(0);
+    auto read_groups = [&]() {
+      while (true) {
+        const int32_t index = next_index.fetch_add(1);
+        if (index >= static_cast<int32_t>(groups.size())) {
+          break;
+        }
+        read_group(groups[index]);
+      }
+    };
+    std::mutex done_mutex;
+    std::condition_variable done_cond;
+    int32_t num_done = 0;
+    tkrzw::TaskQueue* pool = GetReadPool();
+    for (int32_t i = 0; i < num_helpers; i++) {
+      pool->Add([&]() {
+        read_groups();
+        std::lock_guard<std::mutex> lock(done_mutex);
+        num_done++;
+        done_cond.notify_one();
+      });
+    }
+    read_groups();
+    std::unique_lock<std::mutex> lock(done_mutex);
+    done_cond.wait(lock, [&]() { return num_done == num_helpers; });
+  } else {
+    for (const auto& group : groups) {
+      read_group(group);
+    }
+  }
+  jobjectArray jstatuses = env->NewObjectArray(num_ranges, cls_status, nullptr);
+  for (int32_t i = 0; i < num_ranges; i++) {
+    jobject jstatus = NewStatus(env, statuses[i]);
+    env->SetObjectArrayElement(jstatuses, i, jstatus);
+    env->DeleteLocalRef(jstatus);
+  }
+  return jstatuses;
+}
+
+// Implementation of File#writeDirect.
+JNIEXPORT jobject JNICALL Java_tkrzw_File_writeDirect
+(JNIEnv* env, jobject jself, jlong off, jobject jbuf, jint buf_off, jint size) {
+  tkrzw::PolyFile* file = GetFile(env, jself);
+  if (file == nullptr) {
+    ThrowIllegalArgument(env, "not opened file");
+    return nullptr;
+  }
+  const char* buf_ptr = GetDirectBufferRegion(env, jbuf, buf_off, size);
+  if (buf_ptr == nullptr) {
+    return nullptr;
+  }
+  const tkrzw::Status status = file->Write(off, buf_ptr, size);
+  return NewStatus(env, status);
+}
+
+// Implementation of File#appendDirect.
+JNIEXPORT jlong JNICALL Java_tkrzw_File_appendDirect
+(JNIEnv* env, jobject jself, jobject jbuf, jint buf_off, jint size, jobject jstatus) {
+  tkrzw::PolyFile* file = GetFile(env, jself);
+  if (file == nullptr) {
+    ThrowIllegalArgument(env, "not opened file");
+    return -1;
+  }
+  const char* buf_ptr = GetDirectBufferRegion(env, jbuf, buf_off, size);
+  if (buf_ptr == nullptr) {
+    return -1;
+  }
+  int64_t off = 0;
+  const tkrzw::Status status = file->Append(buf_ptr, size, &off);
+  if (jstatus != nullptr) {
+    SetStatus(env, status, jstatus);
+  }
+  if (status != tkrzw::Status::SUCCESS) {
+    off = -1;
+  }
+  return off;
+}
+
+// Implementation of File#transferTo.
+JNIEXPORT jobject JNICALL Java_tkrzw_File_transferTo
+(JNIEnv* env, jobject jself, jlong off, jlong size, jobject jdest, jlong dest_off) {
+  tkrzw::PolyFile* file = GetFile(env, jself);
+  if (file == nullptr) {
+    ThrowIllegalArgument(env, "not opened file");
+    return nullptr;
+  }
+  if (jdest == nullptr) {
+    ThrowNullPointer(env);
+    return nullptr;
+  }
+  tkrzw::PolyFile* dest = GetFile(env, jdest);
+  if (dest == nullptr) {
+    ThrowIllegalArgument(env, "not opened file");
+    return nullptr;
+  }
+  if (off < 0) {
+    ThrowIllegalArgument(env, "invalid offset");
+    return nullptr;
   }
-  jboolean copied = false;
-  jbyte* buf_ptr = env->GetByteArrayElements(jbuf, &copied);
-  if (buf_ptr == nullptr) {
-    ThrowOutOfMemory(env);
-    return -1;
+  const int64_t file_size = file->GetSizeSimple();
+  if (off > file_size) {
+    return NewStatus(env, tkrzw::Status(tkrzw::Status::INFEASIBLE_ERROR, "excessive offset"));
   }
-  int64_t off = 0;
-  const tkrzw::Status status = file->Append((char*)buf_ptr, size, &off);
-  if (copied) {
-    env->ReleaseByteArrayElements(jbuf, buf_ptr, JNI_ABORT);
+  if (size < 0 || size > file_size - off) {
+    size = file_size - off;
   }
-  if (jstatus != nullptr) {
-    SetStatus(env, status, jstatus);
+  int64_t old_size = -1;
+  if (dest_off < 0) {
+    const tkrzw::Status status = dest->Expand(size, &old_size);
+    if (status != tkrzw::Status::SUCCESS) {
+      return NewStatus(env, status);
+    }
+    dest_off = old_size;
+  }
+  constexpr int64_t CHUNK_SIZE = 1LL << 20;
+  std::string buf(std::min<int64_t>(size, CHUNK_SIZE), 0);
+  const bool backward = file == dest && dest_off > off && dest_off < off + size;
+  int64_t done = 0;
+  while (done < size) {
+    const int64_t chunk_size = std::min<int64_t>(size - done, CHUNK_SIZE);
+    const int64_t chunk_off = backward ? size - done - chunk_size : done;
+    tkrzw::Status status = file->Read(off + chunk_off, buf.data(), chunk_size);
+    if (status == tkrzw::Status::SUCCESS) {
+      status = dest->Write(dest_off + chunk_off, buf.data(), chunk_size);
+    }
+    if (status != tkrzw::Status::SUCCESS) {
+      if (old_size >= 0 && dest->GetSizeSimple() == old_size + size) {
+        dest->Truncate(old_size);
+      }
+      return NewStatus(env, status);
+    }
+    done += chunk_size;
   }
-  if (status != tkrzw::Status::SUCCESS) {
-    off = -1;
+  return NewStatus(env, tkrzw::Status(tkrzw::Status::SUCCESS));
+}
+
+// Implementation of File#adviseCache.
+JNIEXPORT jobject JNICALL Java_tkrzw_File_adviseCache
+(JNIEnv* env, jobject jself, jint advice, jlong off, jlong size) {
+  tkrzw::PolyFile* file = GetFile(env, jself);
+  if (file == nullptr) {
+    ThrowIllegalArgument(env, "not opened file");
+    return nullptr;
   }
-  return off;
+  return NewStatus(env, AdviseFileCache(file, advice, off, size));
 }
 
 // Implementation of File#truncate.
@@ -2989,6 +5333,10 @@ JNIEXPORT jobject JNICALL Java_tkrzw_File_truncate
     ThrowIllegalArgument(env, "not opened file");
     return nullptr;
   }
+  if (size < GetMappedRegionEnd(file)) {
+    return NewStatus(env, tkrzw::Status(
+        tkrzw::Status::INFEASIBLE_ERROR, "truncating mapped regions"));
+  }
   const tkrzw::Status status = file->Truncate(size);
   return NewStatus(env, status);
 }
@@ -3060,6 +5408,78 @@ JNIEXPORT jobjectArray JNICALL Java_tkrzw_File_search
   return jlines;
 }
 
+// Implementation of File#searchParallel.
+JNIEXPORT jobject JNICALL Java_tkrzw_File_searchParallel
+(JNIEnv* env, jobject jself, jint mode, jbyteArray jpattern, jint capacity, jint num_threads,
+ jint batch_size, jobject jproc) {
+  tkrzw::PolyFile* file = GetFile(env, jself);
+  if (file == nullptr) {
+    ThrowIllegalArgument(env, "not opened file");
+    return nullptr;
+  }
+  if (jpattern == nullptr || jproc == nullptr) {
+    ThrowNullPointer(env);
+    return nullptr;
+  }
+  SoftByteArray pattern(env, jpattern);
+  const TextMatcher matcher(mode, pattern.Get());
+  if (!matcher.GetErrorMessage().empty()) {
+    return NewStatus(env, tkrzw::Status(
+        tkrzw::Status::INVALID_ARGUMENT_ERROR, matcher.GetErrorMessage()));
+  }
+  ParallelLineSearcher searcher(file, &matcher, num_threads);
+  const tkrzw::Status status = searcher.Run(env, jproc, capacity, std::max(batch_size, 1));
+  if (env->ExceptionCheck()) {
+    return nullptr;
+  }
+  return NewStatus(env, status);
+}
+
+// Implementation of File#mapRegion.
+JNIEXPORT jobject JNICALL Java_tkrzw_File_mapRegion
+(JNIEnv* env, jobject jself, jlong off, jlong size, jobject jstatus) {
+  tkrzw::PolyFile* file = GetFile(env, jself);
+  if (file == nullptr) {
+    ThrowIllegalArgument(env, "not opened file");
+    return nullptr;
+  }
+  if (off < 0 || size < 0 || size > INT32_MAX) {
+    ThrowIllegalArgument(env, "invalid size");
+    return nullptr;
+  }
+  auto region = std::make_unique<MappedRegion>(file);
+  const tkrzw::Status status = region->Map(off, size);
+  if (jstatus != nullptr) {
+    SetStatus(env, status, jstatus);
+  }
+  if (status != tkrzw::Status::SUCCESS) {
+    return nullptr;
+  }
+  // The region is released by the cleaner of this buffer, to which derived buffers refer.
+  static char empty[1];
+  const std::string_view data = region->GetData();
+  char* ptr = data.data() == nullptr ? empty : const_cast<char*>(data.data());
+  jobject jbuf = env->NewDirectByteBuffer(ptr, data.size());
+  if (jbuf == nullptr) {
+    return nullptr;
+  }
+  jobject jregion = env->NewObject(cls_file_region, id_file_region_init,
+                                   (jlong)(intptr_t)region.get(), (jlong)region->GetOffset(),
+                                   jbuf);
+  env->DeleteLocalRef(jbuf);
+  if (jregion == nullptr) {
+    return nullptr;
+  }
+  region.release();
+  return jregion;
+}
+
+// Implementation of File.MappedRegion#release.
+JNIEXPORT void JNICALL Java_tkrzw_File_00024MappedRegion_release
+(JNIEnv* env, jclass jcls, jlong ptr) {
+  delete (MappedRegion*)(intptr_t)ptr;
+}
+
 // Implementation of File#toString.
 JNIEXPORT jstring JNICALL Java_tkrzw_File_toString
 (JNIEnv* env, jobject jself) {
@@ -3093,6 +5513,199 @@ JNIEXPORT jstring JNICALL Java_tkrzw_File_toString
   return NewString(env, expr.c_str());
 }
 
+// Implementation of FlatRecordWriter#initialize.
+JNIEXPORT void JNICALL Java_tkrzw_FlatRecordWriter_initialize
+(JNIEnv* env, jobject jself, jobject jfile) {
+  if (jfile == nullptr) {
+    ThrowNullPointer(env);
+    return;
+  }
+  tkrzw::PolyFile* file = GetFile(env, jfile);
+  if (file == nullptr) {
+    ThrowIllegalArgument(env, "not opened file");
+    return;
+  }
+  SetFlatRecordWriter(env, jself, new FlatRecordWriterAdapter(file));
+}
+
+// Implementation of FlatRecordWriter#destruct.
+JNIEXPORT void JNICALL Java_tkrzw_FlatRecordWriter_destruct
+(JNIEnv* env, jobject jself) {
+  FlatRecordWriterAdapter* writer = GetFlatRecordWriter(env, jself);
+  if (writer != nullptr) {
+    delete writer;
+    SetFlatRecordWriter(env, jself, nullptr);
+  }
+}
+
+// Implementation of FlatRecordWriter#write.
+JNIEXPORT jobject JNICALL Java_tkrzw_FlatRecordWriter_write
+(JNIEnv* env, jobject jself, jbyteArray jkey, jbyteArray jvalue) {
+  FlatRecordWriterAdapter* writer = GetFlatRecordWriter(env, jself);
+  if (writer == nullptr) {
+    ThrowIllegalArgument(env, "destructed object");
+    return nullptr;
+  }
+  if (jkey == nullptr || jvalue == nullptr) {
+    ThrowNullPointer(env);
+    return nullptr;
+  }
+  SoftByteArray key(env, jkey);
+  SoftByteArray value(env, jvalue);
+  return NewStatus(env, writer->Write(key.Get(), value.Get()));
+}
+
+// Implementation of FlatRecordWriter#writeMulti.
+JNIEXPORT jobject JNICALL Java_tkrzw_FlatRecordWriter_writeMulti
+(JNIEnv* env, jobject jself, jobjectArray jkeys, jobjectArray jvalues) {
+  FlatRecordWriterAdapter* writer = GetFlatRecordWriter(env, jself);
+  if (writer == nullptr) {
+    ThrowIllegalArgument(env, "destructed object");
+    return nullptr;
+  }
+  if (jkeys == nullptr || jvalues == nullptr) {
+    ThrowNullPointer(env);
+    return nullptr;
+  }
+  const int32_t num_records = env->GetArrayLength(jkeys);
+  if (env->GetArrayLength(jvalues) != num_records) {
+    ThrowIllegalArgument(env, "inconsistent lengths");
+    return nullptr;
+  }
+  tkrzw::Status status(tkrzw::Status::SUCCESS);
+  for (int32_t i = 0; i < num_records && status == tkrzw::Status::SUCCESS; i++) {
+    jbyteArray jkey = (jbyteArray)env->GetObjectArrayElement(jkeys, i);
+    jbyteArray jvalue = (jbyteArray)env->GetObjectArrayElement(jvalues, i);
+    if (jkey == nullptr || jvalue == nullptr) {
+      ThrowNullPointer(env);
+      return nullptr;
+    }
+    {
+      SoftByteArray key(env, jkey);
+      SoftByteArray value(env, jvalue);
+      status = writer->Write(key.Get(), value.Get());
+    }
+    env->DeleteLocalRef(jvalue);
+    env->DeleteLocalRef(jkey);
+  }
+  return NewStatus(env, status);
+}
+
+// Implementation of FlatRecordWriter#toString.
+JNIEXPORT jstring JNICALL Java_tkrzw_FlatRecordWriter_toString
+(JNIEnv* env, jobject jself) {
+  FlatRecordWriterAdapter* writer = GetFlatRecordWriter(env, jself);
+  std::string expr = "tkrzw.FlatRecordWriter(";
+  if (writer == nullptr) {
+    expr += "destructed";
+  } else {
+    expr += tkrzw::SPrintF("%p", writer);
+  }
+  expr += ")";
+  return NewString(env, expr.c_str());
+}
+
+// Implementation of FlatRecordReader#initialize.
+JNIEXPORT void JNICALL Java_tkrzw_FlatRecordReader_initialize
+(JNIEnv* env, jobject jself, jobject jfile, jint buffer_size) {
+  if (jfile == nullptr) {
+    ThrowNullPointer(env);
+    return;
+  }
+  tkrzw::PolyFile* file = GetFile(env, jfile);
+  if (file == nullptr) {
+    ThrowIllegalArgument(env, "not opened file");
+    return;
+  }
+  SetFlatRecordReader(env, jself, new FlatRecordReaderAdapter(file, buffer_size));
+}
+
+// Implementation of FlatRecordReader#destruct.
+JNIEXPORT void JNICALL Java_tkrzw_FlatRecordReader_destruct
+(JNIEnv* env, jobject jself) {
+  FlatRecordReaderAdapter* reader = GetFlatRecordReader(env, jself);
+  if (reader != nullptr) {
+    delete reader;
+    SetFlatRecordReader(env, jself, nullptr);
+  }
+}
+
+// Implementation of FlatRecordReader#read.
+JNIEXPORT jobjectArray JNICALL Java_tkrzw_FlatRecordReader_read
+(JNIEnv* env, jobject jself, jobject jstatus) {
+  FlatRecordReaderAdapter* reader = GetFlatRecordReader(env, jself);
+  if (reader == nullptr) {
+    ThrowIllegalArgument(env, "destructed object");
+    return nullptr;
+  }
+  std::string key, value;
+  const tkrzw::Status status = reader->Read(&key, &value);
+  if (jstatus != nullptr) {
+    SetStatus(env, status, jstatus);
+  }
+  if (status != tkrzw::Status::SUCCESS) {
+    return nullptr;
+  }
+  jobjectArray jrec = env->NewObjectArray(2, cls_byteary, nullptr);
+  jbyteArray jkey = NewByteArray(env, key);
+  jbyteArray jvalue = NewByteArray(env, value);
+  env->SetObjectArrayElement(jrec, 0, jkey);
+  env->SetObjectArrayElement(jrec, 1, jvalue);
+  env->DeleteLocalRef(jvalue);
+  env->DeleteLocalRef(jkey);
+  return jrec;
+}
+
+// Implementation of FlatRecordReader#readMulti.
+JNIEXPORT jobjectArray JNICALL Java_tkrzw_FlatRecordReader_readMulti
+(JNIEnv* env, jobject jself, jint max_records, jobject jstatus) {
+  FlatRecordReaderAdapter* reader = GetFlatRecordReader(env, jself);
+  if (reader == nullptr) {
+    ThrowIllegalArgument(env, "destructed object");
+    return nullptr;
+  }
+  std::vector<std::pair<std::string, std::string>> records;
+  tkrzw::Status status(tkrzw::Status::SUCCESS);
+  std::string key, value;
+  while (max_records < 1 || static_cast<int64_t>(records.size()) < max_records) {
+    status = reader->Read(&key, &value);
+    if (status != tkrzw::Status::SUCCESS) {
+      break;
+    }
+    records.emplace_back(std::make_pair(key, value));
+  }
+  if (jstatus != nullptr) {
+    SetStatus(env, status, jstatus);
+  }
+  jobjectArray jrecs = env->NewObjectArray(records.size(), cls_bytearyary, nullptr);
+  for (size_t i = 0; i < records.size(); i++) {
+    jobjectArray jrec = env->NewObjectArray(2, cls_byteary, nullptr);
+    jbyteArray jkey = NewByteArray(env, records[i].first);
+    jbyteArray jvalue = NewByteArray(env, records[i].second);
+    env->SetObjectArrayElement(jrec, 0, jkey);
+    env->SetObjectArrayElement(jrec, 1, jvalue);
+    env->SetObjectArrayElement(jrecs, i, jrec);
+    env->DeleteLocalRef(jvalue);
+    env->DeleteLocalRef(jkey);
+    env->DeleteLocalRef(jrec);
+  }
+  return jrecs;
+}
+
+// Implementation of FlatRecordReader#toString.
+JNIEXPORT jstring JNICALL Java_tkrzw_FlatRecordReader_toString
+(JNIEnv* env, jobject jself) {
+  FlatRecordReaderAdapter* reader = GetFlatRecordReader(env, jself);
+  std::string expr = "tkrzw.FlatRecordReader(";
+  if (reader == nullptr) {
+    expr += "destructed";
+  } else {
+    expr += tkrzw::SPrintF("%p", reader);
+  }
+  expr += ")";
+  return NewString(env, expr.c_str());
+}
+
 // Implementation of Index#initialize.
 JNIEXPORT void JNICALL Java_tkrzw_Index_initialize
 (JNIEnv* env, jobject jself){
@@ -3136,80 +5749,405 @@ JNIEXPORT jobject JNICALL Java_tkrzw_Index_open
   if (tkrzw::StrToBool(tkrzw::SearchMap(params, "no_wait", "false"))) {
     open_options |= tkrzw::File::OPEN_NO_WAIT;
   }
-  if (tkrzw::StrToBool(tkrzw::SearchMap(params, "no_lock", "false"))) {
-    open_options |= tkrzw::File::OPEN_NO_LOCK;
+  if (tkrzw::StrToBool(tkrzw::SearchMap(params, "no_lock", "false"))) {
+    open_options |= tkrzw::File::OPEN_NO_LOCK;
+  }
+  if (tkrzw::StrToBool(tkrzw::SearchMap(params, "sync_hard", "false"))) {
+    open_options |= tkrzw::File::OPEN_SYNC_HARD;
+  }
+  params.erase("truncate");
+  params.erase("no_create");
+  params.erase("no_wait");
+  params.erase("no_lock");
+  params.erase("sync_hard");
+  index = new tkrzw::PolyIndex();
+  const tkrzw::Status status = index->Open(path.Get(), writable, open_options, params);
+  if (status == tkrzw::Status::SUCCESS) {
+    SetIndex(env, jself, index);
+  } else {
+    delete index;
+  }
+  return NewStatus(env, status);
+}
+
+// Implementation of Index#close.
+JNIEXPORT jobject JNICALL Java_tkrzw_Index_close
+(JNIEnv* env, jobject jself) {
+  tkrzw::PolyIndex* index = GetIndex(env, jself);
+  if (index == nullptr) {
+    ThrowIllegalArgument(env, "not opened index");
+    return nullptr;
+  }
+  const tkrzw::Status status = index->Close();
+  delete index;
+  SetIndex(env, jself, nullptr);
+  return NewStatus(env, status);
+}
+
+// Implementation of Index#contains.
+JNIEXPORT jboolean JNICALL Java_tkrzw_Index_contains
+(JNIEnv* env, jobject jself, jbyteArray jkey, jbyteArray jvalue) {
+  tkrzw::PolyIndex* index = GetIndex(env, jself);
+  if (index == nullptr) {
+    ThrowIllegalArgument(env, "not opened index");
+    return false;
+  }
+  if (jkey == nullptr || jvalue == nullptr) {
+    ThrowNullPointer(env);
+    return false;
+  }
+  SoftByteArray key(env, jkey);
+  SoftByteArray value(env, jvalue);
+  return index->Check(key.Get(), value.Get());
+}
+
+// Implementation of Index#getValues.
+JNIEXPORT jobjectArray JNICALL Java_tkrzw_Index_getValues
+(JNIEnv* env, jobject jself, jbyteArray jkey, jint max) {
+  tkrzw::PolyIndex* index = GetIndex(env, jself);
+  if (index == nullptr) {
+    ThrowIllegalArgument(env, "not opened index");
+    return nullptr;
+  }
+  if (jkey == nullptr) {
+    ThrowNullPointer(env);
+    return nullptr;
+  }
+  SoftByteArray key(env, jkey);
+  const auto& values = index->GetValues(key.Get(), max);
+  jobjectArray jvalues = env->NewObjectArray(values.size(), cls_byteary, nullptr);
+  for (size_t i = 0; i < values.size(); i++) {
+    jbyteArray jvalue = NewByteArray(env, values[i]);
+    env->SetObjectArrayElement(jvalues, i, jvalue);
+  }
+  return jvalues;
+}
+
+// Implementation of Index#getValuesAfter.
+JNIEXPORT jobjectArray JNICALL Java_tkrzw_Index_getValuesAfter
+(JNIEnv* env, jobject jself, jbyteArray jkey, jbyteArray jstartafter, jint max) {
+  tkrzw::PolyIndex* index = GetIndex(env, jself);
+  if (index == nullptr) {
+    ThrowIllegalArgument(env, "not opened index");
+    return nullptr;
+  }
+  if (jkey == nullptr) {
+    ThrowNullPointer(env);
+    return nullptr;
+  }
+  SoftByteArray key(env, jkey);
+  std::string start_after;
+  if (jstartafter != nullptr) {
+    SoftByteArray start_after_data(env, jstartafter);
+    start_after = start_after_data.Get();
+  }
+  std::vector<std::string> values;
+  auto iter = index->MakeIterator();
+  iter->Jump(key.Get(), start_after);
+  std::string rec_key, rec_value;
+  while ((max < 1 || static_cast<int64_t>(values.size()) < max) &&
+         iter->Get(&rec_key, &rec_value)) {
+    if (rec_key != key.Get()) {
+      break;
+    }
+    if (jstartafter == nullptr || rec_value != start_after) {
+      values.emplace_back(std::move(rec_value));
+    }
+    iter->Next();
+  }
+  jobjectArray jvalues = env->NewObjectArray(values.size(), cls_byteary, nullptr);
+  for (size_t i = 0; i < values.size(); i++) {
+    jbyteArray jvalue = NewByteArray(env, values[i]);
+    env->SetObjectArrayElement(jvalues, i, jvalue);
+    env->DeleteLocalRef(jvalue);
+  }
+  return jvalues;
+}
+
+// Mapper of index records to positions in [0, 1) in the lexical order.  Bytes after the common
+// prefix of the samples are regarded as digits whose radix is the range of the sampled bytes.
+class IndexRecordPositioner final {
+ public:
+  static constexpr size_t NUM_DIGITS = 6;
+
+  IndexRecordPositioner(const std::vector<std::string>& samples) {
+    const std::string& first = samples.front();
+    while (prefix_size_ < first.size()) {
+      bool common = true;
+      for (const auto& sample : samples) {
+        if (prefix_size_ >= sample.size() || sample[prefix_size_] != first[prefix_size_]) {
+          common = false;
+          break;
+        }
+      }
+      if (!common) {
+        break;
+      }
+      prefix_size_++;
+    }
+    for (size_t i = 0; i < NUM_DIGITS; i++) {
+      lows_[i] = UINT8_MAX;
+      highs_[i] = 0;
+      for (const auto& sample : samples) {
+        const uint8_t c = GetDigit(sample, i);
+        lows_[i] = std::min(lows_[i], c);
+        highs_[i] = std::max(highs_[i], c);
+      }
+    }
   }
-  if (tkrzw::StrToBool(tkrzw::SearchMap(params, "sync_hard", "false"))) {
-    open_options |= tkrzw::File::OPEN_SYNC_HARD;
+
+  double GetPosition(const std::string& expr) const {
+    double pos = 0;
+    double scale = 1.0;
+    for (size_t i = 0; i < NUM_DIGITS; i++) {
+      scale /= highs_[i] - lows_[i] + 1;
+      const uint8_t c = std::min(std::max(GetDigit(expr, i), lows_[i]), highs_[i]);
+      pos += (c - lows_[i]) * scale;
+    }
+    return pos;
   }
-  params.erase("truncate");
-  params.erase("no_create");
-  params.erase("no_wait");
-  params.erase("no_lock");
-  params.erase("sync_hard");
-  index = new tkrzw::PolyIndex();
-  const tkrzw::Status status = index->Open(path.Get(), writable, open_options, params);
-  if (status == tkrzw::Status::SUCCESS) {
-    SetIndex(env, jself, index);
-  } else {
-    delete index;
+
+ private:
+  uint8_t GetDigit(const std::string& expr, size_t index) const {
+    const size_t off = prefix_size_ + index;
+    return off < expr.size() ? static_cast<uint8_t>(expr[off]) : 0;
   }
-  return NewStatus(env, status);
-}
 
-// Implementation of Index#close.
-JNIEXPORT jobject JNICALL Java_tkrzw_Index_close
-(JNIEnv* env, jobject jself) {
+  size_t prefix_size_ = 0;
+  uint8_t lows_[NUM_DIGITS];
+  uint8_t highs_[NUM_DIGITS];
+};
+
+// Counts the index records from the position of an iterator while the key is in range.  If
+// the sample size is positive, the count is estimated when there are more records than twice
+// of it.  Then, the first records and the last records before the end position are read and
+// the count is interpolated by their density in the lexical order.
+static int64_t CountIndexRecords(
+    tkrzw::PolyIndex* index, tkrzw::PolyIndex::Iterator* iter,
+    const std::function<bool(const std::string&)>& in_range,
+    const std::function<void(tkrzw::PolyIndex::Iterator*)>& seek_end, int32_t sample_size) {
+  std::string rec_key, rec_value;
+  if (sample_size < 1) {
+    int64_t count = 0;
+    while (iter->Get(&rec_key) && in_range(rec_key)) {
+      count++;
+      iter->Next();
+    }
+    return count;
+  }
+  sample_size = std::max(sample_size, 2);
+  std::vector<std::string> head;
+  while (static_cast<int32_t>(head.size()) < sample_size * 2 &&
+         iter->Get(&rec_key, &rec_value) && in_range(rec_key)) {
+    head.emplace_back(rec_key + std::string(1, '\0') + rec_value);
+    iter->Next();
+  }
+  if (!iter->Get(&rec_key) || !in_range(rec_key)) {
+    return head.size();
+  }
+  const int64_t lower_bound = head.size() + 1;
+  head.resize(sample_size);
+  auto tail_iter = index->MakeIterator();
+  seek_end(tail_iter.get());
+  std::vector<std::string> tail;
+  while (static_cast<int32_t>(tail.size()) < sample_size &&
+         tail_iter->Get(&rec_key, &rec_value) && in_range(rec_key)) {
+    tail.emplace_back(rec_key + std::string(1, '\0') + rec_value);
+    tail_iter->Previous();
+  }
+  if (static_cast<int32_t>(tail.size()) < sample_size) {
+    return lower_bound;
+  }
+  std::vector<std::string> samples = head;
+  samples.insert(samples.end(), tail.begin(), tail.end());
+  const IndexRecordPositioner positioner(samples);
+  const double first_pos = positioner.GetPosition(head.front());
+  const double head_end_pos = positioner.GetPosition(head.back());
+  const double tail_begin_pos = positioner.GetPosition(tail.back());
+  const double last_pos = positioner.GetPosition(tail.front());
+  const double sample_span = (head_end_pos - first_pos) + (last_pos - tail_begin_pos);
+  if (sample_span <= 0) {
+    return lower_bound;
+  }
+  const double estimated = 1 + (last_pos - first_pos) * (sample_size - 1) * 2 / sample_span;
+  const int64_t max_count = index->Count();
+  return std::max(lower_bound, std::min(max_count, static_cast<int64_t>(estimated + 0.5)));
+}
+
+// Counts the values of a key of an index, for Index#countValues etc.
+static jlong CountIndexValues(JNIEnv* env, jobject jself, jbyteArray jkey, int32_t sample_size) {
   tkrzw::PolyIndex* index = GetIndex(env, jself);
   if (index == nullptr) {
     ThrowIllegalArgument(env, "not opened index");
-    return nullptr;
+    return -1;
   }
-  const tkrzw::Status status = index->Close();
-  delete index;
-  SetIndex(env, jself, nullptr);
-  return NewStatus(env, status);
+  if (jkey == nullptr) {
+    ThrowNullPointer(env);
+    return -1;
+  }
+  SoftByteArray key_data(env, jkey);
+  const std::string key(key_data.Get());
+  const IndexValueComparator comp(index);
+  if (!comp.IsLexical()) {
+    sample_size = 0;
+  }
+  auto in_range = [&](const std::string& rec_key) {
+    return rec_key == key;
+  };
+  auto seek_end = [&](tkrzw::PolyIndex::Iterator* tail_iter) {
+    tail_iter->Jump(key + std::string(1, '\0'), "");
+    if (tail_iter->Get()) {
+      tail_iter->Previous();
+    } else {
+      tail_iter->Last();
+    }
+  };
+  auto iter = index->MakeIterator();
+  iter->Jump(key, "");
+  return CountIndexRecords(index, iter.get(), in_range, seek_end, sample_size);
 }
 
-// Implementation of Index#contains.
-JNIEXPORT jboolean JNICALL Java_tkrzw_Index_contains
-(JNIEnv* env, jobject jself, jbyteArray jkey, jbyteArray jvalue) {
+// Counts the records in a key range of an index, for Index#countRange etc.
+static jlong CountIndexRange(JNIEnv* env, jobject jself, jbyteArray jlowkey,
+                             jbyteArray jhighkey, int32_t sample_size) {
   tkrzw::PolyIndex* index = GetIndex(env, jself);
   if (index == nullptr) {
     ThrowIllegalArgument(env, "not opened index");
-    return false;
+    return -1;
   }
-  if (jkey == nullptr || jvalue == nullptr) {
-    ThrowNullPointer(env);
-    return false;
+  std::string low_key, high_key;
+  if (jlowkey != nullptr) {
+    SoftByteArray low_key_data(env, jlowkey);
+    low_key = low_key_data.Get();
   }
-  SoftByteArray key(env, jkey);
-  SoftByteArray value(env, jvalue);
-  return index->Check(key.Get(), value.Get());
+  if (jhighkey != nullptr) {
+    SoftByteArray high_key_data(env, jhighkey);
+    high_key = high_key_data.Get();
+  }
+  const IndexValueComparator comp(index);
+  if (!comp.IsLexical()) {
+    sample_size = 0;
+  }
+  auto in_range = [&](const std::string& rec_key) {
+    return jhighkey == nullptr || comp.CompareKeys(rec_key, high_key) < 0;
+  };
+  auto seek_end = [&](tkrzw::PolyIndex::Iterator* tail_iter) {
+    if (jhighkey != nullptr) {
+      tail_iter->Jump(high_key, "");
+      if (tail_iter->Get()) {
+        tail_iter->Previous();
+        return;
+      }
+    }
+    tail_iter->Last();
+  };
+  auto iter = index->MakeIterator();
+  if (jlowkey == nullptr) {
+    iter->First();
+  } else {
+    iter->Jump(low_key, "");
+  }
+  return CountIndexRecords(index, iter.get(), in_range, seek_end, sample_size);
 }
 
-// Implementation of Index#getValues.
-JNIEXPORT jobjectArray JNICALL Java_tkrzw_Index_getValues
-(JNIEnv* env, jobject jself, jbyteArray jkey, jint max) {
+// Gets strings of the elements of a Java byte array array.  Null elements throw an exception.
+static std::vector<std::string> JByteArrayArrayToCStrVector(JNIEnv* env, jobjectArray jarrays) {
+  std::vector<std::string> strs;
+  const int32_t num_elems = env->GetArrayLength(jarrays);
+  strs.reserve(num_elems);
+  for (int32_t i = 0; i < num_elems; i++) {
+    jbyteArray jarray = (jbyteArray)env->GetObjectArrayElement(jarrays, i);
+    if (jarray == nullptr) {
+      ThrowNullPointer(env);
+      return std::vector<std::string>();
+    }
+    {
+      SoftByteArray array(env, jarray);
+      strs.emplace_back(array.Get());
+    }
+    env->DeleteLocalRef(jarray);
+  }
+  return strs;
+}
+
+// Runs a set operation over the values of keys of an index, for Index#intersect etc.
+static jobjectArray RunIndexValueSetOperation(
+    JNIEnv* env, jobject jself, jobjectArray jkeys, jobjectArray jexcludedkeys, jint limit,
+    bool is_union) {
   tkrzw::PolyIndex* index = GetIndex(env, jself);
   if (index == nullptr) {
     ThrowIllegalArgument(env, "not opened index");
     return nullptr;
   }
-  if (jkey == nullptr) {
+  if (jkeys == nullptr) {
     ThrowNullPointer(env);
     return nullptr;
   }
-  SoftByteArray key(env, jkey);
-  const auto& values = index->GetValues(key.Get(), max);
+  const std::vector<std::string> keys = JByteArrayArrayToCStrVector(env, jkeys);
+  std::vector<std::string> excluded_keys;
+  if (jexcludedkeys != nullptr) {
+    excluded_keys = JByteArrayArrayToCStrVector(env, jexcludedkeys);
+  }
+  if (env->ExceptionCheck()) {
+    return nullptr;
+  }
+  IndexValueSetOperation op(index, keys, excluded_keys);
+  const std::vector<std::string> values = is_union ? op.Union(limit) : op.Intersect(limit);
   jobjectArray jvalues = env->NewObjectArray(values.size(), cls_byteary, nullptr);
   for (size_t i = 0; i < values.size(); i++) {
     jbyteArray jvalue = NewByteArray(env, values[i]);
     env->SetObjectArrayElement(jvalues, i, jvalue);
+    env->DeleteLocalRef(jvalue);
   }
   return jvalues;
 }
 
+// Implementation of Index#intersect.
+JNIEXPORT jobjectArray JNICALL Java_tkrzw_Index_intersect
+(JNIEnv* env, jobject jself, jobjectArray jkeys, jint limit) {
+  return RunIndexValueSetOperation(env, jself, jkeys, nullptr, limit, false);
+}
+
+// Implementation of Index#union.
+JNIEXPORT jobjectArray JNICALL Java_tkrzw_Index_union
+(JNIEnv* env, jobject jself, jobjectArray jkeys, jint limit) {
+  return RunIndexValueSetOperation(env, jself, jkeys, nullptr, limit, true);
+}
+
+// Implementation of Index#difference.
+JNIEXPORT jobjectArray JNICALL Java_tkrzw_Index_difference
+(JNIEnv* env, jobject jself, jobjectArray jkeys, jobjectArray jexcludedkeys, jint limit) {
+  if (jexcludedkeys == nullptr) {
+    ThrowNullPointer(env);
+    return nullptr;
+  }
+  return RunIndexValueSetOperation(env, jself, jkeys, jexcludedkeys, limit, false);
+}
+
+// Implementation of Index#countValues.
+JNIEXPORT jlong JNICALL Java_tkrzw_Index_countValues
+(JNIEnv* env, jobject jself, jbyteArray jkey) {
+  return CountIndexValues(env, jself, jkey, 0);
+}
+
+// Implementation of Index#countValuesApprox.
+JNIEXPORT jlong JNICALL Java_tkrzw_Index_countValuesApprox
+(JNIEnv* env, jobject jself, jbyteArray jkey, jint sample_size) {
+  return CountIndexValues(env, jself, jkey, std::max(sample_size, 2));
+}
+
+// Implementation of Index#countRange.
+JNIEXPORT jlong JNICALL Java_tkrzw_Index_countRange
+(JNIEnv* env, jobject jself, jbyteArray jlowkey, jbyteArray jhighkey) {
+  return CountIndexRange(env, jself, jlowkey, jhighkey, 0);
+}
+
+// Implementation of Index#countRangeApprox.
+JNIEXPORT jlong JNICALL Java_tkrzw_Index_countRangeApprox
+(JNIEnv* env, jobject jself, jbyteArray jlowkey, jbyteArray jhighkey, jint sample_size) {
+  return CountIndexRange(env, jself, jlowkey, jhighkey, std::max(sample_size, 2));
+}
+
 // Implementation of Index#add.
 JNIEXPORT jobject JNICALL Java_tkrzw_Index_add
 (JNIEnv* env, jobject jself, jbyteArray jkey, jbyteArray jvalue) {
@@ -3246,6 +6184,123 @@ JNIEXPORT jobject JNICALL Java_tkrzw_Index_remove
   return NewStatus(env, status);
 }
 
+// Adds or removes index records at once, in the order of the internal database.
+static tkrzw::Status UpdateIndexMulti(
+    tkrzw::PolyIndex* index, std::vector<std::pair<std::string_view, std::string_view>>* records,
+    bool removing) {
+  const tkrzw::DBM* dbm = index->GetInternalDBM();
+  if (dbm != nullptr && dbm->IsOrdered()) {
+    std::sort(records->begin(), records->end());
+  }
+  tkrzw::Status status(tkrzw::Status::SUCCESS);
+  for (const auto& record : *records) {
+    if (removing) {
+      const tkrzw::Status rv = index->Remove(record.first, record.second);
+      if (rv == tkrzw::Status::NOT_FOUND_ERROR) {
+        status = rv;
+      } else if (rv != tkrzw::Status::SUCCESS) {
+        return rv;
+      }
+    } else {
+      status = index->Add(record.first, record.second);
+      if (status != tkrzw::Status::SUCCESS) {
+        break;
+      }
+    }
+  }
+  return status;
+}
+
+// Adds or removes index records given as Java arrays.
+static jobject UpdateIndexMultiArrays(
+    JNIEnv* env, jobject jself, jobjectArray jkeys, jobjectArray jvalues, bool removing) {
+  tkrzw::PolyIndex* index = GetIndex(env, jself);
+  if (index == nullptr) {
+    ThrowIllegalArgument(env, "not opened index");
+    return nullptr;
+  }
+  if (jkeys == nullptr || jvalues == nullptr) {
+    ThrowNullPointer(env);
+    return nullptr;
+  }
+  const int32_t num_records = env->GetArrayLength(jkeys);
+  if (env->GetArrayLength(jvalues) != num_records) {
+    ThrowIllegalArgument(env, "inconsistent lengths");
+    return nullptr;
+  }
+  std::vector<std::string> data;
+  data.reserve(num_records * 2);
+  for (int32_t i = 0; i < num_records; i++) {
+    jbyteArray jkey = (jbyteArray)env->GetObjectArrayElement(jkeys, i);
+    jbyteArray jvalue = (jbyteArray)env->GetObjectArrayElement(jvalues, i);
+    if (jkey == nullptr || jvalue == nullptr) {
+      ThrowNullPointer(env);
+      return nullptr;
+    }
+    {
+      SoftByteArray key(env, jkey);
+      SoftByteArray value(env, jvalue);
+      data.emplace_back(key.Get());
+      data.emplace_back(value.Get());
+    }
+    env->DeleteLocalRef(jvalue);
+    env->DeleteLocalRef(jkey);
+  }
+  std::vector<std::pair<std::string_view, std::string_view>> records;
+  records.reserve(num_records);
+  for (int32_t i = 0; i < num_records; i++) {
+    records.emplace_back(std::make_pair(data[i * 2], data[i * 2 + 1]));
+  }
+  return NewStatus(env, UpdateIndexMulti(index, &records, removing));
+}
+
+// Implementation of Index#addMulti.
+JNIEXPORT jobject JNICALL Java_tkrzw_Index_addMulti
+(JNIEnv* env, jobject jself, jobjectArray jkeys, jobjectArray jvalues) {
+  return UpdateIndexMultiArrays(env, jself, jkeys, jvalues, false);
+}
+
+// Implementation of Index#removeMulti.
+JNIEXPORT jobject JNICALL Java_tkrzw_Index_removeMulti
+(JNIEnv* env, jobject jself, jobjectArray jkeys, jobjectArray jvalues) {
+  return UpdateIndexMultiArrays(env, jself, jkeys, jvalues, true);
+}
+
+// Implementation of Index#updatePackedDirect.
+JNIEXPORT jobject JNICALL Java_tkrzw_Index_updatePackedDirect
+(JNIEnv* env, jobject jself, jobject jbuf, jint buf_off, jint size, jboolean removing) {
+  tkrzw::PolyIndex* index = GetIndex(env, jself);
+  if (index == nullptr) {
+    ThrowIllegalArgument(env, "not opened index");
+    return nullptr;
+  }
+  const char* buf_ptr = GetDirectBufferRegion(env, jbuf, buf_off, size);
+  if (buf_ptr == nullptr) {
+    return nullptr;
+  }
+  std::vector<std::pair<std::string_view, std::string_view>> records;
+  std::string_view rest(buf_ptr, size);
+  while (!rest.empty()) {
+    std::string_view fields[2];
+    for (auto& field : fields) {
+      if (rest.size() < sizeof(int32_t)) {
+        ThrowIllegalArgument(env, "broken packed data");
+        return nullptr;
+      }
+      const uint64_t field_size = tkrzw::StrToIntBigEndian(rest.substr(0, sizeof(int32_t)));
+      rest.remove_prefix(sizeof(int32_t));
+      if (field_size > rest.size()) {
+        ThrowIllegalArgument(env, "broken packed data");
+        return nullptr;
+      }
+      field = rest.substr(0, field_size);
+      rest.remove_prefix(field_size);
+    }
+    records.emplace_back(std::make_pair(fields[0], fields[1]));
+  }
+  return NewStatus(env, UpdateIndexMulti(index, &records, removing));
+}
+
 // Implementation of Index#count.
 JNIEXPORT jlong JNICALL Java_tkrzw_Index_count
 (JNIEnv* env, jobject jself) {
@@ -3455,6 +6510,41 @@ JNIEXPORT jobjectArray JNICALL Java_tkrzw_IndexIterator_get
   return nullptr;
 }
 
+// Implementation of IndexIterator#scanPrefix.
+JNIEXPORT jobjectArray JNICALL Java_tkrzw_IndexIterator_scanPrefix
+(JNIEnv* env, jobject jself, jbyteArray jprefix, jint max) {
+  tkrzw::PolyIndex::Iterator* iter = GetIndexIter(env, jself);
+  if (iter == nullptr) {
+    ThrowNullPointer(env);
+    return nullptr;
+  }
+  if (jprefix == nullptr) {
+    ThrowNullPointer(env);
+    return nullptr;
+  }
+  SoftByteArray prefix(env, jprefix);
+  std::vector<std::pair<std::string, std::string>> records;
+  std::string key, value;
+  while ((max < 1 || static_cast<int64_t>(records.size()) < max) &&
+         iter->Get(&key, &value) && tkrzw::StrBeginsWith(key, prefix.Get())) {
+    records.emplace_back(std::make_pair(std::move(key), std::move(value)));
+    iter->Next();
+  }
+  jobjectArray jrecs = env->NewObjectArray(records.size(), cls_bytearyary, nullptr);
+  for (size_t i = 0; i < records.size(); i++) {
+    jobjectArray jrec = env->NewObjectArray(2, cls_byteary, nullptr);
+    jbyteArray jkey = NewByteArray(env, records[i].first);
+    jbyteArray jvalue = NewByteArray(env, records[i].second);
+    env->SetObjectArrayElement(jrec, 0, jkey);
+    env->SetObjectArrayElement(jrec, 1, jvalue);
+    env->SetObjectArrayElement(jrecs, i, jrec);
+    env->DeleteLocalRef(jvalue);
+    env->DeleteLocalRef(jkey);
+    env->DeleteLocalRef(jrec);
+  }
+  return jrecs;
+}
+
 // Implementation of IndexIterator#toString.
 JNIEXPORT jstring JNICALL Java_tkrzw_IndexIterator_toString
 (JNIEnv* env, jobject jself) {
@@ -3473,4 +6563,172 @@ JNIEXPORT jstring JNICALL Java_tkrzw_IndexIterator_toString
   return NewString(env, expr.c_str());
 }
 
+// Implementation of IndexLoader#initialize.
+JNIEXPORT void JNICALL Java_tkrzw_IndexLoader_initialize
+(JNIEnv* env, jobject jself, jobject jindex, jstring jtmpdirpath, jlong max_memory_size) {
+  if (jindex == nullptr || jtmpdirpath == nullptr) {
+    ThrowNullPointer(env);
+    return;
+  }
+  tkrzw::PolyIndex* index = GetIndex(env, jindex);
+  if (index == nullptr) {
+    ThrowIllegalArgument(env, "not opened index");
+    return;
+  }
+  SoftString tmp_dir_path(env, jtmpdirpath);
+  SetIndexLoader(env, jself, new IndexLoaderAdapter(index, tmp_dir_path.Get(), max_memory_size));
+}
+
+// Implementation of IndexLoader#destruct.
+JNIEXPORT void JNICALL Java_tkrzw_IndexLoader_destruct
+(JNIEnv* env, jobject jself) {
+  IndexLoaderAdapter* loader = GetIndexLoader(env, jself);
+  if (loader != nullptr) {
+    delete loader;
+    SetIndexLoader(env, jself, nullptr);
+  }
+}
+
+// Implementation of IndexLoader#add.
+JNIEXPORT jobject JNICALL Java_tkrzw_IndexLoader_add
+(JNIEnv* env, jobject jself, jbyteArray jkey, jbyteArray jvalue) {
+  IndexLoaderAdapter* loader = GetIndexLoader(env, jself);
+  if (loader == nullptr) {
+    ThrowIllegalArgument(env, "destructed object");
+    return nullptr;
+  }
+  if (jkey == nullptr || jvalue == nullptr) {
+    ThrowNullPointer(env);
+    return nullptr;
+  }
+  SoftByteArray key(env, jkey);
+  SoftByteArray value(env, jvalue);
+  return NewStatus(env, loader->Add(key.Get(), value.Get()));
+}
+
+// Implementation of IndexLoader#addMulti.
+JNIEXPORT jobject JNICALL Java_tkrzw_IndexLoader_addMulti
+(JNIEnv* env, jobject jself, jobjectArray jkeys, jobjectArray jvalues) {
+  IndexLoaderAdapter* loader = GetIndexLoader(env, jself);
+  if (loader == nullptr) {
+    ThrowIllegalArgument(env, "destructed object");
+    return nullptr;
+  }
+  if (jkeys == nullptr || jvalues == nullptr) {
+    ThrowNullPointer(env);
+    return nullptr;
+  }
+  const int32_t num_records = env->GetArrayLength(jkeys);
+  if (env->GetArrayLength(jvalues) != num_records) {
+    ThrowIllegalArgument(env, "inconsistent lengths");
+    return nullptr;
+  }
+  tkrzw::Status status(tkrzw::Status::SUCCESS);
+  for (int32_t i = 0; status == tkrzw::Status::SUCCESS && i < num_records; i++) {
+    jbyteArray jkey = (jbyteArray)env->GetObjectArrayElement(jkeys, i);
+    jbyteArray jvalue = (jbyteArray)env->GetObjectArrayElement(jvalues, i);
+    if (jkey == nullptr || jvalue == nullptr) {
+      ThrowNullPointer(env);
+      return nullptr;
+    }
+    {
+      SoftByteArray key(env, jkey);
+      SoftByteArray value(env, jvalue);
+      status = loader->Add(key.Get(), value.Get());
+    }
+    env->DeleteLocalRef(jvalue);
+    env->DeleteLocalRef(jkey);
+  }
+  return NewStatus(env, status);
+}
+
+// Implementation of IndexLoader#finish.
+JNIEXPORT jobject JNICALL Java_tkrzw_IndexLoader_finish
+(JNIEnv* env, jobject jself) {
+  IndexLoaderAdapter* loader = GetIndexLoader(env, jself);
+  if (loader == nullptr) {
+    ThrowIllegalArgument(env, "destructed object");
+    return nullptr;
+  }
+  return NewStatus(env, loader->Finish());
+}
+
+// Implementation of IndexLoader#count.
+JNIEXPORT jlong JNICALL Java_tkrzw_IndexLoader_count
+(JNIEnv* env, jobject jself) {
+  IndexLoaderAdapter* loader = GetIndexLoader(env, jself);
+  if (loader == nullptr) {
+    ThrowIllegalArgument(env, "destructed object");
+    return -1;
+  }
+  return loader->GetNumRecords();
+}
+
+// Implementation of IndexLoader#getNumSpillFiles.
+JNIEXPORT jint JNICALL Java_tkrzw_IndexLoader_getNumSpillFiles
+(JNIEnv* env, jobject jself) {
+  IndexLoaderAdapter* loader = GetIndexLoader(env, jself);
+  if (loader == nullptr) {
+    ThrowIllegalArgument(env, "destructed object");
+    return -1;
+  }
+  return loader->GetNumRuns();
+}
+
+// Implementation of IndexLoader#toString.
+JNIEXPORT jstring JNICALL Java_tkrzw_IndexLoader_toString
+(JNIEnv* env, jobject jself) {
+  IndexLoaderAdapter* loader = GetIndexLoader(env, jself);
+  std::string expr = "tkrzw.IndexLoader(";
+  if (loader == nullptr) {
+    expr += "destructed";
+  } else {
+    expr += tkrzw::StrCat("count=", loader->GetNumRecords(),
+                          ", spill_files=", loader->GetNumRuns());
+  }
+  expr += ")";
+  return NewString(env, expr.c_str());
+}
+
+// Implementation of RecordOperation#apply.
+JNIEXPORT jbyteArray JNICALL Java_tkrzw_RecordOperation_apply
+(JNIEnv* env, jobject jself, jbyteArray jvalue) {
+  NativeRecordOperation op(env, jself);
+  std::string_view rv;
+  if (jvalue == nullptr) {
+    rv = op.Apply(false, std::string_view());
+  } else {
+    SoftByteArray value(env, jvalue);
+    rv = op.Apply(true, value.Get());
+  }
+  if (op.GetStatus() != tkrzw::Status::SUCCESS) {
+    ThrowIllegalArgument(env, op.GetStatus().GetMessage().c_str());
+    return nullptr;
+  }
+  if (rv.data() == tkrzw::DBM::RecordProcessor::NOOP.data()) {
+    return nullptr;
+  }
+  if (rv.data() == tkrzw::DBM::RecordProcessor::REMOVE.data()) {
+    return (jbyteArray)obj_recproc_remove;
+  }
+  return NewByteArray(env, rv);
+}
+
+// Implementation of RecordFilter#matches.
+JNIEXPORT jboolean JNICALL Java_tkrzw_RecordFilter_matches
+(JNIEnv* env, jobject jself, jbyteArray jkey, jbyteArray jvalue) {
+  if (jkey == nullptr || jvalue == nullptr) {
+    ThrowNullPointer(env);
+    return false;
+  }
+  NativeRecordFilter filter(env, jself);
+  if (!filter.GetErrorMessage().empty()) {
+    ThrowIllegalArgument(env, filter.GetErrorMessage().c_str());
+    return false;
+  }
+  SoftByteArray key(env, jkey);
+  SoftByteArray value(env, jvalue);
+  return filter.MatchKey(key.Get()) && filter.MatchValue(value.Get());
+}
+
 // END OF FILE